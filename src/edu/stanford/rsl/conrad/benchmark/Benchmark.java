@@ -0,0 +1,51 @@
+package edu.stanford.rsl.conrad.benchmark;
+
+/**
+ * A single micro benchmark. The {@link BenchmarkRunner} calls {@link #setUp()} once, then {@link #run()} repeatedly for warm-up and measurement,
+ * and finally {@link #tearDown()}. Only the time spent in run() is measured.
+ * <BR><BR>
+ * run() has to return a value which depends on the computed result, e.g. a sum over the output. The runner consumes the value,
+ * such that the just-in-time compiler cannot remove the computation. The value is also exported as checksum, which allows to detect
+ * changes of the results between releases.
+ *
+ * @author akmaier
+ *
+ */
+public abstract class Benchmark {
+
+	/**
+	 * @return the unique name of the benchmark, used as key in the exported results.
+	 */
+	public abstract String getName();
+
+	/**
+	 * Prepares the data for the benchmark. Not measured.
+	 * @throws Exception may happen.
+	 */
+	public void setUp() throws Exception {
+	}
+
+	/**
+	 * Executes one invocation of the benchmarked operation.
+	 * @return a value which depends on the result.
+	 * @throws Exception may happen.
+	 */
+	public abstract double run() throws Exception;
+
+	/**
+	 * Releases the data of the benchmark. Not measured.
+	 * @throws Exception may happen.
+	 */
+	public void tearDown() throws Exception {
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
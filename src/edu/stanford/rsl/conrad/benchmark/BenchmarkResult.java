@@ -0,0 +1,104 @@
+package edu.stanford.rsl.conrad.benchmark;
+
+import java.util.Locale;
+
+/**
+ * Timing statistics of one benchmark. All times are in milliseconds per invocation of {@link Benchmark#run()}.
+ *
+ * @author akmaier
+ *
+ */
+public class BenchmarkResult {
+
+	private final String name;
+	private final double mean;
+	private final double standardDeviation;
+	private final double minimum;
+	private final int samples;
+	private final double checksum;
+
+	public BenchmarkResult(String name, double mean, double standardDeviation, double minimum, int samples, double checksum) {
+		this.name = name;
+		this.mean = mean;
+		this.standardDeviation = standardDeviation;
+		this.minimum = minimum;
+		this.samples = samples;
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Computes the statistics from the measured times.
+	 * @param name the name of the benchmark
+	 * @param times the times in nanoseconds
+	 * @param checksum the value returned by the last invocation
+	 * @return the result
+	 */
+	public static BenchmarkResult fromNanoseconds(String name, long [] times, double checksum){
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		for (long time : times){
+			sum += time;
+			min = Math.min(min, time);
+		}
+		double mean = sum / times.length;
+		double squares = 0;
+		for (long time : times){
+			squares += (time - mean) * (time - mean);
+		}
+		double stddev = (times.length > 1) ? Math.sqrt(squares / (times.length - 1)) : 0;
+		return new BenchmarkResult(name, mean / 1e6, stddev / 1e6, min / 1e6, times.length, checksum);
+	}
+
+	/**
+	 * Parses a line that was created by {@link #toLine()}.
+	 * @param line the line
+	 * @return the result
+	 */
+	public static BenchmarkResult fromLine(String line){
+		String [] entries = line.split("\t");
+		if (entries.length != 6) throw new IllegalArgumentException("Not a benchmark result: " + line);
+		return new BenchmarkResult(entries[0], Double.parseDouble(entries[1]), Double.parseDouble(entries[2]), Double.parseDouble(entries[3]),
+				Integer.parseInt(entries[4]), Double.parseDouble(entries[5]));
+	}
+
+	/**
+	 * @return a tab-separated line with name, mean, standard deviation, minimum, samples, and checksum.
+	 */
+	public String toLine(){
+		return String.format(Locale.US, "%s\t%.6f\t%.6f\t%.6f\t%d\t%s", name, mean, standardDeviation, minimum, samples, Double.toString(checksum));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getStandardDeviation() {
+		return standardDeviation;
+	}
+
+	public double getMinimum() {
+		return minimum;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public double getChecksum() {
+		return checksum;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "%-40s %12.3f ms +- %10.3f ms (min %12.3f ms, n = %d)", name, mean, standardDeviation, minimum, samples);
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
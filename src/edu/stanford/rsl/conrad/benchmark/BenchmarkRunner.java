@@ -0,0 +1,232 @@
+package edu.stanford.rsl.conrad.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Executes {@link Benchmark}s with warm-up and measurement phases, exports the results, and compares them to the results of an earlier run.
+ * <BR><BR>
+ * Usage: <pre>
+ * java edu.stanford.rsl.conrad.benchmark.BenchmarkRunner [-size n] [-w warmups] [-i iterations] [-o results.txt] [-b baseline.txt] [regex]
+ * </pre>
+ * Runs all benchmarks of {@link HotPathBenchmarks} whose name matches the regular expression. With -o the results are written to a file.
+ * With -b the results are compared to a file of an earlier run and slower benchmarks are reported.
+ * The benchmarks have to be started from the CONRAD directory, as the materials of the analytic phantoms are read from the data folder.
+ *
+ * @author akmaier
+ *
+ */
+public class BenchmarkRunner {
+
+	private int warmupIterations = 5;
+	private int measurementIterations = 10;
+	/**
+	 * relative slow-down which is reported as regression
+	 */
+	private double tolerance = 0.1;
+	private PrintStream out = System.out;
+	/**
+	 * Receives the values of the benchmarks, such that the computations cannot be removed by the compiler.
+	 */
+	private volatile double sink;
+
+	/**
+	 * Runs a single benchmark.
+	 * @param benchmark the benchmark
+	 * @return the timing statistics
+	 * @throws Exception if the benchmark fails
+	 */
+	public BenchmarkResult run(Benchmark benchmark) throws Exception {
+		benchmark.setUp();
+		try {
+			double value = 0;
+			for (int i = 0; i < warmupIterations; i++){
+				value = benchmark.run();
+				sink += value;
+			}
+			long [] times = new long[measurementIterations];
+			for (int i = 0; i < measurementIterations; i++){
+				long start = System.nanoTime();
+				value = benchmark.run();
+				times[i] = System.nanoTime() - start;
+				sink += value;
+			}
+			return BenchmarkResult.fromNanoseconds(benchmark.getName(), times, value);
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * Runs all benchmarks whose name matches the filter. Failing benchmarks are reported and skipped.
+	 * @param benchmarks the benchmarks
+	 * @param filter regular expression or null for all benchmarks
+	 * @return the results
+	 */
+	public List<BenchmarkResult> run(List<Benchmark> benchmarks, String filter){
+		Pattern pattern = (filter != null) ? Pattern.compile(filter) : null;
+		ArrayList<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+		for (Benchmark benchmark : benchmarks){
+			if (pattern != null && !pattern.matcher(benchmark.getName()).find()) continue;
+			try {
+				BenchmarkResult result = run(benchmark);
+				out.println(result);
+				results.add(result);
+			} catch (Exception e){
+				out.println(benchmark.getName() + " failed: " + e.getLocalizedMessage());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Writes the results to a file. Each line contains the tab-separated fields of one result; the header lines start with #.
+	 * @param file the file
+	 * @param results the results
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void writeResults(File file, List<BenchmarkResult> results) throws IOException {
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		writer.println("# CONRAD benchmark results " + new Date());
+		writer.println("# java " + System.getProperty("java.version") + " " + System.getProperty("os.name") + " " + System.getProperty("os.arch")
+				+ " processors " + Runtime.getRuntime().availableProcessors() + " threads " + CONRAD.getNumberOfThreads());
+		writer.println("# name\tmean [ms]\tstddev [ms]\tmin [ms]\tsamples\tchecksum");
+		for (BenchmarkResult result : results){
+			writer.println(result.toLine());
+		}
+		writer.close();
+	}
+
+	/**
+	 * Reads results that were written by {@link #writeResults(File, List)}.
+	 * @param file the file
+	 * @return the results by name
+	 * @throws IOException if the file cannot be read
+	 */
+	public static LinkedHashMap<String, BenchmarkResult> readResults(File file) throws IOException {
+		LinkedHashMap<String, BenchmarkResult> results = new LinkedHashMap<String, BenchmarkResult>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null){
+				if (line.startsWith("#") || line.trim().length() == 0) continue;
+				BenchmarkResult result = BenchmarkResult.fromLine(line);
+				results.put(result.getName(), result);
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	/**
+	 * Compares the results to a baseline. Benchmarks which are slower than the baseline by more than the tolerance are reported as regression.
+	 * The minimum time is compared, as it is least affected by other load on the machine. Changed checksums are reported as well.
+	 * @param baseline the baseline results
+	 * @param results the current results
+	 * @return the number of regressions
+	 */
+	public int compare(LinkedHashMap<String, BenchmarkResult> baseline, List<BenchmarkResult> results){
+		int regressions = 0;
+		for (BenchmarkResult result : results){
+			BenchmarkResult reference = baseline.get(result.getName());
+			if (reference == null) {
+				out.println(String.format(Locale.US, "%-40s new", result.getName()));
+				continue;
+			}
+			double ratio = result.getMinimum() / reference.getMinimum();
+			String status = "";
+			if (ratio > 1 + tolerance) {
+				status = " REGRESSION";
+				regressions++;
+			} else if (ratio < 1 - tolerance) {
+				status = " improved";
+			}
+			if (Math.abs(result.getChecksum() - reference.getChecksum()) > 1e-6 * Math.max(1, Math.abs(reference.getChecksum()))) {
+				status += " (checksum changed: " + reference.getChecksum() + " -> " + result.getChecksum() + ")";
+			}
+			out.println(String.format(Locale.US, "%-40s %12.3f ms -> %12.3f ms (%+.1f %%)%s", result.getName(), reference.getMinimum(), result.getMinimum(), (ratio - 1) * 100, status));
+		}
+		return regressions;
+	}
+
+	public int getWarmupIterations() {
+		return warmupIterations;
+	}
+
+	public void setWarmupIterations(int warmupIterations) {
+		this.warmupIterations = warmupIterations;
+	}
+
+	public int getMeasurementIterations() {
+		return measurementIterations;
+	}
+
+	public void setMeasurementIterations(int measurementIterations) {
+		if (measurementIterations < 1) throw new IllegalArgumentException("At least one measurement is required.");
+		this.measurementIterations = measurementIterations;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		int size = 128;
+		String output = null;
+		String baseline = null;
+		String filter = null;
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("-size")) {
+				size = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-w")) {
+				runner.setWarmupIterations(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-i")) {
+				runner.setMeasurementIterations(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("-o")) {
+				output = args[++i];
+			} else if (args[i].equals("-b")) {
+				baseline = args[++i];
+			} else {
+				filter = args[i];
+			}
+		}
+		List<BenchmarkResult> results = runner.run(HotPathBenchmarks.getBenchmarks(size), filter);
+		if (output != null) {
+			writeResults(new File(output), results);
+		}
+		if (baseline != null) {
+			int regressions = runner.compare(readResults(new File(baseline)), results);
+			System.out.println(regressions + " regression(s) found.");
+			if (regressions > 0) System.exit(1);
+		}
+		System.exit(0);
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,431 @@
+package edu.stanford.rsl.conrad.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.data.numeric.InterpolationOperators;
+import edu.stanford.rsl.conrad.data.numeric.NumericGridOperator;
+import edu.stanford.rsl.conrad.data.numeric.ParallelNumericGridOperator;
+import edu.stanford.rsl.conrad.filtering.rampfilters.RamLakRampFilter;
+import edu.stanford.rsl.conrad.filtering.rampfilters.RampFilter;
+import edu.stanford.rsl.conrad.geometry.Projection.CameraAxisDirection;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.StraightLine;
+import edu.stanford.rsl.conrad.geometry.trajectories.CircularTrajectory;
+import edu.stanford.rsl.conrad.io.FileProjectionSource;
+import edu.stanford.rsl.conrad.numerics.DecompositionSVD;
+import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
+import edu.stanford.rsl.conrad.numerics.SimpleOperators;
+import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.phantom.NumericalSheppLogan3D;
+import edu.stanford.rsl.conrad.phantom.SheppLoganPhantom;
+import edu.stanford.rsl.conrad.physics.PhysicalObject;
+import edu.stanford.rsl.conrad.pipeline.ProjectionSource;
+import edu.stanford.rsl.conrad.reconstruction.CPUForwardProjector;
+import edu.stanford.rsl.conrad.reconstruction.VOIBasedReconstructionFilter;
+import edu.stanford.rsl.conrad.reconstruction.VolumeAccumulationMode;
+import edu.stanford.rsl.conrad.reconstruction.voi.VolumeOfInterest;
+import edu.stanford.rsl.conrad.rendering.AbstractRayTracer;
+import edu.stanford.rsl.conrad.rendering.SimpleRayTracer;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.FFTUtil;
+
+/**
+ * Benchmarks of the performance critical CPU code paths of CONRAD. All data is synthetic and derived from the {@link NumericalSheppLogan3D} phantom
+ * or from random numbers with fixed seeds. Hence, the checksums of the results are reproducible.
+ *
+ * @author akmaier
+ *
+ */
+public class HotPathBenchmarks {
+
+	/**
+	 * Creates the benchmarks.
+	 * @param size edge length of the phantom volume in voxels. The detector has 2 * size x size pixels.
+	 * @return the list of benchmarks
+	 */
+	public static List<Benchmark> getBenchmarks(final int size){
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new BackprojectionBenchmark(size, 1));
+		benchmarks.add(new BackprojectionBenchmark(size, 4));
+		benchmarks.add(new ForwardProjectionBenchmark(size));
+		benchmarks.add(new RampFilterBenchmark(size, false));
+		benchmarks.add(new RampFilterBenchmark(size, true));
+		benchmarks.add(new Benchmark() {
+			Grid3D phantom;
+			double [] coordinates;
+
+			public String getName() {
+				return "InterpolationOperators.interpolateLinear";
+			}
+
+			public void setUp() {
+				phantom = createPhantom(size);
+				Random random = new Random(1);
+				coordinates = new double[3 * 100000];
+				for (int i = 0; i < coordinates.length; i++){
+					coordinates[i] = random.nextDouble() * (size - 1);
+				}
+			}
+
+			public double run() {
+				double sum = 0;
+				for (int i = 0; i < coordinates.length; i += 3){
+					sum += InterpolationOperators.interpolateLinear(phantom, coordinates[i], coordinates[i+1], coordinates[i+2]);
+				}
+				return sum;
+			}
+		});
+		benchmarks.add(new ReductionBenchmark(size, NumericGridOperator.getInstance(), "NumericGridOperator"));
+		benchmarks.add(new ReductionBenchmark(size, ParallelNumericGridOperator.getInstance(), "ParallelNumericGridOperator"));
+		benchmarks.add(new Benchmark() {
+			SimpleMatrix a, b;
+
+			public String getName() {
+				return "SimpleMatrix.multiply";
+			}
+
+			public void setUp() {
+				a = createRandomMatrix(size, 2);
+				b = createRandomMatrix(size, 3);
+			}
+
+			public double run() {
+				return SimpleOperators.multiplyMatrixProd(a, b).getElement(size / 2, size / 3);
+			}
+		});
+		benchmarks.add(new Benchmark() {
+			SimpleMatrix a;
+
+			public String getName() {
+				return "SimpleMatrix.svd";
+			}
+
+			public void setUp() {
+				a = createRandomMatrix(Math.min(size, 64), 4);
+			}
+
+			public double run() {
+				return new DecompositionSVD(a).getSingularValues()[0];
+			}
+		});
+		benchmarks.add(new Benchmark() {
+			AbstractRayTracer tracer;
+			StraightLine [] rays;
+
+			public String getName() {
+				return "SimpleRayTracer.castRay";
+			}
+
+			public void setUp() {
+				tracer = new SimpleRayTracer();
+				tracer.setScene(new SheppLoganPhantom());
+				Random random = new Random(5);
+				rays = new StraightLine[1000];
+				for (int i = 0; i < rays.length; i++){
+					double angle = random.nextDouble() * Math.PI;
+					double y = (random.nextDouble() - 0.5) * 150;
+					double z = (random.nextDouble() - 0.5) * 150;
+					PointND start = new PointND(-200 * Math.cos(angle), -200 * Math.sin(angle) + y, z);
+					PointND end = new PointND(200 * Math.cos(angle), 200 * Math.sin(angle) + y, z);
+					rays[i] = new StraightLine(start, end);
+					rays[i].normalize();
+				}
+			}
+
+			public double run() {
+				double count = 0;
+				for (StraightLine ray : rays){
+					ArrayList<PhysicalObject> segments = tracer.castRay(ray);
+					if (segments != null) count += segments.size();
+				}
+				return count;
+			}
+		});
+		benchmarks.add(new Benchmark() {
+			File file;
+
+			public String getName() {
+				return "FileProjectionSource.read";
+			}
+
+			public void setUp() throws Exception {
+				file = writeProjectionFile(createPhantom(size));
+			}
+
+			public double run() throws Exception {
+				ProjectionSource source = FileProjectionSource.openProjectionStream(file.getPath());
+				double sum = 0;
+				Grid2D projection;
+				while ((projection = source.getNextProjection()) != null){
+					float [] buffer = projection.getBuffer();
+					for (int i = 0; i < buffer.length; i++){
+						sum += buffer[i];
+					}
+				}
+				if (source instanceof FileProjectionSource) ((FileProjectionSource) source).close();
+				return sum;
+			}
+
+			public void tearDown() {
+				file.delete();
+			}
+		});
+		return benchmarks;
+	}
+
+	/**
+	 * Backprojection of a set of projections with the CPU-based VOI backprojector.
+	 */
+	private static class BackprojectionBenchmark extends Benchmark {
+		private final int size;
+		private final int projectionsPerSweep;
+		private Configuration previous;
+		private VOIBasedReconstructionFilter filter;
+		private Grid3D volume;
+		private Grid2D [] projections;
+		private int [] projectionNumbers;
+
+		BackprojectionBenchmark(int size, int projectionsPerSweep){
+			this.size = size;
+			this.projectionsPerSweep = projectionsPerSweep;
+		}
+
+		public String getName() {
+			return "VOIBasedReconstructionFilter.backproject[" + projectionsPerSweep + "]";
+		}
+
+		public void setUp() {
+			previous = Configuration.getGlobalConfiguration();
+			Configuration.setGlobalConfiguration(createConfiguration(size));
+			Grid3D phantom = createPhantom(size);
+			// parallel projection of the phantom along y as synthetic projection data.
+			Grid2D projection = new Grid2D(2 * size, size);
+			for (int k = 0; k < size; k++){
+				for (int j = 0; j < size; j++){
+					for (int i = 0; i < size; i++){
+						projection.addAtIndex(i + (size / 2), k, phantom.getAtIndex(i, j, k));
+					}
+				}
+			}
+			projections = new Grid2D[projectionsPerSweep];
+			projectionNumbers = new int[projectionsPerSweep];
+			for (int n = 0; n < projectionsPerSweep; n++){
+				projections[n] = projection;
+				projectionNumbers[n] = n * 10;
+			}
+			filter = new VOIBasedReconstructionFilter();
+			filter.setAccumulationMode(VolumeAccumulationMode.SYNCHRONIZED);
+			filter.setMaximumVolumeOfInterest((VolumeOfInterest) null);
+			filter.initializeProjectionVolume();
+			volume = new Grid3D(size, size, size);
+			filter.setProjectionVolume(volume);
+		}
+
+		public double run() {
+			for (int k = 0; k < size; k++){
+				Arrays.fill(volume.getSubGrid(k).getBuffer(), 0);
+			}
+			filter.backproject(projections, projectionNumbers);
+			return volume.getAtIndex(size / 2, size / 2, size / 2);
+		}
+
+		public void tearDown() {
+			Configuration.setGlobalConfiguration(previous);
+		}
+	}
+
+	/**
+	 * Ray-driven forward projection of the phantom with the CPU forward projector.
+	 */
+	private static class ForwardProjectionBenchmark extends Benchmark {
+		private final int size;
+		private Configuration previous;
+		private CPUForwardProjector projector;
+		private Grid3D phantom;
+		private int [] projectionNumbers = {0, 10, 20, 30};
+		private Grid2D [] projections;
+
+		ForwardProjectionBenchmark(int size){
+			this.size = size;
+		}
+
+		public String getName() {
+			return "CPUForwardProjector.project[" + projectionNumbers.length + "]";
+		}
+
+		public void setUp() {
+			previous = Configuration.getGlobalConfiguration();
+			Configuration.setGlobalConfiguration(createConfiguration(size));
+			phantom = createPhantom(size);
+			projector = new CPUForwardProjector();
+			projections = new Grid2D[projectionNumbers.length];
+			for (int n = 0; n < projections.length; n++){
+				projections[n] = new Grid2D(2 * size, size);
+			}
+		}
+
+		public double run() {
+			projector.project(phantom, projectionNumbers, projections);
+			return projections[0].getAtIndex(size, size / 2) + projections[projections.length - 1].getAtIndex(size, size / 2);
+		}
+
+		public void tearDown() {
+			Configuration.setGlobalConfiguration(previous);
+		}
+	}
+
+	/**
+	 * Ramp filtering of a projection in double or single precision.
+	 */
+	private static class RampFilterBenchmark extends Benchmark {
+		private final int size;
+		private final boolean singlePrecision;
+		private Grid2D projection;
+		private RampFilter ramp;
+
+		RampFilterBenchmark(int size, boolean singlePrecision){
+			this.size = size;
+			this.singlePrecision = singlePrecision;
+		}
+
+		public String getName() {
+			return (singlePrecision) ? "FFTUtil.applyRampFilterSinglePrecision" : "FFTUtil.applyRampFilter";
+		}
+
+		public void setUp() {
+			Grid3D phantom = createPhantom(size);
+			projection = new Grid2D(2 * size, size);
+			for (int j = 0; j < size; j++){
+				for (int i = 0; i < size; i++){
+					projection.setAtIndex(i + (size / 2), j, phantom.getAtIndex(i, size / 2, j));
+				}
+			}
+			ramp = new RamLakRampFilter();
+			ramp.setSourceToDetectorDistance(1200);
+			ramp.setSourceToAxisDistance(600);
+			ramp.setPhysicalPixelWidthInMilimeters(1.0);
+		}
+
+		public double run() {
+			Grid2D filtered = (singlePrecision) ? FFTUtil.applyRampFilterSinglePrecision(projection, ramp) : FFTUtil.applyRampFilter(projection, ramp);
+			return filtered.getAtIndex(size, size / 2);
+		}
+	}
+
+	/**
+	 * Reductions of a grid operator on the phantom volume.
+	 */
+	private static class ReductionBenchmark extends Benchmark {
+		private final int size;
+		private final NumericGridOperator operator;
+		private final String operatorName;
+		private Grid3D phantom;
+		private Grid3D other;
+
+		ReductionBenchmark(int size, NumericGridOperator operator, String operatorName){
+			this.size = size;
+			this.operator = operator;
+			this.operatorName = operatorName;
+		}
+
+		public String getName() {
+			return operatorName + ".reductions";
+		}
+
+		public void setUp() {
+			phantom = createPhantom(size);
+			other = createPhantom(size);
+		}
+
+		public double run() {
+			return operator.sum(phantom) + operator.normL2(phantom) + operator.dotProduct(phantom, other) + operator.max(phantom);
+		}
+	}
+
+	static Grid3D createPhantom(int size){
+		return new NumericalSheppLogan3D(size, size, size).getNumericalSheppLoganPhantom();
+	}
+
+	static SimpleMatrix createRandomMatrix(int size, long seed){
+		Random random = new Random(seed);
+		SimpleMatrix matrix = new SimpleMatrix(size, size);
+		for (int i = 0; i < size; i++){
+			for (int j = 0; j < size; j++){
+				matrix.setElementValue(i, j, random.nextDouble());
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Creates a configuration with a circular short scan trajectory, a volume of size^3 voxels, and a detector with 2 * size x size pixels.
+	 * @param size the size
+	 * @return the configuration
+	 */
+	static Configuration createConfiguration(int size){
+		Configuration config = new Configuration();
+		config.setRegistry(new HashMap<String, String>());
+		CircularTrajectory trajectory = new CircularTrajectory();
+		trajectory.setDetectorHeight(size);
+		trajectory.setDetectorWidth(2 * size);
+		trajectory.setSourceToAxisDistance(600.0);
+		trajectory.setSourceToDetectorDistance(1200.0);
+		trajectory.setReconDimensions(size, size, size);
+		trajectory.setOriginInPixelsX((size - 1) / 2.0);
+		trajectory.setOriginInPixelsY((size - 1) / 2.0);
+		trajectory.setOriginInPixelsZ((size - 1) / 2.0);
+		trajectory.setPixelDimensionX(256.0 / size);
+		trajectory.setPixelDimensionY(256.0 / size);
+		trajectory.setVoxelSpacingX(128.0 / size);
+		trajectory.setVoxelSpacingY(128.0 / size);
+		trajectory.setVoxelSpacingZ(128.0 / size);
+		trajectory.setAverageAngularIncrement(1.0);
+		trajectory.setProjectionStackSize(200);
+		trajectory.setDetectorUDirection(CameraAxisDirection.DETECTORMOTION_PLUS);
+		trajectory.setDetectorVDirection(CameraAxisDirection.ROTATIONAXIS_PLUS);
+		trajectory.setTrajectory(200, 600.0, 1.0, 0, 0, CameraAxisDirection.DETECTORMOTION_PLUS, CameraAxisDirection.ROTATIONAXIS_PLUS, new SimpleVector(0, 0, 1));
+		config.setGeometry(trajectory);
+		return config;
+	}
+
+	/**
+	 * Writes the slices of the volume as projections into a temporary file in Dennerlein format.
+	 * @param volume the volume
+	 * @return the file
+	 * @throws Exception if the file cannot be written
+	 */
+	static File writeProjectionFile(Grid3D volume) throws Exception {
+		File file = File.createTempFile("HotPathBenchmarks", ".bin");
+		file.deleteOnExit();
+		int [] size = volume.getSize();
+		ByteBuffer header = ByteBuffer.allocate(6).order(ByteOrder.LITTLE_ENDIAN);
+		header.putShort((short) size[0]);
+		header.putShort((short) size[1]);
+		header.putShort((short) size[2]);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(header.array());
+		ByteBuffer slice = ByteBuffer.allocate(size[0] * size[1] * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int k = 0; k < size[2]; k++){
+			slice.clear();
+			slice.asFloatBuffer().put(volume.getSubGrid(k).getBuffer());
+			out.write(slice.array());
+		}
+		out.close();
+		return file;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
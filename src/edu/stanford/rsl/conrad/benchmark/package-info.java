@@ -0,0 +1,11 @@
+/**
+ * Contains a micro benchmark harness and benchmarks of the performance critical CPU code paths.
+ * Results are exported as text files that can be compared between releases.
+ *
+ * @author Andreas Maier
+ */
+package edu.stanford.rsl.conrad.benchmark;
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
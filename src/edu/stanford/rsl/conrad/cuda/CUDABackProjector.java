@@ -265,7 +265,7 @@ public class CUDABackProjector extends VOIBasedReconstructionFilter implements R
 						for (int j = 0; j < height; j++){
 							for (int i = 0; i < width; i++){			
 								float value = h_volume[(((height * k) + j) * width) + i];
-								if (voiMap[i][j][k]) {
+								if (voiMap.contains(i, j, k)) {
 									projectionVolume.setAtIndex(i, j, k, value);
 								} else {
 									projectionVolume.setAtIndex(i, j, k, 0);
@@ -670,6 +670,11 @@ public class CUDABackProjector extends VOIBasedReconstructionFilter implements R
 		return "CUDA Backprojector";
 	}
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 
 /*
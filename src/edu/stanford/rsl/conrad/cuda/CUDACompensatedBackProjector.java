@@ -271,7 +271,7 @@ public class CUDACompensatedBackProjector extends VOIBasedReconstructionFilter i
 						for (int j = 0; j < height; j++){
 							for (int i = 0; i < width; i++){			
 								float value = h_volume[(((height * k) + j) * width) + i];
-								if (voiMap[i][j][k]) {
+								if (voiMap.contains(i, j, k)) {
 									projectionVolume.setAtIndex(i, j, k, value);
 								} else {
 									projectionVolume.setAtIndex(i, j, k, 0);
@@ -925,6 +925,11 @@ public class CUDACompensatedBackProjector extends VOIBasedReconstructionFilter i
 		return "CUDA Compensated Backprojector";
 	}
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 
 /*
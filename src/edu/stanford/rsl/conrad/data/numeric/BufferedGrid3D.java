@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
+package edu.stanford.rsl.conrad.data.numeric;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Grid3D which keeps its data outside of the Java heap. The voxels are stored slice by slice in direct buffers or in a memory-mapped file.
+ * Volumes which are larger than the heap can be processed and the garbage collector does not need to trace the voxel data.
+ * <BR><BR>
+ * The data is stored contiguously in segments of whole slices. Each segment is at most 2 GB large. If the volume fits into a single segment,
+ * the whole volume is available as one FloatBuffer via {@link #getContiguousBuffer()}, e.g. for the hand-off to native libraries or OpenCL.
+ * <BR><BR>
+ * {@link #getAtIndex(int, int, int)} and {@link #setAtIndex(int, int, int, float)} access the buffers directly. {@link #getSubGrid(int)}
+ * loads the slice into a Grid2D on the heap. The most recently used slices are cached and written back to the buffers when they are evicted,
+ * on {@link #flush()}, and before bulk access to the buffers. Hence, changes in the buffer of a Grid2D which was obtained by getSubGrid()
+ * are only persistent as long as the slice is in the cache. The cache must be large enough to hold all slices that are used concurrently.
+ * Threads that write concurrently should use {@link #setAtIndex(int, int, int, float)}, {@link #addAtIndex(int, int, int, float)}, or
+ * {@link #addToRow(int, int, int, double[], int)}. These lock only the slice that is written and are synchronized with loading and eviction
+ * of that slice. Thus, no update is lost and threads that write to different slices do not block each other.
+ * Writers that own their voxels exclusively, while no slice is loaded or evicted, may use the unsynchronized variants
+ * {@link #addAtIndexUnsynchronized(int, int, int, float)} and {@link #addToRowUnsynchronized(int, int, int, double[], int)}.
+ *
+ * @see Grid3D
+ * @author akmaier
+ *
+ */
+public class BufferedGrid3D extends Grid3D {
+
+	/**
+	 * Default number of slices that are kept on the heap.
+	 */
+	public static final int DEFAULT_SLICES_IN_MEMORY = 64;
+
+	private final int sliceSize;
+	private final int slicesPerSegment;
+	private final ByteBuffer [] segments;
+	private final FloatBuffer [] sliceBuffers;
+	private final AtomicReferenceArray<Grid2D> cachedSlices;
+	/**
+	 * One lock per slice. Is acquired after the monitor of the grid, if both are required.
+	 */
+	private final Object [] sliceLocks;
+	private final LinkedHashMap<Integer, Grid2D> leastRecentlyUsed = new LinkedHashMap<Integer, Grid2D>(16, 0.75f, true);
+	private int maxSlicesInMemory = DEFAULT_SLICES_IN_MEMORY;
+	private RandomAccessFile file;
+
+	/**
+	 * Allocates the volume in direct buffers. The voxels are initialized with zero.
+	 * @param width
+	 * @param height
+	 * @param depth
+	 */
+	public BufferedGrid3D(int width, int height, int depth){
+		super(width, height, depth, false);
+		sliceSize = width * height;
+		slicesPerSegment = computeSlicesPerSegment(width, height, depth);
+		segments = new ByteBuffer[(depth + slicesPerSegment - 1) / slicesPerSegment];
+		for (int s = 0; s < segments.length; s++){
+			segments[s] = ByteBuffer.allocateDirect(getSegmentDepth(s) * sliceSize * 4).order(ByteOrder.nativeOrder());
+		}
+		sliceBuffers = createSliceBuffers();
+		cachedSlices = new AtomicReferenceArray<Grid2D>(depth);
+		sliceLocks = createSliceLocks(depth);
+	}
+
+	/**
+	 * Maps the volume to a file. The file is created or enlarged, if required. Existing data in the file is used as voxel data,
+	 * i.e. a volume can be persisted and reopened. The voxels are stored as little endian floats without header, with x running fastest.
+	 * Call {@link #close()} to write all changes to the file.
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param storage the file
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public BufferedGrid3D(int width, int height, int depth, File storage) throws IOException {
+		super(width, height, depth, false);
+		sliceSize = width * height;
+		slicesPerSegment = computeSlicesPerSegment(width, height, depth);
+		segments = new ByteBuffer[(depth + slicesPerSegment - 1) / slicesPerSegment];
+		file = new RandomAccessFile(storage, "rw");
+		long length = (long) sliceSize * depth * 4;
+		if (file.length() < length) file.setLength(length);
+		FileChannel channel = file.getChannel();
+		for (int s = 0; s < segments.length; s++){
+			long start = (long) s * slicesPerSegment * sliceSize * 4;
+			segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) getSegmentDepth(s) * sliceSize * 4).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		sliceBuffers = createSliceBuffers();
+		cachedSlices = new AtomicReferenceArray<Grid2D>(depth);
+		sliceLocks = createSliceLocks(depth);
+	}
+
+	/**
+	 * Copies the given grid into direct buffers.
+	 * @param input the grid
+	 */
+	public BufferedGrid3D(Grid3D input){
+		this(input.getSize()[0], input.getSize()[1], input.getSize()[2]);
+		setSpacing(input.getSpacing());
+		setOrigin(input.getOrigin());
+		if (input instanceof BufferedGrid3D) ((BufferedGrid3D) input).flush();
+		for (int k = 0; k < size[2]; k++){
+			FloatBuffer target = getSliceBuffer(k);
+			if (input instanceof BufferedGrid3D) {
+				target.put(((BufferedGrid3D) input).getSliceBuffer(k));
+			} else {
+				target.put(input.getSubGrid(k).getBuffer(), 0, sliceSize);
+			}
+		}
+	}
+
+	private static int computeSlicesPerSegment(int width, int height, int depth){
+		long sliceBytes = (long) width * height * 4;
+		if (sliceBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("A slice with " + sliceBytes + " bytes exceeds the maximal buffer size.");
+		return (int) Math.max(1, Math.min(depth, Integer.MAX_VALUE / sliceBytes));
+	}
+
+	private int getSegmentDepth(int segment){
+		return Math.min(slicesPerSegment, size[2] - (segment * slicesPerSegment));
+	}
+
+	private static Object [] createSliceLocks(int depth){
+		Object [] locks = new Object[depth];
+		for (int k = 0; k < depth; k++){
+			locks[k] = new Object();
+		}
+		return locks;
+	}
+
+	private FloatBuffer [] createSliceBuffers(){
+		FloatBuffer [] slices = new FloatBuffer[size[2]];
+		for (int k = 0; k < size[2]; k++){
+			ByteBuffer segment = segments[k / slicesPerSegment].duplicate().order(segments[k / slicesPerSegment].order());
+			int start = (k % slicesPerSegment) * sliceSize * 4;
+			segment.position(start);
+			segment.limit(start + (sliceSize * 4));
+			slices[k] = segment.slice().order(segment.order()).asFloatBuffer();
+		}
+		return slices;
+	}
+
+	/**
+	 * Returns a view on the storage of slice k. Position and limit of the view are independent of the grid.
+	 * Call {@link #flush()} before, if slices obtained via getSubGrid() were modified.
+	 * @param k the slice index
+	 * @return the buffer
+	 */
+	public FloatBuffer getSliceBuffer(int k){
+		return sliceBuffers[k].duplicate();
+	}
+
+	/**
+	 * Returns the whole volume as one buffer. Writes all cached slices back before.
+	 * @return the buffer with x running fastest, then y, then z.
+	 * @throws IllegalStateException if the volume is larger than 2 GB and therefore stored in several segments.
+	 */
+	public FloatBuffer getContiguousBuffer(){
+		if (segments.length != 1) throw new IllegalStateException("Volume is stored in " + segments.length + " segments.");
+		flush();
+		ByteBuffer segment = segments[0].duplicate().order(segments[0].order());
+		return segment.asFloatBuffer();
+	}
+
+	/**
+	 * @return the number of slices that are kept on the heap
+	 */
+	public synchronized int getMaximumSlicesInMemory() {
+		return maxSlicesInMemory;
+	}
+
+	/**
+	 * Sets the number of slices that are kept on the heap. Must be at least the number of slices that are used concurrently.
+	 * @param maxSlicesInMemory the number of slices
+	 */
+	public synchronized void setMaximumSlicesInMemory(int maxSlicesInMemory) {
+		if (maxSlicesInMemory < 1) throw new IllegalArgumentException("At least one slice has to be kept in memory.");
+		this.maxSlicesInMemory = maxSlicesInMemory;
+		evict();
+	}
+
+	/**
+	 * Writes all cached slices back to the storage. The slices stay in the cache.
+	 */
+	public synchronized void flush(){
+		for (Map.Entry<Integer, Grid2D> entry : leastRecentlyUsed.entrySet()){
+			int k = entry.getKey();
+			synchronized (sliceLocks[k]) {
+				writeBack(k, entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Writes all changes to the storage, releases the cache and closes the file, if the volume is mapped to a file.
+	 * The data remains accessible until the buffers are garbage collected.
+	 * @throws IOException if the file cannot be closed
+	 */
+	public synchronized void close() throws IOException {
+		flush();
+		leastRecentlyUsed.clear();
+		for (int k = 0; k < size[2]; k++){
+			synchronized (sliceLocks[k]) {
+				cachedSlices.set(k, null);
+				buffer.set(k, null);
+			}
+		}
+		if (file != null) {
+			for (ByteBuffer segment : segments){
+				((MappedByteBuffer) segment).force();
+			}
+			file.close();
+			file = null;
+		}
+	}
+
+	private void writeBack(int k, Grid2D slice){
+		FloatBuffer target = getSliceBuffer(k);
+		target.put(slice.getBuffer(), 0, sliceSize);
+	}
+
+	private void evict(){
+		Iterator<Map.Entry<Integer, Grid2D>> iterator = leastRecentlyUsed.entrySet().iterator();
+		while (leastRecentlyUsed.size() > maxSlicesInMemory && iterator.hasNext()){
+			Map.Entry<Integer, Grid2D> entry = iterator.next();
+			int k = entry.getKey();
+			synchronized (sliceLocks[k]) {
+				writeBack(k, entry.getValue());
+				cachedSlices.set(k, null);
+				buffer.set(k, null);
+			}
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Loads all slices into the heap and pins them in the cache. Avoid this method for large volumes; use {@link #getSubGrid(int)} or
+	 * {@link #getSliceBuffer(int)} instead.
+	 */
+	@Override
+	public synchronized ArrayList<Grid2D> getBuffer() {
+		maxSlicesInMemory = Math.max(maxSlicesInMemory, size[2]);
+		for (int k = 0; k < size[2]; k++){
+			getSubGrid(k);
+		}
+		return buffer;
+	}
+
+	@Override
+	public Grid2D getSubGrid(int k) {
+		if (k >= size[2]) return null;
+		if (k < 0) return null;
+		synchronized (this) {
+			Grid2D slice = leastRecentlyUsed.get(k);
+			if (slice == null) {
+				slice = new Grid2D(size[0], size[1]);
+				slice.setSpacing(spacing[0], spacing[1]);
+				slice.setOrigin(origin[0], origin[1]);
+				synchronized (sliceLocks[k]) {
+					getSliceBuffer(k).get(slice.getBuffer(), 0, sliceSize);
+					cachedSlices.set(k, slice);
+					buffer.set(k, slice);
+				}
+				leastRecentlyUsed.put(k, slice);
+				evict();
+			}
+			return slice;
+		}
+	}
+
+	@Override
+	public synchronized void setSubGrid(int k, Grid2D grid) {
+		if(grid.getWidth() != size[0] || grid.getHeight() != size[1]) {
+			throw new IllegalArgumentException("Slice size " + grid.getWidth() + "x" + grid.getHeight() + " does not match volume size.");
+		}
+		leastRecentlyUsed.remove(k);
+		synchronized (sliceLocks[k]) {
+			cachedSlices.set(k, null);
+			buffer.set(k, null);
+			getSliceBuffer(k).put(grid.getBuffer(), 0, sliceSize);
+		}
+	}
+
+	@Override
+	public float getAtIndex(int i, int j, int k) {
+		Grid2D slice = cachedSlices.get(k);
+		if (slice != null) return slice.getBuffer()[(j * size[0]) + i];
+		return sliceBuffers[k].get((j * size[0]) + i);
+	}
+
+	@Override
+	public void setAtIndex(int i, int j, int k, float val) {
+		synchronized (sliceLocks[k]) {
+			setUnsynchronized(i, j, k, val);
+		}
+	}
+
+	private void setUnsynchronized(int i, int j, int k, float val) {
+		Grid2D slice = cachedSlices.get(k);
+		if (slice != null) {
+			slice.getBuffer()[(j * size[0]) + i] = val;
+		} else {
+			sliceBuffers[k].put((j * size[0]) + i, val);
+		}
+	}
+
+	@Override
+	public void addAtIndex(int i, int j, int k, float val) {
+		synchronized (sliceLocks[k]) {
+			addAtIndexUnsynchronized(i, j, k, val);
+		}
+	}
+
+	/**
+	 * Same as {@link #addAtIndex(int, int, int, float)}, but without any locking. The caller has to guarantee that no other thread
+	 * accesses the voxel and that no slice is loaded, evicted, or flushed concurrently, i.e. that {@link #getSubGrid(int)}, {@link #flush()},
+	 * and the like are not called while the update is running. Otherwise, the update may be lost.
+	 * @param i x index
+	 * @param j y index
+	 * @param k z index
+	 * @param val the value to add
+	 */
+	public void addAtIndexUnsynchronized(int i, int j, int k, float val) {
+		setUnsynchronized(i, j, k, getAtIndex(i, j, k) + val);
+	}
+
+	@Override
+	public void multiplyAtIndex(int i, int j, int k, float val) {
+		synchronized (sliceLocks[k]) {
+			setUnsynchronized(i, j, k, getAtIndex(i, j, k) * val);
+		}
+	}
+
+	/**
+	 * Adds values to consecutive voxels of a row, i.e. to the voxels (startI + n, j, k) for n = 0, ..., length - 1. A slice that is not cached
+	 * is updated in its storage and is not loaded to the heap. The update locks slice k only and is synchronized with the loading and
+	 * the eviction of this slice.
+	 * @param startI x index of the first voxel
+	 * @param j y index
+	 * @param k z index
+	 * @param increments the values to add
+	 * @param length the number of voxels
+	 */
+	public void addToRow(int startI, int j, int k, double [] increments, int length) {
+		synchronized (sliceLocks[k]) {
+			addToRowUnsynchronized(startI, j, k, increments, length);
+		}
+	}
+
+	/**
+	 * Same as {@link #addToRow(int, int, int, double[], int)}, but without any locking. Meant for writers which own their voxels
+	 * exclusively, e.g. one slab of the volume per thread. No slice must be loaded, evicted, or flushed while the update is running.
+	 * @param startI x index of the first voxel
+	 * @param j y index
+	 * @param k z index
+	 * @param increments the values to add
+	 * @param length the number of voxels
+	 */
+	public void addToRowUnsynchronized(int startI, int j, int k, double [] increments, int length) {
+		int offset = (j * size[0]) + startI;
+		Grid2D slice = cachedSlices.get(k);
+		if (slice != null) {
+			float [] pixels = slice.getBuffer();
+			for (int n = 0; n < length; n++){
+				pixels[offset + n] += increments[n];
+			}
+		} else {
+			FloatBuffer target = sliceBuffers[k];
+			for (int n = 0; n < length; n++){
+				target.put(offset + n, (float) (target.get(offset + n) + increments[n]));
+			}
+		}
+	}
+
+	@Override
+	public NumericGrid clone() {
+		return new BufferedGrid3D(this);
+	}
+
+}
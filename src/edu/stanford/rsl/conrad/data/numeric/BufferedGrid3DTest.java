@@ -0,0 +1,133 @@
+package edu.stanford.rsl.conrad.data.numeric;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+public class BufferedGrid3DTest {
+
+	private void fill(Grid3D grid){
+		for (int k = 0; k < grid.getSize()[2]; k++){
+			for (int j = 0; j < grid.getSize()[1]; j++){
+				for (int i = 0; i < grid.getSize()[0]; i++){
+					grid.setAtIndex(i, j, k, i + (10 * j) + (100 * k));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSliceCache() {
+		Grid3D expected = new Grid3D(7, 5, 9);
+		BufferedGrid3D grid = new BufferedGrid3D(7, 5, 9);
+		grid.setMaximumSlicesInMemory(2);
+		fill(expected);
+		fill(grid);
+		// modify slices via their heap buffers. Slices are evicted and written back.
+		for (int k = 0; k < 9; k++){
+			grid.getSubGrid(k).getBuffer()[3] += 0.5f;
+			expected.getSubGrid(k).getBuffer()[3] += 0.5f;
+			assertEquals(expected.getAtIndex(3, 0, k), grid.getAtIndex(3, 0, k), 0);
+		}
+		grid.addAtIndex(1, 2, 3, 4);
+		expected.addAtIndex(1, 2, 3, 4);
+		for (int k = 0; k < 9; k++){
+			for (int j = 0; j < 5; j++){
+				for (int i = 0; i < 7; i++){
+					assertEquals(expected.getAtIndex(i, j, k), grid.getAtIndex(i, j, k), 0);
+				}
+			}
+		}
+		assertEquals(NumericPointwiseOperators.sum(expected), NumericPointwiseOperators.sum(grid), 1e-3);
+		FloatBuffer contiguous = grid.getContiguousBuffer();
+		assertEquals(expected.getAtIndex(3, 0, 8), contiguous.get((8 * 35) + 3), 0);
+		BufferedGrid3D copy = (BufferedGrid3D) grid.clone();
+		assertEquals(expected.getAtIndex(3, 0, 4), copy.getAtIndex(3, 0, 4), 0);
+	}
+
+	@Test
+	public void testConcurrentRowUpdatesWithEviction() throws Exception {
+		final BufferedGrid3D grid = new BufferedGrid3D(8, 4, 6);
+		grid.setMaximumSlicesInMemory(1);
+		final int numThreads = 4, repetitions = 50;
+		final double [] ones = {1, 1, 1, 1, 1, 1, 1, 1};
+		Thread [] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++){
+			threads[t] = new Thread(){
+				public void run(){
+					for (int r = 0; r < repetitions; r++){
+						for (int k = 0; k < 6; k++){
+							// loading other slices evicts the slices that are written by the other threads
+							grid.getSubGrid((k + r) % 6);
+							grid.addToRow(0, r % 4, k, ones, 8);
+							grid.addAtIndex(r % 8, 0, k, 1);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		double expected = numThreads * repetitions * 6 * (8 + 1);
+		assertEquals(expected, NumericPointwiseOperators.sum(grid), 1e-3);
+	}
+
+	@Test
+	public void testUnsynchronizedSlabUpdates() throws Exception {
+		final BufferedGrid3D grid = new BufferedGrid3D(8, 4, 6);
+		grid.setMaximumSlicesInMemory(3);
+		// some slices are cached, the others are written in their storage
+		for (int k = 0; k < 3; k++) grid.getSubGrid(k);
+		final int numThreads = 4, repetitions = 50;
+		final double [] ones = {1, 1};
+		Thread [] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++){
+			final int slab = t;
+			threads[t] = new Thread(){
+				public void run(){
+					// every thread owns two columns of the volume
+					for (int r = 0; r < repetitions; r++){
+						for (int k = 0; k < 6; k++){
+							grid.addToRowUnsynchronized(2 * slab, r % 4, k, ones, 2);
+							grid.addAtIndexUnsynchronized(2 * slab, 0, k, 1);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		// row 0 is updated in every fourth repetition, the first column of every slab in each repetition
+		int rowUpdates = (repetitions + 3) / 4;
+		for (int k = 0; k < 6; k++){
+			for (int i = 0; i < 8; i++){
+				assertEquals(rowUpdates + ((i % 2 == 0) ? repetitions : 0), grid.getAtIndex(i, 0, k), 0);
+			}
+		}
+		assertEquals(numThreads * repetitions * 6 * (2 + 1), NumericPointwiseOperators.sum(grid), 1e-3);
+	}
+
+	@Test
+	public void testMappedFile() throws Exception {
+		File file = File.createTempFile("BufferedGrid3DTest", ".raw");
+		file.deleteOnExit();
+		BufferedGrid3D grid = new BufferedGrid3D(6, 4, 3, file);
+		fill(grid);
+		grid.getSubGrid(2).getBuffer()[0] = -1;
+		grid.close();
+		assertEquals(6 * 4 * 3 * 4, file.length());
+		BufferedGrid3D reopened = new BufferedGrid3D(6, 4, 3, file);
+		assertEquals(-1, reopened.getAtIndex(0, 0, 2), 0);
+		assertEquals(5 + 30 + 100, reopened.getAtIndex(5, 3, 1), 0);
+		reopened.close();
+		file.delete();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -54,7 +54,7 @@ public abstract class NumericGrid extends Grid {
 	 */
 	public NumericGridOperator getGridOperator() {
 		if (numericGridOperator == null) {
-			numericGridOperator = NumericGridOperator.getInstance(); // standard grid operations
+			numericGridOperator = NumericPointwiseOperators.selectGridOperator(this); // standard grid operations
 		}
 		return numericGridOperator;
 	}
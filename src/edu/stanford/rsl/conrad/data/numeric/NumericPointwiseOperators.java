@@ -11,7 +11,8 @@ import edu.stanford.rsl.conrad.data.numeric.opencl.OpenCLGridOperators;
 /** The collection of all operators working point-wise on NumericGrid data. */
 public abstract class NumericPointwiseOperators {
 	/*
-	 * Auxiliary method to select a combined grid operator
+	 * Auxiliary method to select a combined grid operator.
+	 * CPU grids are processed by the ParallelNumericGridOperator unless it was disabled.
 	 */
 	public static NumericGridOperator selectGridOperator(NumericGrid ... grids) {
 		boolean nonCLFound = false;
@@ -20,7 +21,8 @@ public abstract class NumericPointwiseOperators {
 				nonCLFound = true;
 			}
 		}
-		return (nonCLFound ? NumericGridOperator.getInstance() : OpenCLGridOperators.getInstance());
+		if (!nonCLFound) return OpenCLGridOperators.getInstance();
+		return (ParallelNumericGridOperator.isEnabled() ? ParallelNumericGridOperator.getInstance() : NumericGridOperator.getInstance());
 	}
 	
 	/** Fill a NumericGrid with the given value */
@@ -0,0 +1,925 @@
+/*
+ * Copyright (C) 2014 - Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
+package edu.stanford.rsl.conrad.data.numeric;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import edu.stanford.rsl.conrad.data.numeric.opencl.OpenCLGridInterface;
+import edu.stanford.rsl.conrad.parallel.SharedThreadPool;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
+
+/**
+ * Multi-threaded CPU version of the NumericGridOperator.<br>
+ * The operators work directly on the float buffers of the Grid2D slices. The grid is treated as one linear array of elements in x-y-z order.
+ * This array is split recursively into chunks which are processed in the shared fork-join pool of the {@link SharedThreadPool}.
+ * Reductions are accumulated in double precision per chunk and the partial results are combined pairwise along the fork-join tree.
+ * Hence, sums of large volumes are considerably more accurate than the float accumulation of the NumericGridOperator.
+ * <BR><BR>
+ * Grid1D, complex, multi-channel, and OpenCL grids as well as Grid3Ds with unallocated slices are not supported. For these,
+ * and for pairs of grids with different sizes, the operator falls back to the sequential implementation of the NumericGridOperator.
+ * <BR><BR>
+ * The operator is selected by {@link NumericPointwiseOperators#selectGridOperator(NumericGrid...)}, if
+ * {@link RegKeys#PARALLEL_GRID_OPERATORS} is not set to false.
+ *
+ * @author akmaier
+ *
+ */
+public class ParallelNumericGridOperator extends NumericGridOperator {
+
+	/** The minimal number of elements that is processed by one task. */
+	private static final int MIN_CHUNK_SIZE = 1 << 15;
+
+	static ParallelNumericGridOperator op = new ParallelNumericGridOperator();
+
+	private static volatile Boolean enabled = null;
+
+	protected ParallelNumericGridOperator() {
+	}
+
+	public static ParallelNumericGridOperator getInstance() {
+		return op;
+	}
+
+	/**
+	 * Determines whether the parallel operator is used for CPU grids. The value is read from {@link RegKeys#PARALLEL_GRID_OPERATORS} once the global
+	 * configuration is available, unless it was set explicitly using {@link #setEnabled(boolean)}. Default is true.
+	 * @return whether the parallel operator is enabled
+	 */
+	public static boolean isEnabled() {
+		if (enabled == null) {
+			Configuration config = Configuration.getGlobalConfiguration();
+			if (config == null) return true;
+			boolean value = true;
+			try {
+				String regKey = config.getRegistryEntry(RegKeys.PARALLEL_GRID_OPERATORS);
+				if (regKey != null) value = Boolean.parseBoolean(regKey);
+			} catch (Exception e) {
+				CONRAD.log("Key '" + RegKeys.PARALLEL_GRID_OPERATORS + "' was not found in registry.");
+			}
+			enabled = value;
+		}
+		return enabled;
+	}
+
+	/**
+	 * Enables or disables the parallel operator for CPU grids. Overrides the registry setting.
+	 * Grids that already cached their operator keep it.
+	 * @param enable
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	private static ForkJoinPool getPool() {
+		return SharedThreadPool.getForkJoinPool();
+	}
+
+	/**
+	 * Returns the float buffers of the grid in linear order or null, if the grid cannot be processed in parallel.
+	 */
+	static float[][] getSliceBuffers(NumericGrid grid) {
+		if (grid instanceof OpenCLGridInterface) return null;
+		if (grid instanceof Grid2D) {
+			if (!isPlainGrid2D((Grid2D) grid)) return null;
+			return new float[][] {((Grid2D) grid).getBuffer()};
+		}
+		if (grid instanceof Grid3D) {
+			// off-heap grids are processed by the sequential implementation, as getBuffer() would load the whole volume into the heap.
+			if (grid instanceof MultiChannelGrid3D || grid instanceof BufferedGrid3D) return null;
+			Grid3D grid3D = (Grid3D) grid;
+			ArrayList<Grid2D> slices = grid3D.getBuffer();
+			if (slices == null || slices.isEmpty() || slices.size() != grid3D.getSize()[2]) return null;
+			float[][] buffers = new float[slices.size()][];
+			int sliceSize = grid3D.getSize()[0] * grid3D.getSize()[1];
+			for (int k = 0; k < buffers.length; k++) {
+				Grid2D slice = slices.get(k);
+				if (slice == null || !isPlainGrid2D(slice)) return null;
+				buffers[k] = slice.getBuffer();
+				if (buffers[k].length != sliceSize) return null;
+			}
+			return buffers;
+		}
+		return null;
+	}
+
+	private static boolean isPlainGrid2D(Grid2D grid) {
+		return !(grid instanceof Grid2DComplex || grid instanceof MultiChannelGrid2D || grid instanceof OpenCLGridInterface);
+	}
+
+	private static boolean sameLayout(float[][] a, float[][] b) {
+		if (a == null || b == null || a.length != b.length) return false;
+		for (int k = 0; k < a.length; k++) {
+			if (a[k].length != b[k].length) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A kernel that is applied to a chunk of one slice. b is null for operations on a single grid.
+	 * The return value is the partial result of reductions and ignored otherwise.
+	 */
+	private static abstract class ChunkKernel {
+		abstract double apply(float[] a, float[] b, int from, int to);
+
+		/** Combines two partial results. */
+		double combine(double first, double second) {
+			return first + second;
+		}
+	}
+
+	private static class ChunkTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = -4512381206544213853L;
+		private final ChunkKernel kernel;
+		private final float[][] a;
+		private final float[][] b;
+		private final int sliceSize;
+		private final long from;
+		private final long to;
+		private final long chunkSize;
+
+		ChunkTask(ChunkKernel kernel, float[][] a, float[][] b, int sliceSize, long from, long to, long chunkSize) {
+			this.kernel = kernel;
+			this.a = a;
+			this.b = b;
+			this.sliceSize = sliceSize;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from <= chunkSize) {
+				return processRange(kernel, a, b, sliceSize, from, to);
+			}
+			long center = from + (to - from) / 2;
+			ChunkTask left = new ChunkTask(kernel, a, b, sliceSize, from, center, chunkSize);
+			ChunkTask right = new ChunkTask(kernel, a, b, sliceSize, center, to, chunkSize);
+			left.fork();
+			double rightResult = right.compute();
+			return kernel.combine(left.join(), rightResult);
+		}
+	}
+
+	/**
+	 * Processes the elements [from, to) of the linear element order. The range may span several slices.
+	 */
+	private static double processRange(ChunkKernel kernel, float[][] a, float[][] b, int sliceSize, long from, long to) {
+		int slice = (int) (from / sliceSize);
+		int start = (int) (from % sliceSize);
+		long remaining = to - from;
+		boolean first = true;
+		double result = 0;
+		while (remaining > 0) {
+			int end = (int) Math.min(sliceSize, start + remaining);
+			double partial = kernel.apply(a[slice], (b != null) ? b[slice] : null, start, end);
+			result = first ? partial : kernel.combine(result, partial);
+			first = false;
+			remaining -= end - start;
+			slice++;
+			start = 0;
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the kernel on all elements.
+	 */
+	private static double run(ChunkKernel kernel, float[][] a, float[][] b) {
+		int sliceSize = a[0].length;
+		long numElements = (long) sliceSize * a.length;
+		if (numElements <= MIN_CHUNK_SIZE) {
+			return processRange(kernel, a, b, sliceSize, 0, numElements);
+		}
+		ForkJoinPool forkJoinPool = getPool();
+		long chunkSize = Math.max(MIN_CHUNK_SIZE, numElements / (forkJoinPool.getParallelism() * 8));
+		return forkJoinPool.invoke(new ChunkTask(kernel, a, b, sliceSize, 0, numElements, chunkSize));
+	}
+
+	private static boolean isValid(float val) {
+		return !(Float.isInfinite(val) || Float.isNaN(val));
+	}
+
+	/** Fill a NumericGrid with the given value */
+	@Override
+	public void fill(NumericGrid grid, final float val) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.fill(grid, val);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = val;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Fill a Grid's invalid elements with the given value */
+	@Override
+	public void fillInvalidValues(NumericGrid grid, final float val) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.fillInvalidValues(grid, val);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) {
+					if (!isValid(a[i])) a[i] = val;
+				}
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Get sum of all grid elements */
+	@Override
+	public float sum(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.sum(grid);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) sum += a[i];
+				return sum;
+			}
+		}, a, null);
+	}
+
+	/** Get sum of all grid elements. Ignores nans and infinity */
+	@Override
+	public float sumSave(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.sumSave(grid);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					if (isValid(a[i])) sum += a[i];
+				}
+				return sum;
+			}
+		}, a, null);
+	}
+
+	/** Get l1 norm of all grid elements */
+	@Override
+	public float normL1(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.normL1(grid);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					if (isValid(a[i])) sum += Math.abs(a[i]);
+				}
+				return sum;
+			}
+		}, a, null);
+	}
+
+	/** Get l2 norm of all grid elements */
+	@Override
+	public float normL2(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.normL2(grid);
+		return (float) Math.sqrt(run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					if (isValid(a[i])) sum += (double) a[i] * a[i];
+				}
+				return sum;
+			}
+		}, a, null));
+	}
+
+	/** Get number of grid elements with negative values. Negative infinity is not counted. */
+	@Override
+	public int countNegativeElements(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.countNegativeElements(grid);
+		return (int) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				int count = 0;
+				for (int i = from; i < to; i++) {
+					if (isValid(a[i]) && a[i] < 0) count++;
+				}
+				return count;
+			}
+		}, a, null);
+	}
+
+	@Override
+	public int countInvalidElements(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.countInvalidElements(grid);
+		return (int) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				int count = 0;
+				for (int i = from; i < to; i++) {
+					if (!isValid(a[i])) count++;
+				}
+				return count;
+			}
+		}, a, null);
+	}
+
+	/** Get min of a NumericGrid */
+	@Override
+	public float min(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.min(grid);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				float min = Float.MAX_VALUE;
+				for (int i = from; i < to; i++) {
+					if (a[i] < min) min = a[i];
+				}
+				return min;
+			}
+
+			double combine(double first, double second) {
+				return Math.min(first, second);
+			}
+		}, a, null);
+	}
+
+	/** Get max of a NumericGrid */
+	@Override
+	public float max(final NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) return super.max(grid);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				float max = -Float.MAX_VALUE;
+				for (int i = from; i < to; i++) {
+					if (a[i] > max) max = a[i];
+				}
+				return max;
+			}
+
+			double combine(double first, double second) {
+				return Math.max(first, second);
+			}
+		}, a, null);
+	}
+
+	/** Copy data of a NumericGrid to another, not including boundaries. Overwrites grid1 */
+	@Override
+	public void copy(NumericGrid grid1, NumericGrid grid2) {
+		float[][] a = getSliceBuffers(grid1);
+		float[][] b = getSliceBuffers(grid2);
+		if (!sameLayout(a, b)) {
+			super.copy(grid1, grid2);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				System.arraycopy(b, from, a, from, to - from);
+				return 0;
+			}
+		}, a, b);
+		grid1.notifyAfterWrite();
+	}
+
+	/** Compute dot product between grid1 and grid2 */
+	@Override
+	public float dotProduct(final NumericGrid grid1, NumericGrid grid2) {
+		float[][] a = getSliceBuffers(grid1);
+		float[][] b = getSliceBuffers(grid2);
+		if (!sameLayout(a, b)) return super.dotProduct(grid1, grid2);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) sum += (double) a[i] * b[i];
+				return sum;
+			}
+		}, a, b);
+	}
+
+	/** Compute weighted dot product between grid1 and grid2 */
+	@Override
+	public float weightedDotProduct(final NumericGrid grid1, final NumericGrid grid2, final float weightGrid2, final float addGrid2) {
+		float[][] a = getSliceBuffers(grid1);
+		float[][] b = getSliceBuffers(grid2);
+		if (!sameLayout(a, b)) return super.weightedDotProduct(grid1, grid2, weightGrid2, addGrid2);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) sum += (double) a[i] * (b[i] * weightGrid2 + addGrid2);
+				return sum;
+			}
+		}, a, b);
+	}
+
+	/** Compute weighted sum of squared differences between grid1 and grid2 */
+	@Override
+	public float weightedSSD(final NumericGrid grid1, final NumericGrid grid2, final double weightGrid2, final double addGrid2) {
+		float[][] a = getSliceBuffers(grid1);
+		float[][] b = getSliceBuffers(grid2);
+		if (!sameLayout(a, b)) return super.weightedSSD(grid1, grid2, weightGrid2, addGrid2);
+		return (float) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					double val = a[i] - (b[i] * weightGrid2 + addGrid2);
+					sum += val * val;
+				}
+				return sum;
+			}
+		}, a, b);
+	}
+
+	/** Compute rmse between grid1 and grid2 */
+	@Override
+	public float rmse(final NumericGrid grid1, final NumericGrid grid2) {
+		float[][] a = getSliceBuffers(grid1);
+		float[][] b = getSliceBuffers(grid2);
+		if (!sameLayout(a, b)) return super.rmse(grid1, grid2);
+		double sum = run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					float val = a[i] - b[i];
+					if (isValid(val)) sum += (double) val * val;
+				}
+				return sum;
+			}
+		}, a, b);
+		long numErrors = (long) run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				int count = 0;
+				for (int i = from; i < to; i++) {
+					if (!isValid(a[i] - b[i])) count++;
+				}
+				return count;
+			}
+		}, a, b);
+		if (0 != numErrors)
+			System.err.println("Errors in RMSE computation: "
+					+ ((float) numErrors * 100)
+					/ (grid1.getNumberOfElements()) + "%");
+		return (float) Math.sqrt(sum / grid1.getNumberOfElements());
+	}
+
+	/** Compute grid1 = grid1 + grid2. Ignores nans and infinity */
+	@Override
+	public void addBySave(NumericGrid input, NumericGrid sum) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(sum);
+		if (!sameLayout(a, b)) {
+			super.addBySave(input, sum);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) {
+					float first = isValid(a[i]) ? a[i] : 0;
+					float second = isValid(b[i]) ? b[i] : 0;
+					a[i] = second + first;
+				}
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	/** Compute grid1 = grid1 + grid2 */
+	@Override
+	public void addBy(NumericGrid input, NumericGrid sum) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(sum);
+		if (!sameLayout(a, b)) {
+			super.addBy(input, sum);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] += b[i];
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid + a */
+	@Override
+	public void addBy(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.addBy(grid, value);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] += value;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid + a. Ignores nans and infinity*/
+	@Override
+	public void addBySave(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.addBySave(grid, value);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = (isValid(a[i]) ? a[i] : 0) + value;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Compute grid1 = grid2 - grid1. Ignores nans and infinity. (Note the order, which is kept for compatibility with the NumericGridOperator) */
+	@Override
+	public void subtractBySave(NumericGrid input, NumericGrid sub) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(sub);
+		if (!sameLayout(a, b)) {
+			super.subtractBySave(input, sub);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) {
+					float first = isValid(a[i]) ? a[i] : 0;
+					float second = isValid(b[i]) ? b[i] : 0;
+					a[i] = second - first;
+				}
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid - a. Ignores nans and infinity */
+	@Override
+	public void subtractBySave(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.subtractBySave(grid, value);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = (isValid(a[i]) ? a[i] : 0) - value;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Compute grid1 = grid1 - grid2 */
+	@Override
+	public void subtractBy(NumericGrid input, NumericGrid sub) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(sub);
+		if (!sameLayout(a, b)) {
+			super.subtractBy(input, sub);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] -= b[i];
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid - a */
+	@Override
+	public void subtractBy(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.subtractBy(grid, value);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] -= value;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Compute grid1 = grid1 / grid2. In case of zero, NaN, or infinity 0 is set */
+	@Override
+	public void divideBySave(NumericGrid input, NumericGrid divisor) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(divisor);
+		if (!sameLayout(a, b)) {
+			super.divideBySave(input, divisor);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) {
+					if (0 == a[i] || 0 == b[i] || !isValid(a[i]) || !isValid(b[i]))
+						a[i] = 0;
+					else
+						a[i] /= b[i];
+				}
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	@Override
+	public void divideBy(NumericGrid input, NumericGrid divisor) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(divisor);
+		if (!sameLayout(a, b)) {
+			super.divideBy(input, divisor);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] /= b[i];
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid / a */
+	@Override
+	public void divideBy(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.divideBy(grid, value);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] /= value;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid / a. Ignores nans and infinity */
+	@Override
+	public void divideBySave(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.divideBySave(grid, value);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = (isValid(a[i]) ? a[i] : 0) / value;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	@Override
+	public void multiplyBy(NumericGrid input, NumericGrid multiplicator) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(multiplicator);
+		if (!sameLayout(a, b)) {
+			super.multiplyBy(input, multiplicator);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] *= b[i];
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	/** Compute grid1 = grid1 * grid2. In case of NaN or infinity 0 is set */
+	@Override
+	public void multiplyBySave(NumericGrid input, NumericGrid multiplicator) {
+		float[][] a = getSliceBuffers(input);
+		float[][] b = getSliceBuffers(multiplicator);
+		if (!sameLayout(a, b)) {
+			super.multiplyBySave(input, multiplicator);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) {
+					if (!isValid(a[i]) || !isValid(b[i]))
+						a[i] = 0;
+					else
+						a[i] *= b[i];
+				}
+				return 0;
+			}
+		}, a, b);
+		input.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid * a */
+	@Override
+	public void multiplyBy(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.multiplyBy(grid, value);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] *= value;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Compute grid = grid * a. In case of NaN or infinity 0 is set */
+	@Override
+	public void multiplyBySave(NumericGrid grid, final float value) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.multiplyBySave(grid, value);
+			return;
+		}
+		if (!isValid(value))
+			System.err.println("[multiplyBySave] called with invalid scalar value");
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = isValid(a[i]) ? a[i] * value : 0;
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	/** Set all negative values in grid as zero. */
+	@Override
+	public void removeNegative(NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.removeNegative(grid);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) {
+					if (a[i] < 0) a[i] = 0;
+				}
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	@Override
+	public float stddev(final NumericGrid data, final double mean) {
+		float[][] a = getSliceBuffers(data);
+		if (a == null) return super.stddev(data, mean);
+		double sum = run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				double sum = 0;
+				for (int i = from; i < to; i++) {
+					double val = a[i] - mean;
+					sum += val * val;
+				}
+				return sum;
+			}
+		}, a, null);
+		return (float) Math.sqrt(sum / data.getNumberOfElements());
+	}
+
+	@Override
+	public void abs(NumericGrid data) {
+		float[][] a = getSliceBuffers(data);
+		if (a == null) {
+			super.abs(data);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = Math.abs(a[i]);
+				return 0;
+			}
+		}, a, null);
+		data.notifyAfterWrite();
+	}
+
+	@Override
+	public void pow(NumericGrid grid, final double exponent) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.pow(grid, exponent);
+			return;
+		}
+		final float exp = (float) exponent;
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = (float) Math.pow(a[i], exp);
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	@Override
+	public void sqrt(NumericGrid grid) {
+		float[][] a = getSliceBuffers(grid);
+		if (a == null) {
+			super.sqrt(grid);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = (float) Math.sqrt(a[i]);
+				return 0;
+			}
+		}, a, null);
+		grid.notifyAfterWrite();
+	}
+
+	@Override
+	public void log(NumericGrid data) {
+		float[][] a = getSliceBuffers(data);
+		if (a == null) {
+			super.log(data);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = (float) Math.log(a[i]);
+				return 0;
+			}
+		}, a, null);
+		data.notifyAfterWrite();
+	}
+
+	@Override
+	public void exp(NumericGrid data) {
+		float[][] a = getSliceBuffers(data);
+		if (a == null) {
+			super.exp(data);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = (float) Math.exp(a[i]);
+				return 0;
+			}
+		}, a, null);
+		data.notifyAfterWrite();
+	}
+
+	/** set maximum value, all values > max are set to max */
+	@Override
+	public void setMax(NumericGrid data, final float max) {
+		float[][] a = getSliceBuffers(data);
+		if (a == null) {
+			super.setMax(data, max);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = Math.min(max, a[i]);
+				return 0;
+			}
+		}, a, null);
+		data.notifyAfterWrite();
+	}
+
+	/** set minimum value, all values < min are set to min */
+	@Override
+	public void setMin(NumericGrid data, final float min) {
+		float[][] a = getSliceBuffers(data);
+		if (a == null) {
+			super.setMin(data, min);
+			return;
+		}
+		run(new ChunkKernel() {
+			double apply(float[] a, float[] b, int from, int to) {
+				for (int i = from; i < to; i++) a[i] = Math.max(min, a[i]);
+				return 0;
+			}
+		}, a, null);
+		data.notifyAfterWrite();
+	}
+
+}
@@ -0,0 +1,100 @@
+package edu.stanford.rsl.conrad.data.numeric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelNumericGridOperatorTest {
+
+	private static final double smallValue = 1e-4;
+
+	private Grid3D createRandomGrid(long seed){
+		Random random = new Random(seed);
+		// large enough to be split into several chunks, slices not aligned with the chunks
+		Grid3D grid = new Grid3D(67, 61, 23);
+		for (int k = 0; k < grid.getSize()[2]; k++){
+			float [] buffer = grid.getSubGrid(k).getBuffer();
+			for (int i = 0; i < buffer.length; i++){
+				buffer[i] = random.nextFloat() - 0.25f;
+			}
+		}
+		return grid;
+	}
+
+	private void assertRelativeEquals(double expected, double actual){
+		assertEquals(expected, actual, Math.max(1, Math.abs(expected)) * smallValue);
+	}
+
+	@Test
+	public void testReductions() {
+		NumericGridOperator serial = NumericGridOperator.getInstance();
+		ParallelNumericGridOperator parallel = ParallelNumericGridOperator.getInstance();
+		Grid3D grid1 = createRandomGrid(1);
+		Grid3D grid2 = createRandomGrid(2);
+		grid1.setAtIndex(3, 4, 5, Float.NaN);
+		assertRelativeEquals(serial.sumSave(grid1), parallel.sumSave(grid1));
+		assertRelativeEquals(serial.normL1(grid1), parallel.normL1(grid1));
+		assertRelativeEquals(serial.normL2(grid1), parallel.normL2(grid1));
+		assertEquals(serial.countNegativeElements(grid1), parallel.countNegativeElements(grid1));
+		assertEquals(1, parallel.countInvalidElements(grid1));
+		assertEquals(serial.min(grid1), parallel.min(grid1), 0);
+		assertEquals(serial.max(grid1), parallel.max(grid1), 0);
+		grid1.setAtIndex(3, 4, 5, 0);
+		assertRelativeEquals(serial.sum(grid1), parallel.sum(grid1));
+		assertRelativeEquals(serial.dotProduct(grid1, grid2), parallel.dotProduct(grid1, grid2));
+		assertRelativeEquals(serial.weightedSSD(grid1, grid2, 0.5, 1), parallel.weightedSSD(grid1, grid2, 0.5, 1));
+		assertRelativeEquals(serial.rmse(grid1, grid2), parallel.rmse(grid1, grid2));
+		assertRelativeEquals(serial.stddev(grid1, 0.25), parallel.stddev(grid1, 0.25));
+	}
+
+	@Test
+	public void testPointwise() {
+		NumericGridOperator serial = NumericGridOperator.getInstance();
+		ParallelNumericGridOperator parallel = ParallelNumericGridOperator.getInstance();
+		Grid3D expected = createRandomGrid(3);
+		Grid3D actual = createRandomGrid(3);
+		Grid3D other = createRandomGrid(4);
+		serial.addBy(expected, other);
+		parallel.addBy(actual, other);
+		serial.multiplyBy(expected, 2.5f);
+		parallel.multiplyBy(actual, 2.5f);
+		serial.subtractBySave(expected, other);
+		parallel.subtractBySave(actual, other);
+		serial.divideBySave(expected, other);
+		parallel.divideBySave(actual, other);
+		serial.removeNegative(expected);
+		parallel.removeNegative(actual);
+		serial.sqrt(expected);
+		parallel.sqrt(actual);
+		for (int k = 0; k < expected.getSize()[2]; k++){
+			for (int j = 0; j < expected.getSize()[1]; j++){
+				for (int i = 0; i < expected.getSize()[0]; i++){
+					assertEquals(expected.getAtIndex(i, j, k), actual.getAtIndex(i, j, k), 0);
+				}
+			}
+		}
+		parallel.copy(actual, other);
+		assertEquals(0, parallel.rmse(actual, other), 0);
+	}
+
+	@Test
+	public void testSelection() {
+		Grid2D grid = new Grid2D(4, 4);
+		ParallelNumericGridOperator.setEnabled(true);
+		assertTrue(NumericPointwiseOperators.selectGridOperator(grid) instanceof ParallelNumericGridOperator);
+		ParallelNumericGridOperator.setEnabled(false);
+		assertTrue(!(NumericPointwiseOperators.selectGridOperator(grid) instanceof ParallelNumericGridOperator));
+		ParallelNumericGridOperator.setEnabled(true);
+		// unsupported grids fall back to the sequential implementation
+		Grid1D grid1D = new Grid1D(new float[] {1, 2, 3});
+		assertEquals(6, ParallelNumericGridOperator.getInstance().sum(grid1D), 0);
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -1,13 +1,20 @@
 package edu.stanford.rsl.conrad.data.test;
 
+import java.util.Random;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
 import edu.stanford.rsl.conrad.data.numeric.Grid1D;
 import edu.stanford.rsl.conrad.data.numeric.Grid1DComplex;
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.data.numeric.NumericGrid;
 import edu.stanford.rsl.conrad.data.numeric.NumericPointwiseOperators;
+import edu.stanford.rsl.conrad.filtering.rampfilters.RampFilter;
+import edu.stanford.rsl.conrad.filtering.rampfilters.SheppLoganRampFilter;
 import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.FFTUtil;
 
 public class FFTTests {
 
@@ -23,6 +30,38 @@ public class FFTTests {
 		float sum = (float)NumericPointwiseOperators.sum(result);
 		Assert.assertTrue( Math.abs(sum)<CONRAD.FLOAT_EPSILON);
 	}
+
+	@Test
+	public void testRampFilter(){
+		Random random = new Random(7);
+		Grid2D projection = new Grid2D(50, 31);
+		float [] buffer = projection.getBuffer();
+		for (int i = 0; i < buffer.length; i++){
+			buffer[i] = random.nextFloat();
+		}
+		RampFilter ramp = new SheppLoganRampFilter();
+		ramp.setPhysicalPixelWidthInMilimeters(0.5);
+		Grid2D filtered = FFTUtil.applyRampFilter(projection, ramp);
+		Grid2D singlePrecision = FFTUtil.applyRampFilterSinglePrecision(projection, ramp);
+		// reference: plain per-row filtering with a new plan and a fresh filter
+		int newDimension = FFTUtil.getNextPowerOfTwo(projection.getWidth());
+		double [] filter = ramp.clone().getRampFilter1D(newDimension);
+		DoubleFFT_1D fft = new DoubleFFT_1D(newDimension);
+		double max = NumericPointwiseOperators.max(filtered) - NumericPointwiseOperators.min(filtered);
+		for (int j = 0; j < projection.getHeight(); j++){
+			double [] fftData = new double [newDimension*2];
+			for (int i = 0; i < projection.getWidth(); i++){
+				fftData[2*i] = projection.getAtIndex(i, j);
+			}
+			fft.complexForward(fftData);
+			fftData = FFTUtil.multiplyAbsolute(fftData, filter);
+			fft.complexInverse(fftData, true);
+			for (int i = 0; i < projection.getWidth(); i++){
+				Assert.assertEquals(fftData[2*i], filtered.getAtIndex(i, j), 1e-5 * max);
+				Assert.assertEquals(fftData[2*i], singlePrecision.getAtIndex(i, j), 1e-4 * max);
+			}
+		}
+	}
 	
 }
 /*
@@ -4,12 +4,17 @@ import javax.swing.JOptionPane;
 
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.filtering.rampfilters.RampFilter;
+import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 import edu.stanford.rsl.conrad.utils.FFTUtil;
+import edu.stanford.rsl.conrad.utils.RegKeys;
 
 /**
  * Class to apply a ramp filter to an image before 3D reconstruction. After instantiation a
  * RampFilter has to be set. After that the ImageFilteringTool can be used as any other ImageFilteringTool.
+ * <BR><BR>
+ * The filter kernel is computed once per RampFilter and is shared by all projections. If {@link RegKeys#RAMP_FILTER_SINGLE_PRECISION} is set to true,
+ * the projections are filtered in single precision with two detector rows per transform.
  * 
  * @author Andreas Maier
  *
@@ -21,6 +26,7 @@ public class RampFilteringTool extends IndividualImageFilteringTool {
 	 */
 	private static final long serialVersionUID = 2575773201054615567L;
 	RampFilter ramp = null;
+	private transient Boolean singlePrecision = null;
 	
 	@Override
 	public IndividualImageFilteringTool clone() {
@@ -55,7 +61,24 @@ public class RampFilteringTool extends IndividualImageFilteringTool {
 
 	@Override
 	public Grid2D applyToolToImage(Grid2D imageProcessor) {
-		return FFTUtil.applyRampFilter(imageProcessor, ramp.clone());
+		if (isSinglePrecision()) {
+			return FFTUtil.applyRampFilterSinglePrecision(imageProcessor, ramp);
+		}
+		return FFTUtil.applyRampFilter(imageProcessor, ramp);
+	}
+
+	private boolean isSinglePrecision(){
+		if (singlePrecision == null) {
+			boolean value = false;
+			try {
+				String regKey = Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.RAMP_FILTER_SINGLE_PRECISION);
+				if (regKey != null) value = Boolean.parseBoolean(regKey);
+			} catch (Exception e){
+				CONRAD.log("Key '" + RegKeys.RAMP_FILTER_SINGLE_PRECISION + "' was not found in registry.");
+			}
+			singlePrecision = value;
+		}
+		return singlePrecision;
 	}
 
 	
@@ -5,15 +5,23 @@
 package edu.stanford.rsl.conrad.filtering;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
 import edu.stanford.rsl.conrad.data.numeric.MultiChannelGrid2D;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.Edge;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.io.MaterialPathLengthStackSink;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
 import edu.stanford.rsl.conrad.physics.PhysicalObject;
 import edu.stanford.rsl.conrad.physics.detector.XRayDetector;
 import edu.stanford.rsl.conrad.physics.materials.Material;
 import edu.stanford.rsl.conrad.physics.materials.database.MaterialsDB;
+import edu.stanford.rsl.conrad.pipeline.RandomAccessProjectionSource;
 import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 
@@ -29,6 +37,8 @@ public class SimulateXRayDetector extends IndividualImageFilteringTool {
 	 * 
 	 */
 	private static final long serialVersionUID = -3973031220832239032L;
+	private transient String [] materialNames;
+	private transient Material [] materials;
 	
 	@Override
 	public void configure() throws Exception {
@@ -54,36 +64,51 @@ public class SimulateXRayDetector extends IndividualImageFilteringTool {
 
 	@Override
 	public Grid2D applyToolToImage(Grid2D imageProcessor) throws Exception {
-		Grid2D result = imageProcessor;
 		XRayDetector model = Configuration.getGlobalConfiguration().getDetector();
+		Grid2D result = simulate(model, imageProcessor);
+		if (imageIndex == Configuration.getGlobalConfiguration().getGeometry().getProjectionStackSize() -1) model.notifyEndOfRendering();
+		return result;
+	}
+
+	/**
+	 * Applies the detector to the path lengths of one projection. Multi channel grids contain one channel per material. The channel names are the material names.
+	 * Other grids are interpreted as path lengths through water.
+	 * @param model the detector
+	 * @param imageProcessor the path lengths in [mm]
+	 * @return the detector image
+	 */
+	public Grid2D simulate(XRayDetector model, Grid2D imageProcessor) {
+		Grid2D result = imageProcessor;
 		if (imageProcessor instanceof MultiChannelGrid2D){
 			MultiChannelGrid2D multiChannelGrid2D = (MultiChannelGrid2D) imageProcessor;
 			result = model.createDetectorGrid(multiChannelGrid2D.getWidth(), multiChannelGrid2D.getHeight());
-			Material[] materials = new Material[multiChannelGrid2D.getNumberOfChannels()];
-			ArrayList<PhysicalObject> segments = new ArrayList<PhysicalObject>();
+			Material[] materials = getMaterials(multiChannelGrid2D.getChannelNames());
+			PhysicalObject [] objects = new PhysicalObject[materials.length];
 			for (int c=0;c<materials.length; c++){
-				String name = multiChannelGrid2D.getChannelNames()[c];
-				if (name.contains("water w rho=")) {
-					// Exception for XCAT.
-					materials[c] = MaterialsDB.getMaterial("water");
-					String [] parts = name.split("water w rho=");
-					String [] number = parts[1].split(" ");
-					double density = Double.parseDouble(number[0]);
-					materials[c].setDensity(density);
-					materials[c].setName(name);
-				} else {
-					// Normal materials.
-					materials[c] = MaterialsDB.getMaterial(name);
-				}
-				PhysicalObject object = new PhysicalObject();
-				object.setMaterial(materials[c]);
-				object.setNameString(name);
-				segments.add(object);
+				// unused channels have no material
+				if (materials[c] == null) continue;
+				objects[c] = new PhysicalObject();
+				objects[c].setMaterial(materials[c]);
+				objects[c].setNameString(multiChannelGrid2D.getChannelNames()[c]);
+				objects[c].setShape(new Edge(new PointND(0), new PointND(0)));
 			}
+			float [][] channels = new float [materials.length][];
+			for (int c=0; c<materials.length; c++){
+				channels[c] = multiChannelGrid2D.getChannel(c).getBuffer();
+			}
+			PointND origin = new PointND(0);
+			ArrayList<PhysicalObject> segments = new ArrayList<PhysicalObject>();
 			for (int j=0; j<multiChannelGrid2D.getHeight(); j++){
 				for (int i=0; i<multiChannelGrid2D.getWidth();i++){
+					// materials that were not hit do not contribute to the attenuation.
+					segments.clear();
+					int index = (j * multiChannelGrid2D.getWidth()) + i;
 					for (int c=0; c<materials.length; c++){
-						segments.get(c).setShape(new Edge(new PointND(0), new PointND(multiChannelGrid2D.getPixelValue(i, j, c))));
+						float length = channels[c][index];
+						if (length != 0 && objects[c] != null) {
+							((Edge) objects[c].getShape()).setEnds(origin, new PointND(length));
+							segments.add(objects[c]);
+						}
 					}
 					model.writeToDetector(result, i, j, segments);
 				}
@@ -91,7 +116,7 @@ public class SimulateXRayDetector extends IndividualImageFilteringTool {
 		} else {
 			// Only one material assuming water.
 			// See http://lists.fau.de/pipermail/project-conrad/2014-November/000069.html for discussion in the mailing list.
-			Material material = MaterialsDB.getMaterial("water");
+			Material material = getMaterials(new String [] {"water"})[0];
 			for (int j=0; j<result.getHeight(); j++){
 				for (int i=0; i<result.getWidth();i++){
 					ArrayList<PhysicalObject> segments = new ArrayList<PhysicalObject>();
@@ -104,7 +129,82 @@ public class SimulateXRayDetector extends IndividualImageFilteringTool {
 				}
 			}
 		}
-		if (imageIndex == Configuration.getGlobalConfiguration().getGeometry().getProjectionStackSize() -1) model.notifyEndOfRendering();
+		return result;
+	}
+
+	/**
+	 * Looks up the materials of the channels in the material database. The materials are only loaded again, if the channel names change.
+	 * @param names the channel names
+	 * @return the materials. Channels without a name have no material.
+	 */
+	private Material [] getMaterials(String [] names){
+		if (materials != null && Arrays.equals(names, materialNames)) return materials;
+		Material [] result = new Material[names.length];
+		for (int c=0;c<names.length; c++){
+			String name = names[c];
+			if (name == null || name.length() == 0) {
+				result[c] = null;
+			} else if (name.contains("water w rho=")) {
+				// Exception for XCAT.
+				result[c] = MaterialsDB.getMaterial("water");
+				String [] parts = name.split("water w rho=");
+				String [] number = parts[1].split(" ");
+				double density = Double.parseDouble(number[0]);
+				result[c].setDensity(density);
+				result[c].setName(name);
+			} else {
+				// Normal materials.
+				result[c] = MaterialsDB.getMaterial(name);
+			}
+		}
+		materialNames = names.clone();
+		materials = result;
+		return result;
+	}
+
+	/**
+	 * Applies the detector to all projections of a material path length stack, e.g. a stack that was written by {@link MaterialPathLengthStackSink}.
+	 * The rays are not traced again. Hence, different spectra, absorption models or noise realizations can be simulated from the same stack.
+	 * The projections are processed in parallel.
+	 * @param stack the path lengths
+	 * @param model the detector
+	 * @return the detector images
+	 * @throws Exception if the stack cannot be read
+	 */
+	public static Grid3D simulate(final RandomAccessProjectionSource stack, final XRayDetector model) throws Exception {
+		final int numberOfProjections = stack.getNumberOfProjections();
+		final Grid2D [] results = new Grid2D[numberOfProjections];
+		final AtomicInteger nextProjection = new AtomicInteger(0);
+		final Exception [] error = new Exception[1];
+		int numberOfThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), numberOfProjections));
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+		for (int t = 0; t < numberOfThreads; t++){
+			runnables[t] = new SimpleParallelThread(t) {
+				@Override
+				public void execute() {
+					// every thread has its own material cache.
+					SimulateXRayDetector simulator = new SimulateXRayDetector();
+					for (int p = nextProjection.getAndIncrement(); p < numberOfProjections; p = nextProjection.getAndIncrement()){
+						try {
+							results[p] = simulator.simulate(model, stack.getProjection(p));
+						} catch (Exception e) {
+							synchronized (error) {
+								error[0] = e;
+							}
+							return;
+						}
+					}
+				}
+			};
+		}
+		new ParallelThreadExecutor(runnables).execute();
+		if (error[0] != null) throw error[0];
+		model.notifyEndOfRendering();
+		if (numberOfProjections == 0) return null;
+		Grid3D result = new Grid3D(results[0].getWidth(), results[0].getHeight(), numberOfProjections, false);
+		for (int p = 0; p < numberOfProjections; p++){
+			result.setSubGrid(p, results[p]);
+		}
 		return result;
 	}
 
@@ -4,6 +4,7 @@
 */
 package edu.stanford.rsl.conrad.filtering.multiprojection;
 
+import java.io.File;
 import java.util.ArrayList;
 
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
@@ -13,6 +14,7 @@ import edu.stanford.rsl.conrad.pipeline.ProjectionSource;
 import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 import edu.stanford.rsl.conrad.utils.ImageGridBuffer;
+import edu.stanford.rsl.conrad.utils.RegKeys;
 
 
 /**
@@ -22,6 +24,11 @@ import edu.stanford.rsl.conrad.utils.ImageGridBuffer;
  * 
  * If memory limitations are a problem the garbage collector may also be invoked after collecting some data from the ProjectionSource as the
  * references are set to null internally during this process.
+ * <BR><BR>
+ * The input buffer may keep only a limited number of projections in memory (RegKeys.PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY) and write the others
+ * to a temporary file. A projection that is read from the file again is a copy. Hence, changes that a filter makes to it in place are lost.
+ * Filters that modify the projections of the inputQueue in place and read them again later must return true in {@link #modifiesProjectionsInPlace()}.
+ * This is the default. Their input buffer keeps all projections in memory.
  * 
  * @author Andreas Maier
  */
@@ -37,16 +44,46 @@ implements ProjectionSink, Runnable {
 	protected ImageGridBuffer outputQueue;
 	protected ProjectionSink sink;
 	protected int context = 3;
+	private int maxImagesInMemory = -1;
 
-	public void setContext(int context){
+	/**
+	 * Sets the number of neighbouring projections that are required to process a projection. If the input buffer is limited in size,
+	 * its limit is raised such that the projections of the context stay in memory.
+	 * @param context the context
+	 */
+	public synchronized void setContext(int context){
 		this.context = context;
+		if (inputQueue != null && maxImagesInMemory > 0) {
+			inputQueue.setMaxImagesInMemory(getImageLimit());
+		}
+		// the context decides whether the next projection can be processed and how many projections may be queued.
+		notifyAll();
+	}
+
+	/**
+	 * @return the configured number of projections in memory, but at least the projections of the current context.
+	 */
+	private int getImageLimit(){
+		return Math.max(maxImagesInMemory, (2 * context) + 2);
 	}
 
 	public int getContext(){
 		return context;
 	}
 
+	/**
+	 * Returns the number of projections that may wait for processing before {@link #process(Grid2D, int)} blocks. 
+	 * The limit is read from the registry entry RegKeys.PIPELINE_QUEUE_CAPACITY, but at least the projections of the current context can be queued.
+	 * @return the number of projections
+	 */
+	private int getQueueLimit(){
+		return Math.max(queueCapacity, (2 * context) + 2);
+	}
+
 	protected boolean showStatus = false;
+	private int queueCapacity = -1;
+	private boolean running = false;
+	private int processedCount = 0;
 	private boolean closed = false;
 	private int finalIndex = -1;
 	boolean init = false;
@@ -76,6 +113,7 @@ implements ProjectionSink, Runnable {
 	 * Packs the filter into a Thread and starts it.
 	 */
 	public void start(){
+		setRunning(true);
 		Thread thread = new Thread(this);
 		thread.start();
 	}
@@ -98,80 +136,161 @@ implements ProjectionSink, Runnable {
 		if (inputQueue == null){
 			throw new Exception ("InputQueue was null");
 		}
+		// Backpressure: if the processing thread cannot keep up, the producer waits.
+		while (running && processed.size() - processedCount >= getQueueLimit()){
+			wait();
+		}
 		inputQueue.add(projection, projectionNumber);
 		processed.add(new Boolean(false));
+		notifyAll();
+	}
+
+	/**
+	 * Counts the projection as processed and releases a producer that waits in {@link #process(Grid2D, int)}.
+	 */
+	private synchronized void setProcessed(int processedIndex){
+		processed.set(processedIndex, new Boolean(true));
+		processedCount = processedIndex + 1;
+		notifyAll();
+	}
+
+	/**
+	 * Marks whether the processing thread is running. The input is only limited while it is running, as nobody would release a waiting producer otherwise.
+	 */
+	private synchronized void setRunning(boolean running){
+		this.running = running;
+		processedCount = 0;
+		notifyAll();
 	}
 
 	public void run(){
+		setRunning(true);
+		try {
+			processAll();
+		} finally {
+			setRunning(false);
+		}
+	}
+
+	private void processAll(){
 		int processedIndex = 0;
-		boolean init = this.init;
-		while (!init){
-			try {
-				Thread.sleep(CONRAD.INVERSE_SPEEDUP);
-				init = this.init;
-				if (debug > 2)System.out.println(init);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+		try {
+			waitForInit();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+			return;
 		}
 		if (debug > 1)System.out.println("MultiProjectionFilter: Processing");
-		boolean allProjectionsProcessed = false;
-		while (!allProjectionsProcessed){
-			if (debug > 2) System.out.println("MultiProjectionFilter: Processing Data. Queue Size: " + (processed.size() - processedIndex) );
+		while (true){
 			if (debug > 2) System.out.println("MultiProjectionFilter: Processing Data at Projection " + processedIndex );
-			// Iterate over all Images in buffer.
-			if (processedIndex < processed.size()) {
-				if (processed.get(processedIndex) != null){
-					if (!processed.get(processedIndex).booleanValue()) {
-						// found an image which is not yet processed
-						boolean available = isContextAvailable(processedIndex);
-						if (debug > 2) System.out.println("MultiProjectionFilter: Available " + available );
-						if (available) {
-							try {
-								processProjectionData(processedIndex);
-								processed.set(processedIndex, new Boolean(true));
-								processedIndex++;
-							} catch (Exception e) {
-								// Index must be increased otherwise we end in a deadlock.
-								e.printStackTrace();
-								processed.set(processedIndex, new Boolean(true));
-								processedIndex++;
-							}
-						}
-					}
-				}
-			}
-			if (closed) {
-				if (debug > 2) System.out.println("MultiProjectionFilter: All data arrived.");
-				// Are we done yet?
-				if (processedIndex == finalIndex) {
-					if (debug > 1)System.out.println("MultiProjectionFilter: All Data Streamed");
-					break;
-				}
-			}
+			boolean available = false;
 			try {
-				Thread.sleep(CONRAD.INVERSE_SPEEDUP);
+				available = waitForContext(processedIndex);
 			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
 				e.printStackTrace();
+				break;
+			}
+			if (!available) {
+				// Are we done yet?
+				if (debug > 1)System.out.println("MultiProjectionFilter: All Data Streamed");
+				break;
+			}
+			if (debug > 2) System.out.println("MultiProjectionFilter: Available " + available );
+			if (!processed.get(processedIndex).booleanValue()) {
+				try {
+					processProjectionData(processedIndex);
+				} catch (Exception e) {
+					// Index must be increased otherwise we end in a deadlock.
+					e.printStackTrace();
+				}
 			}
+			setProcessed(processedIndex);
+			processedIndex++;
 		}
 		if (debug > 1)System.out.println("MultiProjectionFilter: Finished Cleaning up ...");
 		cleanup();
 		if(debug>1) System.out.println("MultiProjectionFilter processed " + (processedIndex) + " of " + finalIndex + " Projections.");
 	}
 
+	/**
+	 * Blocks until the first projection arrived.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	private synchronized void waitForInit() throws InterruptedException{
+		while (!init){
+			if (debug > 2)System.out.println(init);
+			wait();
+		}
+	}
+
+	/**
+	 * Blocks until the context of the given projection is available or the stream ended.
+	 * @param processedIndex the projection to be processed next
+	 * @return true if the projection can be processed; false if all projections were processed.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	private synchronized boolean waitForContext(int processedIndex) throws InterruptedException{
+		while (true) {
+			if (processedIndex < processed.size() && processed.get(processedIndex) != null && isContextAvailable(processedIndex)) {
+				return true;
+			}
+			if (closed && processedIndex >= finalIndex) {
+				return false;
+			}
+			if (debug > 2) System.out.println("MultiProjectionFilter: Waiting for Data. Queue Size: " + (processed.size() - processedIndex) );
+			// Sub classes alter the inputQueue only in processProjectionData(), i.e. in this thread. 
+			// New projections, the end of the stream, and changes of the context are signalled on the monitor.
+			wait();
+		}
+	}
+
 	private synchronized void init(){
 		if (debug > 2)System.out.println("MultiProjectionFilter: init " +init);
 		if (!init){
 			// Create arrays
-			inputQueue = new ImageGridBuffer();
+			inputQueue = createInputBuffer();
+			queueCapacity = 2 * CONRAD.getNumberOfThreads();
+			Configuration config = Configuration.getGlobalConfiguration();
+			if (config != null && config.getRegistryEntry(RegKeys.PIPELINE_QUEUE_CAPACITY) != null) {
+				queueCapacity = Integer.parseInt(config.getRegistryEntry(RegKeys.PIPELINE_QUEUE_CAPACITY).trim());
+			}
 			outputQueue = new ImageGridBuffer();
 			processed = new ArrayList<Boolean>();
 			// done.
 			init = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Determines whether the filter changes the projections in the inputQueue in place and relies on the changes later on.
+	 * Such filters must not use an input buffer that writes projections to a temporary file, as changes to a projection that
+	 * was read from the file are lost. Filters that only read their input may return false.
+	 * @return true, if all projections have to be kept in memory.
+	 */
+	protected boolean modifiesProjectionsInPlace(){
+		return true;
+	}
+
+	/**
+	 * Creates the buffer for the incoming projections. If the registry entry RegKeys.PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY is set and the filter does not 
+	 * {@link #modifiesProjectionsInPlace() modify the projections in place}, only this number of projections is kept in memory. Older projections are written
+	 * to a temporary file. At least the projections of the current context are kept in memory.
+	 * @return the buffer
+	 */
+	protected ImageGridBuffer createInputBuffer(){
+		Configuration config = Configuration.getGlobalConfiguration();
+		if (config != null && !modifiesProjectionsInPlace()) {
+			String maxImages = config.getRegistryEntry(RegKeys.PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY);
+			if (maxImages != null) {
+				maxImagesInMemory = Integer.parseInt(maxImages.trim());
+				int limit = getImageLimit();
+				String directory = config.getRegistryEntry(RegKeys.PROJECTION_BUFFER_SPILL_DIRECTORY);
+				if (debug > 1) System.out.println("MultiProjectionFilter: Keeping at most " + limit + " projections in memory.");
+				return new ImageGridBuffer(limit, (directory != null) ? new File(directory) : null);
+			}
 		}
+		return new ImageGridBuffer();
 	}
 
 	protected void cleanup(){
@@ -180,6 +299,7 @@ implements ProjectionSink, Runnable {
 		for(int i = inputQueue.size()-1; i >= 0; i--){
 			inputQueue.remove(i);
 		}
+		inputQueue.dispose();
 		inputQueue = null;
 		outputQueue = null;
 		processed = null;
@@ -279,14 +399,14 @@ implements ProjectionSink, Runnable {
 		}
 		if (revan) {
 			for (int i = lowerEnd ; i <upperEnd; i++){
-				if (inputQueue.get(i) == null) revan = false;
+				if (!inputQueue.contains(i)) revan = false;
 			}
 		}
 		return revan;
 	}
 
 	@Override
-	public void close(){
+	public synchronized void close(){
 		if (debug > 1) System.out.println("Closed " + closed + " " + finalIndex + " "+ inputQueue.size());
 		if (!closed){
 			finalIndex = inputQueue.size();
@@ -294,6 +414,7 @@ implements ProjectionSink, Runnable {
 			if (debug > 1) System.out.println("MultiProjectionFilter done: finalIndex = " + finalIndex);
 			//System.exit(0);
 		}
+		notifyAll();
 	}
 
 	/**
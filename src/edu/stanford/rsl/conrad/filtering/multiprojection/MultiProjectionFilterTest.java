@@ -0,0 +1,113 @@
+package edu.stanford.rsl.conrad.filtering.multiprojection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.pipeline.ProjectionSink;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
+
+public class MultiProjectionFilterTest {
+
+	private static final int CAPACITY = 3;
+	private static Configuration previous;
+
+	@BeforeClass
+	public static void setUpConfiguration(){
+		previous = Configuration.getGlobalConfiguration();
+		Configuration config = new Configuration();
+		config.setRegistry(new HashMap<String, String>());
+		config.getRegistry().put(RegKeys.PIPELINE_QUEUE_CAPACITY, "" + CAPACITY);
+		Configuration.setGlobalConfiguration(config);
+	}
+
+	@AfterClass
+	public static void restoreConfiguration(){
+		Configuration.setGlobalConfiguration(previous);
+	}
+
+	@Test(timeout = 20000)
+	public void testBackpressure() throws Exception {
+		final int projections = 40;
+		final AtomicInteger received = new AtomicInteger();
+		final ArrayList<Integer> numbers = new ArrayList<Integer>();
+		final int [] maxQueued = new int[1];
+		final boolean [] closed = new boolean[1];
+		ProjectionSortingFilter filter = new ProjectionSortingFilter();
+		filter.setSink(new ProjectionSink(){
+
+			@Override
+			public void process(Grid2D projection, int projectionNumber) throws Exception {
+				// slower than the producer
+				Thread.sleep(2);
+				maxQueued[0] = Math.max(maxQueued[0], received.get() - projectionNumber - 1);
+				numbers.add(projectionNumber);
+			}
+
+			@Override
+			public String getName() {
+				return "Slow Sink";
+			}
+
+			@Override
+			public void setShowStatus(boolean showStatus) {
+			}
+
+			@Override
+			public void close() throws Exception {
+				synchronized (closed) {
+					closed[0] = true;
+					closed.notifyAll();
+				}
+			}
+
+		});
+		filter.start();
+		for (int i = 0; i < projections; i++){
+			filter.process(new Grid2D(1, 1), i);
+			received.incrementAndGet();
+		}
+		filter.close();
+		synchronized (closed) {
+			while (!closed[0]) closed.wait();
+		}
+		assertEquals(projections, numbers.size());
+		for (int i = 0; i < projections; i++){
+			assertEquals(i, (int) numbers.get(i));
+		}
+		assertTrue("Queued projections: " + maxQueued[0], maxQueued[0] <= CAPACITY);
+	}
+
+	@Test
+	public void testSpillingOnlyForFiltersThatDoNotModifyInPlace() {
+		Configuration.getGlobalConfiguration().getRegistry().put(RegKeys.PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY, "5");
+		try {
+			assertEquals(-1, new ProjectionSortingFilter().createInputBuffer().getMaxImagesInMemory());
+			ProjectionSortingFilter readOnly = new ProjectionSortingFilter(){
+				private static final long serialVersionUID = -5981190744460398915L;
+
+				@Override
+				protected boolean modifiesProjectionsInPlace(){
+					return false;
+				}
+			};
+			assertEquals(5, readOnly.createInputBuffer().getMaxImagesInMemory());
+		} finally {
+			Configuration.getGlobalConfiguration().getRegistry().remove(RegKeys.PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY);
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
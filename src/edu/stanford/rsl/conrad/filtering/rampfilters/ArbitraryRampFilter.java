@@ -21,6 +21,7 @@ public class ArbitraryRampFilter extends RampFilter {
 
 	public void setFilter(double [] filter) {
 		this.filter = filter;
+		resetFilterCache();
 	}
 
 	@Override
@@ -62,7 +63,7 @@ public class ArbitraryRampFilter extends RampFilter {
 	public void configure() throws Exception{
 		file = FileUtil.myFileChoose(".txt", false);
 		ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
-		filter = (double []) ois.readObject();
+		setFilter((double []) ois.readObject());
 		ois.close();
 	}
 
@@ -40,6 +40,8 @@ public abstract class RampFilter implements Cloneable, SafeSerializable, GUIConf
 
 	protected int currentWidth = -1;
 	private FloatProcessor currentProcessor = null;
+	private transient double [] kernel = null;
+	private transient int kernelWidth = -1;
 
 
 	public void setConfiguration(Configuration config){
@@ -55,6 +57,7 @@ public abstract class RampFilter implements Cloneable, SafeSerializable, GUIConf
 
 	public void setSourceToDetectorDistance(double sourceToDetectorDistance) {
 		this.sourceToDetectorDistance = sourceToDetectorDistance;
+		resetFilterCache();
 	}
 
 	protected double sourceToAxisDistance = 1;
@@ -66,6 +69,7 @@ public abstract class RampFilter implements Cloneable, SafeSerializable, GUIConf
 	public void setSourceToAxisDistance(
 			double sourceToAxisDistance) {
 		this.sourceToAxisDistance = sourceToAxisDistance;
+		resetFilterCache();
 	}
 
 	public double getCutOffFrequency() {
@@ -74,6 +78,7 @@ public abstract class RampFilter implements Cloneable, SafeSerializable, GUIConf
 
 	public void setCutOffFrequency(double cutOffFrequency) {
 		this.cutOffFrequency = cutOffFrequency;
+		resetFilterCache();
 	}
 
 	public double getPhysicalPixelWidthInMilimeters() {
@@ -82,10 +87,42 @@ public abstract class RampFilter implements Cloneable, SafeSerializable, GUIConf
 
 	public void setPhysicalPixelWidthInMilimeters(double detectorWidth) {
 		this.physicalPixelWidthInMilimeters = detectorWidth;
+		resetFilterCache();
 	}
 
 	public abstract String getRampName();
 
+	/**
+	 * Discards the cached filters. Has to be called by all setters that change the shape of the filter.
+	 */
+	protected synchronized void resetFilterCache(){
+		filter = null;
+		currentWidth = -1;
+		currentProcessor = null;
+		kernel = null;
+		kernelWidth = -1;
+	}
+
+	/**
+	 * Returns the real-valued filter kernel for one detector row, i.e. the absolute value of the filter in Fourier domain as it is applied by
+	 * {@link FFTUtil#multiplyAbsolute(double[], double[])}. The kernel is computed only once per width and may be shared between threads.
+	 * The returned array must not be modified.
+	 * @param width the width of the detector row in Fourier domain
+	 * @return the kernel with one real value per frequency
+	 */
+	public synchronized double [] getRampFilterKernel(int width){
+		if (kernel == null || kernelWidth != width) {
+			double [] filter = getRampFilter1D(width);
+			double [] kernel = new double [filter.length / 2];
+			for (int i = 0; i < kernel.length; i++){
+				kernel[i] = FFTUtil.abs(i, filter);
+			}
+			this.kernel = kernel;
+			kernelWidth = width;
+		}
+		return kernel;
+	}
+
 	/**
 	 * Returns the filter for one detector row as complex double array (JTransforms format)
 	 * @param width the width of the detector row
@@ -38,6 +38,7 @@ public class SheppLoganRampFilterWithRollOff extends SheppLoganRampFilter {
 
 	public void setStart(double start) {
 		this.start = start;
+		resetFilterCache();
 	}
 
 	public double getScale() {
@@ -46,6 +47,7 @@ public class SheppLoganRampFilterWithRollOff extends SheppLoganRampFilter {
 
 	public void setScale(double scale) {
 		this.scale = scale;
+		resetFilterCache();
 	}
 	
 	private double cutoff(double value){
@@ -215,6 +215,21 @@ public abstract class AbstractShape implements Serializable, Transformable {
 		return intersect(other);
 	}
 
+	/**
+	 * Primitive version of {@link #intersectWithHitOrientation(AbstractCurve)} for the straight line origin + t * direction. The distances t of
+	 * the hits are appended to the buffer. No objects are created. The hit points are the same as the points returned by intersectWithHitOrientation()
+	 * up to rounding errors.
+	 * <BR><BR>
+	 * The default implementation returns -1. Shapes which support the primitive intersection override this method.
+	 * @param origin the origin of the line (3 entries)
+	 * @param direction the direction of the line (3 entries)
+	 * @param hits the buffer for the hits
+	 * @return the number of hits that were appended or -1, if the shape does not support primitive intersection. In this case, nothing is appended.
+	 */
+	public int intersectRay(double [] origin, double [] direction, RayHitBuffer hits){
+		return -1;
+	}
+
 	/**
 	 * Rasters the shape with a given number of points or less. If the shape is not bounded null is returned.
 	 * @param number the number of points
@@ -277,6 +277,38 @@ public abstract class General {
 		return revan;
 	}
 	
+	/**
+	 * Primitive version of {@link #intersectRayWithCuboid(SimpleVector, SimpleVector, SimpleVector, SimpleVector, double[])} which only
+	 * tests whether the cuboid is hit.
+	 * @param origin the ray origin (3 entries)
+	 * @param dir the normalized ray direction (3 entries)
+	 * @param cubmin the minimal corner of the cuboid
+	 * @param cubmax the maximal corner of the cuboid
+	 * @return true, if the ray hits the cuboid
+	 */
+	public static boolean intersectRayWithCuboid(final double [] origin, final double [] dir, final PointND cubmin, final PointND cubmax) {
+		double near = Double.NEGATIVE_INFINITY;
+		double far = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < 3; ++i) {
+			if (Math.abs(dir[i]) < CONRAD.DOUBLE_EPSILON) {
+				if (origin[i] < cubmin.get(i) || origin[i] > cubmax.get(i)) return false;
+			} else {
+				double t1 = (cubmin.get(i) - origin[i])/dir[i];
+				double t2 = (cubmax.get(i) - origin[i])/dir[i];
+				if (t1 > t2) {
+					final double ttmp = t1;
+					t1 = t2;
+					t2 = ttmp;
+				}
+				if (t1 > near) near = t1;
+				if (t2 < far) far = t2;
+				if (near > far + CONRAD.FLOAT_EPSILON) return false;
+				if (far < 0) return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Method to check whether a point is within a given cubiod defined by min and max. 
 	 * @param point the point
@@ -0,0 +1,143 @@
+package edu.stanford.rsl.conrad.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Reusable buffer for the intersections of a ray with shapes. A hit is stored as distance t along the ray, i.e. the hit point is origin + t * direction,
+ * together with the hit orientation (the inner product of ray direction and surface normal, if known, 0 otherwise) and the id of the object that was hit.
+ * <BR><BR>
+ * The buffer is used by {@link AbstractShape#intersectRay(double[], double[], RayHitBuffer)} to compute intersections without creating
+ * PointND, SimpleVector, or ArrayList objects per ray. Buffers are not thread-safe; every thread should use its own buffer and
+ * {@link #clear()} it before the next ray.
+ *
+ * @author akmaier
+ *
+ */
+public class RayHitBuffer {
+
+	private double [] distances;
+	private double [] orientations;
+	private int [] objectIds;
+	private int size = 0;
+	private double [] scratch = new double [32];
+
+	/**
+	 * Creates an empty buffer.
+	 */
+	public RayHitBuffer(){
+		this(16);
+	}
+
+	/**
+	 * Creates an empty buffer with the given initial capacity. The buffer grows, if required.
+	 * @param capacity the initial number of hits
+	 */
+	public RayHitBuffer(int capacity){
+		capacity = Math.max(1, capacity);
+		distances = new double [capacity];
+		orientations = new double [capacity];
+		objectIds = new int [capacity];
+	}
+
+	/**
+	 * Removes all hits.
+	 */
+	public void clear(){
+		size = 0;
+	}
+
+	/**
+	 * @return the number of hits in the buffer
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * Removes all hits after the first newSize hits.
+	 * @param newSize the number of hits to keep
+	 */
+	public void truncate(int newSize){
+		if (newSize < 0 || newSize > size) throw new IndexOutOfBoundsException("Cannot truncate " + size + " hits to " + newSize + ".");
+		size = newSize;
+	}
+
+	/**
+	 * Appends a hit without orientation. The object id is -1 until it is set with {@link #setObjectId(int, int, int)}.
+	 * @param distance the distance along the ray
+	 */
+	public void add(double distance){
+		add(distance, 0);
+	}
+
+	/**
+	 * Appends a hit. The object id is -1 until it is set with {@link #setObjectId(int, int, int)}.
+	 * @param distance the distance along the ray
+	 * @param orientation the inner product of ray direction and surface normal
+	 */
+	public void add(double distance, double orientation){
+		if (size == distances.length) {
+			distances = Arrays.copyOf(distances, 2 * size);
+			orientations = Arrays.copyOf(orientations, 2 * size);
+			objectIds = Arrays.copyOf(objectIds, 2 * size);
+		}
+		distances[size] = distance;
+		orientations[size] = orientation;
+		objectIds[size] = -1;
+		size++;
+	}
+
+	/**
+	 * Sets the object id of the hits from first (inclusive) to last (exclusive).
+	 * @param first the first hit
+	 * @param last the hit after the last hit
+	 * @param id the object id
+	 */
+	public void setObjectId(int first, int last, int id){
+		for (int i = first; i < last; i++){
+			objectIds[i] = id;
+		}
+	}
+
+	/**
+	 * @param i the number of the hit
+	 * @return the distance of hit i along the ray
+	 */
+	public double getDistance(int i){
+		return distances[i];
+	}
+
+	/**
+	 * @param i the number of the hit
+	 * @return the inner product of ray direction and surface normal of hit i
+	 */
+	public double getOrientation(int i){
+		return orientations[i];
+	}
+
+	/**
+	 * @param i the number of the hit
+	 * @return the object id of hit i
+	 */
+	public int getObjectId(int i){
+		return objectIds[i];
+	}
+
+	/**
+	 * Returns a temporary array for intermediate results of the intersection computation. The content is undefined and
+	 * is overwritten by the next call of any shape.
+	 * @param length the minimal length
+	 * @return the array
+	 */
+	public double [] getScratch(int length){
+		if (scratch.length < length) {
+			scratch = new double [Math.max(length, 2 * scratch.length)];
+		}
+		return scratch;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
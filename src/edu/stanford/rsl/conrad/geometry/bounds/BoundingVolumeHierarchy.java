@@ -0,0 +1,336 @@
+package edu.stanford.rsl.conrad.geometry.bounds;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Bounding volume hierarchy (BVH) over a set of axis-aligned boxes in 3D. The hierarchy is used to find all boxes which are hit by a ray
+ * in logarithmic instead of linear time.
+ * <BR><BR>
+ * The tree is built top-down with the surface area heuristic (SAH), evaluated on a fixed number of bins along the axis with the largest extent
+ * of the box centers. The nodes are stored in flat arrays in depth-first order, i.e. the left child of an inner node directly follows its parent.
+ * If the boxes move, e.g. in a 4D scene, the hierarchy can be refitted to the new boxes without rebuilding the tree.
+ * <BR><BR>
+ * The boxes are passed as one array with six entries per box: min x, min y, min z, max x, max y, max z.
+ *
+ * @author akmaier
+ *
+ */
+public class BoundingVolumeHierarchy implements Serializable {
+
+	private static final long serialVersionUID = -2718059165117282470L;
+
+	/**
+	 * maximal number of boxes in a leaf
+	 */
+	private static final int MAX_LEAF_SIZE = 4;
+	private static final int NUMBER_OF_BINS = 16;
+	/**
+	 * relative cost of the traversal of an inner node compared to the intersection with a box
+	 */
+	private static final double TRAVERSAL_COST = 1.0;
+
+	private final int numberOfBoxes;
+	/**
+	 * bounds of the nodes, six entries per node
+	 */
+	private double [] nodeBounds;
+	/**
+	 * inner nodes: index of the right child; leaves: index of the first box in order
+	 */
+	private int [] nodeOffset;
+	/**
+	 * inner nodes: 0; leaves: number of boxes
+	 */
+	private int [] nodeCount;
+	private int numberOfNodes = 0;
+	private int depth = 0;
+	/**
+	 * box indices in leaf order
+	 */
+	private final int [] order;
+	/**
+	 * copy of the boxes for the test of the single boxes in a leaf
+	 */
+	private double [] boxes;
+
+	/**
+	 * Builds the hierarchy.
+	 * @param boxes the boxes, six entries per box.
+	 */
+	public BoundingVolumeHierarchy(double [] boxes){
+		if (boxes.length % 6 != 0) throw new IllegalArgumentException("Six entries per box are required.");
+		numberOfBoxes = boxes.length / 6;
+		this.boxes = boxes.clone();
+		order = new int [numberOfBoxes];
+		for (int i = 0; i < numberOfBoxes; i++){
+			order[i] = i;
+		}
+		int capacity = Math.max(1, 2 * numberOfBoxes);
+		nodeBounds = new double [6 * capacity];
+		nodeOffset = new int [capacity];
+		nodeCount = new int [capacity];
+		if (numberOfBoxes > 0) {
+			double [] centers = new double [3 * numberOfBoxes];
+			for (int i = 0; i < numberOfBoxes; i++){
+				for (int d = 0; d < 3; d++){
+					centers[(3*i)+d] = 0.5 * (boxes[(6*i)+d] + boxes[(6*i)+3+d]);
+				}
+			}
+			build(boxes, centers, 0, numberOfBoxes, 1);
+		}
+		nodeBounds = Arrays.copyOf(nodeBounds, 6 * numberOfNodes);
+		nodeOffset = Arrays.copyOf(nodeOffset, numberOfNodes);
+		nodeCount = Arrays.copyOf(nodeCount, numberOfNodes);
+	}
+
+	/**
+	 * Creates the node for the boxes order[start] to order[end - 1] and its children.
+	 * @return the index of the node
+	 */
+	private int build(double [] boxes, double [] centers, int start, int end, int level){
+		int node = numberOfNodes++;
+		depth = Math.max(depth, level);
+		computeBounds(boxes, start, end, nodeBounds, 6 * node);
+		int count = end - start;
+		if (count <= MAX_LEAF_SIZE) {
+			makeLeaf(node, start, count);
+			return node;
+		}
+		// bounds of the box centers determine the split axis
+		double [] centerBounds = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (int i = start; i < end; i++){
+			int box = order[i];
+			for (int d = 0; d < 3; d++){
+				centerBounds[d] = Math.min(centerBounds[d], centers[(3*box)+d]);
+				centerBounds[3+d] = Math.max(centerBounds[3+d], centers[(3*box)+d]);
+			}
+		}
+		int axis = 0;
+		for (int d = 1; d < 3; d++){
+			if (centerBounds[3+d] - centerBounds[d] > centerBounds[3+axis] - centerBounds[axis]) axis = d;
+		}
+		double extent = centerBounds[3+axis] - centerBounds[axis];
+		if (extent <= 0) {
+			// all centers coincide. Split in the middle.
+			int mid = start + (count / 2);
+			linkChildren(node, boxes, centers, start, mid, end, level);
+			return node;
+		}
+		// binned surface area heuristic
+		int [] binCount = new int [NUMBER_OF_BINS];
+		double [] binBounds = new double [6 * NUMBER_OF_BINS];
+		for (int b = 0; b < NUMBER_OF_BINS; b++){
+			resetBounds(binBounds, 6 * b);
+		}
+		double scale = NUMBER_OF_BINS / extent;
+		for (int i = start; i < end; i++){
+			int box = order[i];
+			int b = Math.min(NUMBER_OF_BINS - 1, (int) ((centers[(3*box)+axis] - centerBounds[axis]) * scale));
+			binCount[b]++;
+			growBounds(binBounds, 6 * b, boxes, 6 * box);
+		}
+		// sweep from the right to obtain the costs of all right partitions
+		double [] rightArea = new double [NUMBER_OF_BINS];
+		int [] rightCount = new int [NUMBER_OF_BINS];
+		double [] accumulated = new double [6];
+		resetBounds(accumulated, 0);
+		int accumulatedCount = 0;
+		for (int b = NUMBER_OF_BINS - 1; b > 0; b--){
+			growBounds(accumulated, 0, binBounds, 6 * b);
+			accumulatedCount += binCount[b];
+			rightArea[b] = surfaceArea(accumulated, 0);
+			rightCount[b] = accumulatedCount;
+		}
+		resetBounds(accumulated, 0);
+		accumulatedCount = 0;
+		double bestCost = Double.MAX_VALUE;
+		int bestSplit = -1;
+		for (int b = 1; b < NUMBER_OF_BINS; b++){
+			growBounds(accumulated, 0, binBounds, 6 * (b - 1));
+			accumulatedCount += binCount[b - 1];
+			if (accumulatedCount == 0 || rightCount[b] == 0) continue;
+			double cost = (surfaceArea(accumulated, 0) * accumulatedCount) + (rightArea[b] * rightCount[b]);
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestSplit = b;
+			}
+		}
+		double parentArea = surfaceArea(nodeBounds, 6 * node);
+		double leafCost = count;
+		double splitCost = TRAVERSAL_COST + ((parentArea > 0) ? bestCost / parentArea : count);
+		if (bestSplit < 0 || (splitCost >= leafCost && count <= 4 * MAX_LEAF_SIZE)) {
+			if (bestSplit < 0) {
+				int mid = start + (count / 2);
+				linkChildren(node, boxes, centers, start, mid, end, level);
+			} else {
+				makeLeaf(node, start, count);
+			}
+			return node;
+		}
+		// partition the boxes according to the best bin
+		int left = start;
+		int right = end - 1;
+		while (left <= right){
+			int box = order[left];
+			int b = Math.min(NUMBER_OF_BINS - 1, (int) ((centers[(3*box)+axis] - centerBounds[axis]) * scale));
+			if (b < bestSplit) {
+				left++;
+			} else {
+				order[left] = order[right];
+				order[right] = box;
+				right--;
+			}
+		}
+		linkChildren(node, boxes, centers, start, left, end, level);
+		return node;
+	}
+
+	private void linkChildren(int node, double [] boxes, double [] centers, int start, int mid, int end, int level){
+		nodeCount[node] = 0;
+		build(boxes, centers, start, mid, level + 1);
+		nodeOffset[node] = build(boxes, centers, mid, end, level + 1);
+	}
+
+	private void makeLeaf(int node, int start, int count){
+		nodeOffset[node] = start;
+		nodeCount[node] = count;
+	}
+
+	private void computeBounds(double [] boxes, int start, int end, double [] target, int offset){
+		resetBounds(target, offset);
+		for (int i = start; i < end; i++){
+			growBounds(target, offset, boxes, 6 * order[i]);
+		}
+	}
+
+	private static void resetBounds(double [] bounds, int offset){
+		for (int d = 0; d < 3; d++){
+			bounds[offset+d] = Double.MAX_VALUE;
+			bounds[offset+3+d] = -Double.MAX_VALUE;
+		}
+	}
+
+	private static void growBounds(double [] bounds, int offset, double [] box, int boxOffset){
+		for (int d = 0; d < 3; d++){
+			if (box[boxOffset+d] < bounds[offset+d]) bounds[offset+d] = box[boxOffset+d];
+			if (box[boxOffset+3+d] > bounds[offset+3+d]) bounds[offset+3+d] = box[boxOffset+3+d];
+		}
+	}
+
+	private static double surfaceArea(double [] bounds, int offset){
+		double dx = bounds[offset+3] - bounds[offset];
+		double dy = bounds[offset+4] - bounds[offset+1];
+		double dz = bounds[offset+5] - bounds[offset+2];
+		if (dx < 0 || dy < 0 || dz < 0) return 0;
+		return 2 * ((dx * dy) + (dy * dz) + (dz * dx));
+	}
+
+	/**
+	 * Updates the bounds of all nodes after the boxes moved. The tree structure is kept. Hence, the number of boxes must not change.
+	 * Traversal performance degrades, if the boxes move a lot relative to each other; rebuild the hierarchy in this case.
+	 * @param boxes the new boxes, six entries per box.
+	 */
+	public void refit(double [] boxes){
+		if (boxes.length != 6 * numberOfBoxes) throw new IllegalArgumentException("Number of boxes changed from " + numberOfBoxes + " to " + (boxes.length / 6) + ".");
+		this.boxes = boxes.clone();
+		// children are stored after their parents. Hence, a reverse sweep visits the children first.
+		for (int node = numberOfNodes - 1; node >= 0; node--){
+			if (nodeCount[node] > 0) {
+				computeBounds(boxes, nodeOffset[node], nodeOffset[node] + nodeCount[node], nodeBounds, 6 * node);
+			} else {
+				resetBounds(nodeBounds, 6 * node);
+				growBounds(nodeBounds, 6 * node, nodeBounds, 6 * (node + 1));
+				growBounds(nodeBounds, 6 * node, nodeBounds, 6 * nodeOffset[node]);
+			}
+		}
+	}
+
+	/**
+	 * Finds all boxes which are hit by the ray. The box test is identical to
+	 * {@link edu.stanford.rsl.conrad.geometry.General#intersectRayWithCuboid(edu.stanford.rsl.conrad.numerics.SimpleVector, edu.stanford.rsl.conrad.numerics.SimpleVector, edu.stanford.rsl.conrad.numerics.SimpleVector, edu.stanford.rsl.conrad.numerics.SimpleVector, double[])}.
+	 * @param origin the origin of the ray
+	 * @param direction the normalized direction of the ray
+	 * @param forwardOnly if true, boxes behind the origin are not reported. Otherwise, the ray is treated as an infinite line.
+	 * @return the indices of the boxes in ascending order
+	 */
+	public int [] intersect(double [] origin, double [] direction, boolean forwardOnly){
+		if (numberOfNodes == 0) return new int [0];
+		int [] hits = new int [Math.min(numberOfBoxes, 16)];
+		int numberOfHits = 0;
+		int [] stack = new int [depth + 1];
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		while (stackSize > 0){
+			int node = stack[--stackSize];
+			if (!intersectBox(nodeBounds, 6 * node, origin, direction, forwardOnly)) continue;
+			int count = nodeCount[node];
+			if (count > 0) {
+				int first = nodeOffset[node];
+				for (int i = first; i < first + count; i++){
+					// single boxes of a leaf are tested by the leaf bounds already
+					if (count > 1 && !intersectBox(boxes, 6 * order[i], origin, direction, forwardOnly)) continue;
+					if (numberOfHits == hits.length) hits = Arrays.copyOf(hits, Math.min(numberOfBoxes, 2 * hits.length));
+					hits[numberOfHits++] = order[i];
+				}
+			} else {
+				stack[stackSize++] = nodeOffset[node];
+				stack[stackSize++] = node + 1;
+			}
+		}
+		int [] result = Arrays.copyOf(hits, numberOfHits);
+		Arrays.sort(result);
+		return result;
+	}
+
+	private static boolean intersectBox(double [] bounds, int offset, double [] origin, double [] direction, boolean forwardOnly){
+		double near = Double.NEGATIVE_INFINITY;
+		double far = Double.POSITIVE_INFINITY;
+		for (int d = 0; d < 3; d++){
+			if (Math.abs(direction[d]) < CONRAD.DOUBLE_EPSILON) {
+				if (origin[d] < bounds[offset+d] || origin[d] > bounds[offset+3+d]) return false;
+			} else {
+				double t1 = (bounds[offset+d] - origin[d]) / direction[d];
+				double t2 = (bounds[offset+3+d] - origin[d]) / direction[d];
+				if (t1 > t2) {
+					double tmp = t1;
+					t1 = t2;
+					t2 = tmp;
+				}
+				if (t1 > near) near = t1;
+				if (t2 < far) far = t2;
+				if (near > far + CONRAD.FLOAT_EPSILON) return false;
+				if (forwardOnly && far < 0) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of boxes
+	 */
+	public int getNumberOfBoxes() {
+		return numberOfBoxes;
+	}
+
+	/**
+	 * @return the number of nodes of the tree
+	 */
+	public int getNumberOfNodes() {
+		return numberOfNodes;
+	}
+
+	/**
+	 * @return the depth of the tree
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
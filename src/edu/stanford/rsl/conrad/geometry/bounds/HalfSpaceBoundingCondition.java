@@ -49,6 +49,20 @@ public class HalfSpaceBoundingCondition extends AbstractBoundingCondition {
 		return val;
 	}	
 
+	/**
+	 * Primitive version of {@link #isSatisfiedBy(PointND)}.
+	 * @param x x coordinate of the point
+	 * @param y y coordinate of the point
+	 * @param z z coordinate of the point
+	 * @return true, if the point satisfies the condition
+	 */
+	public boolean isSatisfiedBy(double x, double y, double z) {
+		SimpleVector normal = plane.getNormal();
+		double distance = (normal.getElement(0) * x) + (normal.getElement(1) * y) + (normal.getElement(2) * z) - plane.getOffset();
+		boolean val = (distance > -CONRAD.FLOAT_EPSILON);
+		return isFlipped ? !val : val;
+	}
+
 
 	@Override
 	public Plane3D getBoundingSurface() {
@@ -0,0 +1,144 @@
+package edu.stanford.rsl.conrad.geometry.motion;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Dense grid of displacements of a MotionField for a fixed set of target times. The motion field is evaluated once at every grid node.
+ * Afterwards, the displacement of arbitrary positions is interpolated trilinearly without further evaluations of the motion field.
+ * This is much faster than the evaluation of point-based motion fields, but smoothes the motion below the grid spacing.
+ * <BR><BR>
+ * The grid is immutable after construction and may be sampled from several threads.
+ *
+ * @author akmaier
+ *
+ */
+public class DisplacementGrid {
+
+	private final double [] origin;
+	private final double [] spacing;
+	private final int [] size;
+	private final int numberOfTimes;
+	/**
+	 * displacements[timeIndex][(node * 3) + d]
+	 */
+	private final float [][] displacements;
+
+	/**
+	 * Evaluates the motion field at all grid nodes.
+	 * @param field the motion field
+	 * @param initialTime the time of the grid positions
+	 * @param times the target times
+	 * @param origin the world coordinates of the first node
+	 * @param spacing the distance of neighbouring nodes in each direction
+	 * @param size the number of nodes in each direction
+	 */
+	public DisplacementGrid(final MotionField field, final double initialTime, final double [] times, double [] origin, double [] spacing, int [] size){
+		this.origin = origin.clone();
+		this.spacing = spacing.clone();
+		this.size = size.clone();
+		numberOfTimes = times.length;
+		final int numberOfNodes = size[0] * size[1] * size[2];
+		displacements = new float [numberOfTimes][numberOfNodes * 3];
+		final AtomicInteger nextNode = new AtomicInteger();
+		int numberOfThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), numberOfNodes));
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+		for (int n = 0; n < numberOfThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					int node = nextNode.getAndIncrement();
+					while (node < numberOfNodes){
+						PointND position = getNodePosition(node);
+						// all target times at once, such that the neighbour search is done only once per node.
+						ArrayList<PointND> moved = field.getPositions(position, initialTime, times);
+						for (int h = 0; h < numberOfTimes; h++){
+							for (int d = 0; d < 3; d++){
+								displacements[h][(node * 3) + d] = (float) (moved.get(h).get(d) - position.get(d));
+							}
+						}
+						node = nextNode.getAndIncrement();
+					}
+				}
+			};
+		}
+		try {
+			new ParallelThreadExecutor(runnables).execute();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private PointND getNodePosition(int node){
+		int x = node % size[0];
+		int y = (node / size[0]) % size[1];
+		int z = node / (size[0] * size[1]);
+		return new PointND(origin[0] + (x * spacing[0]), origin[1] + (y * spacing[1]), origin[2] + (z * spacing[2]));
+	}
+
+	/**
+	 * @return the number of target times
+	 */
+	public int getNumberOfTimes(){
+		return numberOfTimes;
+	}
+
+	/**
+	 * Interpolates the displacement at the given position trilinearly. Positions outside of the grid get the displacement of the closest border node.
+	 * @param timeIndex the index of the target time
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @param z the z coordinate
+	 * @param displacement the interpolated displacement (3 entries)
+	 */
+	public void getDisplacement(int timeIndex, double x, double y, double z, double [] displacement){
+		float [] grid = displacements[timeIndex];
+		double fx = clamp((x - origin[0]) / spacing[0], size[0]);
+		double fy = clamp((y - origin[1]) / spacing[1], size[1]);
+		double fz = clamp((z - origin[2]) / spacing[2], size[2]);
+		int x0 = Math.min((int) fx, size[0] - 1);
+		int y0 = Math.min((int) fy, size[1] - 1);
+		int z0 = Math.min((int) fz, size[2] - 1);
+		int x1 = Math.min(x0 + 1, size[0] - 1);
+		int y1 = Math.min(y0 + 1, size[1] - 1);
+		int z1 = Math.min(z0 + 1, size[2] - 1);
+		double ax = fx - x0;
+		double ay = fy - y0;
+		double az = fz - z0;
+		int sliceSize = size[0] * size[1];
+		int i000 = 3 * ((z0 * sliceSize) + (y0 * size[0]) + x0);
+		int i100 = 3 * ((z0 * sliceSize) + (y0 * size[0]) + x1);
+		int i010 = 3 * ((z0 * sliceSize) + (y1 * size[0]) + x0);
+		int i110 = 3 * ((z0 * sliceSize) + (y1 * size[0]) + x1);
+		int i001 = 3 * ((z1 * sliceSize) + (y0 * size[0]) + x0);
+		int i101 = 3 * ((z1 * sliceSize) + (y0 * size[0]) + x1);
+		int i011 = 3 * ((z1 * sliceSize) + (y1 * size[0]) + x0);
+		int i111 = 3 * ((z1 * sliceSize) + (y1 * size[0]) + x1);
+		for (int d = 0; d < 3; d++){
+			double c00 = grid[i000 + d] + (ax * (grid[i100 + d] - grid[i000 + d]));
+			double c10 = grid[i010 + d] + (ax * (grid[i110 + d] - grid[i010 + d]));
+			double c01 = grid[i001 + d] + (ax * (grid[i101 + d] - grid[i001 + d]));
+			double c11 = grid[i011 + d] + (ax * (grid[i111 + d] - grid[i011 + d]));
+			double c0 = c00 + (ay * (c10 - c00));
+			double c1 = c01 + (ay * (c11 - c01));
+			displacement[d] = c0 + (az * (c1 - c0));
+		}
+	}
+
+	private static double clamp(double f, int size){
+		if (f < 0) return 0;
+		if (f > size - 1) return size - 1;
+		return f;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,345 @@
+package edu.stanford.rsl.conrad.geometry.motion;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Fast CPU evaluation of the Parzen window interpolation of a {@link ParzenWindowMotionField} between two fixed times.
+ * The points of the initial time are binned into a uniform grid of cells. A position only sums the Gaussian weights of the points
+ * that are at most cutoff * sigma farther away than its closest point. The weights of all other points are less than exp(-cutoff^2 / 2) of the weight of
+ * the closest point and are neglected. The weights are normalized to the closest point. Hence, no offset is required to avoid underflow.
+ * <BR><BR>
+ * As in the full summation with float weights, positions far away from all points are not moved. The full summation adds exp(70 - d^2 / (2 sigma^2)) as float
+ * weights and returns no displacement if their sum is below 1e-8. The same test is applied to the weights within the cutoff.
+ * <BR><BR>
+ * The evaluator is immutable and does not allocate memory per position. It may be used from several threads.
+ *
+ * @author akmaier
+ *
+ */
+public class ParzenWindowEvaluator {
+
+	/**
+	 * Default cutoff in multiples of sigma.
+	 */
+	public static final double DEFAULT_CUTOFF = 3.0;
+	/**
+	 * Offset of the exponent of the weights in the full summation.
+	 */
+	private static final double ACC = 70;
+	/**
+	 * Logarithm of the smallest float. Smaller weights are zero in the full summation.
+	 */
+	private static final double LOG_MIN_WEIGHT = Math.log(Float.MIN_VALUE);
+	/**
+	 * Distance in multiples of sigma beyond which the weight of a point is zero in the full summation.
+	 */
+	private static final double ZERO_DISTANCE = Math.sqrt(2 * (ACC - LOG_MIN_WEIGHT));
+	private static final int MAX_CELLS = 1 << 21;
+
+	private final double sigma;
+	private final double cutoff;
+	private final int numberOfPoints;
+	/**
+	 * Coordinates of the initial points sorted by cell.
+	 */
+	private final double [] points;
+	/**
+	 * Displacements of the points in the same order.
+	 */
+	private final double [] displacements;
+	/**
+	 * The points of cell c are at the positions cellStart[c] to cellStart[c+1]-1.
+	 */
+	private final int [] cellStart;
+	private final double [] min = new double [3];
+	private final int [] cells = new int [3];
+	private final double cellSize;
+
+	/**
+	 * Creates an evaluator with the default cutoff of 3 sigma.
+	 * @param from the points at the initial time
+	 * @param to the same points at the target time
+	 * @param sigma the standard deviation of the Parzen window
+	 */
+	public ParzenWindowEvaluator(PointND [] from, PointND [] to, double sigma){
+		this(from, to, sigma, DEFAULT_CUTOFF);
+	}
+
+	/**
+	 * Creates an evaluator.
+	 * @param from the points at the initial time
+	 * @param to the same points at the target time
+	 * @param sigma the standard deviation of the Parzen window
+	 * @param cutoff the cutoff in multiples of sigma
+	 */
+	public ParzenWindowEvaluator(PointND [] from, PointND [] to, double sigma, double cutoff){
+		if (from.length != to.length) throw new IllegalArgumentException("Number of points differs: " + from.length + " != " + to.length);
+		if (cutoff <= 0) throw new IllegalArgumentException("Cutoff must be positive: " + cutoff);
+		this.sigma = sigma;
+		this.cutoff = cutoff;
+		numberOfPoints = from.length;
+		double [] max = new double [3];
+		for (int d = 0; d < 3; d++){
+			min[d] = Double.MAX_VALUE;
+			max[d] = -Double.MAX_VALUE;
+		}
+		for (int i = 0; i < numberOfPoints; i++){
+			for (int d = 0; d < 3; d++){
+				min[d] = Math.min(min[d], from[i].get(d));
+				max[d] = Math.max(max[d], from[i].get(d));
+			}
+		}
+		// cells of the size of the cutoff. Larger cells if the grid would be too large.
+		double size = cutoff * sigma;
+		long numberOfCells;
+		while (true){
+			numberOfCells = 1;
+			for (int d = 0; d < 3; d++){
+				cells[d] = (numberOfPoints == 0) ? 1 : (int) Math.min(MAX_CELLS, Math.floor((max[d] - min[d]) / size) + 1);
+				numberOfCells *= cells[d];
+			}
+			if (numberOfCells <= MAX_CELLS) break;
+			size *= 2;
+		}
+		cellSize = size;
+		// counting sort of the points by cell
+		cellStart = new int [(int) numberOfCells + 1];
+		int [] cellOfPoint = new int [numberOfPoints];
+		for (int i = 0; i < numberOfPoints; i++){
+			int cell = getCell(from[i].get(0), from[i].get(1), from[i].get(2));
+			cellOfPoint[i] = cell;
+			cellStart[cell + 1]++;
+		}
+		for (int c = 0; c < numberOfCells; c++){
+			cellStart[c + 1] += cellStart[c];
+		}
+		int [] next = new int [(int) numberOfCells];
+		System.arraycopy(cellStart, 0, next, 0, next.length);
+		points = new double [numberOfPoints * 3];
+		displacements = new double [numberOfPoints * 3];
+		for (int i = 0; i < numberOfPoints; i++){
+			int position = next[cellOfPoint[i]]++;
+			for (int d = 0; d < 3; d++){
+				points[(position * 3) + d] = from[i].get(d);
+				displacements[(position * 3) + d] = to[i].get(d) - from[i].get(d);
+			}
+		}
+	}
+
+	private int getCellIndex(double coordinate, int d){
+		return (int) Math.floor((coordinate - min[d]) / cellSize);
+	}
+
+	private int getCell(double x, double y, double z){
+		int cx = Math.min(cells[0] - 1, Math.max(0, getCellIndex(x, 0)));
+		int cy = Math.min(cells[1] - 1, Math.max(0, getCellIndex(y, 1)));
+		int cz = Math.min(cells[2] - 1, Math.max(0, getCellIndex(z, 2)));
+		return (((cz * cells[1]) + cy) * cells[0]) + cx;
+	}
+
+	/**
+	 * @return the number of points
+	 */
+	public int getNumberOfPoints(){
+		return numberOfPoints;
+	}
+
+	/**
+	 * @return the cutoff in multiples of sigma
+	 */
+	public double getCutoff(){
+		return cutoff;
+	}
+
+	/**
+	 * Computes the displacement of a single position.
+	 * @param x the x coordinate at the initial time
+	 * @param y the y coordinate at the initial time
+	 * @param z the z coordinate at the initial time
+	 * @param displacement the displacement (3 entries)
+	 */
+	public void getDisplacement(double x, double y, double z, double [] displacement){
+		displacement[0] = 0;
+		displacement[1] = 0;
+		displacement[2] = 0;
+		if (numberOfPoints == 0) return;
+		double zeroDistance = ZERO_DISTANCE * sigma;
+		double closest = findClosestSquaredDistance(x, y, z, zeroDistance);
+		if (closest > zeroDistance * zeroDistance) return;
+		double factor = -0.5 / (sigma * sigma);
+		double radius2 = Math.min(closest + ((cutoff * sigma) * (cutoff * sigma)), zeroDistance * zeroDistance);
+		double radius = Math.sqrt(radius2);
+		int x0 = Math.max(0, getCellIndex(x - radius, 0));
+		int x1 = Math.min(cells[0] - 1, getCellIndex(x + radius, 0));
+		int y0 = Math.max(0, getCellIndex(y - radius, 1));
+		int y1 = Math.min(cells[1] - 1, getCellIndex(y + radius, 1));
+		int z0 = Math.max(0, getCellIndex(z - radius, 2));
+		int z1 = Math.min(cells[2] - 1, getCellIndex(z + radius, 2));
+		double weightSum = 0;
+		double sumX = 0;
+		double sumY = 0;
+		double sumZ = 0;
+		for (int cz = z0; cz <= z1; cz++){
+			for (int cy = y0; cy <= y1; cy++){
+				int row = ((cz * cells[1]) + cy) * cells[0];
+				// the cells of a row are consecutive in the sorted points
+				int end = cellStart[row + x1 + 1];
+				for (int i = cellStart[row + x0]; i < end; i++){
+					double dx = x - points[i * 3];
+					double dy = y - points[(i * 3) + 1];
+					double dz = z - points[(i * 3) + 2];
+					double distance2 = (dx * dx) + (dy * dy) + (dz * dz);
+					if (distance2 <= radius2){
+						double weight = Math.exp(factor * (distance2 - closest));
+						weightSum += weight;
+						sumX += weight * displacements[i * 3];
+						sumY += weight * displacements[(i * 3) + 1];
+						sumZ += weight * displacements[(i * 3) + 2];
+					}
+				}
+			}
+		}
+		// the closest point has weight 1. Hence, weightSum >= 1.
+		if (weightSum * Math.exp((factor * closest) + ACC) < 0.00000001) return;
+		displacement[0] = sumX / weightSum;
+		displacement[1] = sumY / weightSum;
+		displacement[2] = sumZ / weightSum;
+	}
+
+	/**
+	 * Searches the cells in rings of increasing distance around the position.
+	 * @return the squared distance to the closest point or Double.MAX_VALUE if there is no point within maxDistance
+	 */
+	private double findClosestSquaredDistance(double x, double y, double z, double maxDistance){
+		int cx = getCellIndex(x, 0);
+		int cy = getCellIndex(y, 1);
+		int cz = getCellIndex(z, 2);
+		// rings beyond the grid are empty
+		int maxRing = Math.max(Math.max(Math.max(cx, cells[0] - 1 - cx), Math.max(cy, cells[1] - 1 - cy)), Math.max(cz, cells[2] - 1 - cz));
+		maxRing = Math.min(maxRing, (int) Math.ceil(maxDistance / cellSize) + 1);
+		double best = Double.MAX_VALUE;
+		for (int r = 0; r <= maxRing; r++){
+			int z0 = Math.max(0, cz - r);
+			int z1 = Math.min(cells[2] - 1, cz + r);
+			int y0 = Math.max(0, cy - r);
+			int y1 = Math.min(cells[1] - 1, cy + r);
+			for (int iz = z0; iz <= z1; iz++){
+				for (int iy = y0; iy <= y1; iy++){
+					int row = ((iz * cells[1]) + iy) * cells[0];
+					if (Math.abs(iz - cz) == r || Math.abs(iy - cy) == r) {
+						int x0 = Math.max(0, cx - r);
+						int x1 = Math.min(cells[0] - 1, cx + r);
+						if (x0 <= x1) best = searchCells(x, y, z, cellStart[row + x0], cellStart[row + x1 + 1], best);
+					} else {
+						if (cx - r >= 0 && cx - r < cells[0]) best = searchCells(x, y, z, cellStart[row + cx - r], cellStart[row + cx - r + 1], best);
+						if (r > 0 && cx + r >= 0 && cx + r < cells[0]) best = searchCells(x, y, z, cellStart[row + cx + r], cellStart[row + cx + r + 1], best);
+					}
+				}
+			}
+			// all points in the next rings are at least r cells away
+			double ringDistance = r * cellSize;
+			if (best <= ringDistance * ringDistance) break;
+		}
+		return best;
+	}
+
+	private double searchCells(double x, double y, double z, int start, int end, double best){
+		for (int i = start; i < end; i++){
+			double dx = x - points[i * 3];
+			double dy = y - points[(i * 3) + 1];
+			double dz = z - points[(i * 3) + 2];
+			double distance2 = (dx * dx) + (dy * dy) + (dz * dz);
+			if (distance2 < best) best = distance2;
+		}
+		return best;
+	}
+
+	/**
+	 * Computes the displacements of many positions in parallel.
+	 * @param positions the positions as x, y, z triplets
+	 * @param displacements the displacements in the same layout
+	 */
+	public void getDisplacements(final double [] positions, final double [] displacements){
+		final int number = positions.length / 3;
+		final int blockSize = 1024;
+		final AtomicInteger nextBlock = new AtomicInteger();
+		runParallel((number + blockSize - 1) / blockSize, new BlockOperation() {
+			@Override
+			public void process(int block, double [] buffer) {
+				int end = Math.min(number, (block + 1) * blockSize);
+				for (int i = block * blockSize; i < end; i++){
+					getDisplacement(positions[i * 3], positions[(i * 3) + 1], positions[(i * 3) + 2], buffer);
+					displacements[i * 3] = buffer[0];
+					displacements[(i * 3) + 1] = buffer[1];
+					displacements[(i * 3) + 2] = buffer[2];
+				}
+			}
+		}, nextBlock);
+	}
+
+	/**
+	 * Computes the displacements of all voxels of a volume in parallel. Blocks of one slice are processed at once.
+	 * @param origin the world coordinates of the first voxel
+	 * @param spacing the voxel spacing
+	 * @param size the number of voxels in each direction
+	 * @return the displacements as x, y, z triplets. The triplet of voxel (x, y, z) starts at index ((z * size[1] + y) * size[0] + x) * 3.
+	 */
+	public float [] getDisplacements(final double [] origin, final double [] spacing, final int [] size){
+		final float [] result = new float [size[0] * size[1] * size[2] * 3];
+		runParallel(size[2], new BlockOperation() {
+			@Override
+			public void process(int k, double [] buffer) {
+				double z = origin[2] + (k * spacing[2]);
+				for (int j = 0; j < size[1]; j++){
+					double y = origin[1] + (j * spacing[1]);
+					int index = ((k * size[1]) + j) * size[0] * 3;
+					for (int i = 0; i < size[0]; i++){
+						getDisplacement(origin[0] + (i * spacing[0]), y, z, buffer);
+						result[index++] = (float) buffer[0];
+						result[index++] = (float) buffer[1];
+						result[index++] = (float) buffer[2];
+					}
+				}
+			}
+		}, new AtomicInteger());
+		return result;
+	}
+
+	private interface BlockOperation {
+		void process(int block, double [] buffer);
+	}
+
+	private static void runParallel(final int numberOfBlocks, final BlockOperation operation, final AtomicInteger nextBlock){
+		int numberOfThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), numberOfBlocks));
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+		for (int n = 0; n < numberOfThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					double [] buffer = new double [3];
+					int block = nextBlock.getAndIncrement();
+					while (block < numberOfBlocks){
+						operation.process(block, buffer);
+						block = nextBlock.getAndIncrement();
+					}
+				}
+			};
+		}
+		try {
+			new ParallelThreadExecutor(runnables).execute();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -11,7 +11,8 @@ import java.util.HashMap;
 import edu.stanford.rsl.conrad.geometry.motion.timewarp.IdentityTimeWarper;
 import edu.stanford.rsl.conrad.geometry.motion.timewarp.TimeWarper;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
-import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.utils.Configuration;
 
 
 /**
@@ -19,6 +20,9 @@ import edu.stanford.rsl.conrad.numerics.SimpleVector;
  * The class tessellates the surface at the two time points and uses these points to interpolate the motion vectors. 
  * Due to the high computational effort of tessellation on the CPU we store intermediate tessellation results for later use. 
  * Interpolation is done via a Parzen window.
+ * <BR><BR>
+ * getPosition() and getPositions() sum over all points. For many positions, the {@link ParzenWindowEvaluator} from {@link #getEvaluator(double, double)}
+ * only sums the points close to each position and is much faster.
  * @author akmaier
  *
  */
@@ -36,6 +40,9 @@ Serializable {
 	 */
 	double sigma;
 	TimeWarper warp = new IdentityTimeWarper();
+	private transient ParzenWindowEvaluator evaluator;
+	private transient double evaluatorInitialTime;
+	private transient double evaluatorTime;
 
 	abstract PointND [] getRasterPoints (double time);
 
@@ -54,26 +61,66 @@ Serializable {
 	@Override
 	public PointND getPosition(PointND initialPosition, double initialTime,
 			double time) {
-		SimpleVector summation = new SimpleVector(0,0,0);
+		double [] displacement = new double [3];
+		computeDisplacement(getRasterPoints(initialTime), getRasterPoints(time), initialPosition, displacement);
+		return new PointND(initialPosition.get(0) + displacement[0], initialPosition.get(1) + displacement[1], initialPosition.get(2) + displacement[2]);
+	}
+
+	/**
+	 * Sums the Gaussian weighted displacements of all points.
+	 */
+	private void computeDisplacement(PointND [] from, PointND [] to, PointND initialPosition, double [] displacement){
+		double sumX = 0, sumY = 0, sumZ = 0;
 		float weightsum = 0;
-		PointND[] from = getRasterPoints(initialTime);
-		PointND[] to = getRasterPoints(time);
 		double acc = 70; // Highest number before summations yield NaN
+		double factor = -0.5 / (sigma * sigma);
 		for (int i=0; i< from.length; i++){
-			float weight = (float) Math.exp((-0.5*Math.pow(from[i].euclideanDistance(initialPosition),2)/Math.pow(sigma,2))+acc);
-
+			double distance = from[i].euclideanDistance(initialPosition);
+			float weight = (float) Math.exp((factor * distance * distance)+acc);
 			weightsum += weight;
-			SimpleVector direction = new SimpleVector(to[i].getAbstractVector());
-			direction.subtract(from[i].getAbstractVector());
-			summation.add(direction.multipliedBy(weight));
+			sumX += (to[i].get(0) - from[i].get(0)) * weight;
+			sumY += (to[i].get(1) - from[i].get(1)) * weight;
+			sumZ += (to[i].get(2) - from[i].get(2)) * weight;
 		}
 		if(Math.abs(weightsum) < 0.00000001) {
-			summation.multiplyBy(0);
+			displacement[0] = 0;
+			displacement[1] = 0;
+			displacement[2] = 0;
 		} else {
-			summation.divideBy(weightsum);
+			displacement[0] = sumX / weightsum;
+			displacement[1] = sumY / weightsum;
+			displacement[2] = sumZ / weightsum;
+		}
+	}
+
+	/**
+	 * Returns an evaluator for the motion from initialTime to time with a cutoff of {@link ParzenWindowEvaluator#DEFAULT_CUTOFF} sigma.
+	 * The evaluator of the last pair of times is kept.
+	 * @param initialTime the initial time
+	 * @param time the target time
+	 * @return the evaluator
+	 */
+	public synchronized ParzenWindowEvaluator getEvaluator(double initialTime, double time){
+		if (evaluator == null || evaluatorInitialTime != initialTime || evaluatorTime != time){
+			evaluator = new ParzenWindowEvaluator(getRasterPoints(initialTime), getRasterPoints(time), sigma);
+			evaluatorInitialTime = initialTime;
+			evaluatorTime = time;
 		}
-		summation.add(initialPosition.getAbstractVector());
-		return new PointND(summation);
+		return evaluator;
+	}
+
+	/**
+	 * Computes the displacements of all voxels of the reconstruction volume of the global configuration with the {@link ParzenWindowEvaluator}.
+	 * @param from the initial time
+	 * @param to the target time
+	 * @return the displacements as x, y, z triplets. The triplet of voxel (x, y, z) starts at index ((z * dimY + y) * dimX + x) * 3.
+	 */
+	public float [] getMotionFieldAsArray(double from, double to){
+		Trajectory geom = Configuration.getGlobalConfiguration().getGeometry();
+		return getEvaluator(from, to).getDisplacements(
+				new double [] {geom.getOriginX(), geom.getOriginY(), geom.getOriginZ()},
+				new double [] {geom.getVoxelSpacingX(), geom.getVoxelSpacingY(), geom.getVoxelSpacingZ()},
+				new int [] {geom.getReconDimensionX(), geom.getReconDimensionY(), geom.getReconDimensionZ()});
 	}
 
 	@Override
@@ -100,27 +147,12 @@ Serializable {
 	public ArrayList<PointND> getPositions(double initialTime,
 			double time, PointND ... initialPositions) {
 		ArrayList<PointND> list = new ArrayList<PointND>();
+		PointND[] from = getRasterPoints(initialTime);
+		PointND[] to = getRasterPoints(time);
+		double [] displacement = new double [3];
 		for (int j=0; j< initialPositions.length; j++){
-			SimpleVector summation = new SimpleVector(0,0,0);
-			float weightsum = 0;
-			PointND[] from = getRasterPoints(initialTime);
-			PointND[] to = getRasterPoints(time);
-			double acc = 70; // Highest number before summations yield NaN
-			for (int i=0; i< from.length; i++){
-				float weight = (float) Math.exp((-0.5*Math.pow(from[i].euclideanDistance(initialPositions[j]),2)/Math.pow(sigma,2))+acc);
-				weightsum += weight;
-				SimpleVector direction = new SimpleVector(to[i].getAbstractVector());
-				direction.subtract(from[i].getAbstractVector());
-				summation.add(direction.multipliedBy(weight));
-			}
-			if(Math.abs(weightsum) < 0.00000001) {
-				summation.multiplyBy(0);
-			} else {
-				summation.divideBy(weightsum);
-			}
-			summation.add(initialPositions[j].getAbstractVector());
-			PointND newPoint = new PointND(summation);
-			list.add(newPoint);
+			computeDisplacement(from, to, initialPositions[j], displacement);
+			list.add(new PointND(initialPositions[j].get(0) + displacement[0], initialPositions[j].get(1) + displacement[1], initialPositions[j].get(2) + displacement[2]));
 		}
 		return list;
 	}
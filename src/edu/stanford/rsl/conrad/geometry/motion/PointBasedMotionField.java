@@ -2,6 +2,7 @@ package edu.stanford.rsl.conrad.geometry.motion;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.stanford.rsl.conrad.geometry.motion.timewarp.IdentityTimeWarper;
 import edu.stanford.rsl.conrad.geometry.motion.timewarp.TimeWarper;
@@ -9,10 +10,16 @@ import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
 import edu.stanford.rsl.conrad.geometry.splines.TimeVariantSurfaceBSpline;
 import edu.stanford.rsl.conrad.numerics.SimpleOperators;
 import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
 
 
 /**
  * Implements a linear interpolating motion field based on points over time. 
+ * The closest points of a position are found with a {@link PointKDTree} per time sample.
+ * The trees are built on first use and have to be rebuilt with {@link #updateIndices()} if the points are changed.
  * 
  * @author akmaier
  *
@@ -27,6 +34,7 @@ public class PointBasedMotionField implements MotionField, Serializable {
 	protected ArrayList<ArrayList<PointND>> timePoints = new ArrayList<ArrayList<PointND>>();
 	private int context;
 	protected int timeSamplePoints = 10;
+	private transient volatile PointKDTree [] indices;
 
 	public PointBasedMotionField(TimeVariantSurfaceBSpline [] variants, int context){
 		this.context = context;
@@ -69,35 +77,33 @@ public class PointBasedMotionField implements MotionField, Serializable {
 		}
 	}
 
-	private int [] findCloseIndices(PointND position, int t0, int context){
-		int [] closeIndex = new int[context];
-		double [] dist = new double [context];
-		for(int j =0; j<context; j++){
-			dist[j] = (1.0 / (double)(context-j)) * Double.MAX_VALUE;
+	/**
+	 * Rebuilds the search trees of all time samples. Must be called after the points in timePoints were changed.
+	 */
+	public synchronized void updateIndices(){
+		PointKDTree [] trees = new PointKDTree[timePoints.size()];
+		for (int t = 0; t < trees.length; t++){
+			trees[t] = new PointKDTree(timePoints.get(t));
 		}
-		double maxDistance = Double.MAX_VALUE;
-		for (int k = 0; k < timePoints.get(t0).size(); k++){			
-			PointND test = timePoints.get(t0).get(k);
-			double distance = position.euclideanDistance(test);
-			//System.out.println(k + " " + distance);
-			if (distance < maxDistance) {
-				int maxIndex = -1;
-				double max = -Double.MAX_VALUE;
-				double lastMax = -Double.MAX_VALUE;
-				for (int j =0; j<context; j++){
-					if (dist[j] > max){
-						lastMax = max;
-						max = dist[j];
-						maxIndex = j;
-					}
-				}
-				maxDistance = (lastMax > distance)? lastMax : distance;
-				dist[maxIndex] = distance;
-				// pointIndex
-				closeIndex[maxIndex] = k;
+		indices = trees;
+	}
+
+	private PointKDTree getIndex(int t0){
+		PointKDTree [] trees = indices;
+		if (trees == null) {
+			synchronized (this) {
+				if (indices == null) updateIndices();
+				trees = indices;
 			}
 		}
-		return closeIndex;
+		return trees[t0];
+	}
+
+	/**
+	 * Finds the indices of the context closest points at time t0. If there are less points, the remaining indices are 0.
+	 */
+	private int [] findCloseIndices(PointND position, int t0, int context){
+		return getIndex(t0).findNearest(position, context);
 	}
 
 	public PointND getPosition(PointND initialPosition, double initialTime, double time) {
@@ -194,11 +200,46 @@ public class PointBasedMotionField implements MotionField, Serializable {
 		return p;
 	}
 	
-	public ArrayList<PointND> getPositions(double initialTime,
-			double time, PointND ... initialPositions) {
-		ArrayList<PointND> list = new ArrayList<PointND>();
-		for (int i=0; i< initialPositions.length; i++){
-			list.add(getPosition(initialPositions[i], initialTime, time));
+	/**
+	 * Computes the positions of many points in parallel. The neighbour search of each point uses the search trees of the time samples.
+	 */
+	public ArrayList<PointND> getPositions(final double initialTime,
+			final double time, final PointND ... initialPositions) {
+		final PointND [] positions = new PointND[initialPositions.length];
+		int numberOfThreads = Math.min(CONRAD.getNumberOfThreads(), initialPositions.length / 256);
+		if (numberOfThreads > 1) {
+			// build the trees before the threads start.
+			getIndex(0);
+			final AtomicInteger nextBlock = new AtomicInteger();
+			ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+			for (int n = 0; n < numberOfThreads; n++){
+				runnables[n] = new SimpleParallelThread(n) {
+					@Override
+					public void execute() {
+						int start = nextBlock.getAndAdd(256);
+						while (start < positions.length){
+							int end = Math.min(start + 256, positions.length);
+							for (int i = start; i < end; i++){
+								positions[i] = getPosition(initialPositions[i], initialTime, time);
+							}
+							start = nextBlock.getAndAdd(256);
+						}
+					}
+				};
+			}
+			try {
+				new ParallelThreadExecutor(runnables).execute();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			for (int i=0; i< initialPositions.length; i++){
+				positions[i] = getPosition(initialPositions[i], initialTime, time);
+			}
+		}
+		ArrayList<PointND> list = new ArrayList<PointND>(positions.length);
+		for (int i=0; i< positions.length; i++){
+			list.add(positions[i]);
 		}
 		return list;
 	}
@@ -0,0 +1,239 @@
+package edu.stanford.rsl.conrad.geometry.motion;
+
+import java.util.List;
+
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+
+/**
+ * Balanced k-d tree over a fixed set of points for k-nearest-neighbour queries. The tree is built once in O(n log n).
+ * A query then visits only O(log n + k) points on average instead of all points.
+ * <BR><BR>
+ * The tree is immutable after construction. Hence, it may be queried from several threads at once.
+ *
+ * @author akmaier
+ *
+ */
+public class PointKDTree {
+
+	private static final int LEAF_SIZE = 8;
+
+	private final int dimension;
+	private final int numberOfPoints;
+	/**
+	 * Coordinates in tree order, i.e. coordinates[(i * dimension) + d] belongs to the point with index order[i].
+	 */
+	private final double [] coordinates;
+	private final int [] order;
+	/**
+	 * Split axis of the node at position mid of each subtree.
+	 */
+	private final byte [] splitAxis;
+
+	/**
+	 * Builds the tree for the given points. Later changes to the points are not reflected by the tree.
+	 * @param points the points
+	 */
+	public PointKDTree(List<PointND> points){
+		numberOfPoints = points.size();
+		dimension = (numberOfPoints > 0) ? points.get(0).getDimension() : 3;
+		coordinates = new double [numberOfPoints * dimension];
+		order = new int [numberOfPoints];
+		splitAxis = new byte [numberOfPoints];
+		for (int i = 0; i < numberOfPoints; i++){
+			PointND p = points.get(i);
+			for (int d = 0; d < dimension; d++){
+				coordinates[(i * dimension) + d] = p.get(d);
+			}
+			order[i] = i;
+		}
+		build(0, numberOfPoints);
+	}
+
+	/**
+	 * @return the number of points in the tree
+	 */
+	public int size(){
+		return numberOfPoints;
+	}
+
+	private void build(int lo, int hi){
+		if (hi - lo <= LEAF_SIZE) return;
+		// split along the axis with the largest extent
+		int axis = 0;
+		double maxExtent = -1;
+		for (int d = 0; d < dimension; d++){
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			for (int i = lo; i < hi; i++){
+				double c = coordinates[(i * dimension) + d];
+				if (c < min) min = c;
+				if (c > max) max = c;
+			}
+			if (max - min > maxExtent){
+				maxExtent = max - min;
+				axis = d;
+			}
+		}
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, axis);
+		splitAxis[mid] = (byte) axis;
+		build(lo, mid);
+		build(mid + 1, hi);
+	}
+
+	/**
+	 * Partial sort: moves the k-th smallest point along the axis to position k, smaller to the left and larger to the right.
+	 */
+	private void select(int left, int right, int k, int axis){
+		while (right > left){
+			int pivot = partition(left, right, (left + right) >>> 1, axis);
+			if (pivot == k) return;
+			if (pivot < k) {
+				left = pivot + 1;
+			} else {
+				right = pivot - 1;
+			}
+		}
+	}
+
+	private int partition(int left, int right, int pivotIndex, int axis){
+		double pivotValue = coordinates[(pivotIndex * dimension) + axis];
+		swap(pivotIndex, right);
+		int store = left;
+		for (int i = left; i < right; i++){
+			if (coordinates[(i * dimension) + axis] < pivotValue){
+				swap(i, store);
+				store++;
+			}
+		}
+		swap(store, right);
+		return store;
+	}
+
+	private void swap(int i, int j){
+		if (i == j) return;
+		int tmp = order[i];
+		order[i] = order[j];
+		order[j] = tmp;
+		for (int d = 0; d < dimension; d++){
+			double c = coordinates[(i * dimension) + d];
+			coordinates[(i * dimension) + d] = coordinates[(j * dimension) + d];
+			coordinates[(j * dimension) + d] = c;
+		}
+	}
+
+	/**
+	 * Finds the k nearest points of the query point.
+	 * @param query the coordinates of the query point
+	 * @param k the number of neighbours
+	 * @param indices the indices of the neighbours in the list that was used to build the tree, sorted by increasing distance. Must have at least k entries.
+	 * If the tree has less than k points, the remaining entries are set to 0.
+	 * @param distances the squared distances of the neighbours or null. Must have at least k entries.
+	 * @return the number of neighbours found, i.e. min(k, size())
+	 */
+	public int findNearest(double [] query, int k, int [] indices, double [] distances){
+		if (k < 1) return 0;
+		double [] heap = (distances != null) ? distances : new double [k];
+		int [] heapIndex = new int [k];
+		int count = search(0, numberOfPoints, query, k, heap, heapIndex, 0);
+		// heap sort to increasing distances
+		for (int end = count - 1; end > 0; end--){
+			swapHeap(heap, heapIndex, 0, end);
+			siftDown(heap, heapIndex, 0, end);
+		}
+		for (int i = 0; i < k; i++){
+			indices[i] = (i < count) ? order[heapIndex[i]] : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the k nearest points of the query point.
+	 * @param query the query point
+	 * @param k the number of neighbours
+	 * @return the indices of the neighbours sorted by increasing distance. If the tree has less than k points, the remaining entries are 0.
+	 */
+	public int [] findNearest(PointND query, int k){
+		int [] indices = new int [k];
+		findNearest(query.getCoordinates(), k, indices, null);
+		return indices;
+	}
+
+	/**
+	 * Searches the subtree [lo, hi). The current k best are stored in a max-heap of squared distances.
+	 */
+	private int search(int lo, int hi, double [] query, int k, double [] heap, int [] heapIndex, int count){
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++){
+				count = offer(i, query, k, heap, heapIndex, count);
+			}
+			return count;
+		}
+		int mid = (lo + hi) >>> 1;
+		int axis = splitAxis[mid];
+		double diff = query[axis] - coordinates[(mid * dimension) + axis];
+		count = offer(mid, query, k, heap, heapIndex, count);
+		if (diff < 0) {
+			count = search(lo, mid, query, k, heap, heapIndex, count);
+			if (count < k || diff * diff < heap[0]) count = search(mid + 1, hi, query, k, heap, heapIndex, count);
+		} else {
+			count = search(mid + 1, hi, query, k, heap, heapIndex, count);
+			if (count < k || diff * diff < heap[0]) count = search(lo, mid, query, k, heap, heapIndex, count);
+		}
+		return count;
+	}
+
+	private int offer(int i, double [] query, int k, double [] heap, int [] heapIndex, int count){
+		double distance = 0;
+		for (int d = 0; d < dimension; d++){
+			double diff = query[d] - coordinates[(i * dimension) + d];
+			distance += diff * diff;
+		}
+		if (count < k) {
+			// sift up
+			int child = count;
+			heap[child] = distance;
+			heapIndex[child] = i;
+			while (child > 0){
+				int parent = (child - 1) >>> 1;
+				if (heap[parent] >= heap[child]) break;
+				swapHeap(heap, heapIndex, parent, child);
+				child = parent;
+			}
+			return count + 1;
+		}
+		if (distance < heap[0]) {
+			heap[0] = distance;
+			heapIndex[0] = i;
+			siftDown(heap, heapIndex, 0, count);
+		}
+		return count;
+	}
+
+	private static void siftDown(double [] heap, int [] heapIndex, int parent, int size){
+		while (true){
+			int largest = parent;
+			int left = (2 * parent) + 1;
+			int right = left + 1;
+			if (left < size && heap[left] > heap[largest]) largest = left;
+			if (right < size && heap[right] > heap[largest]) largest = right;
+			if (largest == parent) return;
+			swapHeap(heap, heapIndex, parent, largest);
+			parent = largest;
+		}
+	}
+
+	private static void swapHeap(double [] heap, int [] heapIndex, int i, int j){
+		double d = heap[i];
+		heap[i] = heap[j];
+		heap[j] = d;
+		int index = heapIndex[i];
+		heapIndex[i] = heapIndex[j];
+		heapIndex[j] = index;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
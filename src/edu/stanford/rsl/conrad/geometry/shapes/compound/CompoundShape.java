@@ -3,9 +3,14 @@ package edu.stanford.rsl.conrad.geometry.shapes.compound;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.stanford.rsl.conrad.geometry.AbstractCurve;
 import edu.stanford.rsl.conrad.geometry.AbstractShape;
+import edu.stanford.rsl.conrad.geometry.General;
+import edu.stanford.rsl.conrad.geometry.RayHitBuffer;
+import edu.stanford.rsl.conrad.geometry.bounds.BoundingVolumeHierarchy;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.StraightLine;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
 import edu.stanford.rsl.conrad.geometry.transforms.Transform;
 
@@ -15,8 +20,18 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 	 * 
 	 */
 	private static final long serialVersionUID = 4296470814160586436L;
+	/**
+	 * Minimal number of shapes for which a bounding volume hierarchy is built
+	 */
+	public static final int MIN_SHAPES_FOR_HIERARCHY = 16;
+	/**
+	 * Padding of the bounding boxes in the hierarchy. Ensures that shapes which are touched by a line are always reported as candidates.
+	 */
+	public static final double HIERARCHY_BOX_PADDING = 1.0e-6;
 	private ArrayList<AbstractShape> list;
 	protected boolean dirty = true;
+	private transient volatile BoundingVolumeHierarchy hierarchy;
+	private transient volatile boolean hierarchyUnavailable = false;
 
 	public CompoundShape(){
 		list = new ArrayList<AbstractShape>();
@@ -57,10 +72,91 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 				max.updateIfHigher(t.getMax());
 			}
 			super.generateBoundingPlanes();
+			if (hierarchy != null) {
+				// the shapes moved, e.g. by applyTransform(). Keep the tree and update the boxes.
+				double [] boxes = getBoxes(list, HIERARCHY_BOX_PADDING);
+				if (boxes != null && boxes.length == 6 * hierarchy.getNumberOfBoxes()) {
+					hierarchy.refit(boxes);
+				} else {
+					hierarchy = null;
+				}
+			}
 			dirty = false;
 		}
 	}
 
+	/**
+	 * Collects the bounding boxes of the shapes in the format of {@link BoundingVolumeHierarchy}.
+	 * @param shapes the shapes
+	 * @param padding the padding that is added on all sides of the boxes
+	 * @return the boxes or null, if one of the shapes is unbounded
+	 */
+	public static double [] getBoxes(List<? extends AbstractShape> shapes, double padding){
+		double [] boxes = new double [6 * shapes.size()];
+		for (int i = 0; i < shapes.size(); i++){
+			AbstractShape shape = shapes.get(i);
+			if (shape == null || !shape.isBounded()) return null;
+			PointND min = shape.getMin();
+			PointND max = shape.getMax();
+			if (min == null || max == null || min.getDimension() != 3) return null;
+			for (int d = 0; d < 3; d++){
+				boxes[(6*i)+d] = min.get(d) - padding;
+				boxes[(6*i)+3+d] = max.get(d) + padding;
+			}
+		}
+		return boxes;
+	}
+
+	private BoundingVolumeHierarchy getHierarchy(){
+		BoundingVolumeHierarchy bvh = hierarchy;
+		if (bvh == null && !hierarchyUnavailable) {
+			synchronized (this) {
+				bvh = hierarchy;
+				if (bvh == null && !hierarchyUnavailable) {
+					double [] boxes = getBoxes(list, HIERARCHY_BOX_PADDING);
+					if (boxes != null) {
+						bvh = new BoundingVolumeHierarchy(boxes);
+						hierarchy = bvh;
+					} else {
+						hierarchyUnavailable = true;
+					}
+				}
+			}
+		}
+		return bvh;
+	}
+
+	private void invalidateHierarchy(){
+		hierarchy = null;
+		hierarchyUnavailable = false;
+	}
+
+	/**
+	 * Returns the shapes of this compound that may intersect with the curve. For straight lines and compounds with at least
+	 * {@link #MIN_SHAPES_FOR_HIERARCHY} shapes, the candidates are found with a bounding volume hierarchy over the bounding boxes of the shapes.
+	 * Otherwise, all shapes are returned. The order of the shapes is preserved.
+	 * @param curve the curve
+	 * @return the candidate shapes
+	 */
+	public List<AbstractShape> getCandidateShapes(AbstractCurve curve){
+		if (dirty){
+			init();
+		}
+		if (!(curve instanceof StraightLine) || list.size() < MIN_SHAPES_FOR_HIERARCHY) return list;
+		BoundingVolumeHierarchy bvh = getHierarchy();
+		if (bvh == null) return list;
+		StraightLine line = (StraightLine) curve;
+		double [] origin = line.getPoint().getCoordinates();
+		double [] direction = line.getDirection().copyAsDoubleArray();
+		if (origin.length != 3 || direction.length != 3) return list;
+		int [] indices = bvh.intersect(origin, direction, false);
+		ArrayList<AbstractShape> candidates = new ArrayList<AbstractShape>(indices.length);
+		for (int index : indices){
+			candidates.add(list.get(index));
+		}
+		return candidates;
+	}
+
 	@Override
 	public ArrayList<PointND> getHitsOnBoundingBox(AbstractCurve curve){
 		if (dirty){
@@ -105,7 +201,7 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 			init();
 		}
 		ArrayList <PointND> hits = new ArrayList<PointND>();
-		for(AbstractShape t: list){
+		for(AbstractShape t: getCandidateShapes(other)){
 			hits.addAll(intersect(t,other));
 		}
 		return hits;
@@ -119,12 +215,55 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 			init();
 		}
 		ArrayList <PointND> hits = new ArrayList<PointND>();
-		for(AbstractShape t: list){
+		for(AbstractShape t: getCandidateShapes(other)){
 			hits.addAll(intersectWithHitOrientation(t, other));
 		}
 		return hits;
 	}
 
+	/**
+	 * Primitive version of {@link #intersectWithHitOrientation(AbstractCurve)}. Returns -1, if one of the candidate shapes does not
+	 * support primitive intersection.
+	 */
+	@Override
+	public int intersectRay(double [] origin, double [] direction, RayHitBuffer hits){
+		if (dirty){
+			init();
+		}
+		int start = hits.size();
+		if (list.size() >= MIN_SHAPES_FOR_HIERARCHY) {
+			BoundingVolumeHierarchy bvh = getHierarchy();
+			if (bvh != null) {
+				int [] indices = bvh.intersect(origin, direction, false);
+				for (int index : indices){
+					if (intersectRay(list.get(index), origin, direction, hits) < 0) {
+						hits.truncate(start);
+						return -1;
+					}
+				}
+				return hits.size() - start;
+			}
+		}
+		for (AbstractShape t : list){
+			if (intersectRay(t, origin, direction, hits) < 0) {
+				hits.truncate(start);
+				return -1;
+			}
+		}
+		return hits.size() - start;
+	}
+
+	private static int intersectRay(AbstractShape t, double [] origin, double [] direction, RayHitBuffer hits){
+		if (t instanceof CompoundShape){
+			CompoundShape compound = (CompoundShape) t;
+			if (!compound.isBounded() || General.intersectRayWithCuboid(origin, direction, compound.getMin(), compound.getMax())){
+				return compound.intersectRay(origin, direction, hits);
+			}
+			return 0;
+		}
+		return t.intersectRay(origin, direction, hits);
+	}
+
 	@Override
 	public boolean isBounded() {
 		return true;
@@ -149,6 +288,7 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 	public boolean add(AbstractShape shape){
 		boolean revan = list.add(shape);
 		dirty = true;
+		invalidateHierarchy();
 		return revan;
 	}
 
@@ -192,6 +332,7 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 	@Override
 	public boolean addAll(Collection<? extends AbstractShape> c) {
 		dirty = true;
+		invalidateHierarchy();
 		return list.addAll(c);
 	}
 
@@ -199,6 +340,7 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 	public void clear() {
 		list.clear();
 		dirty = true;
+		invalidateHierarchy();
 	}
 
 	@Override
@@ -224,18 +366,21 @@ public class CompoundShape extends AbstractShape implements Collection<AbstractS
 	@Override
 	public boolean remove(Object o) {
 		dirty = true;
+		invalidateHierarchy();
 		return list.remove(o);
 	}
 
 	@Override
 	public boolean removeAll(Collection<?> c) {
 		dirty =true;
-		return removeAll(c);
+		invalidateHierarchy();
+		return list.removeAll(c);
 	}
 
 	@Override
 	public boolean retainAll(Collection<?> c) {
 		dirty = true;
+		invalidateHierarchy();
 		return list.retainAll(c);
 	}
 
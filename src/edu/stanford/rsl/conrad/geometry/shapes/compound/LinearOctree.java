@@ -3,9 +3,11 @@ package edu.stanford.rsl.conrad.geometry.shapes.compound;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.stanford.rsl.conrad.geometry.AbstractCurve;
 import edu.stanford.rsl.conrad.geometry.AbstractShape;
+import edu.stanford.rsl.conrad.geometry.RayHitBuffer;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
 import edu.stanford.rsl.conrad.geometry.transforms.Transform;
 import edu.stanford.rsl.conrad.numerics.SimpleOperators;
@@ -223,6 +225,22 @@ public class LinearOctree extends CompoundShape {
 		;
 	}
 
+	/**
+	 * The shapes are stored in the octants. Hence, all shapes of all octants are candidates.
+	 */
+	@Override
+	public List<AbstractShape> getCandidateShapes(AbstractCurve curve){
+		return createToDoList();
+	}
+
+	/**
+	 * The octree is traversed by {@link #intersect(AbstractCurve)} only.
+	 */
+	@Override
+	public int intersectRay(double [] origin, double [] direction, RayHitBuffer hits){
+		return -1;
+	}
+
 	@Override
 	public ArrayList<PointND> intersect(AbstractCurve other) {
 		if (dirty){
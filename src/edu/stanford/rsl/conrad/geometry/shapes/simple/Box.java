@@ -7,6 +7,7 @@ import edu.stanford.rsl.conrad.geometry.AbstractCurve;
 import edu.stanford.rsl.conrad.geometry.AbstractShape;
 import edu.stanford.rsl.conrad.geometry.Axis;
 import edu.stanford.rsl.conrad.geometry.General;
+import edu.stanford.rsl.conrad.geometry.RayHitBuffer;
 import edu.stanford.rsl.conrad.geometry.shapes.compound.CompoundShape;
 import edu.stanford.rsl.conrad.geometry.transforms.AffineTransform;
 import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
@@ -96,6 +97,39 @@ public class Box extends SimpleSurface {
 		return getCorrectedHits(hitsOnShape);	
 	}
 
+	/**
+	 * Primitive version of {@link #intersect(AbstractCurve)}. The box test is the same as in
+	 * {@link General#intersectRayWithCuboid(SimpleVector, SimpleVector, SimpleVector, SimpleVector, double[])}.
+	 */
+	@Override
+	public int intersectRay(double [] origin, double [] direction, RayHitBuffer hits){
+		double [] m = getInverseTransformMatrix();
+		double near = Double.NEGATIVE_INFINITY;
+		double far = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < 3; i++){
+			double o = (m[4*i] * origin[0]) + (m[(4*i)+1] * origin[1]) + (m[(4*i)+2] * origin[2]) + m[(4*i)+3];
+			double d = (m[4*i] * direction[0]) + (m[(4*i)+1] * direction[1]) + (m[(4*i)+2] * direction[2]);
+			if (Math.abs(d) < CONRAD.DOUBLE_EPSILON) {
+				if (o < lowerCorner.get(i) || o > upperCorner.get(i)) return 0;
+			} else {
+				double t1 = (lowerCorner.get(i) - o) / d;
+				double t2 = (upperCorner.get(i) - o) / d;
+				if (t1 > t2) {
+					double ttmp = t1;
+					t1 = t2;
+					t2 = ttmp;
+				}
+				if (t1 > near) near = t1;
+				if (t2 < far) far = t2;
+				if (near > far + CONRAD.FLOAT_EPSILON) return 0;
+				if (far < 0) return 0;
+			}
+		}
+		hits.add(near);
+		hits.add(far);
+		return 2;
+	}
+
 	@Override
 	public boolean isBounded() {
 		return true;
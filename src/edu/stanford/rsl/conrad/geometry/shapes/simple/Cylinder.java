@@ -94,6 +94,25 @@ public class Cylinder extends QuadricSurface {
 		return results;
 	}
 
+	@Override
+	protected int getLocalHits(double ox, double oy, double oz, double dx, double dy, double dz, double [] hits){
+		int count = super.getLocalHits(ox, oy, oz, dx, dy, dz, hits);
+		// same test as General.areColinear(direction, (0,0,1), CONRAD.FLOAT_EPSILON)
+		if (Math.sqrt((dy * dy) + (dx * dx)) < CONRAD.FLOAT_EPSILON){
+			double first = Math.pow(ox / this.dx,2);
+			double second = Math.pow(oy / this.dy,2);
+			if (first + second < 1){
+				// dummy hit that is out of bounds. It is not on the line and therefore has no distance.
+				hits[0] = 0;
+				hits[1] = 0;
+				hits[2] = this.dz;
+				hits[3] = Double.NaN;
+				count = 1;
+			}
+		}
+		return count;
+	}
+
 	@Override
 	public boolean isBounded() {
 		return true;
@@ -85,6 +85,61 @@ public abstract class QuadricSurface extends SimpleSurface{
 		return hits;
 	}
 
+	/**
+	 * Primitive version of {@link #getHits(AbstractCurve)} with the same arithmetic.
+	 */
+	@Override
+	protected int getLocalHits(double ox, double oy, double oz, double dx, double dy, double dz, double [] hits){
+		if (constMatrix == null) {
+			throw new RuntimeException("Please initialize constMatrix");
+		}
+		double cx = origin.get(0);
+		double cy = origin.get(1);
+		double cz = origin.get(2);
+		double a = quadraticForm(dx, dy, dz, dx, dy, dz);
+		double b = 2*quadraticForm(dx, dy, dz, cx + ox, cy + oy, cz + oz);
+		double c1 = quadraticForm(ox, oy, oz, ox, oy, oz) - constant;
+		double c2 = quadraticForm(cx, cy, cz, cx, cy, cz);
+		double c3 = 2*quadraticForm(cx, cy, cz, ox, oy, oz);
+		double c = c1 + c2 + c3;
+
+		double buff = b * b - 4 * a * c ;
+		if (buff > -CONRAD.FLOAT_EPSILON) {
+			if(buff < 0) buff =0;
+			double leftVal = -b/(2*a);
+			double rightVal = Math.sqrt(buff)/(2*a);
+			setLocalHit(hits, 0, rightVal + leftVal, ox, oy, oz, dx, dy, dz);
+			setLocalHit(hits, 1, leftVal - rightVal, ox, oy, oz, dx, dy, dz);
+			return 2;
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores the hit o + t * d at position index of the hit array.
+	 */
+	protected static void setLocalHit(double [] hits, int index, double t, double ox, double oy, double oz, double dx, double dy, double dz){
+		hits[4*index] = (dx * t) + ox;
+		hits[(4*index)+1] = (dy * t) + oy;
+		hits[(4*index)+2] = (dz * t) + oz;
+		hits[(4*index)+3] = t;
+	}
+
+	/**
+	 * Computes u^T * constMatrix * v.
+	 */
+	private double quadraticForm(double ux, double uy, double uz, double vx, double vy, double vz){
+		double mx = (constMatrix.getElement(0, 0) * vx) + (constMatrix.getElement(0, 1) * vy) + (constMatrix.getElement(0, 2) * vz);
+		double my = (constMatrix.getElement(1, 0) * vx) + (constMatrix.getElement(1, 1) * vy) + (constMatrix.getElement(1, 2) * vz);
+		double mz = (constMatrix.getElement(2, 0) * vx) + (constMatrix.getElement(2, 1) * vy) + (constMatrix.getElement(2, 2) * vz);
+		return (ux * mx) + (uy * my) + (uz * mz);
+	}
+
+	@Override
+	protected boolean isMemberLocal(double x, double y, double z){
+		return quadraticForm(x, y, z, x, y, z) <= constant;
+	}
+
 	public abstract  boolean isBounded();
 
 	public int getDimension(){
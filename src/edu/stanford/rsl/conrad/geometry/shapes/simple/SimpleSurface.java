@@ -8,7 +8,9 @@ import edu.stanford.rsl.conrad.geometry.AbstractCurve;
 import edu.stanford.rsl.conrad.geometry.AbstractSurface;
 import edu.stanford.rsl.conrad.geometry.Axis;
 import edu.stanford.rsl.conrad.geometry.General;
+import edu.stanford.rsl.conrad.geometry.RayHitBuffer;
 import edu.stanford.rsl.conrad.geometry.bounds.AbstractBoundingCondition;
+import edu.stanford.rsl.conrad.geometry.bounds.HalfSpaceBoundingCondition;
 import edu.stanford.rsl.conrad.geometry.transforms.ComboTransform;
 import edu.stanford.rsl.conrad.geometry.transforms.Transform;
 import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
@@ -27,6 +29,28 @@ public abstract class SimpleSurface extends AbstractSurface {
 	private static final long serialVersionUID = 1165067022561672962L;
 	protected Transform transform;
 	protected ArrayList<AbstractBoundingCondition> boundingConditions = new ArrayList<AbstractBoundingCondition>();
+	private transient volatile InverseTransform inverseTransform;
+
+	/**
+	 * Inverse of the shape's transform as 3x4 matrix, stored row by row. Valid as long as the transform object is not replaced.
+	 */
+	private static class InverseTransform {
+		final Transform source;
+		final double [] matrix = new double [12];
+
+		InverseTransform(Transform source){
+			this.source = source;
+			Transform inverse = source.inverse();
+			SimpleMatrix rotation = inverse.getRotation(3);
+			SimpleVector translation = inverse.getTranslation(3);
+			for (int i = 0; i < 3; i++){
+				for (int j = 0; j < 3; j++){
+					matrix[(4*i)+j] = rotation.getElement(i, j);
+				}
+				matrix[(4*i)+3] = translation.getElement(i);
+			}
+		}
+	}
 
 	public SimpleSurface(){
 		super();
@@ -69,6 +93,119 @@ public abstract class SimpleSurface extends AbstractSurface {
 
 	public abstract ArrayList<PointND> getHits(AbstractCurve other);
 
+	/**
+	 * Primitive version of {@link #intersect(AbstractCurve)}. The line is transformed into the coordinate system of the shape,
+	 * intersected with the base shape by {@link #getLocalHits(double, double, double, double, double, double, double[])},
+	 * and clipped with the bounding conditions. As all transforms are affine, the distances along the transformed line are the distances
+	 * along the original line. Only HalfSpaceBoundingConditions are supported.
+	 */
+	@Override
+	public int intersectRay(double [] origin, double [] direction, RayHitBuffer hits){
+		int numberOfConditions = boundingConditions.size();
+		for (int c = 0; c < numberOfConditions; c++){
+			if (!(boundingConditions.get(c) instanceof HalfSpaceBoundingCondition)) return -1;
+		}
+		double [] m = getInverseTransformMatrix();
+		double ox = (m[0] * origin[0]) + (m[1] * origin[1]) + (m[2] * origin[2]) + m[3];
+		double oy = (m[4] * origin[0]) + (m[5] * origin[1]) + (m[6] * origin[2]) + m[7];
+		double oz = (m[8] * origin[0]) + (m[9] * origin[1]) + (m[10] * origin[2]) + m[11];
+		double dx = (m[0] * direction[0]) + (m[1] * direction[1]) + (m[2] * direction[2]);
+		double dy = (m[4] * direction[0]) + (m[5] * direction[1]) + (m[6] * direction[2]);
+		double dz = (m[8] * direction[0]) + (m[9] * direction[1]) + (m[10] * direction[2]);
+		// four entries per hit: x, y, z in the coordinate system of the shape and the distance along the line
+		double [] local = hits.getScratch(4 * (MAX_LOCAL_HITS + numberOfConditions));
+		int count = getLocalHits(ox, oy, oz, dx, dy, dz, local);
+		if (count < 0) return -1;
+		if (count > 0 && numberOfConditions > 0) {
+			// remove out of bounds hits
+			int kept = 0;
+			for (int h = 0; h < count; h++){
+				boolean inside = true;
+				for (int c = 0; c < numberOfConditions && inside; c++){
+					inside = ((HalfSpaceBoundingCondition) boundingConditions.get(c)).isSatisfiedBy(local[4*h], local[(4*h)+1], local[(4*h)+2]);
+				}
+				if (inside) {
+					System.arraycopy(local, 4 * h, local, 4 * kept, 4);
+					kept++;
+				}
+			}
+			count = kept;
+			// add the hits on the bounding planes
+			for (int c = 0; c < numberOfConditions; c++){
+				Plane3D plane = ((HalfSpaceBoundingCondition) boundingConditions.get(c)).getBoundingSurface();
+				SimpleVector normal = plane.getNormal();
+				double denominator = (normal.getElement(0) * dx) + (normal.getElement(1) * dy) + (normal.getElement(2) * dz);
+				if (denominator == 0) continue;
+				double t = (plane.getOffset() - ((normal.getElement(0) * ox) + (normal.getElement(1) * oy) + (normal.getElement(2) * oz))) / denominator;
+				double x = ox + (t * dx);
+				double y = oy + (t * dy);
+				double z = oz + (t * dz);
+				if (isMemberLocal(x, y, z)) {
+					local[4*count] = x;
+					local[(4*count)+1] = y;
+					local[(4*count)+2] = z;
+					local[(4*count)+3] = t;
+					count++;
+				}
+			}
+		}
+		for (int h = 0; h < count; h++){
+			// hits which are not on the line, e.g. the dummy hits of the cylinder, are left to the object-based implementation
+			if (Double.isNaN(local[(4*h)+3]) || Double.isInfinite(local[(4*h)+3])) return -1;
+		}
+		for (int h = 0; h < count; h++){
+			hits.add(local[(4*h)+3]);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the inverse of the transform as 3x4 matrix [A | b], stored row by row, i.e. a world point x is mapped to A * x + b.
+	 * The matrix is cached until the transform is changed by {@link #applyTransform(Transform)}. It must not be modified.
+	 * @return the matrix
+	 */
+	protected double [] getInverseTransformMatrix(){
+		InverseTransform inverse = inverseTransform;
+		if (inverse == null || inverse.source != transform) {
+			inverse = new InverseTransform(transform);
+			inverseTransform = inverse;
+		}
+		return inverse.matrix;
+	}
+
+	/**
+	 * Maximal number of hits that are reported by {@link #getLocalHits(double, double, double, double, double, double, double[])}
+	 */
+	protected static final int MAX_LOCAL_HITS = 2;
+
+	/**
+	 * Primitive version of {@link #getHits(AbstractCurve)}. Computes the hits of the line o + t * d with the base shape, i.e. without bounding conditions,
+	 * in the coordinate system of the shape. The default implementation returns -1, i.e. the shape does not support primitive intersection.
+	 * @param ox x coordinate of the origin of the line
+	 * @param oy y coordinate of the origin of the line
+	 * @param oz z coordinate of the origin of the line
+	 * @param dx x coordinate of the direction of the line
+	 * @param dy y coordinate of the direction of the line
+	 * @param dz z coordinate of the direction of the line
+	 * @param hits x, y, z, and t of each hit, at most {@link #MAX_LOCAL_HITS} hits
+	 * @return the number of hits or -1
+	 */
+	protected int getLocalHits(double ox, double oy, double oz, double dx, double dy, double dz, double [] hits){
+		return -1;
+	}
+
+	/**
+	 * Primitive version of {@link #isMember(PointND, boolean)} for points in the coordinate system of the shape.
+	 * The default implementation creates a PointND. Shapes that support primitive intersection should override this method.
+	 * @param x x coordinate
+	 * @param y y coordinate
+	 * @param z z coordinate
+	 * @return true if the point is within the surface
+	 */
+	protected boolean isMemberLocal(double x, double y, double z){
+		return isMember(new PointND(x, y, z), true);
+	}
+
 
 	/**
 	 * After having obtained the object hits we need to add the bounding condition hits
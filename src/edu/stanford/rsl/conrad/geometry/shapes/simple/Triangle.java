@@ -6,6 +6,7 @@ import java.util.HashMap;
 import edu.stanford.rsl.conrad.geometry.AbstractCurve;
 import edu.stanford.rsl.conrad.geometry.AbstractShape;
 import edu.stanford.rsl.conrad.geometry.General;
+import edu.stanford.rsl.conrad.geometry.RayHitBuffer;
 import edu.stanford.rsl.conrad.geometry.transforms.Transform;
 import edu.stanford.rsl.conrad.numerics.SimpleOperators;
 import edu.stanford.rsl.conrad.numerics.SimpleVector;
@@ -195,6 +196,39 @@ public class Triangle extends Plane3D {
 		}
 	}
 
+	/**
+	 * Primitive version of {@link #intersectWithHitOrientation(AbstractCurve)}. The hit orientation is stored in the buffer.
+	 * Lines which are parallel to the triangle are left to the object-based implementation.
+	 */
+	@Override
+	public int intersectRay(double [] origin, double [] direction, RayHitBuffer hits){
+		double nx = normalN.getElement(0);
+		double ny = normalN.getElement(1);
+		double nz = normalN.getElement(2);
+		double denominator = (nx * direction[0]) + (ny * direction[1]) + (nz * direction[2]);
+		if (denominator == 0) return -1;
+		double t = (offsetD - ((nx * origin[0]) + (ny * origin[1]) + (nz * origin[2]))) / denominator;
+		// barycentric coordinates as in isInTriangle()
+		double v2x = (origin[0] + (t * direction[0])) - pointP.get(0);
+		double v2y = (origin[1] + (t * direction[1])) - pointP.get(1);
+		double v2z = (origin[2] + (t * direction[2])) - pointP.get(2);
+		double v0x = dirV.getElement(0), v0y = dirV.getElement(1), v0z = dirV.getElement(2);
+		double v1x = dirU.getElement(0), v1y = dirU.getElement(1), v1z = dirU.getElement(2);
+		double dot00 = (v0x * v0x) + (v0y * v0y) + (v0z * v0z);
+		double dot01 = (v0x * v1x) + (v0y * v1y) + (v0z * v1z);
+		double dot02 = (v0x * v2x) + (v0y * v2y) + (v0z * v2z);
+		double dot11 = (v1x * v1x) + (v1y * v1y) + (v1z * v1z);
+		double dot12 = (v1x * v2x) + (v1y * v2y) + (v1z * v2z);
+		double invDenom = 1.0 / ((dot00 * dot11) - (dot01 * dot01));
+		double u = ((dot11 * dot02) - (dot01 * dot12)) * invDenom;
+		double v = ((dot00 * dot12) - (dot01 * dot02)) * invDenom;
+		if ((u >= 0 - raytracingEpsilon) && (v >= 0 - raytracingEpsilon) && (u + v <= 1 + raytracingEpsilon)) {
+			hits.add(t, denominator);
+			return 1;
+		}
+		return 0;
+	}
+
 	/**
 	 * Computes whether the given point is inside of the triangle. Implementation is based on barycentric coordinates.
 	 * Allows a certain tolerance which is defined in the registry and retrieved in the triangle's constructor.
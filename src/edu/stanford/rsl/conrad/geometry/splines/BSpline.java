@@ -206,6 +206,31 @@ public class BSpline extends AbstractCurve {
 		return p;
 	}
 	
+	/**
+	 * Computes the weights of all control points at the given position, i.e. evalFast(t) is the sum of the control points weighted with the basis.
+	 * The basis does not depend on the control points. Hence, it can be reused for curves with the same knots.
+	 * @param t the position on the curve
+	 * @return the weights of the control points
+	 */
+	public double [] getBasis(double t) {
+		if(!IS_CLAMPED){
+			t = lowerBound + t*delta;
+		}
+		int numPts = getControlPoints().size();
+		double [] basis = new double [numPts];
+		int context = degree+1;
+		int index = Arrays.binarySearch(getKnots(), t);
+		if (index < 0) index *= -1; 
+		int start = index - context;
+		int end = index + context;
+		if (start < 0) start = 0;
+		if (end > numPts) end = numPts;
+		for (int i = start; i < end; i++) {
+			basis[i] = N(t, i);
+		}
+		return basis;
+	}
+	
 	/**
 	 * Constructor for a BSpline using ArbitraryPoints and a weight vector as SimpleVector
 	 * @param controlPoints the control points
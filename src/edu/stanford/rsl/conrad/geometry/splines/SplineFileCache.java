@@ -0,0 +1,234 @@
+package edu.stanford.rsl.conrad.geometry.splines;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
+
+/**
+ * Binary cache of spline files. Parsing the text files of the XCat phantom takes a long time. Hence, the parsed control points and knot vectors
+ * of every file are written to a binary cache file on first load. Later loads map the cache file into memory and read all numbers in bulk.
+ * <BR><BR>
+ * The cache file stores the MD5 hash of the text file. If the text file is changed, the cache is ignored and rewritten.
+ * The cache is controlled with {@link RegKeys#SPLINE_BINARY_CACHE} and {@link RegKeys#SPLINE_BINARY_CACHE_DIRECTORY}.
+ * <BR><BR>
+ * Time-variant splines are built from the splines of one file per time point. Thus, they are covered by the cache of these files.
+ *
+ * @author akmaier
+ *
+ */
+public class SplineFileCache {
+
+	private static final int MAGIC = 0x4353504C; // "CSPL"
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+
+	/**
+	 * Creates a cache that stores its files in the given directory.
+	 * @param directory the directory. It is created if necessary.
+	 */
+	public SplineFileCache(File directory){
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the cache configured in the registry.
+	 * @return the cache or null if caching is disabled
+	 */
+	public static SplineFileCache getConfiguredCache(){
+		boolean enabled = true;
+		File directory = new File(System.getProperty("java.io.tmpdir"), "conrad-spline-cache");
+		Configuration config = Configuration.getGlobalConfiguration();
+		if (config != null) {
+			try {
+				String value = config.getRegistryEntry(RegKeys.SPLINE_BINARY_CACHE);
+				if (value != null) enabled = Boolean.parseBoolean(value.trim());
+				String path = config.getRegistryEntry(RegKeys.SPLINE_BINARY_CACHE_DIRECTORY);
+				if (path != null && path.trim().length() > 0) directory = new File(path.trim());
+			} catch (Exception e){
+				CONRAD.log("Could not read '" + RegKeys.SPLINE_BINARY_CACHE + "' from registry. Using cache in " + directory + ".");
+			}
+		}
+		return enabled ? new SplineFileCache(directory) : null;
+	}
+
+	/**
+	 * @return the directory of the cache files
+	 */
+	public File getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Returns the cache file of a spline file. The name contains a hash of the absolute path. Thus, files with the same name in different directories do not collide.
+	 * @param source the spline file
+	 * @return the cache file
+	 */
+	public File getCacheFile(File source){
+		String path = source.getAbsolutePath();
+		return new File(directory, source.getName() + "." + Integer.toHexString(path.hashCode()) + ".splines");
+	}
+
+	/**
+	 * Reads the splines of a text spline file. The cache file is used if it belongs to the current content of the text file. Otherwise, the text file is parsed
+	 * and the cache file is written.
+	 * @param source the spline file
+	 * @return the splines
+	 * @throws IOException if the spline file cannot be read
+	 */
+	public ArrayList<SurfaceBSpline> readSplines(File source) throws IOException{
+		if (!source.isFile()) throw new FileNotFoundException(source.getPath() + " (No such file)");
+		byte [] content = Files.readAllBytes(source.toPath());
+		byte [] hash = hash(content);
+		File cacheFile = getCacheFile(source);
+		if (cacheFile.isFile()){
+			try {
+				ArrayList<SurfaceBSpline> splines = readCacheFile(cacheFile, hash);
+				if (splines != null) return splines;
+			} catch (IOException e){
+				CONRAD.log("Spline cache " + cacheFile + " is damaged and will be rewritten: " + e.getMessage());
+			}
+		}
+		ArrayList<SurfaceBSpline> splines = SurfaceBSpline.readSplines(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content))));
+		try {
+			writeCacheFile(splines, cacheFile, hash);
+		} catch (IOException e){
+			CONRAD.log("Could not write spline cache " + cacheFile + ": " + e.getMessage());
+		}
+		return splines;
+	}
+
+	private static byte [] hash(byte [] content){
+		try {
+			return MessageDigest.getInstance("MD5").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			// MD5 is available in every Java platform.
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Writes the splines to a temporary file which then replaces the cache file. Thus, concurrent readers never see a partial file.
+	 */
+	private void writeCacheFile(List<SurfaceBSpline> splines, File cacheFile, byte [] hash) throws IOException{
+		if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create directory " + directory);
+		File temp = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(hash);
+			out.writeInt(splines.size());
+			for (SurfaceBSpline spline : splines){
+				out.writeByte((spline instanceof SurfaceUniformCubicBSpline) ? 1 : 0);
+				byte [] title = (spline.getTitle() != null) ? spline.getTitle().getBytes(UTF8) : new byte [0];
+				out.writeInt(title.length);
+				out.write(title);
+				writeDoubles(out, spline.getUKnots().copyAsDoubleArray());
+				writeDoubles(out, spline.getVKnots().copyAsDoubleArray());
+				ArrayList<PointND> points = spline.getControlPoints();
+				int dimension = points.isEmpty() ? 0 : points.get(0).getDimension();
+				out.writeInt(points.size());
+				out.writeInt(dimension);
+				for (PointND p : points){
+					for (int d = 0; d < dimension; d++){
+						out.writeDouble(p.get(d));
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e){
+			temp.delete();
+			throw e;
+		}
+	}
+
+	private static void writeDoubles(DataOutputStream out, double [] values) throws IOException{
+		out.writeInt(values.length);
+		for (double value : values){
+			out.writeDouble(value);
+		}
+	}
+
+	/**
+	 * Maps the cache file and reads the splines.
+	 * @return the splines or null if the file belongs to another version of the spline file.
+	 */
+	private static ArrayList<SurfaceBSpline> readCacheFile(File cacheFile, byte [] hash) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+			byte [] storedHash = new byte [hash.length];
+			buffer.get(storedHash);
+			if (!Arrays.equals(hash, storedHash)) return null;
+			int numberOfSplines = buffer.getInt();
+			ArrayList<SurfaceBSpline> splines = new ArrayList<SurfaceBSpline>(numberOfSplines);
+			for (int s = 0; s < numberOfSplines; s++){
+				boolean uniformCubic = buffer.get() == 1;
+				byte [] titleBytes = new byte [buffer.getInt()];
+				buffer.get(titleBytes);
+				String title = new String(titleBytes, UTF8);
+				double [] uKnots = readDoubles(buffer, buffer.getInt());
+				double [] vKnots = readDoubles(buffer, buffer.getInt());
+				int numberOfPoints = buffer.getInt();
+				int dimension = buffer.getInt();
+				double [] coordinates = readDoubles(buffer, numberOfPoints * dimension);
+				ArrayList<PointND> points = new ArrayList<PointND>(numberOfPoints);
+				for (int i = 0; i < numberOfPoints; i++){
+					points.add(new PointND(Arrays.copyOfRange(coordinates, i * dimension, (i + 1) * dimension)));
+				}
+				splines.add(uniformCubic ? new SurfaceUniformCubicBSpline(title, points, uKnots, vKnots) : new SurfaceBSpline(title, points, uKnots, vKnots));
+			}
+			return splines;
+		} catch (RuntimeException e){
+			// e.g. BufferUnderflowException of a truncated file
+			throw new IOException("Invalid spline cache file " + cacheFile, e);
+		} finally {
+			file.close();
+		}
+	}
+
+	private static double [] readDoubles(ByteBuffer buffer, int length){
+		double [] values = new double [length];
+		DoubleBuffer doubles = buffer.asDoubleBuffer();
+		doubles.get(values);
+		buffer.position(buffer.position() + (length * 8));
+		return values;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -1,6 +1,7 @@
 package edu.stanford.rsl.conrad.geometry.splines;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -51,6 +52,7 @@ public class SurfaceBSpline extends AbstractSurface  {
 	public static final int TESSELATE_LINEAR_OCTREE = 0x4;
 	public static final int TESSELATE_NESTED_OCTREE = 0x5;
 	private String title;
+	private transient volatile RasterBasis rasterBasis;
 
 	public ArrayList<PointND> getControlPoints(){
 		return points;
@@ -347,9 +349,27 @@ public class SurfaceBSpline extends AbstractSurface  {
 		else return new SurfaceBSpline(last, list, uKnots, vKnots);
 	}
 	
+	/**
+	 * Reads all splines of a spline file. If enabled in the registry, the parsed splines are taken from the {@link SplineFileCache}.
+	 * @param filename the name of the file
+	 * @return the splines
+	 * @throws IOException if the file cannot be read
+	 */
 	public static ArrayList<SurfaceBSpline> readSplinesFromFile(String filename) throws IOException{
-		FileReader file = new FileReader(filename);
-		BufferedReader bf = new BufferedReader(file);
+		SplineFileCache cache = SplineFileCache.getConfiguredCache();
+		if (cache != null) return cache.readSplines(new File(filename));
+		BufferedReader bf = new BufferedReader(new FileReader(filename));
+		try {
+			return readSplines(bf);
+		} finally {
+			bf.close();
+		}
+	}
+
+	/**
+	 * Reads all surface splines until the end of the reader.
+	 */
+	static ArrayList<SurfaceBSpline> readSplines(BufferedReader bf) {
 		ArrayList<SurfaceBSpline> list = new ArrayList<SurfaceBSpline>();
 		// read all surface splines in the file.
 		boolean reading = true;
@@ -1042,7 +1062,112 @@ public class SurfaceBSpline extends AbstractSurface  {
 		this.numberOfVPoints = numberOfVPoints;
 	}
 
+	/**
+	 * Computes the weights of the u-splines at the given position, such that evaluate(u, v) is the sum of the v-splines at v weighted with the basis.
+	 * @param u the position in u direction
+	 * @return the weights of the numberOfUPoints v-splines
+	 */
+	protected double [] getUBasis(double u){
+		double [] basis = new double [numberOfUPoints];
+		for (int i = 0; i < numberOfUPoints; i++){
+			basis[i] = uSpline.getWeight(u, i);
+		}
+		return basis;
+	}
+
+	/**
+	 * Computes the weights of the control points of each v-spline at the given position. All v-splines share the same knots.
+	 * @param v the position in v direction
+	 * @return the weights of the numberOfVPoints control points
+	 */
+	protected double [] getVBasis(double v){
+		return vSplines[0].getBasis(v);
+	}
+
+	/**
+	 * Determines whether the raster points can be computed from the cached basis, i.e. whether the surface is the tensor product of uSpline and vSplines.
+	 * Subclasses which override evaluate(u, v) with a different surface must return false. Their raster points are evaluated point by point then.
+	 * @return true, if the raster points are computed from the cached basis.
+	 */
+	protected boolean supportsBasisEvaluation(){
+		return true;
+	}
+
+	/**
+	 * Returns the basis for the given sampling. The basis only depends on the knots. Hence, it is computed once and reused as long as the sampling does not change.
+	 */
+	private RasterBasis getRasterBasis(int samplingU, int samplingV){
+		RasterBasis basis = rasterBasis;
+		if (basis == null || basis.samplingU != samplingU || basis.samplingV != samplingV || basis.uKnots != uKnots || basis.vKnots != vKnots) {
+			basis = new RasterBasis(samplingU, samplingV, uKnots, vKnots);
+			for (int i = 0; i < samplingU; i++){
+				basis.setU(i, getUBasis(((double) i) / samplingU));
+			}
+			for (int j = 0; j < samplingV; j++){
+				basis.setV(j, getVBasis(((double) j) / samplingV));
+			}
+			rasterBasis = basis;
+		}
+		return basis;
+	}
+
+	/**
+	 * Evaluates the raster of getRasterPoints(samplingU, samplingV) for other control points with the basis of this spline.
+	 * Used to evaluate time variant splines after the control points of the respective time were combined.
+	 * @param controlPoints the control points [numberOfUPoints * numberOfVPoints][dimension]
+	 * @param samplingU number of points in u direction
+	 * @param samplingV number of points in v direction
+	 * @return the raster points
+	 */
+	PointND [] getRasterPoints(double [][] controlPoints, int samplingU, int samplingV){
+		RasterBasis basis = getRasterBasis(samplingU, samplingV);
+		int dim = controlPoints[0].length;
+		// first all v-splines at all v positions
+		double [][] vPoints = new double [numberOfUPoints * samplingV][dim];
+		for (int k = 0; k < numberOfUPoints; k++){
+			for (int j = 0; j < samplingV; j++){
+				double [] p = vPoints[k * samplingV + j];
+				int [] index = basis.vIndex[j];
+				double [] weight = basis.vWeight[j];
+				for (int n = 0; n < index.length; n++){
+					double [] c = controlPoints[(k * numberOfVPoints) + index[n]];
+					for (int d = 0; d < dim; d++){
+						p[d] += c[d] * weight[n];
+					}
+				}
+			}
+		}
+		// then the weighted sum in u direction
+		PointND [] pts = new PointND[samplingU * samplingV];
+		for (int i = 0; i < samplingU; i++){
+			int [] index = basis.uIndex[i];
+			double [] weight = basis.uWeight[i];
+			for (int j = 0; j < samplingV; j++){
+				double [] p = new double [dim];
+				for (int n = 0; n < index.length; n++){
+					double [] c = vPoints[index[n] * samplingV + j];
+					for (int d = 0; d < dim; d++){
+						p[d] += c[d] * weight[n];
+					}
+				}
+				pts[(i * samplingV) + j] = new PointND(p);
+			}
+		}
+		return pts;
+	}
+
+	static double [][] getCoordinates(ArrayList<PointND> points){
+		double [][] coordinates = new double [points.size()][];
+		for (int i = 0; i < coordinates.length; i++){
+			coordinates[i] = points.get(i).getCoordinates();
+		}
+		return coordinates;
+	}
+
 	public PointND[] getRasterPoints(double samplingU, double samplingV) {
+		if (supportsBasisEvaluation() && samplingU == Math.floor(samplingU) && samplingV == Math.floor(samplingV)) {
+			return getRasterPoints(getCoordinates(points), (int) samplingU, (int) samplingV);
+		}
 		PointND [] pts = new PointND[((int)samplingU) * ((int)samplingV)];
 		for(double i =0 ; i < samplingU; i++){
 			for (double j = 0; j < samplingV; j++){
@@ -1058,6 +1183,56 @@ public class SurfaceBSpline extends AbstractSurface  {
 		return new SurfaceBSpline(this);
 	}
 
+	/**
+	 * Non-zero weights of the u and v basis functions at the raster positions.
+	 */
+	private static class RasterBasis {
+		final int samplingU;
+		final int samplingV;
+		final SimpleVector uKnots;
+		final SimpleVector vKnots;
+		final int [][] uIndex;
+		final double [][] uWeight;
+		final int [][] vIndex;
+		final double [][] vWeight;
+
+		RasterBasis(int samplingU, int samplingV, SimpleVector uKnots, SimpleVector vKnots){
+			this.samplingU = samplingU;
+			this.samplingV = samplingV;
+			this.uKnots = uKnots;
+			this.vKnots = vKnots;
+			uIndex = new int [samplingU][];
+			uWeight = new double [samplingU][];
+			vIndex = new int [samplingV][];
+			vWeight = new double [samplingV][];
+		}
+
+		void setU(int i, double [] basis){
+			uIndex[i] = nonZero(basis);
+			uWeight[i] = select(basis, uIndex[i]);
+		}
+
+		void setV(int j, double [] basis){
+			vIndex[j] = nonZero(basis);
+			vWeight[j] = select(basis, vIndex[j]);
+		}
+
+		private static int [] nonZero(double [] basis){
+			int count = 0;
+			for (double w : basis) if (w != 0) count++;
+			int [] index = new int [count];
+			count = 0;
+			for (int i = 0; i < basis.length; i++) if (basis[i] != 0) index[count++] = i;
+			return index;
+		}
+
+		private static double [] select(double [] basis, int [] index){
+			double [] weight = new double [index.length];
+			for (int n = 0; n < index.length; n++) weight[n] = basis[index[n]];
+			return weight;
+		}
+	}
+
 
 }
 /*
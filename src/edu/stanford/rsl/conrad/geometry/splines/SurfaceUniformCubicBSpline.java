@@ -91,6 +91,11 @@ public class SurfaceUniformCubicBSpline extends SurfaceBSpline {
 		return new PointND(p);
 	}
 	
+	@Override
+	protected double [] getUBasis(double u){
+		return uSpline.getBasis(u);
+	}
+
 	@Override
 	public AbstractShape clone() {
 		return new SurfaceUniformCubicBSpline(this);
@@ -8,6 +8,7 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import com.jogamp.opencl.CLContext;
@@ -43,6 +44,7 @@ public class TimeVariantSurfaceBSpline extends AbstractSurface {
 	protected BSpline timeSpline;
 	protected int tPoints;
 	protected boolean clockwise;
+	private transient Boolean basisEvaluation;
 
 	public boolean isClockwise(){
 		return clockwise;
@@ -215,7 +217,61 @@ public class TimeVariantSurfaceBSpline extends AbstractSurface {
 		return revan;
 	}
 
+	/**
+	 * Determines whether the surface at time t is the spline with the combined control points of the time steps, as computed by evaluate(u, v, t).
+	 * Subclasses which override evaluate(u, v, t) with a different interpolation in time must return false.
+	 * @return true, if the raster points may be computed from the combined control points.
+	 */
+	protected boolean supportsBasisEvaluation(){
+		return true;
+	}
+
+	/**
+	 * Checks whether the raster points can be computed by combining the control points of the time steps first, i.e. whether
+	 * this class and all time steps {@link #supportsBasisEvaluation() support} it and all time steps share the same knots.
+	 * @return true, if the raster is evaluated with the cached basis of the first time step
+	 */
+	private boolean isBasisEvaluation(){
+		if (basisEvaluation == null) {
+			boolean supported = supportsBasisEvaluation();
+			SurfaceBSpline first = timeVariantShapes.get(0);
+			for (SurfaceBSpline spline : timeVariantShapes){
+				supported &= spline.supportsBasisEvaluation() && spline.getClass() == first.getClass()
+						&& Arrays.equals(spline.getUKnots().copyAsDoubleArray(), first.getUKnots().copyAsDoubleArray())
+						&& Arrays.equals(spline.getVKnots().copyAsDoubleArray(), first.getVKnots().copyAsDoubleArray());
+			}
+			basisEvaluation = supported;
+		}
+		return basisEvaluation;
+	}
+
+	/**
+	 * Combines the control points of the time steps with the same weights that evaluate(u, v, t) uses for the surface points.
+	 * As the surface is linear in its control points, the spline with the combined control points is the surface at time t.
+	 */
+	private double [][] getControlPoints(double t){
+		double internal = ((t * timeSpline.getKnots().length) -3.0);
+		int numPts = timeSpline.getControlPoints().size();
+		double [] weights = UniformCubicBSpline.getWeights(internal- Math.floor(internal));
+		double [][] combined = null;
+		for (int i=0;i<4;i++){
+			int index = (internal+i < 0) ? 0 : (internal+i>=numPts) ? numPts-1 : (int) (internal+i);
+			ArrayList<PointND> points = timeVariantShapes.get(index).getControlPoints();
+			if (combined == null) combined = new double [points.size()][points.get(0).getDimension()];
+			for (int m = 0; m < combined.length; m++){
+				double [] loc = points.get(m).getCoordinates();
+				for (int j = 0; j < loc.length; j++){
+					combined[m][j] += (loc[j] * weights[i]);
+				}
+			}
+		}
+		return combined;
+	}
+
 	public PointND[] getRasterPoints(double samplingU, double samplingV, double time){
+		if (isBasisEvaluation() && samplingU == Math.floor(samplingU) && samplingV == Math.floor(samplingV)) {
+			return timeVariantShapes.get(0).getRasterPoints(getControlPoints(time), (int) samplingU, (int) samplingV);
+		}
 		PointND [] pts = new PointND[((int)samplingU) * ((int)samplingV)];
 		for(double i =0 ; i < samplingU; i++){
 			for (double j = 0; j < samplingV; j++){
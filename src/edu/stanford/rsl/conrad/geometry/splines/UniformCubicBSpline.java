@@ -79,6 +79,19 @@ public class UniformCubicBSpline extends BSpline {
 		return p;
 	}
 	
+	@Override
+	public double [] getBasis(double t) {
+		int numPts = getControlPoints().size();
+		double [] basis = new double [numPts];
+		double internal = ((t * getKnots().length) -3.0);
+		double [] weights = getWeights(internal- Math.floor(internal));
+		for (int i=0;i<4;i++){
+			int index = (internal+i < 0) ? 0 : (internal+i>=numPts) ? numPts-1 : (int) (internal+i);
+			basis[index] += weights[i];
+		}
+		return basis;
+	}
+	
 	@Override
 	public AbstractShape clone() {
 		return new UniformCubicBSpline(this);
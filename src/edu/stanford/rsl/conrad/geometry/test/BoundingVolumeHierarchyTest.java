@@ -0,0 +1,127 @@
+package edu.stanford.rsl.conrad.geometry.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.geometry.AbstractCurve;
+import edu.stanford.rsl.conrad.geometry.General;
+import edu.stanford.rsl.conrad.geometry.bounds.BoundingVolumeHierarchy;
+import edu.stanford.rsl.conrad.geometry.shapes.compound.CompoundShape;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.StraightLine;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Triangle;
+import edu.stanford.rsl.conrad.geometry.transforms.Translation;
+import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+public class BoundingVolumeHierarchyTest {
+
+	@BeforeClass
+	public static void setUpConfiguration(){
+		// triangles read the ray tracing epsilon from the registry
+		if (Configuration.getGlobalConfiguration() == null) {
+			Configuration config = new Configuration();
+			config.setRegistry(new HashMap<String, String>());
+			Configuration.setGlobalConfiguration(config);
+		}
+	}
+
+	private static double [] createBoxes(Random random, int number){
+		double [] boxes = new double [6 * number];
+		for (int i = 0; i < number; i++){
+			for (int d = 0; d < 3; d++){
+				double center = (random.nextDouble() - 0.5) * 100;
+				double extent = random.nextDouble() * 5;
+				boxes[(6*i)+d] = center - extent;
+				boxes[(6*i)+3+d] = center + extent;
+			}
+		}
+		return boxes;
+	}
+
+	private static SimpleVector randomDirection(Random random){
+		SimpleVector dir = new SimpleVector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+		dir.normalizeL2();
+		return dir;
+	}
+
+	private static void assertSameHits(double [] boxes, BoundingVolumeHierarchy bvh, Random random){
+		double [] near = new double [2];
+		for (int r = 0; r < 500; r++){
+			SimpleVector origin = new SimpleVector((random.nextDouble() - 0.5) * 120, (random.nextDouble() - 0.5) * 120, (random.nextDouble() - 0.5) * 120);
+			SimpleVector dir = randomDirection(random);
+			ArrayList<Integer> expected = new ArrayList<Integer>();
+			for (int i = 0; i < boxes.length / 6; i++){
+				SimpleVector min = new SimpleVector(boxes[6*i], boxes[(6*i)+1], boxes[(6*i)+2]);
+				SimpleVector max = new SimpleVector(boxes[(6*i)+3], boxes[(6*i)+4], boxes[(6*i)+5]);
+				if (General.intersectRayWithCuboid(origin, dir, min, max, near)) expected.add(i);
+			}
+			int [] hits = bvh.intersect(origin.copyAsDoubleArray(), dir.copyAsDoubleArray(), true);
+			Assert.assertEquals(expected.size(), hits.length);
+			for (int i = 0; i < hits.length; i++){
+				Assert.assertEquals(expected.get(i).intValue(), hits[i]);
+			}
+		}
+	}
+
+	@Test
+	public void bruteForceTest(){
+		Random random = new Random(42);
+		double [] boxes = createBoxes(random, 1000);
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(boxes);
+		Assert.assertEquals(1000, bvh.getNumberOfBoxes());
+		assertSameHits(boxes, bvh, random);
+	}
+
+	@Test
+	public void refitTest(){
+		Random random = new Random(7);
+		BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy(createBoxes(random, 300));
+		double [] moved = createBoxes(random, 300);
+		bvh.refit(moved);
+		assertSameHits(moved, bvh, random);
+	}
+
+	@Test
+	public void compoundShapeTest(){
+		Random random = new Random(3);
+		CompoundShape compound = new CompoundShape();
+		ArrayList<Triangle> triangles = new ArrayList<Triangle>();
+		for (int i = 0; i < 200; i++){
+			PointND a = new PointND((random.nextDouble() - 0.5) * 50, (random.nextDouble() - 0.5) * 50, (random.nextDouble() - 0.5) * 50);
+			PointND b = new PointND(a.get(0) + random.nextDouble() * 10, a.get(1) + random.nextDouble() * 10, a.get(2));
+			PointND c = new PointND(a.get(0), a.get(1) + random.nextDouble() * 10, a.get(2) + random.nextDouble() * 10);
+			Triangle t = new Triangle(a, b, c);
+			triangles.add(t);
+			compound.add(t);
+		}
+		for (int step = 0; step < 2; step++){
+			for (int r = 0; r < 500; r++){
+				PointND origin = new PointND((random.nextDouble() - 0.5) * 60, (random.nextDouble() - 0.5) * 60, (random.nextDouble() - 0.5) * 60);
+				StraightLine line = new StraightLine(origin, randomDirection(random));
+				ArrayList<PointND> expected = new ArrayList<PointND>();
+				for (Triangle t : triangles){
+					expected.addAll(t.intersect((AbstractCurve) line));
+				}
+				ArrayList<PointND> hits = compound.intersect(line);
+				Assert.assertEquals(expected.size(), hits.size());
+				for (int i = 0; i < hits.size(); i++){
+					Assert.assertEquals(0.0, expected.get(i).euclideanDistance(hits.get(i)), 0);
+				}
+			}
+			// the hierarchy has to follow the transformation
+			compound.applyTransform(new Translation(10, -5, 3));
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,120 @@
+package edu.stanford.rsl.conrad.geometry.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.geometry.motion.ParzenWindowEvaluator;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+
+/**
+ * Compares the truncated evaluation of the ParzenWindowEvaluator with the summation over all points of the ParzenWindowMotionField.
+ */
+public class ParzenWindowEvaluatorTest {
+
+	private static final double SIGMA = 2.0;
+
+	private PointND [] from;
+	private PointND [] to;
+
+	private void createPoints(){
+		// points on a sphere that is deformed smoothly
+		Random random = new Random(3);
+		from = new PointND[2000];
+		to = new PointND[from.length];
+		for (int i = 0; i < from.length; i++){
+			double theta = Math.acos((2 * random.nextDouble()) - 1);
+			double phi = 2 * Math.PI * random.nextDouble();
+			double x = 30 * Math.sin(theta) * Math.cos(phi);
+			double y = 30 * Math.sin(theta) * Math.sin(phi);
+			double z = 30 * Math.cos(theta);
+			from[i] = new PointND(x, y, z);
+			to[i] = new PointND(x * 1.05, y + 2 + (0.02 * z), z - (0.01 * x * x / 30));
+		}
+	}
+
+	/**
+	 * The summation of ParzenWindowMotionField.getPosition()
+	 */
+	private double [] fullSummation(PointND position){
+		double [] summation = new double [3];
+		float weightsum = 0;
+		double acc = 70;
+		for (int i = 0; i < from.length; i++){
+			float weight = (float) Math.exp((-0.5 * Math.pow(from[i].euclideanDistance(position), 2) / Math.pow(SIGMA, 2)) + acc);
+			weightsum += weight;
+			for (int d = 0; d < 3; d++){
+				summation[d] += (to[i].get(d) - from[i].get(d)) * weight;
+			}
+		}
+		for (int d = 0; d < 3; d++){
+			summation[d] = (Math.abs(weightsum) < 0.00000001) ? 0 : summation[d] / weightsum;
+		}
+		return summation;
+	}
+
+	private void compare(ParzenWindowEvaluator evaluator, double tolerance){
+		Random random = new Random(11);
+		double [] displacement = new double [3];
+		for (int q = 0; q < 300; q++){
+			// positions close to the surface, inside, and far outside
+			double radius = (q % 3 == 0) ? 30 + (random.nextGaussian() * 3) : (q % 3 == 1) ? 20 * random.nextDouble() : 40 + (60 * random.nextDouble());
+			double theta = Math.acos((2 * random.nextDouble()) - 1);
+			double phi = 2 * Math.PI * random.nextDouble();
+			PointND position = new PointND(radius * Math.sin(theta) * Math.cos(phi), radius * Math.sin(theta) * Math.sin(phi), radius * Math.cos(theta));
+			evaluator.getDisplacement(position.get(0), position.get(1), position.get(2), displacement);
+			double [] expected = fullSummation(position);
+			for (int d = 0; d < 3; d++){
+				assertEquals("position " + position + " radius " + radius, expected[d], displacement[d], tolerance);
+			}
+		}
+	}
+
+	@Test
+	public void testWideCutoffMatchesFullSummation(){
+		createPoints();
+		compare(new ParzenWindowEvaluator(from, to, SIGMA, 8), 1e-4);
+	}
+
+	@Test
+	public void testDefaultCutoffApproximatesFullSummation(){
+		createPoints();
+		compare(new ParzenWindowEvaluator(from, to, SIGMA), 0.05);
+	}
+
+	@Test
+	public void testVolumeMatchesSinglePositions(){
+		createPoints();
+		ParzenWindowEvaluator evaluator = new ParzenWindowEvaluator(from, to, SIGMA);
+		double [] origin = {-40, -35, -32};
+		double [] spacing = {8, 7, 9};
+		int [] size = {11, 10, 8};
+		float [] volume = evaluator.getDisplacements(origin, spacing, size);
+		double [] displacement = new double [3];
+		for (int k = 0; k < size[2]; k++){
+			for (int j = 0; j < size[1]; j++){
+				for (int i = 0; i < size[0]; i++){
+					evaluator.getDisplacement(origin[0] + (i * spacing[0]), origin[1] + (j * spacing[1]), origin[2] + (k * spacing[2]), displacement);
+					int index = (((k * size[1]) + j) * size[0] + i) * 3;
+					for (int d = 0; d < 3; d++){
+						assertEquals(displacement[d], volume[index + d], 1e-5);
+					}
+				}
+			}
+		}
+		double [] positions = {0, 0, 30, 100, 100, 100};
+		double [] displacements = new double [6];
+		evaluator.getDisplacements(positions, displacements);
+		evaluator.getDisplacement(0, 0, 30, displacement);
+		assertEquals(displacement[1], displacements[1], 1e-12);
+		// far away from all points
+		assertEquals(0, displacements[3], 0);
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
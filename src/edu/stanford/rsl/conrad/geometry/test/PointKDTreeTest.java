@@ -0,0 +1,104 @@
+package edu.stanford.rsl.conrad.geometry.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.geometry.motion.DisplacementGrid;
+import edu.stanford.rsl.conrad.geometry.motion.PointKDTree;
+import edu.stanford.rsl.conrad.geometry.motion.SimpleMotionField;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+
+/**
+ * Compares the k-d tree search with an exhaustive search and the interpolation of the DisplacementGrid with the motion field.
+ */
+public class PointKDTreeTest {
+
+	private static ArrayList<PointND> createPoints(int number, Random random){
+		ArrayList<PointND> points = new ArrayList<PointND>();
+		for (int i = 0; i < number; i++){
+			// some duplicates on a coarse lattice and some random points
+			if (i % 5 == 0) {
+				points.add(new PointND(random.nextInt(4), random.nextInt(4), random.nextInt(4)));
+			} else {
+				points.add(new PointND(random.nextDouble() * 4, random.nextDouble() * 4, random.nextDouble() * 4));
+			}
+		}
+		return points;
+	}
+
+	@Test
+	public void testNearestNeighboursMatchExhaustiveSearch(){
+		Random random = new Random(42);
+		ArrayList<PointND> points = createPoints(1000, random);
+		PointKDTree tree = new PointKDTree(points);
+		int k = 6;
+		for (int q = 0; q < 200; q++){
+			PointND query = new PointND(random.nextDouble() * 5 - 0.5, random.nextDouble() * 5 - 0.5, random.nextDouble() * 5 - 0.5);
+			int [] found = tree.findNearest(query, k);
+			double [] expected = new double [points.size()];
+			for (int i = 0; i < points.size(); i++){
+				expected[i] = query.euclideanDistance(points.get(i));
+			}
+			Arrays.sort(expected);
+			for (int i = 0; i < k; i++){
+				// ties may be returned in any order. Thus, only the distances are compared.
+				assertEquals(expected[i], query.euclideanDistance(points.get(found[i])), 1e-12);
+			}
+		}
+	}
+
+	@Test
+	public void testFewerPointsThanNeighbours(){
+		ArrayList<PointND> points = new ArrayList<PointND>();
+		points.add(new PointND(0, 0, 0));
+		points.add(new PointND(2, 0, 0));
+		PointKDTree tree = new PointKDTree(points);
+		int [] indices = new int [4];
+		double [] distances = new double [4];
+		assertEquals(2, tree.findNearest(new double [] {1.5, 0, 0}, 4, indices, distances));
+		assertArrayEquals(new int [] {1, 0, 0, 0}, indices);
+		assertEquals(0.25, distances[0], 1e-12);
+		assertEquals(2.25, distances[1], 1e-12);
+	}
+
+	@Test
+	public void testDisplacementGridIsExactForAffineMotion(){
+		SimpleMotionField field = new SimpleMotionField() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public PointND getPosition(PointND initialPosition, double initialTime, double time) {
+				double t = time - initialTime;
+				return new PointND(initialPosition.get(0) + (0.1 * t * initialPosition.get(1)),
+						initialPosition.get(1) - (2 * t),
+						initialPosition.get(2) * (1 + (0.05 * t)));
+			}
+		};
+		double [] times = {0, 0.5, 1};
+		DisplacementGrid grid = new DisplacementGrid(field, 0, times, new double [] {-10, -10, -5}, new double [] {2.5, 2.5, 2}, new int [] {9, 9, 6});
+		assertEquals(3, grid.getNumberOfTimes());
+		Random random = new Random(7);
+		double [] displacement = new double [3];
+		for (int q = 0; q < 100; q++){
+			PointND point = new PointND(random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10, random.nextDouble() * 10 - 5);
+			for (int h = 0; h < times.length; h++){
+				grid.getDisplacement(h, point.get(0), point.get(1), point.get(2), displacement);
+				PointND expected = field.getPosition(point, 0, times[h]);
+				for (int d = 0; d < 3; d++){
+					assertEquals(expected.get(d) - point.get(d), displacement[d], 1e-5);
+				}
+			}
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
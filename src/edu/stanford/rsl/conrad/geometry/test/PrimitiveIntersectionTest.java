@@ -0,0 +1,151 @@
+package edu.stanford.rsl.conrad.geometry.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.geometry.AbstractCurve;
+import edu.stanford.rsl.conrad.geometry.AbstractShape;
+import edu.stanford.rsl.conrad.geometry.RayHitBuffer;
+import edu.stanford.rsl.conrad.geometry.Rotations;
+import edu.stanford.rsl.conrad.geometry.shapes.compound.CompoundShape;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Box;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Cone;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Cylinder;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Ellipsoid;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Sphere;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.StraightLine;
+import edu.stanford.rsl.conrad.geometry.transforms.AffineTransform;
+import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.physics.PhysicalObject;
+import edu.stanford.rsl.conrad.physics.PhysicalPoint;
+import edu.stanford.rsl.conrad.rendering.SimpleRayTracer;
+import edu.stanford.rsl.conrad.rendering.SimpleScene;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+public class PrimitiveIntersectionTest {
+
+	@BeforeClass
+	public static void setUpConfiguration(){
+		// triangles read the ray tracing epsilon from the registry
+		if (Configuration.getGlobalConfiguration() == null) {
+			Configuration config = new Configuration();
+			config.setRegistry(new HashMap<String, String>());
+			Configuration.setGlobalConfiguration(config);
+		}
+	}
+
+	/**
+	 * Compares the hits of intersectRay() with the points of intersectWithHitOrientation() for random rays through the shape.
+	 */
+	private static void assertSameHits(AbstractShape shape, Random random, boolean orientation){
+		RayHitBuffer buffer = new RayHitBuffer(1);
+		int primitive = 0;
+		for (int r = 0; r < 300; r++){
+			SimpleVector dir = new SimpleVector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+			if (r < 5) {
+				// rays along the z axis
+				dir = new SimpleVector(0, 0, 1);
+			}
+			dir.normalizeL2();
+			PointND origin = new PointND((random.nextDouble() - 0.5) * 20, (random.nextDouble() - 0.5) * 20, -40);
+			StraightLine line = new StraightLine(origin, dir);
+			ArrayList<PointND> expected = shape.intersectWithHitOrientation(line);
+			buffer.clear();
+			buffer.add(-1);
+			int count = shape.intersectRay(origin.getCoordinates(), dir.copyAsDoubleArray(), buffer);
+			if (count < 0) {
+				Assert.assertEquals(1, buffer.size());
+				continue;
+			}
+			primitive++;
+			Assert.assertEquals(expected.size(), count);
+			Assert.assertEquals(count + 1, buffer.size());
+			for (int i = 0; i < count; i++){
+				PointND p = expected.get(i);
+				double t = buffer.getDistance(i + 1);
+				for (int d = 0; d < 3; d++){
+					Assert.assertEquals(p.get(d), origin.get(d) + (t * dir.getElement(d)), 1e-8);
+				}
+				if (orientation) Assert.assertEquals(p.get(3), buffer.getOrientation(i + 1), 1e-12);
+			}
+		}
+		Assert.assertTrue(primitive > 250);
+	}
+
+	private static AffineTransform createTransform(Random random){
+		return new AffineTransform(Rotations.createRotationMatrix(random.nextDouble(), random.nextDouble(), random.nextDouble()), new SimpleVector(1, -2, 3));
+	}
+
+	@Test
+	public void quadricTest(){
+		Random random = new Random(11);
+		assertSameHits(new Sphere(8, new PointND(1, 2, 3)), random, false);
+		assertSameHits(new Ellipsoid(5, 8, 10), random, false);
+		Ellipsoid ellipsoid = new Ellipsoid(5, 8, 10, createTransform(random));
+		assertSameHits(ellipsoid, random, false);
+		Cylinder cylinder = new Cylinder(6, 4, 20);
+		assertSameHits(cylinder, random, false);
+		cylinder.applyTransform(createTransform(random));
+		assertSameHits(cylinder, random, false);
+		assertSameHits(new Cone(5, 5, 10), random, false);
+	}
+
+	@Test
+	public void boxTest(){
+		Random random = new Random(13);
+		Box box = new Box(10, 12, 14);
+		assertSameHits(box, random, false);
+		box.applyTransform(createTransform(random));
+		assertSameHits(box, random, false);
+	}
+
+	private static class SceneIntersection extends SimpleRayTracer {
+		@Override
+		public ArrayList<PhysicalPoint> intersectWithScene(AbstractCurve ray){
+			return super.intersectWithScene(ray);
+		}
+	}
+
+	/**
+	 * Objects behind the source must not be hit, neither by the primitive nor by the object-based intersection of the ray tracer.
+	 */
+	@Test
+	public void objectBehindSourceTest(){
+		SimpleScene scene = new SimpleScene();
+		PhysicalObject front = new PhysicalObject();
+		front.setShape(new Sphere(5, new PointND(0, 0, 20)));
+		front.setNameString("front");
+		scene.add(front);
+		PhysicalObject behind = new PhysicalObject();
+		behind.setShape(new Sphere(5, new PointND(0, 0, -20)));
+		behind.setNameString("behind");
+		scene.add(behind);
+		SceneIntersection tracer = new SceneIntersection();
+		tracer.setScene(scene);
+		ArrayList<PhysicalPoint> hits = tracer.intersectWithScene(new StraightLine(new PointND(0, 0, 0), new SimpleVector(0, 0, 1)));
+		Assert.assertEquals(2, hits.size());
+		for (PhysicalPoint hit : hits){
+			Assert.assertSame(front, hit.getObject());
+			Assert.assertTrue(hit.get(2) > 0);
+		}
+	}
+
+	@Test
+	public void triangleMeshTest(){
+		Random random = new Random(17);
+		CompoundShape mesh = (CompoundShape) new Sphere(9).tessellate(1.0);
+		assertSameHits(mesh, random, true);
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
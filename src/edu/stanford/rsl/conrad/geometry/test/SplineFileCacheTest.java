@@ -0,0 +1,112 @@
+package edu.stanford.rsl.conrad.geometry.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.geometry.splines.SplineFileCache;
+import edu.stanford.rsl.conrad.geometry.splines.SurfaceBSpline;
+
+/**
+ * Compares the splines read from the binary cache with the splines parsed from the text file.
+ */
+public class SplineFileCacheTest {
+
+	private static void writeSpline(PrintWriter writer, String title, int uPoints, int vPoints, double offset){
+		writer.println(title);
+		writer.println(uPoints + " :M");
+		writer.println(vPoints + " :N");
+		writer.println("U Knot Vector");
+		writeKnots(writer, vPoints);
+		writer.println("V Knot Vector");
+		writeKnots(writer, uPoints);
+		writer.println("Control Points");
+		for (int i = 0; i < uPoints; i++){
+			if (i > 0) writer.println();
+			for (int j = 0; j < vPoints; j++){
+				writer.println((i + offset) + " " + (j * 0.5) + " " + ((i * j) + offset));
+			}
+		}
+		writer.println();
+	}
+
+	private static void writeKnots(PrintWriter writer, int points){
+		// clamped cubic knot vector
+		for (int i = 0; i < points + 4; i++){
+			writer.println(Math.min(1, Math.max(0, (i - 3.0) / (points - 3.0))));
+		}
+	}
+
+	private static File writeFile(File directory, double offset) throws IOException{
+		File file = new File(directory, "test_spline.nrb");
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		writeSpline(writer, "first", 4, 5, offset);
+		writeSpline(writer, "second", 6, 4, offset + 1);
+		writer.close();
+		return file;
+	}
+
+	private static void assertSplinesEqual(ArrayList<SurfaceBSpline> expected, ArrayList<SurfaceBSpline> actual){
+		assertEquals(expected.size(), actual.size());
+		for (int s = 0; s < expected.size(); s++){
+			assertEquals(expected.get(s).getClass(), actual.get(s).getClass());
+			assertEquals(expected.get(s).getTitle(), actual.get(s).getTitle());
+			assertArrayEquals(expected.get(s).getUKnots().copyAsDoubleArray(), actual.get(s).getUKnots().copyAsDoubleArray(), 0);
+			assertArrayEquals(expected.get(s).getVKnots().copyAsDoubleArray(), actual.get(s).getVKnots().copyAsDoubleArray(), 0);
+			ArrayList<PointND> points = expected.get(s).getControlPoints();
+			assertEquals(points.size(), actual.get(s).getControlPoints().size());
+			for (int i = 0; i < points.size(); i++){
+				assertArrayEquals(points.get(i).getCoordinates(), actual.get(s).getControlPoints().get(i).getCoordinates(), 0);
+			}
+			assertEquals(0, expected.get(s).evaluate(0.3, 0.6).euclideanDistance(actual.get(s).evaluate(0.3, 0.6)), 0);
+		}
+	}
+
+	private static void delete(File file){
+		File [] children = file.listFiles();
+		if (children != null) {
+			for (File child : children){
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@Test
+	public void testCacheIsWrittenAndValidated() throws IOException{
+		File directory = File.createTempFile("splinecache", "");
+		directory.delete();
+		directory.mkdirs();
+		try {
+			SplineFileCache cache = new SplineFileCache(new File(directory, "cache"));
+			File source = writeFile(directory, 0);
+			ArrayList<SurfaceBSpline> parsed = cache.readSplines(source);
+			assertEquals(2, parsed.size());
+			assertEquals("first", parsed.get(0).getTitle());
+			assertTrue(cache.getCacheFile(source).isFile());
+			// second read from the cache file
+			assertSplinesEqual(parsed, cache.readSplines(source));
+			// changed content must not be taken from the cache
+			writeFile(directory, 3);
+			ArrayList<SurfaceBSpline> changed = cache.readSplines(source);
+			assertEquals(3, changed.get(0).getControlPoints().get(0).get(0), 0);
+			assertSplinesEqual(changed, cache.readSplines(source));
+		} finally {
+			delete(directory);
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
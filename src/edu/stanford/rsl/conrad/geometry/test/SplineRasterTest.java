@@ -0,0 +1,125 @@
+package edu.stanford.rsl.conrad.geometry.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.geometry.splines.SurfaceBSpline;
+import edu.stanford.rsl.conrad.geometry.splines.SurfaceUniformCubicBSpline;
+import edu.stanford.rsl.conrad.geometry.splines.TimeVariantSurfaceBSpline;
+
+/**
+ * Compares the raster points that are computed from the cached basis functions with the point-wise evaluation of the splines.
+ */
+public class SplineRasterTest {
+
+	private static final int U_POINTS = 7;
+	private static final int V_POINTS = 6;
+
+	private static double [] createKnots(int points){
+		double [] knots = new double [points + 4];
+		for (int i = 0; i < knots.length; i++){
+			knots[i] = Math.min(1, Math.max(0, (i - 3.0) / (points - 3.0)));
+		}
+		return knots;
+	}
+
+	private static ArrayList<PointND> createControlPoints(double offset){
+		ArrayList<PointND> points = new ArrayList<PointND>();
+		for (int i = 0; i < U_POINTS; i++){
+			for (int j = 0; j < V_POINTS; j++){
+				double angle = 2 * Math.PI * j / V_POINTS;
+				double radius = 10 + Math.sin(i + offset);
+				points.add(new PointND(radius * Math.cos(angle), radius * Math.sin(angle), (5 * i) + offset + (0.1 * j * j)));
+			}
+		}
+		return points;
+	}
+
+	private static void assertRaster(PointND [] raster, PointND [] expected){
+		assertEquals(expected.length, raster.length);
+		for (int i = 0; i < raster.length; i++){
+			assertEquals(0, raster[i].euclideanDistance(expected[i]), 1e-9);
+		}
+	}
+
+	private static PointND [] evaluate(SurfaceBSpline spline, int samplingU, int samplingV){
+		PointND [] pts = new PointND[samplingU * samplingV];
+		for (int i = 0; i < samplingU; i++){
+			for (int j = 0; j < samplingV; j++){
+				pts[i * samplingV + j] = spline.evaluate(((double) i) / samplingU, ((double) j) / samplingV);
+			}
+		}
+		return pts;
+	}
+
+	@Test
+	public void testSurfaceBSplineRaster(){
+		SurfaceBSpline spline = new SurfaceBSpline(createControlPoints(0), createKnots(U_POINTS), createKnots(V_POINTS));
+		assertRaster(spline.getRasterPoints(13, 9), evaluate(spline, 13, 9));
+		// the cached basis must be replaced if the sampling changes
+		assertRaster(spline.getRasterPoints(8, 11), evaluate(spline, 8, 11));
+	}
+
+	@Test
+	public void testUniformCubicSurfaceBSplineRaster(){
+		SurfaceBSpline spline = new SurfaceUniformCubicBSpline(createControlPoints(0), createKnots(U_POINTS), createKnots(V_POINTS));
+		assertRaster(spline.getRasterPoints(13, 9), evaluate(spline, 13, 9));
+	}
+
+	/**
+	 * A subclass with a different surface, which opts out of the basis evaluation.
+	 */
+	private static class ShiftedSurfaceBSpline extends SurfaceBSpline {
+
+		private static final long serialVersionUID = 4011371460187052541L;
+
+		ShiftedSurfaceBSpline(ArrayList<PointND> controlPoints, double [] uKnots, double [] vKnots){
+			super(controlPoints, uKnots, vKnots);
+		}
+
+		@Override
+		public PointND evaluate(double u, double v){
+			PointND point = super.evaluate(u, v);
+			return new PointND(point.get(0) + 1, point.get(1), point.get(2));
+		}
+
+		@Override
+		protected boolean supportsBasisEvaluation(){
+			return false;
+		}
+
+	}
+
+	@Test
+	public void testOverriddenEvaluationRaster(){
+		SurfaceBSpline spline = new ShiftedSurfaceBSpline(createControlPoints(0), createKnots(U_POINTS), createKnots(V_POINTS));
+		assertRaster(spline.getRasterPoints(13, 9), evaluate(spline, 13, 9));
+	}
+
+	@Test
+	public void testTimeVariantSurfaceBSplineRaster(){
+		ArrayList<SurfaceBSpline> timePoints = new ArrayList<SurfaceBSpline>();
+		for (int t = 0; t < 6; t++){
+			timePoints.add(new SurfaceUniformCubicBSpline(createControlPoints(0.3 * t), createKnots(U_POINTS), createKnots(V_POINTS)));
+		}
+		TimeVariantSurfaceBSpline spline = new TimeVariantSurfaceBSpline(timePoints);
+		for (double time : new double [] {0, 0.27, 0.5, 0.99}){
+			PointND [] expected = new PointND[10 * 7];
+			for (int i = 0; i < 10; i++){
+				for (int j = 0; j < 7; j++){
+					expected[i * 7 + j] = spline.evaluate(i / 10.0, j / 7.0, time);
+				}
+			}
+			assertRaster(spline.getRasterPoints(10, 7, time), expected);
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
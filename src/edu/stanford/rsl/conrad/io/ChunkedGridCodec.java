@@ -0,0 +1,119 @@
+package edu.stanford.rsl.conrad.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lossless codecs for the chunks of the {@link ChunkedGridWriter} format.
+ * <BR><BR>
+ * {@link ChunkedGridWriter#CODEC_DEFLATE} XORs the bits of every float with the previous one. Neighbouring pixels are similar. Hence, sign, exponent and
+ * the upper mantissa bits mostly cancel. The resulting bytes are then grouped by significance, such that the deflater finds long runs of zero bytes.
+ * This compresses much better and faster than deflating the plain floats.
+ *
+ * @author akmaier
+ *
+ */
+final class ChunkedGridCodec {
+
+	private ChunkedGridCodec(){
+	}
+
+	/**
+	 * Encodes the floats of a chunk.
+	 * @param data the data
+	 * @param codec the codec
+	 * @param level the deflate level from 1 (fastest) to 9 (smallest)
+	 * @return the encoded bytes
+	 */
+	static byte [] encode(float [] data, int codec, int level){
+		int length = data.length;
+		byte [] bytes = new byte [length * 4];
+		if (codec == ChunkedGridWriter.CODEC_NONE) {
+			for (int i = 0; i < length; i++){
+				int bits = Float.floatToRawIntBits(data[i]);
+				bytes[(i * 4)] = (byte) bits;
+				bytes[(i * 4) + 1] = (byte) (bits >>> 8);
+				bytes[(i * 4) + 2] = (byte) (bits >>> 16);
+				bytes[(i * 4) + 3] = (byte) (bits >>> 24);
+			}
+			return bytes;
+		}
+		if (codec != ChunkedGridWriter.CODEC_DEFLATE) throw new IllegalArgumentException("Unknown codec " + codec);
+		int previous = 0;
+		for (int i = 0; i < length; i++){
+			int bits = Float.floatToRawIntBits(data[i]);
+			int difference = bits ^ previous;
+			previous = bits;
+			bytes[i] = (byte) (difference >>> 24);
+			bytes[length + i] = (byte) (difference >>> 16);
+			bytes[(2 * length) + i] = (byte) (difference >>> 8);
+			bytes[(3 * length) + i] = (byte) difference;
+		}
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte [] out = new byte [Math.max(64, bytes.length / 2)];
+			int size = 0;
+			while (!deflater.finished()){
+				if (size == out.length) out = Arrays.copyOf(out, out.length * 2);
+				size += deflater.deflate(out, size, out.length - size);
+			}
+			return Arrays.copyOf(out, size);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decodes the floats of a chunk.
+	 * @param encoded the encoded bytes
+	 * @param codec the codec
+	 * @param data the decoded data. The length must match the chunk.
+	 * @throws IOException if the bytes are corrupt
+	 */
+	static void decode(byte [] encoded, int codec, float [] data) throws IOException {
+		int length = data.length;
+		if (codec == ChunkedGridWriter.CODEC_NONE) {
+			if (encoded.length != length * 4) throw new IOException("Chunk has " + encoded.length + " bytes instead of " + (length * 4) + ".");
+			for (int i = 0; i < length; i++){
+				int bits = (encoded[(i * 4)] & 0xff) | ((encoded[(i * 4) + 1] & 0xff) << 8) | ((encoded[(i * 4) + 2] & 0xff) << 16) | ((encoded[(i * 4) + 3] & 0xff) << 24);
+				data[i] = Float.intBitsToFloat(bits);
+			}
+			return;
+		}
+		if (codec != ChunkedGridWriter.CODEC_DEFLATE) throw new IOException("Unknown codec " + codec);
+		byte [] bytes = new byte [length * 4];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(encoded);
+			int size = 0;
+			while (!inflater.finished()){
+				// once the chunk is complete, the inflater still has to read the checksum
+				int inflated = (size < bytes.length) ? inflater.inflate(bytes, size, bytes.length - size) : inflater.inflate(new byte [1]);
+				if (size >= bytes.length && inflated > 0) throw new IOException("Chunk decodes to more than " + bytes.length + " bytes.");
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new IOException("Chunk is truncated.");
+				size += inflated;
+			}
+			if (size != bytes.length) throw new IOException("Chunk decodes to " + size + " bytes instead of " + bytes.length + ".");
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt chunk", e);
+		} finally {
+			inflater.end();
+		}
+		int previous = 0;
+		for (int i = 0; i < length; i++){
+			int difference = ((bytes[i] & 0xff) << 24) | ((bytes[length + i] & 0xff) << 16) | ((bytes[(2 * length) + i] & 0xff) << 8) | (bytes[(3 * length) + i] & 0xff);
+			previous ^= difference;
+			data[i] = Float.intBitsToFloat(previous);
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,139 @@
+package edu.stanford.rsl.conrad.io;
+
+import java.io.IOException;
+
+import javax.swing.JOptionPane;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.pipeline.BufferedProjectionSink;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+/**
+ * Sink that stores the projections losslessly compressed in a chunked container file with one chunk per projection. Each projection is compressed
+ * in the thread that delivers it. Hence, the compression runs in parallel with the pipeline and the projections may arrive in any order.
+ * The file can be read with {@link ChunkedGridProjectionSource} or {@link ChunkedGridReader}.
+ *
+ * @author akmaier
+ * @see ChunkedGridWriter
+ */
+public class ChunkedGridProjectionSink extends BufferedProjectionSink {
+
+	private static final long serialVersionUID = 3046150317539263870L;
+	private String filename = null;
+	private boolean compressed = true;
+	private transient ChunkedGridWriter writer;
+
+	public ChunkedGridProjectionSink(){
+	}
+
+	/**
+	 * Creates a configured sink which writes to the given file.
+	 * @param filename the file name
+	 */
+	public ChunkedGridProjectionSink(String filename){
+		this.filename = filename;
+		configured = true;
+	}
+
+	@Override
+	public String getName() {
+		if (configured) {
+			return "Write compressed projections to " + filename;
+		} else {
+			return "Chunked Grid File";
+		}
+	}
+
+	private synchronized ChunkedGridWriter open(Grid2D projection) throws IOException {
+		if (writer == null) {
+			writer = new ChunkedGridWriter(filename, projection.getWidth(), projection.getHeight(), 1, compressed ? ChunkedGridWriter.CODEC_DEFLATE : ChunkedGridWriter.CODEC_NONE);
+			writer.setSpacing(projection.getSpacing()[0], projection.getSpacing()[1], 1);
+			writer.setOrigin(projection.getOrigin()[0], projection.getOrigin()[1], 0);
+		}
+		return writer;
+	}
+
+	@Override
+	public void process(Grid2D projection, int projectionNumber) throws Exception {
+		ChunkedGridWriter chunkedWriter = writer;
+		if (chunkedWriter == null) chunkedWriter = open(projection);
+		chunkedWriter.writeSlice(projectionNumber, projection);
+	}
+
+	/**
+	 * Writes the index and the header and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws Exception {
+		if (writer == null) return;
+		writer.close();
+		writer = null;
+		CONRAD.log("Wrote compressed projections to " + filename + ".");
+	}
+
+	@Override
+	public Grid3D getResult() {
+		return null;
+	}
+
+	@Override
+	public void setConfiguration(Configuration config) {
+	}
+
+	@Override
+	public void configure() throws Exception {
+		filename = JOptionPane.showInputDialog("Enter file name:", filename);
+		configured = (filename != null);
+	}
+
+	@Override
+	public String getBibtexCitation() {
+		return CONRAD.CONRADBibtex;
+	}
+
+	@Override
+	public String getMedlineCitation() {
+		return CONRAD.CONRADMedline;
+	}
+
+	@Override
+	public void prepareForSerialization(){
+		super.prepareForSerialization();
+		writer = null;
+	}
+
+	/**
+	 * @return the filename
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * @param filename the filename to set
+	 */
+	public void setFilename(String filename) {
+		this.filename = filename;
+	}
+
+	/**
+	 * @return true, if the projections are compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @param compressed false to store the projections without compression
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
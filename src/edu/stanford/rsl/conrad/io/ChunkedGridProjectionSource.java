@@ -0,0 +1,76 @@
+package edu.stanford.rsl.conrad.io;
+
+import java.io.IOException;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.pipeline.RandomAccessProjectionSource;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Streams the slices of a chunked container file that was written by {@link ChunkedGridWriter} or {@link ChunkedGridProjectionSink} as projections.
+ * Every projection can be read directly, as only the chunk that contains it is decoded.
+ *
+ * @author akmaier
+ * @see ChunkedGridReader
+ */
+public class ChunkedGridProjectionSource extends FileProjectionSource implements RandomAccessProjectionSource {
+
+	private ChunkedGridReader reader;
+
+	@Override
+	public void initStream(String filename) throws IOException {
+		ChunkedGridReader chunkedReader = new ChunkedGridReader(filename);
+		if (reader != null) reader.close();
+		reader = chunkedReader;
+		currentIndex = -1;
+		CONRAD.log("Opened " + reader.getNumberOfSlices() + " projections in " + reader.getNumberOfChunks() + " chunks from " + filename + ".");
+	}
+
+	@Override
+	public Grid2D getProjection(int index) throws IOException {
+		ChunkedGridReader chunkedReader = reader;
+		if (chunkedReader == null) throw new IOException("Projection source is closed.");
+		return chunkedReader.readSlice(index);
+	}
+
+	@Override
+	public synchronized Grid2D getNextProjection() {
+		if (reader == null || currentIndex + 1 >= reader.getNumberOfSlices()) return null;
+		try {
+			Grid2D grid = getProjection(currentIndex + 1);
+			currentIndex++;
+			return grid;
+		} catch (IOException e) {
+			CONRAD.log("Could not read projection " + (currentIndex + 1) + ": " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public int getNumberOfProjections() {
+		return (reader != null) ? reader.getNumberOfSlices() : 0;
+	}
+
+	@Override
+	public synchronized void reset() {
+		currentIndex = -1;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (reader != null) {
+			reader.close();
+			reader = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Chunked Grid File";
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,246 @@
+package edu.stanford.rsl.conrad.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Reads the chunked container files that were written by {@link ChunkedGridWriter}. The index of the chunks is read on opening. Thus, every
+ * slice can be read by decoding only the chunk that contains it. {@link #readChunk(int)} may be called from several threads at the same time.
+ *
+ * @author akmaier
+ * @see ChunkedGridWriter
+ */
+public class ChunkedGridReader implements Closeable {
+
+	private final String filename;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int width;
+	private int height;
+	private int numberOfSlices;
+	private int slicesPerChunk;
+	private int codec;
+	private int numberOfChunks;
+	private double [] spacing = new double [3];
+	private double [] origin = new double [3];
+	private long [] chunkOffsets;
+	private int [] chunkLengths;
+	private int [] chunkSlices;
+	private int cachedChunk = -1;
+	private float [] cachedData;
+
+	/**
+	 * Opens a container file and reads header and index.
+	 * @param filename the name of the file
+	 * @throws IOException if the file is no complete container file
+	 */
+	public ChunkedGridReader(String filename) throws IOException {
+		this.filename = filename;
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel fileChannel = raf.getChannel();
+			if (fileChannel.size() < ChunkedGridWriter.HEADER_SIZE) throw new IOException(filename + " is not a chunked grid file.");
+			ByteBuffer header = ByteBuffer.allocate(ChunkedGridWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			read(fileChannel, header, 0);
+			if (header.getInt() != ChunkedGridWriter.MAGIC) throw new IOException(filename + " is not a chunked grid file.");
+			int version = header.getInt();
+			if (version != ChunkedGridWriter.VERSION) throw new IOException("Unsupported version " + version + " of chunked grid file " + filename + ".");
+			width = header.getInt();
+			height = header.getInt();
+			numberOfSlices = header.getInt();
+			slicesPerChunk = header.getInt();
+			codec = header.getInt();
+			numberOfChunks = header.getInt();
+			for (int d = 0; d < 3; d++){
+				spacing[d] = header.getDouble();
+			}
+			for (int d = 0; d < 3; d++){
+				origin[d] = header.getDouble();
+			}
+			long indexOffset = header.getLong();
+			if (indexOffset < ChunkedGridWriter.HEADER_SIZE || indexOffset + ((long) numberOfChunks * ChunkedGridWriter.INDEX_ENTRY_SIZE) > fileChannel.size()) {
+				throw new IOException("Chunked grid file " + filename + " is incomplete.");
+			}
+			ByteBuffer index = ByteBuffer.allocate(numberOfChunks * ChunkedGridWriter.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			read(fileChannel, index, indexOffset);
+			chunkOffsets = new long [numberOfChunks];
+			chunkLengths = new int [numberOfChunks];
+			chunkSlices = new int [numberOfChunks];
+			for (int c = 0; c < numberOfChunks; c++){
+				chunkOffsets[c] = index.getLong();
+				chunkLengths[c] = index.getInt();
+				chunkSlices[c] = index.getInt();
+				if (chunkOffsets[c] + chunkLengths[c] > indexOffset) throw new IOException("Chunk " + c + " of " + filename + " is out of bounds.");
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		file = raf;
+		channel = raf.getChannel();
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()){
+			int read = channel.read(buffer, position);
+			if (read < 0) throw new IOException("Unexpected end of file.");
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getNumberOfSlices() {
+		return numberOfSlices;
+	}
+
+	public int getSlicesPerChunk() {
+		return slicesPerChunk;
+	}
+
+	public int getNumberOfChunks() {
+		return numberOfChunks;
+	}
+
+	public int getCodec() {
+		return codec;
+	}
+
+	public double [] getSpacing() {
+		return spacing.clone();
+	}
+
+	public double [] getOrigin() {
+		return origin.clone();
+	}
+
+	/**
+	 * Reads and decodes a chunk.
+	 * @param chunk the number of the chunk
+	 * @return the pixels of the slices of the chunk, one slice after the other
+	 * @throws IOException if the chunk cannot be read
+	 */
+	public float [] readChunk(int chunk) throws IOException {
+		if (chunk < 0 || chunk >= numberOfChunks) throw new IndexOutOfBoundsException("Chunk " + chunk + " of " + numberOfChunks);
+		FileChannel fileChannel = channel;
+		if (fileChannel == null) throw new IOException("Chunked grid file " + filename + " is closed.");
+		ByteBuffer encoded = ByteBuffer.allocate(chunkLengths[chunk]);
+		read(fileChannel, encoded, chunkOffsets[chunk]);
+		float [] data = new float [chunkSlices[chunk] * width * height];
+		ChunkedGridCodec.decode(encoded.array(), codec, data);
+		return data;
+	}
+
+	/**
+	 * Reads a slice. The last decoded chunk is kept. Thus, reading the slices of a slab one after the other decodes the slab only once.
+	 * @param index the slice number
+	 * @return the slice
+	 * @throws IOException if the slice cannot be read
+	 */
+	public Grid2D readSlice(int index) throws IOException {
+		if (index < 0 || index >= numberOfSlices) throw new IndexOutOfBoundsException("Slice " + index + " of " + numberOfSlices);
+		int chunk = index / slicesPerChunk;
+		float [] data;
+		if (slicesPerChunk == 1) {
+			data = readChunk(chunk);
+		} else {
+			synchronized (this) {
+				if (cachedChunk != chunk) {
+					cachedData = readChunk(chunk);
+					cachedChunk = chunk;
+				}
+				data = cachedData;
+			}
+		}
+		int sliceSize = width * height;
+		float [] pixels = new float [sliceSize];
+		System.arraycopy(data, (index - (chunk * slicesPerChunk)) * sliceSize, pixels, 0, sliceSize);
+		Grid2D slice = new Grid2D(pixels, width, height);
+		slice.setSpacing(spacing[0], spacing[1]);
+		slice.setOrigin(origin[0], origin[1]);
+		return slice;
+	}
+
+	/**
+	 * Reads all slices into a volume. The chunks are decoded in parallel.
+	 * @return the volume
+	 * @throws IOException if a chunk cannot be read
+	 */
+	public Grid3D readGrid3D() throws IOException {
+		final Grid3D grid = new Grid3D(width, height, numberOfSlices);
+		grid.setSpacing(spacing);
+		grid.setOrigin(origin);
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final IOException [] error = new IOException[1];
+		int numberOfThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), numberOfChunks));
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+		for (int n = 0; n < numberOfThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					int sliceSize = width * height;
+					int chunk = nextChunk.getAndIncrement();
+					while (chunk < numberOfChunks){
+						float [] data;
+						try {
+							data = readChunk(chunk);
+						} catch (IOException e) {
+							synchronized (error) {
+								error[0] = e;
+							}
+							return;
+						}
+						for (int s = 0; s < chunkSlices[chunk]; s++){
+							System.arraycopy(data, s * sliceSize, grid.getSubGrid((chunk * slicesPerChunk) + s).getBuffer(), 0, sliceSize);
+						}
+						chunk = nextChunk.getAndIncrement();
+					}
+				}
+			};
+		}
+		try {
+			new ParallelThreadExecutor(runnables).execute();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while reading " + filename, e);
+		}
+		synchronized (error) {
+			if (error[0] != null) throw error[0];
+		}
+		return grid;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel = null;
+		cachedData = null;
+		cachedChunk = -1;
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,115 @@
+package edu.stanford.rsl.conrad.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+
+public class ChunkedGridTest {
+
+	private static final int WIDTH = 33, HEIGHT = 17, PROJECTIONS = 5;
+
+	private static float value(int p, int x, int y){
+		// smooth data with a few exact zeros and special values
+		if (x == 0 && y == 0) return (p == 1) ? Float.NaN : -0.0f;
+		return (float) (Math.sin((x * 0.1) + p) * Math.cos(y * 0.2) * 1000.0);
+	}
+
+	private static Grid2D createProjection(int p){
+		Grid2D grid = new Grid2D(WIDTH, HEIGHT);
+		for (int y = 0; y < HEIGHT; y++){
+			for (int x = 0; x < WIDTH; x++){
+				grid.setAtIndex(x, y, value(p, x, y));
+			}
+		}
+		return grid;
+	}
+
+	private static void assertBitsEqual(float [] expected, float [] actual){
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++){
+			assertEquals(Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(actual[i]));
+		}
+	}
+
+	private static File createFile() throws IOException {
+		File file = File.createTempFile("ChunkedGridTest", ".cgf");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static void testSink(boolean compressed) throws Exception {
+		File file = createFile();
+		ChunkedGridProjectionSink sink = new ChunkedGridProjectionSink(file.getPath());
+		sink.setCompressed(compressed);
+		// projections arrive in arbitrary order
+		int [] order = {3, 0, 4, 2, 1};
+		for (int p : order){
+			sink.process(createProjection(p), p);
+		}
+		sink.close();
+		ChunkedGridProjectionSource source = new ChunkedGridProjectionSource();
+		source.initStream(file.getPath());
+		assertEquals(PROJECTIONS, source.getNumberOfProjections());
+		for (int p = 0; p < PROJECTIONS; p++){
+			Grid2D grid = source.getNextProjection();
+			assertEquals(WIDTH, grid.getWidth());
+			assertEquals(HEIGHT, grid.getHeight());
+			assertBitsEqual(createProjection(p).getBuffer(), grid.getBuffer());
+		}
+		assertNull(source.getNextProjection());
+		assertBitsEqual(createProjection(2).getBuffer(), source.getProjection(2).getBuffer());
+		source.close();
+	}
+
+	@Test
+	public void testCompressedProjections() throws Exception {
+		testSink(true);
+	}
+
+	@Test
+	public void testUncompressedProjections() throws Exception {
+		testSink(false);
+	}
+
+	@Test
+	public void testVolumeWithSlabs() throws Exception {
+		File file = createFile();
+		int depth = 11;
+		Grid3D volume = new Grid3D(WIDTH, HEIGHT, depth);
+		volume.setSpacing(0.5, 0.75, 2.0);
+		volume.setOrigin(-10, -20, 30);
+		for (int z = 0; z < depth; z++){
+			volume.setSubGrid(z, createProjection(z));
+		}
+		// the last slab is incomplete
+		ChunkedGridWriter.write(volume, file.getPath(), 4);
+		assertTrue(file.length() < (long) WIDTH * HEIGHT * depth * 4);
+		ChunkedGridReader reader = new ChunkedGridReader(file.getPath());
+		assertEquals(depth, reader.getNumberOfSlices());
+		assertEquals(3, reader.getNumberOfChunks());
+		assertArrayEquals(volume.getSpacing(), reader.getSpacing(), 0);
+		assertArrayEquals(volume.getOrigin(), reader.getOrigin(), 0);
+		assertBitsEqual(volume.getSubGrid(9).getBuffer(), reader.readSlice(9).getBuffer());
+		assertBitsEqual(volume.getSubGrid(5).getBuffer(), reader.readSlice(5).getBuffer());
+		Grid3D read = reader.readGrid3D();
+		for (int z = 0; z < depth; z++){
+			assertBitsEqual(volume.getSubGrid(z).getBuffer(), read.getSubGrid(z).getBuffer());
+		}
+		assertArrayEquals(volume.getSpacing(), read.getSpacing(), 0);
+		reader.close();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
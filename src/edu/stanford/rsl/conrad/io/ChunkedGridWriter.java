@@ -0,0 +1,284 @@
+package edu.stanford.rsl.conrad.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Writes stacks of 2D grids, i.e. projections or the slices of a Grid3D, into a chunked container file. Each chunk holds a fixed number of slices,
+ * e.g. one projection or a slab of a volume, and is compressed independently. Hence, the chunks may be compressed in parallel and written in any order,
+ * and {@link ChunkedGridReader} can read any chunk without decoding the others.
+ * <BR><BR>
+ * File layout (little endian): a header of {@value #HEADER_SIZE} bytes with magic number, version, width, height, number of slices, slices per chunk,
+ * codec, number of chunks, spacing, origin and the offset of the index. It is followed by the encoded chunks and the index with offset, encoded length and
+ * number of slices of every chunk. The header is written on {@link #close()}.
+ * <BR><BR>
+ * {@link #writeChunk(int, float[])} may be called from several threads at the same time. The chunks are encoded in the calling threads.
+ *
+ * @author akmaier
+ * @see ChunkedGridReader
+ */
+public class ChunkedGridWriter implements Closeable {
+
+	static final int MAGIC = 0x43474346; // "CGCF"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 128;
+	static final int INDEX_ENTRY_SIZE = 16;
+	/**
+	 * Stores the floats without compression.
+	 */
+	public static final int CODEC_NONE = 0;
+	/**
+	 * Deflates the floats after a bitwise prediction from the previous pixel. Lossless.
+	 */
+	public static final int CODEC_DEFLATE = 1;
+
+	private final String filename;
+	private final int width;
+	private final int height;
+	private final int slicesPerChunk;
+	private final int codec;
+	private int level = Deflater.BEST_SPEED;
+	private double [] spacing = {1, 1, 1};
+	private double [] origin = {0, 0, 0};
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long nextOffset = HEADER_SIZE;
+	private long [] chunkOffsets = new long [16];
+	private int [] chunkLengths = new int [16];
+	private int [] chunkSlices = new int [16];
+
+	/**
+	 * Creates the container file. An existing file is overwritten.
+	 * @param filename the name of the file
+	 * @param width the width of the slices
+	 * @param height the height of the slices
+	 * @param slicesPerChunk the number of slices per chunk, e.g. 1 for projections
+	 * @param codec CODEC_NONE or CODEC_DEFLATE
+	 * @throws IOException if the file cannot be created
+	 */
+	public ChunkedGridWriter(String filename, int width, int height, int slicesPerChunk, int codec) throws IOException {
+		if (width < 1 || height < 1 || slicesPerChunk < 1) throw new IllegalArgumentException("Invalid size " + width + "x" + height + " with " + slicesPerChunk + " slices per chunk.");
+		if (codec != CODEC_NONE && codec != CODEC_DEFLATE) throw new IllegalArgumentException("Unknown codec " + codec);
+		this.filename = filename;
+		this.width = width;
+		this.height = height;
+		this.slicesPerChunk = slicesPerChunk;
+		this.codec = codec;
+		file = new RandomAccessFile(filename, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+	}
+
+	/**
+	 * Sets the compression level of CODEC_DEFLATE. Default is 1, i.e. the fastest compression.
+	 * @param level the level from 1 (fastest) to 9 (smallest)
+	 */
+	public void setLevel(int level){
+		if (level < 1 || level > 9) throw new IllegalArgumentException("Level must be between 1 and 9: " + level);
+		this.level = level;
+	}
+
+	/**
+	 * @param spacing the spacing of the grid that is stored in the header
+	 */
+	public void setSpacing(double ... spacing){
+		this.spacing = Arrays.copyOf(spacing, 3);
+	}
+
+	/**
+	 * @param origin the origin of the grid that is stored in the header
+	 */
+	public void setOrigin(double ... origin){
+		this.origin = Arrays.copyOf(origin, 3);
+	}
+
+	public int getSlicesPerChunk() {
+		return slicesPerChunk;
+	}
+
+	/**
+	 * Encodes and writes a chunk. All chunks but the last must contain slicesPerChunk slices.
+	 * @param chunk the number of the chunk, i.e. the first slice of the chunk divided by slicesPerChunk
+	 * @param data the pixels of the slices of the chunk, one slice after the other
+	 * @throws IOException if the chunk cannot be written
+	 */
+	public void writeChunk(int chunk, float [] data) throws IOException {
+		int sliceSize = width * height;
+		if (data.length % sliceSize != 0 || data.length == 0 || data.length > sliceSize * slicesPerChunk) {
+			throw new IllegalArgumentException("Chunk " + chunk + " has " + data.length + " pixels, which is not 1 to " + slicesPerChunk + " slices of " + width + "x" + height + ".");
+		}
+		byte [] encoded = ChunkedGridCodec.encode(data, codec, level);
+		long offset;
+		FileChannel fileChannel;
+		synchronized (this) {
+			if (channel == null) throw new IOException("Container " + filename + " is closed.");
+			if (chunk < chunkOffsets.length && chunkLengths[chunk] > 0) throw new IllegalStateException("Chunk " + chunk + " was already written.");
+			offset = nextOffset;
+			nextOffset += encoded.length;
+			if (chunk >= chunkOffsets.length) {
+				int length = Math.max(chunk + 1, chunkOffsets.length * 2);
+				chunkOffsets = Arrays.copyOf(chunkOffsets, length);
+				chunkLengths = Arrays.copyOf(chunkLengths, length);
+				chunkSlices = Arrays.copyOf(chunkSlices, length);
+			}
+			chunkOffsets[chunk] = offset;
+			chunkLengths[chunk] = encoded.length;
+			chunkSlices[chunk] = data.length / sliceSize;
+			fileChannel = channel;
+		}
+		// positional writes of different chunks do not interfere.
+		write(fileChannel, ByteBuffer.wrap(encoded), offset);
+	}
+
+	/**
+	 * Writes a single slice as a chunk. Requires one slice per chunk.
+	 * @param index the slice number
+	 * @param slice the slice
+	 * @throws IOException if the chunk cannot be written
+	 */
+	public void writeSlice(int index, Grid2D slice) throws IOException {
+		if (slicesPerChunk != 1) throw new IllegalStateException("Single slices require one slice per chunk.");
+		if (slice.getWidth() != width || slice.getHeight() != height) {
+			throw new IllegalArgumentException("Slice " + index + " has size " + slice.getWidth() + "x" + slice.getHeight() + " instead of " + width + "x" + height + ".");
+		}
+		float [] buffer = slice.getBuffer();
+		writeChunk(index, (buffer.length == width * height) ? buffer : Arrays.copyOf(buffer, width * height));
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()){
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Writes the index and the header and closes the file.
+	 * @throws IOException if a chunk is missing or incomplete
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel == null) return;
+		try {
+			int numberOfChunks = 0;
+			for (int c = 0; c < chunkLengths.length; c++){
+				if (chunkLengths[c] > 0) numberOfChunks = c + 1;
+			}
+			int numberOfSlices = 0;
+			for (int c = 0; c < numberOfChunks; c++){
+				if (chunkLengths[c] == 0) throw new IOException("Chunk " + c + " of " + filename + " is missing.");
+				if (c < numberOfChunks - 1 && chunkSlices[c] != slicesPerChunk) throw new IOException("Chunk " + c + " of " + filename + " has only " + chunkSlices[c] + " slices.");
+				numberOfSlices += chunkSlices[c];
+			}
+			ByteBuffer index = ByteBuffer.allocate(numberOfChunks * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (int c = 0; c < numberOfChunks; c++){
+				index.putLong(chunkOffsets[c]);
+				index.putInt(chunkLengths[c]);
+				index.putInt(chunkSlices[c]);
+			}
+			index.flip();
+			long indexOffset = nextOffset;
+			write(channel, index, indexOffset);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(width);
+			header.putInt(height);
+			header.putInt(numberOfSlices);
+			header.putInt(slicesPerChunk);
+			header.putInt(codec);
+			header.putInt(numberOfChunks);
+			for (int d = 0; d < 3; d++){
+				header.putDouble(spacing[d]);
+			}
+			for (int d = 0; d < 3; d++){
+				header.putDouble(origin[d]);
+			}
+			header.putLong(indexOffset);
+			header.rewind();
+			write(channel, header, 0);
+			file.setLength(indexOffset + (numberOfChunks * INDEX_ENTRY_SIZE));
+			channel.force(true);
+		} finally {
+			file.close();
+			file = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * Writes a volume to a container file. The slabs are encoded in parallel.
+	 * @param grid the volume
+	 * @param filename the name of the file
+	 * @param slicesPerChunk the number of slices per chunk
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(final Grid3D grid, String filename, int slicesPerChunk) throws IOException {
+		final int [] size = grid.getSize();
+		final ChunkedGridWriter writer = new ChunkedGridWriter(filename, size[0], size[1], slicesPerChunk, CODEC_DEFLATE);
+		writer.setSpacing(grid.getSpacing());
+		writer.setOrigin(grid.getOrigin());
+		final int numberOfChunks = (size[2] + slicesPerChunk - 1) / slicesPerChunk;
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final IOException [] error = new IOException[1];
+		int numberOfThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), numberOfChunks));
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+		for (int n = 0; n < numberOfThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					int sliceSize = size[0] * size[1];
+					int chunk = nextChunk.getAndIncrement();
+					while (chunk < numberOfChunks){
+						int first = chunk * writer.slicesPerChunk;
+						int slices = Math.min(writer.slicesPerChunk, size[2] - first);
+						float [] data = new float [slices * sliceSize];
+						for (int s = 0; s < slices; s++){
+							System.arraycopy(grid.getSubGrid(first + s).getBuffer(), 0, data, s * sliceSize, sliceSize);
+						}
+						try {
+							writer.writeChunk(chunk, data);
+						} catch (IOException e) {
+							synchronized (error) {
+								error[0] = e;
+							}
+							return;
+						}
+						chunk = nextChunk.getAndIncrement();
+					}
+				}
+			};
+		}
+		try {
+			new ParallelThreadExecutor(runnables).execute();
+		} catch (InterruptedException e) {
+			writer.close();
+			throw new IOException("Interrupted while writing " + filename, e);
+		}
+		synchronized (error) {
+			if (error[0] != null) {
+				writer.close();
+				throw error[0];
+			}
+		}
+		writer.close();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
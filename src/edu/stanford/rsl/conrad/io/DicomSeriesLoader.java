@@ -0,0 +1,461 @@
+package edu.stanford.rsl.conrad.io;
+
+import ij.io.FileInfo;
+import ij.io.ImageReader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.DicomConfigurationUpdater;
+import edu.stanford.rsl.conrad.utils.DicomDecoder;
+
+/**
+ * Loads a DICOM series with one or a few frames per file. Loading is done in two steps:
+ * <ol>
+ * <li>{@link #scanHeaders()} decodes only the headers of all files in parallel. The files are sorted by acquisition number and image number,
+ * the sizes are checked, and gaps in the image numbers are reported as missing frames. The geometry can then be set with
+ * {@link #updateConfiguration(Configuration)}.</li>
+ * <li>{@link #startLoading()} decodes the pixel data of all files in parallel into a preallocated Grid3D. The files are processed in the order of the
+ * series. Thus, {@link #getFrame(int)} returns the first frames while the remaining files are still decoded.</li>
+ * </ol>
+ * The pixel values are the same as with {@link DicomProjectionSource}, i.e. as read by ImageJ without rescaling.
+ *
+ * @author akmaier
+ * @see DicomSeriesProjectionSource
+ */
+public class DicomSeriesLoader {
+
+	private final File [] files;
+	private SeriesFile [] series;
+	private int width;
+	private int height;
+	private int numberOfFrames;
+	private int [] missingImageNumbers = new int [0];
+	private Grid3D grid;
+	private boolean [] frameReady;
+	private IOException loadingError;
+
+	/**
+	 * Header data of a single file of the series.
+	 */
+	private static class SeriesFile {
+		File file;
+		FileInfo fi;
+		String dicomInfo;
+		int acquisitionNumber;
+		int imageNumber;
+		int firstFrame;
+		int numberOfFrames;
+	}
+
+	/**
+	 * Creates a loader for the given files. The order of the files does not matter.
+	 * @param files the files of the series
+	 */
+	public DicomSeriesLoader(File [] files){
+		if (files.length == 0) throw new IllegalArgumentException("DICOM series is empty.");
+		this.files = files.clone();
+	}
+
+	/**
+	 * Creates a loader for all DICOM files in a directory, i.e. all files that end with "dcm" or "ima".
+	 * @param directory the directory
+	 * @return the loader
+	 * @throws IOException if the directory does not contain DICOM files
+	 */
+	public static DicomSeriesLoader forDirectory(String directory) throws IOException {
+		File [] files = new File(directory).listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				String name = file.getName().toLowerCase();
+				return file.isFile() && (name.endsWith("dcm") || name.endsWith("ima"));
+			}
+		});
+		if (files == null || files.length == 0) throw new IOException(directory + " does not contain DICOM files.");
+		return new DicomSeriesLoader(files);
+	}
+
+	/**
+	 * Decodes the headers of all files in parallel and sorts the files. The pixel data is not read.
+	 * @throws IOException if a header cannot be decoded or the files do not match
+	 */
+	public void scanHeaders() throws IOException {
+		final SeriesFile [] scanned = new SeriesFile [files.length];
+		// The first header is decoded in this thread. It initialises the static dictionaries of the decoder before the other threads use them.
+		scanned[0] = scanHeader(files[0]);
+		final AtomicInteger nextFile = new AtomicInteger(1);
+		final IOException [] error = new IOException[1];
+		int numberOfThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), files.length - 1));
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+		for (int n = 0; n < numberOfThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					int i = nextFile.getAndIncrement();
+					while (i < files.length){
+						try {
+							scanned[i] = scanHeader(files[i]);
+						} catch (IOException e) {
+							synchronized (error) {
+								error[0] = e;
+							}
+							return;
+						}
+						i = nextFile.getAndIncrement();
+					}
+				}
+			};
+		}
+		try {
+			new ParallelThreadExecutor(runnables).execute();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while scanning the DICOM headers.", e);
+		}
+		synchronized (error) {
+			if (error[0] != null) throw error[0];
+		}
+		Arrays.sort(scanned, new Comparator<SeriesFile>() {
+			@Override
+			public int compare(SeriesFile a, SeriesFile b) {
+				if (a.acquisitionNumber != b.acquisitionNumber) return (a.acquisitionNumber < b.acquisitionNumber) ? -1 : 1;
+				if (a.imageNumber != b.imageNumber) return (a.imageNumber < b.imageNumber) ? -1 : 1;
+				return a.file.getName().compareTo(b.file.getName());
+			}
+		});
+		width = scanned[0].fi.width;
+		height = scanned[0].fi.height;
+		int frames = 0;
+		ArrayList<Integer> missing = new ArrayList<Integer>();
+		for (int i = 0; i < scanned.length; i++){
+			SeriesFile current = scanned[i];
+			if (current.fi.width != width || current.fi.height != height || current.fi.fileType != scanned[0].fi.fileType) {
+				throw new IOException(current.file + " does not match the size or the pixel type of " + scanned[0].file + ".");
+			}
+			current.firstFrame = frames;
+			frames += current.numberOfFrames;
+			if (i > 0 && current.imageNumber != Integer.MIN_VALUE && current.acquisitionNumber == scanned[i-1].acquisitionNumber) {
+				int previous = scanned[i-1].imageNumber;
+				if (current.imageNumber == previous) {
+					CONRAD.log("DICOM series contains image number " + previous + " twice: " + scanned[i-1].file + " and " + current.file + ".");
+				}
+				for (int number = previous + 1; number < current.imageNumber; number++){
+					missing.add(number);
+				}
+			}
+		}
+		if (!missing.isEmpty()) CONRAD.log("DICOM series is missing the images " + missing + ".");
+		missingImageNumbers = new int [missing.size()];
+		for (int i = 0; i < missingImageNumbers.length; i++){
+			missingImageNumbers[i] = missing.get(i);
+		}
+		numberOfFrames = frames;
+		series = scanned;
+	}
+
+	private static SeriesFile scanHeader(File file) throws IOException {
+		DicomDecoder decoder = new DicomDecoder(file.getAbsoluteFile().getParent() + File.separator, file.getName());
+		FileInfo fi = decoder.getFileInfo();
+		if (fi == null || fi.width <= 0 || fi.height <= 0 || fi.offset <= 0) throw new IOException(file + " is not a DICOM image.");
+		SeriesFile seriesFile = new SeriesFile();
+		seriesFile.file = file;
+		seriesFile.fi = fi;
+		seriesFile.dicomInfo = decoder.getDicomInfo();
+		seriesFile.acquisitionNumber = parseInteger(seriesFile.dicomInfo, "Acquisition Number:");
+		seriesFile.imageNumber = parseInteger(seriesFile.dicomInfo, "Image Number:");
+		seriesFile.numberOfFrames = Math.max(1, fi.nImages);
+		return seriesFile;
+	}
+
+	/**
+	 * Reads an integer field from the header entries.
+	 * @return the value or Integer.MIN_VALUE if the field is missing
+	 */
+	private static int parseInteger(String dicomInfo, String field){
+		int index = dicomInfo.indexOf(field);
+		if (index < 0) return Integer.MIN_VALUE;
+		int end = dicomInfo.indexOf('\n', index);
+		String value = dicomInfo.substring(index + field.length(), (end < 0) ? dicomInfo.length() : end).trim();
+		try {
+			return (int) Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Integer.MIN_VALUE;
+		}
+	}
+
+	private void checkScanned(){
+		if (series == null) throw new IllegalStateException("The headers of the DICOM series have not been scanned.");
+	}
+
+	public int getWidth() {
+		checkScanned();
+		return width;
+	}
+
+	public int getHeight() {
+		checkScanned();
+		return height;
+	}
+
+	/**
+	 * @return the number of frames of all files of the series
+	 */
+	public int getNumberOfFrames() {
+		checkScanned();
+		return numberOfFrames;
+	}
+
+	/**
+	 * @return the files in the order of the series
+	 */
+	public File [] getSortedFiles() {
+		checkScanned();
+		File [] sorted = new File [series.length];
+		for (int i = 0; i < series.length; i++){
+			sorted[i] = series[i].file;
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return the image numbers that are missing between the first and the last image of each acquisition
+	 */
+	public int [] getMissingImageNumbers() {
+		checkScanned();
+		return missingImageNumbers.clone();
+	}
+
+	/**
+	 * Sets the detector size, the number of projections, and the angles of the frames, if present, from the headers.
+	 * @param config the configuration to update
+	 */
+	public void updateConfiguration(Configuration config){
+		checkScanned();
+		FileInfo [] infos = new FileInfo [series.length];
+		String [] dicomInfos = new String [series.length];
+		for (int i = 0; i < series.length; i++){
+			infos[i] = (FileInfo) series[i].fi.clone();
+			dicomInfos[i] = series[i].dicomInfo;
+		}
+		DicomConfigurationUpdater updater = new DicomConfigurationUpdater();
+		updater.setConfiguration(config);
+		updater.readConfigFromDICOMSeries(infos, dicomInfos);
+	}
+
+	/**
+	 * Starts to decode the pixel data in the background. Calling the method again has no effect.
+	 * @return the volume that is filled with the frames
+	 */
+	public synchronized Grid3D startLoading(){
+		checkScanned();
+		if (grid != null) return grid;
+		grid = new Grid3D(width, height, numberOfFrames);
+		FileInfo fi = series[0].fi;
+		grid.setSpacing(fi.pixelWidth, fi.pixelHeight, fi.pixelDepth);
+		frameReady = new boolean [numberOfFrames];
+		final AtomicInteger nextFile = new AtomicInteger();
+		int numberOfThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), series.length));
+		final ParallelizableRunnable [] runnables = new ParallelizableRunnable[numberOfThreads];
+		for (int n = 0; n < numberOfThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					ByteBuffer buffer = null;
+					int i = nextFile.getAndIncrement();
+					while (i < series.length){
+						SeriesFile seriesFile = series[i];
+						try {
+							buffer = decode(seriesFile, buffer);
+						} catch (IOException e) {
+							setLoadingError(e);
+							return;
+						} catch (RuntimeException e) {
+							setLoadingError(new IOException("Could not decode " + seriesFile.file, e));
+							return;
+						}
+						setFramesReady(seriesFile.firstFrame, seriesFile.numberOfFrames);
+						i = nextFile.getAndIncrement();
+					}
+				}
+			};
+		}
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					new ParallelThreadExecutor(runnables).execute();
+				} catch (InterruptedException e) {
+					setLoadingError(new IOException("Interrupted while decoding the DICOM series.", e));
+				}
+			}
+		}, "DICOM series loader");
+		thread.setDaemon(true);
+		thread.start();
+		return grid;
+	}
+
+	private synchronized void setLoadingError(IOException e){
+		if (loadingError == null) loadingError = e;
+		notifyAll();
+	}
+
+	private synchronized void setFramesReady(int firstFrame, int frames){
+		for (int f = 0; f < frames; f++){
+			frameReady[firstFrame + f] = true;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Decodes the frames of a file into the volume. The common pixel types are converted directly from a single read of the file. Other types are read with ImageJ.
+	 * @param buffer a buffer that may be reused or null
+	 * @return the buffer for the next file
+	 */
+	private ByteBuffer decode(SeriesFile seriesFile, ByteBuffer buffer) throws IOException {
+		FileInfo fi = seriesFile.fi;
+		int sliceSize = width * height;
+		int bytesPerPixel;
+		switch (fi.fileType) {
+		case FileInfo.GRAY8:
+			bytesPerPixel = 1;
+			break;
+		case FileInfo.GRAY16_UNSIGNED: case FileInfo.GRAY16_SIGNED:
+			bytesPerPixel = 2;
+			break;
+		case FileInfo.GRAY32_INT: case FileInfo.GRAY32_UNSIGNED: case FileInfo.GRAY32_FLOAT:
+			bytesPerPixel = 4;
+			break;
+		default:
+			decodeWithImageJ(seriesFile);
+			return buffer;
+		}
+		int length = sliceSize * bytesPerPixel * seriesFile.numberOfFrames;
+		if (buffer == null || buffer.capacity() < length) buffer = ByteBuffer.allocate(length);
+		buffer.clear();
+		buffer.limit(length);
+		buffer.order(fi.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		RandomAccessFile file = new RandomAccessFile(seriesFile.file, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long position = fi.getOffset();
+			while (buffer.hasRemaining()){
+				int read = channel.read(buffer, position);
+				if (read < 0) throw new IOException(seriesFile.file + " is truncated.");
+				position += read;
+			}
+		} finally {
+			file.close();
+		}
+		buffer.flip();
+		for (int f = 0; f < seriesFile.numberOfFrames; f++){
+			float [] pixels = grid.getSubGrid(seriesFile.firstFrame + f).getBuffer();
+			switch (fi.fileType) {
+			case FileInfo.GRAY8:
+				for (int i = 0; i < sliceSize; i++){
+					pixels[i] = buffer.get() & 0xff;
+				}
+				break;
+			case FileInfo.GRAY16_UNSIGNED:
+				for (int i = 0; i < sliceSize; i++){
+					pixels[i] = buffer.getShort() & 0xffff;
+				}
+				break;
+			case FileInfo.GRAY16_SIGNED:
+				// ImageJ shifts signed values into the unsigned range
+				for (int i = 0; i < sliceSize; i++){
+					pixels[i] = buffer.getShort() + 32768;
+				}
+				break;
+			case FileInfo.GRAY32_INT:
+				for (int i = 0; i < sliceSize; i++){
+					pixels[i] = buffer.getInt();
+				}
+				break;
+			case FileInfo.GRAY32_UNSIGNED:
+				for (int i = 0; i < sliceSize; i++){
+					pixels[i] = buffer.getInt() & 0xffffffffL;
+				}
+				break;
+			default:
+				for (int i = 0; i < sliceSize; i++){
+					pixels[i] = buffer.getFloat();
+				}
+			}
+		}
+		return buffer;
+	}
+
+	private void decodeWithImageJ(SeriesFile seriesFile) throws IOException {
+		FileInfo fi = (FileInfo) seriesFile.fi.clone();
+		ImageReader reader = new ImageReader(fi);
+		InputStream is = new BufferedInputStream(new FileInputStream(seriesFile.file));
+		try {
+			long skip = fi.getOffset();
+			for (int f = 0; f < seriesFile.numberOfFrames; f++){
+				Object pixels = reader.readPixels(is, skip);
+				if (pixels == null) throw new IOException("Could not read frame " + f + " of " + seriesFile.file + ".");
+				float [] converted = FileProjectionSource.toFloatPixels(pixels, width, height, null);
+				System.arraycopy(converted, 0, grid.getSubGrid(seriesFile.firstFrame + f).getBuffer(), 0, width * height);
+				skip = fi.gapBetweenImages;
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Returns a frame of the series. Waits until the frame is decoded. Requires {@link #startLoading()}.
+	 * @param index the frame number
+	 * @return the frame. It is part of the volume that is returned by {@link #startLoading()}.
+	 * @throws IOException if the frame could not be decoded
+	 */
+	public synchronized Grid2D getFrame(int index) throws IOException {
+		if (grid == null) throw new IllegalStateException("Loading of the DICOM series has not been started.");
+		if (index < 0 || index >= numberOfFrames) throw new IndexOutOfBoundsException("Frame " + index + " of " + numberOfFrames);
+		while (!frameReady[index]) {
+			if (loadingError != null) throw loadingError;
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while waiting for frame " + index + ".", e);
+			}
+		}
+		return grid.getSubGrid(index);
+	}
+
+	/**
+	 * Decodes the complete series.
+	 * @return the volume with one slice per frame
+	 * @throws IOException if a file could not be decoded
+	 */
+	public Grid3D load() throws IOException {
+		Grid3D volume = startLoading();
+		for (int i = numberOfFrames - 1; i >= 0; i--){
+			getFrame(i);
+		}
+		return volume;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,170 @@
+package edu.stanford.rsl.conrad.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+public class DicomSeriesLoaderTest {
+
+	private static final int WIDTH = 6, HEIGHT = 4;
+	// image number 3 is missing
+	private static final int [] IMAGE_NUMBERS = {5, 1, 4, 2, 6};
+
+	private static short value(int imageNumber, int i){
+		return (short) ((imageNumber * 1000) - (i * 300));
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int value){
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+	}
+
+	private static void writeElement(ByteArrayOutputStream out, int group, int element, String vr, byte [] value){
+		writeShort(out, group);
+		writeShort(out, element);
+		out.write(vr.charAt(0));
+		out.write(vr.charAt(1));
+		if (vr.equals("OW")) {
+			writeShort(out, 0);
+			writeShort(out, value.length);
+			writeShort(out, value.length >> 16);
+		} else {
+			writeShort(out, value.length);
+		}
+		out.write(value, 0, value.length);
+	}
+
+	private static byte [] string(String value){
+		// DICOM values have even length
+		if (value.length() % 2 == 1) value += " ";
+		return value.getBytes();
+	}
+
+	private static byte [] unsignedShort(int value){
+		return new byte [] {(byte) value, (byte) (value >> 8)};
+	}
+
+	/**
+	 * Writes a minimal single frame DICOM file with signed 16 bit pixels in explicit VR little endian.
+	 */
+	private static void writeDicom(File file, int imageNumber) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte [128], 0, 128);
+		out.write("DICM".getBytes(), 0, 4);
+		writeElement(out, 0x0002, 0x0010, "UI", "1.2.840.10008.1.2.1\0".getBytes());
+		writeElement(out, 0x0018, 0x1510, "DS", string("" + (imageNumber * 1.5)));
+		writeElement(out, 0x0020, 0x0013, "IS", string("" + imageNumber));
+		writeElement(out, 0x0028, 0x0010, "US", unsignedShort(HEIGHT));
+		writeElement(out, 0x0028, 0x0011, "US", unsignedShort(WIDTH));
+		writeElement(out, 0x0028, 0x0100, "US", unsignedShort(16));
+		writeElement(out, 0x0028, 0x0103, "US", unsignedShort(1));
+		ByteArrayOutputStream pixels = new ByteArrayOutputStream();
+		for (int i = 0; i < WIDTH * HEIGHT; i++){
+			writeShort(pixels, value(imageNumber, i));
+		}
+		writeElement(out, 0x7FE0, 0x0010, "OW", pixels.toByteArray());
+		FileOutputStream stream = new FileOutputStream(file);
+		out.writeTo(stream);
+		stream.close();
+	}
+
+	private static File writeSeries() throws IOException {
+		File directory = File.createTempFile("DicomSeriesLoaderTest", "");
+		directory.delete();
+		directory.mkdirs();
+		directory.deleteOnExit();
+		for (int f = 0; f < IMAGE_NUMBERS.length; f++){
+			File file = new File(directory, "frame" + f + ".dcm");
+			file.deleteOnExit();
+			writeDicom(file, IMAGE_NUMBERS[f]);
+		}
+		return directory;
+	}
+
+	@Test
+	public void testSortingAndPixels() throws Exception {
+		File directory = writeSeries();
+		DicomSeriesLoader loader = DicomSeriesLoader.forDirectory(directory.getPath());
+		loader.scanHeaders();
+		assertEquals(WIDTH, loader.getWidth());
+		assertEquals(HEIGHT, loader.getHeight());
+		assertEquals(IMAGE_NUMBERS.length, loader.getNumberOfFrames());
+		assertArrayEquals(new int [] {3}, loader.getMissingImageNumbers());
+		Grid3D volume = loader.load();
+		int [] sorted = {1, 2, 4, 5, 6};
+		for (int f = 0; f < sorted.length; f++){
+			// the files are written in the order of IMAGE_NUMBERS
+			int fileIndex = 0;
+			while (IMAGE_NUMBERS[fileIndex] != sorted[f]) fileIndex++;
+			DicomProjectionSource reference = new DicomProjectionSource();
+			reference.initStream(new File(directory, "frame" + fileIndex + ".dcm").getPath());
+			Grid2D expected = reference.getNextProjection();
+			reference.close();
+			assertArrayEquals(expected.getBuffer(), volume.getSubGrid(f).getBuffer(), 0);
+			assertEquals(value(sorted[f], 7) + 32768, volume.getSubGrid(f).getAtIndex(1, 1), 0);
+		}
+	}
+
+	@Test
+	public void testConfigurationFromHeaders() throws Exception {
+		DicomSeriesLoader loader = DicomSeriesLoader.forDirectory(writeSeries().getPath());
+		loader.scanHeaders();
+		Configuration config = new Configuration();
+		config.setGeometry(new Trajectory());
+		loader.updateConfiguration(config);
+		assertEquals(WIDTH, config.getGeometry().getDetectorWidth());
+		assertEquals(HEIGHT, config.getGeometry().getDetectorHeight());
+		assertEquals(IMAGE_NUMBERS.length, config.getGeometry().getProjectionStackSize());
+		assertArrayEquals(new double [] {1.5, 3.0, 6.0, 7.5, 9.0}, config.getGeometry().getPrimaryAngles(), 1e-9);
+	}
+
+	@Test
+	public void testProjectionSourceStreamsInOrder() throws Exception {
+		File directory = writeSeries();
+		DicomSeriesProjectionSource source = new DicomSeriesProjectionSource();
+		source.initStream(directory.getPath());
+		int [] sorted = {1, 2, 4, 5, 6};
+		for (int f = 0; f < sorted.length; f++){
+			Grid2D projection = source.getNextProjection();
+			assertEquals(f, source.getCurrentProjectionNumber());
+			assertEquals(value(sorted[f], 0) + 32768, projection.getAtIndex(0, 0), 0);
+		}
+		assertNull(source.getNextProjection());
+		source.close();
+	}
+
+	@Test
+	public void testProjectionSourceUpdatesConfiguration() throws Exception {
+		Configuration previous = Configuration.getGlobalConfiguration();
+		Configuration config = new Configuration();
+		config.setGeometry(new Trajectory());
+		config.setImportFromDicomAutomatically(true);
+		Configuration.setGlobalConfiguration(config);
+		try {
+			DicomSeriesProjectionSource source = new DicomSeriesProjectionSource();
+			source.initStream(writeSeries().getPath());
+			assertEquals(WIDTH, config.getGeometry().getDetectorWidth());
+			assertEquals(IMAGE_NUMBERS.length, config.getGeometry().getProjectionStackSize());
+			source.close();
+		} finally {
+			Configuration.setGlobalConfiguration(previous);
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,90 @@
+package edu.stanford.rsl.conrad.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.pipeline.RandomAccessProjectionSource;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+/**
+ * Streams a DICOM series from a directory as projections. On opening, only the headers are scanned. Then, the files are decoded in parallel in the
+ * background, and the projections are passed on in the order of the series as soon as they are decoded. If the global configuration is set to import
+ * from DICOM automatically, the geometry of the global configuration is updated from the headers.
+ *
+ * @author akmaier
+ * @see DicomSeriesLoader
+ */
+public class DicomSeriesProjectionSource extends FileProjectionSource implements RandomAccessProjectionSource {
+
+	private DicomSeriesLoader loader;
+
+	@Override
+	public void initStream(String filename) throws IOException {
+		if (!new File(filename).isDirectory()) throw new IOException(filename + " is not a directory with a DICOM series.");
+		DicomSeriesLoader seriesLoader = DicomSeriesLoader.forDirectory(filename);
+		seriesLoader.scanHeaders();
+		Configuration config = Configuration.getGlobalConfiguration();
+		if (config != null && config.getGeometry() != null && config.getImportFromDicomAutomatically()) {
+			seriesLoader.updateConfiguration(config);
+		}
+		seriesLoader.startLoading();
+		loader = seriesLoader;
+		currentIndex = -1;
+		CONRAD.log("Opened DICOM series with " + loader.getNumberOfFrames() + " projections from " + filename + ".");
+	}
+
+	/**
+	 * @return the loader of the series, e.g. to update the configuration from the headers
+	 */
+	public DicomSeriesLoader getLoader() {
+		return loader;
+	}
+
+	@Override
+	public Grid2D getProjection(int index) throws IOException {
+		DicomSeriesLoader seriesLoader = loader;
+		if (seriesLoader == null) throw new IOException("Projection source is closed.");
+		// copy, as the filters may change the projection in place
+		return new Grid2D(seriesLoader.getFrame(index));
+	}
+
+	@Override
+	public synchronized Grid2D getNextProjection() {
+		if (loader == null || currentIndex + 1 >= loader.getNumberOfFrames()) return null;
+		try {
+			Grid2D grid = getProjection(currentIndex + 1);
+			currentIndex++;
+			return grid;
+		} catch (IOException e) {
+			CONRAD.log("Could not read projection " + (currentIndex + 1) + ": " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public int getNumberOfProjections() {
+		return (loader != null) ? loader.getNumberOfFrames() : 0;
+	}
+
+	@Override
+	public synchronized void reset() {
+		currentIndex = -1;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		loader = null;
+	}
+
+	@Override
+	public String toString() {
+		return "DICOM Series";
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
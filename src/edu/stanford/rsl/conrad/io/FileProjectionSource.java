@@ -14,6 +14,8 @@ import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.pipeline.IndividualImagePipelineFilteringTool;
 import edu.stanford.rsl.conrad.pipeline.ProjectionSource;
 import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
 import ij.IJ;
 import ij.LookUpTable;
 import ij.Macro;
@@ -46,7 +48,7 @@ public abstract class FileProjectionSource implements ProjectionSource {
 
 
 	public static ProjectionSource [] getProjectionSources(){
-		ProjectionSource [] sources = {new TiffProjectionSource(), new ZipProjectionSource(), new SEQProjectionSource(), new DicomProjectionSource(), new NRRDProjectionSource(), new DennerleinProjectionSource()};
+		ProjectionSource [] sources = {new TiffProjectionSource(), new ZipProjectionSource(), new SEQProjectionSource(), new DicomProjectionSource(), new DicomSeriesProjectionSource(), new NRRDProjectionSource(), new MaterialPathLengthStackSource(), new ChunkedGridProjectionSource(), new DennerleinProjectionSource()};
 		return sources;
 	}
 
@@ -67,9 +69,27 @@ public abstract class FileProjectionSource implements ProjectionSource {
 		if (source == null) {
 			throw new IOException("No matching file format found.");
 		}
+		if ((source instanceof NRRDProjectionSource || source instanceof DennerleinProjectionSource) && isMemoryMappingEnabled()) {
+			MappedFileProjectionSource mapped = new MappedFileProjectionSource();
+			try {
+				mapped.initStream(filename);
+				((FileProjectionSource) source).close();
+				source = mapped;
+			} catch (Exception e) {
+				CONRAD.log(mapped + " failed because " + e.getLocalizedMessage());
+			}
+		}
 		return source;	
 	}
 
+	private static boolean isMemoryMappingEnabled(){
+		try {
+			return Boolean.parseBoolean(Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.MEMORY_MAPPED_PROJECTIONS));
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
 	public synchronized void getNextProjection(IndividualImagePipelineFilteringTool tool){
 		
 		Grid2D grid = getNextProjection();
@@ -95,32 +115,45 @@ public abstract class FileProjectionSource implements ProjectionSource {
 	}
 
 	public Grid2D getNextProjection() {
-		ImageProcessor ip = null;
 		Object pixels = reader.readPixels(is, skip);
 		if (pixels == null) {
 			return null;
 		}
+		float [] floatPixels = toFloatPixels(pixels, fi.width, fi.height, cm);
+			
+		skip = fi.gapBetweenImages;
+		currentIndex++;
+		if (showProgress){
+			IJ.showProgress((0.0 + currentIndex) / fi.nImages);
+		}
+		Grid2D grid = new Grid2D(floatPixels, fi.width, fi.height);
+		
+		return grid;
+	}
+
+	/**
+	 * Converts the pixels that were read by an ImageJ ImageReader to float.
+	 * @param pixels the pixels
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param cm the color model or null
+	 * @return the float pixels
+	 */
+	static float [] toFloatPixels(Object pixels, int width, int height, ColorModel cm){
+		ImageProcessor ip = null;
 		if (pixels instanceof byte[])
-			ip = new ByteProcessor(fi.width, fi.height, (byte[]) pixels, cm);
+			ip = new ByteProcessor(width, height, (byte[]) pixels, cm);
 		else if (pixels instanceof short[])
-			ip = new ShortProcessor(fi.width, fi.height, (short[]) pixels, cm);
+			ip = new ShortProcessor(width, height, (short[]) pixels, cm);
 		else if (pixels instanceof int[])
-			ip = new ColorProcessor(fi.width, fi.height, (int[]) pixels);
+			ip = new ColorProcessor(width, height, (int[]) pixels);
 		else if (pixels instanceof float[]) {
 			// no conversion needed
 		} else
 			throw new IllegalArgumentException("Unknown stack type");
-			
-		skip = fi.gapBetweenImages;
-		currentIndex++;
-		if (showProgress){
-			IJ.showProgress((0.0 + currentIndex) / fi.nImages);
-		}
 		if(ip != null)
 			pixels = ip.toFloat(0, null).getPixels();
-		Grid2D grid = new Grid2D((float [])pixels, fi.width, fi.height);
-		
-		return grid;
+		return (float []) pixels;
 	}
 
 
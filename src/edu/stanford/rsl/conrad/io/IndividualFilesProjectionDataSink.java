@@ -4,11 +4,17 @@
 */
 package edu.stanford.rsl.conrad.io;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.swing.JOptionPane;
 
@@ -20,6 +26,11 @@ import edu.stanford.rsl.conrad.utils.Configuration;
 
 /**
  * Class to model a directory as projection data sink. The sink creates a new file for each projection in the configured raw format.
+ * Alternatively, all projections are written into a single raw file or a single NRRD file in the directory.
+ * <BR><BR>
+ * The pixels are converted on the calling thread. The files are written by a dedicated I/O thread of the sink. Thus, the filter pipeline only waits for the disk
+ * if more than {@link #getQueueSize()} projections are waiting to be written. Errors of the I/O thread are thrown by the next call of process() or close().
+ * close() returns once all projections are on disk.
  * 
  * @author akmaier
  *
@@ -34,18 +45,42 @@ BufferedProjectionSink {
 	private String directory = null;
 	private String prefix = null;
 	private String format = null;
+	private String container = IndividualFiles;
 	private int width = 0;
 	private int height = 0;
 	private boolean littleEndian = true;
-	private boolean closed = false;
+	private volatile boolean closed = false;
+	private int queueSize = 8;
 	public final static String UnsignedShort = "Unsigned Short";
 	public final static String SignedShort = "Signed Short";
 	public final static String Float32Bit = "Float";
+	/**
+	 * One file per projection
+	 */
+	public final static String IndividualFiles = "Individual Files";
+	/**
+	 * All projections in one raw file without header
+	 */
+	public final static String SingleRawFile = "Single Raw File";
+	/**
+	 * All projections in one NRRD file
+	 */
+	public final static String SingleNrrdFile = "Single NRRD File";
+	/**
+	 * Space for the header of the NRRD file. The data start behind it, as the number of projections is only known at the end.
+	 */
+	private final static int NRRD_HEADER_SIZE = 1024;
+
+	private transient volatile BlockingQueue<WriteRequest> queue;
+	private transient volatile Thread writerThread;
+	private transient volatile Exception writeError;
+	private transient RandomAccessFile containerFile;
+	private transient int numberOfProjections;
 
 	@Override
 	public String getName() {
 		if (configured) {
-			return "Write files in "+  format + " to " + directory;
+			return "Write " + ((IndividualFiles.equals(container)) ? "files" : container.toLowerCase()) + " in "+  format + " to " + directory;
 		} else {
 			return "Write files to directory";
 		}
@@ -72,10 +107,84 @@ BufferedProjectionSink {
 		System.out.println("Setting new dimensions: " + width + " " + height);
 	}
 
+	/**
+	 * Starts the I/O thread and opens the container file.
+	 */
+	private synchronized void open() throws IOException {
+		if (writerThread != null) return;
+		closed = false;
+		writeError = null;
+		numberOfProjections = 0;
+		if (!IndividualFiles.equals(container)) {
+			containerFile = new RandomAccessFile(getContainerFilename(), "rw");
+			containerFile.setLength(0);
+		}
+		queue = new ArrayBlockingQueue<WriteRequest>(queueSize);
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeQueue();
+			}
+		}, "CONRAD projection writer " + prefix);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * @return the name of the file in the container modes
+	 */
+	public String getContainerFilename(){
+		return directory + "/" + prefix + ((SingleNrrdFile.equals(container)) ? ".nrrd" : ".raw");
+	}
+
 	@Override
 	public void process(Grid2D projection, int projectionNumber)
 	throws Exception {
 		if (width == 0) setDimensions(projection);
+		if (writerThread == null) open();
+		checkWriteError();
+		if (projection.getWidth() != width || projection.getHeight() != height) {
+			throw new IllegalArgumentException("Projection " + projectionNumber + " has size " + projection.getWidth() + "x" + projection.getHeight() + " instead of " + width + "x" + height + ".");
+		}
+		queue.put(new WriteRequest(convert(projection), projectionNumber));
+	}
+
+	/**
+	 * Converts the pixels of the projection to the bytes of the file.
+	 */
+	private ByteBuffer convert(Grid2D projection){
+		int size = width * height;
+		float [] pixels = projection.getBuffer();
+		ByteOrder order = (littleEndian) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		ByteBuffer bytes;
+		if (Float32Bit.equals(format)) {
+			bytes = ByteBuffer.allocate(size * 4).order(order);
+			FloatBuffer floats = bytes.asFloatBuffer();
+			floats.put(pixels, 0, size);
+		} else if (UnsignedShort.equals(format) || SignedShort.equals(format)) {
+			bytes = ByteBuffer.allocate(size * 2).order(order);
+			short [] shorts = new short [size];
+			int offset = (SignedShort.equals(format)) ? 32768 : 0;
+			for (int i = 0; i < size; i++){
+				shorts[i] = (short)(((int) pixels[i]) - offset);
+			}
+			ShortBuffer shortBuffer = bytes.asShortBuffer();
+			shortBuffer.put(shorts);
+		} else {
+			throw new IllegalArgumentException("Unknown format: " + format);
+		}
+		return bytes;
+	}
+
+	private void checkWriteError() throws Exception {
+		Exception error = writeError;
+		if (error != null) throw new IOException("Could not write projection", error);
+	}
+
+	/**
+	 * Loop of the I/O thread. Terminates at the end marker that is queued by close().
+	 */
+	private void writeQueue(){
 		NumberFormat nf = NumberFormat.getNumberInstance(Locale.US);
 		//NumberFormat nf = new NumberFormat("0000");
 		nf.setMinimumFractionDigits(0);
@@ -83,38 +192,73 @@ BufferedProjectionSink {
 		nf.setMaximumIntegerDigits(4);
 		nf.setMinimumIntegerDigits(4);
 		nf.setGroupingUsed(false);
-		String filename = directory + "/" + prefix + nf.format(projectionNumber);
-		FileOutputStream writer = new FileOutputStream(filename);
-		short [] shortPixels = null;
-		if (format.equals(UnsignedShort) || format.equals(SignedShort) ) {
-			shortPixels = new short [width * height];
-		}
-		float [] floatPixels = null;
-		if (format.equals(Float32Bit)){
-			floatPixels = new float [width * height];
-		}
-		for (int j = 0; j <  projection.getHeight(); j++){
-			for (int i = 0; i < projection.getWidth(); i ++){
-				float value = projection.getPixelValue(i, j);
-				if (format.equals(UnsignedShort)) {
-					shortPixels[i + (j*width)] = (short)((int) value);
-				}
-				if (format.equals(SignedShort)) {
-					shortPixels[i + (j*width)] = (short)((int) value - 32768);
-				}
-				if (format.equals(Float32Bit)){
-					floatPixels[i + (j*width)] = (float) value;
+		while (true) {
+			WriteRequest request;
+			try {
+				request = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (request.data == null) return;
+			// after an error, the remaining requests are dropped until close()
+			if (writeError != null) continue;
+			try {
+				if (containerFile == null) {
+					RandomAccessFile file = new RandomAccessFile(directory + "/" + prefix + nf.format(request.projectionNumber), "rw");
+					try {
+						file.setLength(0);
+						write(file.getChannel(), request.data, 0);
+					} finally {
+						file.close();
+					}
+				} else {
+					long headerSize = (SingleNrrdFile.equals(container)) ? NRRD_HEADER_SIZE : 0;
+					write(containerFile.getChannel(), request.data, headerSize + ((long) request.projectionNumber * request.data.capacity()));
+					numberOfProjections = Math.max(numberOfProjections, request.projectionNumber + 1);
 				}
+			} catch (Exception e) {
+				writeError = e;
 			}
 		}
-		if (format.equals(UnsignedShort) || format.equals(SignedShort) ) {
-			write16BitImage(writer, shortPixels);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()){
+			position += channel.write(buffer, position);
 		}
-		if (format.equals(Float32Bit)){
-			writeFloatImage(writer, floatPixels);
+	}
+
+	/**
+	 * Creates the header of the NRRD file. It is padded with a comment to NRRD_HEADER_SIZE bytes.
+	 */
+	private byte [] createNrrdHeader(){
+		String type = (Float32Bit.equals(format)) ? "float" : (SignedShort.equals(format)) ? "short" : "unsigned short";
+		StringBuilder header = new StringBuilder();
+		header.append("NRRD0004\n");
+		header.append("# Complete NRRD file format specification at:\n");
+		header.append("# http://teem.sourceforge.net/nrrd/format.html\n");
+		header.append("type: " + type + "\n");
+		header.append("dimension: 3\n");
+		header.append("sizes: " + width + " " + height + " " + numberOfProjections + "\n");
+		header.append("endian: " + ((littleEndian) ? "little" : "big") + "\n");
+		header.append("encoding: raw\n");
+		header.append("#");
+		// padding comment, then the empty line that ends the header
+		while (header.length() < NRRD_HEADER_SIZE - 2) header.append(' ');
+		header.append("\n\n");
+		byte [] bytes = header.toString().getBytes();
+		if (bytes.length != NRRD_HEADER_SIZE) throw new IllegalStateException("NRRD header exceeds " + NRRD_HEADER_SIZE + " bytes.");
+		return bytes;
+	}
+
+	private static class WriteRequest {
+		final ByteBuffer data;
+		final int projectionNumber;
+
+		WriteRequest(ByteBuffer data, int projectionNumber){
+			this.data = data;
+			this.projectionNumber = projectionNumber;
 		}
-		writer.flush();
-		writer.close();
 	}
 
 	@Override
@@ -139,6 +283,12 @@ BufferedProjectionSink {
 		String [] formats = {Float32Bit, SignedShort, UnsignedShort};
 		format = (String) JOptionPane.showInputDialog(null, "Select format:", "Format Selection", JOptionPane.INFORMATION_MESSAGE, null, formats, format);
 		if (format == null) success = false;
+		String [] containers = {IndividualFiles, SingleRawFile, SingleNrrdFile};
+		container = (String) JOptionPane.showInputDialog(null, "Select output files:", "Format Selection", JOptionPane.INFORMATION_MESSAGE, null, containers, container);
+		if (container == null) {
+			container = IndividualFiles;
+			success = false;
+		}
 		String [] endianess = {"Litte Endian", "Big Endian"};
 		String endian = "Big Endian";
 		if (littleEndian) endian = "Litte Endian";
@@ -177,89 +327,39 @@ BufferedProjectionSink {
 	}
 
 	/**
-	 * Same method as in ImageWriter
-	 * @see ij.io.ImageWriter
-	 * 
-	 * @param out the Stream to write the ImageProcessor
-	 * @param pixels the pixel data
-	 * @throws IOException may occur
+	 * Waits until the I/O thread has written all projections and closes the files.
 	 */
-	void write16BitImage(OutputStream out, short[] pixels)  throws IOException {
-		int bytesWritten = 0;
-		int size = width*height*2;
-		int count = 8192;
-		byte[] buffer = new byte[count];
-
-		while (bytesWritten<size) {
-			if ((bytesWritten + count)>size)
-				count = size - bytesWritten;
-			int j = bytesWritten/2;
-			int value;
-			if (littleEndian)
-				for (int i=0; i < count; i+=2) {
-					value = pixels[j];
-					buffer[i] = (byte)value;
-					buffer[i+1] = (byte)(value>>>8);
-					j++;
-				}
-			else
-				for (int i=0; i < count; i+=2) {
-					value = pixels[j];
-					buffer[i] = (byte)(value>>>8);
-					buffer[i+1] = (byte)value;
-					j++;
+	@Override
+	public void close () throws Exception {
+		try {
+			if (writerThread != null) {
+				queue.put(new WriteRequest(null, -1));
+				writerThread.join();
+				writerThread = null;
+				queue = null;
+				if (containerFile != null) {
+					try {
+						if (SingleNrrdFile.equals(container) && writeError == null) {
+							write(containerFile.getChannel(), ByteBuffer.wrap(createNrrdHeader()), 0);
+						}
+					} finally {
+						containerFile.close();
+						containerFile = null;
+					}
 				}
-			out.write(buffer, 0, count);
-			bytesWritten += count;
+				checkWriteError();
+			}
+		} finally {
+			closed = true;
 		}
 	}
 
-	/**
-	 * Same method as in ImageWriter
-	 * @see ij.io.ImageWriter
-	 * 
-	 * @param out the Stream to write the ImageProcessor
-	 * @param pixels the pixel data
-	 * @throws IOException may occur
-	 */
-	void writeFloatImage(OutputStream out, float[] pixels)  throws IOException {
-		int bytesWritten = 0;
-		int size = width*height*4;
-		int count = 8192;
-		byte[] buffer = new byte[count];
-		int tmp;
-
-		while (bytesWritten<size) {
-
-			if ((bytesWritten + count)>size)
-				count = size - bytesWritten;
-			int j = bytesWritten/4;
-			if (littleEndian)
-				for (int i=0; i < count; i+=4) {
-					tmp = Float.floatToRawIntBits(pixels[j]);
-					buffer[i]   = (byte)tmp;
-					buffer[i+1] = (byte)(tmp>>8);
-					buffer[i+2] = (byte)(tmp>>16);
-					buffer[i+3] = (byte)(tmp>>24);
-					j++;
-				}
-			else
-				for (int i=0; i < count; i+=4) {
-					tmp = Float.floatToRawIntBits(pixels[j]);
-					buffer[i]   = (byte)(tmp>>24);
-					buffer[i+1] = (byte)(tmp>>16);
-					buffer[i+2] = (byte)(tmp>>8);
-					buffer[i+3] = (byte)tmp;
-					j++;
-				}
-			out.write(buffer, 0, count);
-			bytesWritten += count;
-		}
-	}
-	
 	@Override
-	public void close (){
-		closed = true;
+	public void prepareForSerialization(){
+		super.prepareForSerialization();
+		queue = null;
+		writerThread = null;
+		containerFile = null;
 	}
 
 	/**
@@ -304,6 +404,36 @@ BufferedProjectionSink {
 		this.format = format;
 	}
 
+	/**
+	 * @return the container mode, i.e. IndividualFiles, SingleRawFile, or SingleNrrdFile
+	 */
+	public String getContainer() {
+		return container;
+	}
+
+	/**
+	 * @param container the container mode to set, i.e. IndividualFiles, SingleRawFile, or SingleNrrdFile
+	 */
+	public void setContainer(String container) {
+		this.container = container;
+	}
+
+	/**
+	 * @return the number of converted projections that may wait for the I/O thread
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Limits the memory of projections that wait for the I/O thread. Default is 8.
+	 * @param queueSize the number of projections
+	 */
+	public void setQueueSize(int queueSize) {
+		if (queueSize < 1) throw new IllegalArgumentException("Queue size must be positive: " + queueSize);
+		this.queueSize = queueSize;
+	}
+
 	/**
 	 * @return the width
 	 */
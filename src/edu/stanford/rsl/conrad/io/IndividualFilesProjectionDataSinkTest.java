@@ -0,0 +1,112 @@
+package edu.stanford.rsl.conrad.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+
+public class IndividualFilesProjectionDataSinkTest {
+
+	private static final int WIDTH = 7, HEIGHT = 5, PROJECTIONS = 4;
+
+	private static float value(int p, int i){
+		return (p * 100) + i + 0.5f;
+	}
+
+	private static File createDirectory() throws IOException {
+		File directory = File.createTempFile("IndividualFilesProjectionDataSinkTest", "");
+		directory.delete();
+		directory.mkdirs();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	private static IndividualFilesProjectionDataSink write(File directory, String format, String container, boolean littleEndian) throws Exception {
+		IndividualFilesProjectionDataSink sink = new IndividualFilesProjectionDataSink();
+		sink.setDirectory(directory.getPath());
+		sink.setPrefix("proj.");
+		sink.setFormat(format);
+		sink.setContainer(container);
+		sink.setLittleEndian(littleEndian);
+		sink.setQueueSize(1);
+		sink.configured();
+		// projections arrive in arbitrary order
+		int [] order = {2, 0, 3, 1};
+		for (int p : order){
+			Grid2D grid = new Grid2D(WIDTH, HEIGHT);
+			float [] buffer = grid.getBuffer();
+			for (int i = 0; i < buffer.length; i++){
+				buffer[i] = value(p, i);
+			}
+			sink.process(grid, p);
+		}
+		sink.close();
+		sink.getResult();
+		return sink;
+	}
+
+	private static ByteBuffer read(File file, ByteOrder order) throws IOException {
+		for (File f : file.getParentFile().listFiles()){
+			f.deleteOnExit();
+		}
+		return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(order);
+	}
+
+	@Test
+	public void testIndividualFloatFiles() throws Exception {
+		File directory = createDirectory();
+		write(directory, IndividualFilesProjectionDataSink.Float32Bit, IndividualFilesProjectionDataSink.IndividualFiles, true);
+		for (int p = 0; p < PROJECTIONS; p++){
+			ByteBuffer bytes = read(new File(directory, "proj.000" + p), ByteOrder.LITTLE_ENDIAN);
+			assertEquals(WIDTH * HEIGHT * 4, bytes.capacity());
+			for (int i = 0; i < WIDTH * HEIGHT; i++){
+				assertEquals(value(p, i), bytes.getFloat(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testSingleRawFileWithShorts() throws Exception {
+		File directory = createDirectory();
+		IndividualFilesProjectionDataSink sink = write(directory, IndividualFilesProjectionDataSink.SignedShort, IndividualFilesProjectionDataSink.SingleRawFile, false);
+		ByteBuffer bytes = read(new File(sink.getContainerFilename()), ByteOrder.BIG_ENDIAN);
+		assertEquals(PROJECTIONS * WIDTH * HEIGHT * 2, bytes.capacity());
+		for (int p = 0; p < PROJECTIONS; p++){
+			for (int i = 0; i < WIDTH * HEIGHT; i++){
+				assertEquals((short) (((int) value(p, i)) - 32768), bytes.getShort());
+			}
+		}
+	}
+
+	@Test
+	public void testSingleNrrdFile() throws Exception {
+		File directory = createDirectory();
+		IndividualFilesProjectionDataSink sink = write(directory, IndividualFilesProjectionDataSink.Float32Bit, IndividualFilesProjectionDataSink.SingleNrrdFile, true);
+		assertTrue(sink.getContainerFilename().endsWith(".nrrd"));
+		read(new File(sink.getContainerFilename()), ByteOrder.LITTLE_ENDIAN);
+		NRRDProjectionSource source = new NRRDProjectionSource();
+		source.initStream(sink.getContainerFilename());
+		for (int p = 0; p < PROJECTIONS; p++){
+			Grid2D grid = source.getNextProjection();
+			assertEquals(WIDTH, grid.getWidth());
+			assertEquals(HEIGHT, grid.getHeight());
+			for (int i = 0; i < WIDTH * HEIGHT; i++){
+				assertEquals(value(p, i), grid.getBuffer()[i], 0);
+			}
+		}
+		source.close();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,250 @@
+package edu.stanford.rsl.conrad.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.pipeline.RandomAccessProjectionSource;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import ij.io.FileInfo;
+
+/**
+ * ProjectionSource for uncompressed raw projection stacks which maps the file into memory instead of streaming it.<br>
+ * Any projection can be accessed directly. Repeated sweeps over the data only touch the page cache of the operating system
+ * and do not re-read or re-parse the file.
+ * <BR><BR>
+ * As a single mapping is limited to 2 GB, the file is mapped in segments. Each segment contains a whole number of projections, such that
+ * every projection can be accessed as one contiguous buffer without copying. The segments are mapped on first access.
+ * <BR><BR>
+ * {@link #initStream(String)} reads the header of NRRD files (.nrrd, .nhdr) and Dennerlein files (all other files). Other raw files are opened with
+ * {@link #initStream(FileInfo)}. Compressed data is not supported.
+ *
+ * @author akmaier
+ *
+ */
+public class MappedFileProjectionSource extends FileProjectionSource implements RandomAccessProjectionSource {
+
+	private long maximumSegmentSize = Integer.MAX_VALUE;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private MappedByteBuffer [] segments;
+	private int projectionsPerSegment;
+	private long projectionSize;
+	private long dataOffset;
+	private ByteOrder byteOrder;
+
+	@Override
+	public void initStream(String filename) throws IOException {
+		String lowerCase = filename.toLowerCase();
+		FileInfo fileInfo;
+		if (lowerCase.endsWith(".nrrd") || lowerCase.endsWith(".nhdr")) {
+			File f = new File(filename);
+			String directory = (f.getParent() != null) ? f.getParent() + File.separator : "";
+			NrrdFileInfo nrrdInfo = new NrrdFileReader().getHeaderInfo(directory, f.getName());
+			if (nrrdInfo.encoding.length() > 0 && !nrrdInfo.encoding.equals("raw")) {
+				throw new IOException("NRRD encoding " + nrrdInfo.encoding + " cannot be mapped into memory.");
+			}
+			fileInfo = nrrdInfo;
+		} else {
+			fileInfo = new DennerleinProjectionSource().getHeaderInfo(filename);
+		}
+		initStream(fileInfo);
+	}
+
+	/**
+	 * Maps the file that is described by the FileInfo.
+	 * @param fileInfo the description of the raw data.
+	 * @throws IOException if the data is compressed or the file is too short.
+	 */
+	public void initStream(FileInfo fileInfo) throws IOException {
+		if (fileInfo.width <= 0 || fileInfo.height <= 0 || fileInfo.nImages <= 0) {
+			throw new IOException("Format does not match: width = " + fileInfo.width + " height = " + fileInfo.height + " images = " + fileInfo.nImages);
+		}
+		if (fileInfo.compression > FileInfo.COMPRESSION_NONE || fileInfo.fileName.toLowerCase().endsWith(".gz")) {
+			throw new IOException("Compressed data cannot be mapped into memory.");
+		}
+		if (fileInfo.gapBetweenImages != 0) {
+			throw new IOException("Gaps between images are not supported.");
+		}
+		int bytesPerPixel = getBytesPerPixel(fileInfo.fileType);
+		projectionSize = (long) fileInfo.width * fileInfo.height * bytesPerPixel;
+		if (projectionSize > maximumSegmentSize) {
+			throw new IOException("A single projection with " + projectionSize + " bytes exceeds the maximal segment size.");
+		}
+		File f = new File(fileInfo.directory, fileInfo.fileName);
+		dataOffset = fileInfo.getOffset();
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		if (channel.size() < dataOffset + (projectionSize * fileInfo.nImages)) {
+			close();
+			throw new IOException("File " + f + " is too short for " + fileInfo.nImages + " projections.");
+		}
+		fi = fileInfo;
+		byteOrder = fileInfo.intelByteOrder ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		projectionsPerSegment = (int) Math.min(fileInfo.nImages, maximumSegmentSize / projectionSize);
+		segments = new MappedByteBuffer[(fileInfo.nImages + projectionsPerSegment - 1) / projectionsPerSegment];
+		currentIndex = -1;
+		CONRAD.log("Mapped " + fileInfo.nImages + " projections with " + fileInfo.width + "x" + fileInfo.height + " pixels in " + segments.length + " segment(s).");
+	}
+
+	private static int getBytesPerPixel(int fileType) throws IOException {
+		switch (fileType) {
+		case FileInfo.GRAY8:
+			return 1;
+		case FileInfo.GRAY16_SIGNED:
+		case FileInfo.GRAY16_UNSIGNED:
+			return 2;
+		case FileInfo.GRAY32_INT:
+		case FileInfo.GRAY32_UNSIGNED:
+		case FileInfo.GRAY32_FLOAT:
+			return 4;
+		case FileInfo.GRAY64_FLOAT:
+			return 8;
+		default:
+			throw new IOException("File type " + fileType + " cannot be mapped into memory.");
+		}
+	}
+
+	/**
+	 * Sets the maximal number of bytes that are mapped by one segment. Has to be called before the stream is initialized.
+	 * Default is 2 GB, the maximum that is supported by Java.
+	 * @param maximumSegmentSize the size in bytes
+	 */
+	public void setMaximumSegmentSize(long maximumSegmentSize) {
+		if (maximumSegmentSize < 1 || maximumSegmentSize > Integer.MAX_VALUE) throw new IllegalArgumentException("Segment size out of range: " + maximumSegmentSize);
+		this.maximumSegmentSize = maximumSegmentSize;
+	}
+
+	public long getMaximumSegmentSize() {
+		return maximumSegmentSize;
+	}
+
+	private synchronized MappedByteBuffer getSegment(int segment) throws IOException {
+		if (channel == null) throw new IOException("Projection source is closed.");
+		if (segments[segment] == null) {
+			long start = dataOffset + ((long) segment * projectionsPerSegment * projectionSize);
+			int projections = Math.min(projectionsPerSegment, fi.nImages - (segment * projectionsPerSegment));
+			segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, projections * projectionSize);
+		}
+		return segments[segment];
+	}
+
+	/**
+	 * Returns the raw data of the projection with the given index without copying it. The buffer is read-only and its byte order is set to the
+	 * byte order of the file. For float data, the buffer may be used via {@link ByteBuffer#asFloatBuffer()}.
+	 * @param index the projection number
+	 * @return the buffer
+	 * @throws IOException if the projection cannot be mapped
+	 */
+	public ByteBuffer getRawProjection(int index) throws IOException {
+		if (index < 0 || index >= fi.nImages) throw new IndexOutOfBoundsException("Projection " + index + " of " + fi.nImages);
+		// duplicate, as position and limit must not be shared between threads.
+		ByteBuffer buffer = getSegment(index / projectionsPerSegment).duplicate();
+		int start = (int) ((index % projectionsPerSegment) * projectionSize);
+		buffer.position(start);
+		buffer.limit(start + (int) projectionSize);
+		return buffer.slice().order(byteOrder);
+	}
+
+	@Override
+	public Grid2D getProjection(int index) throws IOException {
+		ByteBuffer buffer = getRawProjection(index);
+		float [] pixels = new float[fi.width * fi.height];
+		switch (fi.fileType) {
+		case FileInfo.GRAY8:
+			for (int i = 0; i < pixels.length; i++) pixels[i] = buffer.get(i) & 0xff;
+			break;
+		case FileInfo.GRAY16_SIGNED:
+			// same convention as ImageJ: signed data is shifted to the unsigned range.
+			for (int i = 0; i < pixels.length; i++) pixels[i] = buffer.getShort(i * 2) + 32768;
+			break;
+		case FileInfo.GRAY16_UNSIGNED:
+			for (int i = 0; i < pixels.length; i++) pixels[i] = buffer.getShort(i * 2) & 0xffff;
+			break;
+		case FileInfo.GRAY32_INT:
+			for (int i = 0; i < pixels.length; i++) pixels[i] = buffer.getInt(i * 4);
+			break;
+		case FileInfo.GRAY32_UNSIGNED:
+			for (int i = 0; i < pixels.length; i++) pixels[i] = buffer.getInt(i * 4) & 0xffffffffL;
+			break;
+		case FileInfo.GRAY32_FLOAT:
+			buffer.asFloatBuffer().get(pixels);
+			break;
+		case FileInfo.GRAY64_FLOAT:
+			for (int i = 0; i < pixels.length; i++) pixels[i] = (float) buffer.getDouble(i * 8);
+			break;
+		}
+		return new Grid2D(pixels, fi.width, fi.height);
+	}
+
+	@Override
+	public int getNumberOfProjections() {
+		return fi.nImages;
+	}
+
+	@Override
+	public synchronized Grid2D getNextProjection() {
+		if (segments == null || currentIndex + 1 >= fi.nImages) return null;
+		try {
+			Grid2D grid = getProjection(currentIndex + 1);
+			currentIndex++;
+			return grid;
+		} catch (IOException e) {
+			CONRAD.log("Could not read projection " + (currentIndex + 1) + ": " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized void reset() {
+		currentIndex = -1;
+	}
+
+	/**
+	 * Releases the mappings and closes the file. The mapped memory is returned to the system once the buffers are garbage collected.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		segments = null;
+		channel = null;
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+	/**
+	 * Checks whether the file described by the FileInfo can be mapped into memory.
+	 * @param fileInfo the FileInfo
+	 * @return true, if the data is uncompressed and of a supported type.
+	 */
+	public static boolean isMappable(FileInfo fileInfo) {
+		if (fileInfo == null || fileInfo.compression > FileInfo.COMPRESSION_NONE || fileInfo.gapBetweenImages != 0) return false;
+		if (fileInfo.fileName == null || fileInfo.fileName.toLowerCase().endsWith(".gz")) return false;
+		if (fileInfo instanceof NrrdFileInfo) {
+			String encoding = ((NrrdFileInfo) fileInfo).encoding;
+			if (encoding.length() > 0 && !encoding.equals("raw")) return false;
+		}
+		try {
+			getBytesPerPixel(fileInfo.fileType);
+		} catch (IOException e) {
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "Memory-mapped Projection Source";
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
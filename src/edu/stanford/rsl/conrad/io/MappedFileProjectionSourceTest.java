@@ -0,0 +1,68 @@
+package edu.stanford.rsl.conrad.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+
+public class MappedFileProjectionSourceTest {
+
+	private File writeDennerleinFile(int width, int height, int projections) throws IOException {
+		File file = File.createTempFile("MappedFileProjectionSourceTest", ".bin");
+		file.deleteOnExit();
+		ByteBuffer buffer = ByteBuffer.allocate(6 + width * height * projections * 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putShort((short) width);
+		buffer.putShort((short) height);
+		buffer.putShort((short) projections);
+		for (int i = 0; i < width * height * projections; i++) {
+			buffer.putFloat(i * 0.5f);
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(buffer.array());
+		out.close();
+		return file;
+	}
+
+	@Test
+	public void testSegmentedMapping() throws Exception {
+		int width = 7, height = 5, projections = 11;
+		File file = writeDennerleinFile(width, height, projections);
+		DennerleinProjectionSource stream = new DennerleinProjectionSource();
+		stream.initStream(file.getPath());
+		MappedFileProjectionSource mapped = new MappedFileProjectionSource();
+		// three projections per segment
+		mapped.setMaximumSegmentSize(width * height * 4 * 3 + 5);
+		mapped.initStream(file.getPath());
+		assertEquals(projections, mapped.getNumberOfProjections());
+		for (int n = 0; n < projections; n++) {
+			Grid2D expected = stream.getNextProjection();
+			Grid2D actual = mapped.getNextProjection();
+			assertEquals(n, mapped.getCurrentProjectionNumber());
+			for (int i = 0; i < expected.getBuffer().length; i++) {
+				assertEquals(expected.getBuffer()[i], actual.getBuffer()[i], 0);
+			}
+		}
+		assertNull(mapped.getNextProjection());
+		stream.close();
+		// random access and second sweep
+		assertEquals((width * height * 9 + 3) * 0.5f, mapped.getProjection(9).getBuffer()[3], 0);
+		assertEquals(width * height * 4 * 0.5f, mapped.getRawProjection(4).asFloatBuffer().get(0), 0);
+		mapped.reset();
+		assertEquals(0, mapped.getNextProjection().getBuffer()[0], 0);
+		mapped.close();
+		file.delete();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
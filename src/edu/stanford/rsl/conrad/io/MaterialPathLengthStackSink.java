@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
+package edu.stanford.rsl.conrad.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.swing.JOptionPane;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.data.numeric.MultiChannelGrid2D;
+import edu.stanford.rsl.conrad.pipeline.BufferedProjectionSink;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+/**
+ * Sink that stores the material path lengths of each projection in a single file. The projections are usually created by the analytic projector
+ * with a {@link edu.stanford.rsl.conrad.physics.detector.MaterialPathLengthDetector}, i.e. one channel of a MultiChannelGrid2D per material.
+ * Plain Grid2Ds are stored as a single channel of water.
+ * <BR><BR>
+ * Once the stack is written, any detector and absorption model can be applied to it with {@link MaterialPathLengthStackSource} and
+ * {@link edu.stanford.rsl.conrad.filtering.SimulateXRayDetector} without tracing the rays through the phantom again.
+ * <BR><BR>
+ * The projections are written directly to their position in the file. Hence, they may arrive in any order and from several threads.
+ * The channel names are stored at the end of the file when the sink is closed, as the detector only learns the materials during rendering.
+ *
+ * @author akmaier
+ * @see MaterialPathLengthStackSource
+ */
+public class MaterialPathLengthStackSink extends BufferedProjectionSink {
+
+	private static final long serialVersionUID = -1872302386407853624L;
+	private String filename = null;
+	private transient RandomAccessFile file;
+	private transient FileChannel channel;
+	private int width = 0;
+	private int height = 0;
+	private int numberOfChannels = 0;
+	private int numberOfProjections = 0;
+	private String [] channelNames;
+
+	public MaterialPathLengthStackSink(){
+	}
+
+	/**
+	 * Creates a configured sink which writes to the given file.
+	 * @param filename the file name
+	 */
+	public MaterialPathLengthStackSink(String filename){
+		this.filename = filename;
+		configured = true;
+	}
+
+	@Override
+	public String getName() {
+		if (configured) {
+			return "Write material path lengths to " + filename;
+		} else {
+			return "Material Path Length Stack";
+		}
+	}
+
+	private synchronized void open(Grid2D projection) throws IOException {
+		if (channel != null) return;
+		width = projection.getWidth();
+		height = projection.getHeight();
+		if (projection instanceof MultiChannelGrid2D) {
+			numberOfChannels = ((MultiChannelGrid2D) projection).getNumberOfChannels();
+			// the detector fills the names while rendering. Thus, we keep the reference.
+			channelNames = ((MultiChannelGrid2D) projection).getChannelNames();
+		} else {
+			numberOfChannels = 1;
+			channelNames = new String [] {"water"};
+		}
+		numberOfProjections = 0;
+		file = new RandomAccessFile(filename, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+	}
+
+	@Override
+	public void process(Grid2D projection, int projectionNumber) throws Exception {
+		if (channel == null) open(projection);
+		if (projection.getWidth() != width || projection.getHeight() != height) {
+			throw new IllegalArgumentException("Projection " + projectionNumber + " has size " + projection.getWidth() + "x" + projection.getHeight() + " instead of " + width + "x" + height + ".");
+		}
+		int channels = (projection instanceof MultiChannelGrid2D) ? ((MultiChannelGrid2D) projection).getNumberOfChannels() : 1;
+		if (channels != numberOfChannels) {
+			throw new IllegalArgumentException("Projection " + projectionNumber + " has " + channels + " channels instead of " + numberOfChannels + ".");
+		}
+		int sliceSize = width * height;
+		ByteBuffer buffer = ByteBuffer.allocate(sliceSize * channels * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int c = 0; c < channels; c++){
+			Grid2D grid = (projection instanceof MultiChannelGrid2D) ? ((MultiChannelGrid2D) projection).getChannel(c) : projection;
+			buffer.asFloatBuffer().put(grid.getBuffer(), 0, sliceSize);
+			buffer.position(buffer.position() + (sliceSize * 4));
+		}
+		buffer.flip();
+		long position = MaterialPathLengthStackSource.HEADER_SIZE + ((long) projectionNumber * buffer.limit());
+		while (buffer.hasRemaining()){
+			position += channel.write(buffer, position);
+		}
+		synchronized (this) {
+			numberOfProjections = Math.max(numberOfProjections, projectionNumber + 1);
+		}
+	}
+
+	/**
+	 * Writes the header and the channel names and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws Exception {
+		if (channel == null) return;
+		long trailerOffset = MaterialPathLengthStackSource.HEADER_SIZE + ((long) numberOfProjections * width * height * numberOfChannels * 4);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream trailer = new DataOutputStream(bytes);
+		for (int c = 0; c < numberOfChannels; c++){
+			String name = (channelNames != null && c < channelNames.length) ? channelNames[c] : null;
+			trailer.writeUTF((name != null) ? name : "");
+		}
+		trailer.close();
+		write(ByteBuffer.wrap(bytes.toByteArray()), trailerOffset);
+		ByteBuffer header = ByteBuffer.allocate(MaterialPathLengthStackSource.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MaterialPathLengthStackSource.MAGIC);
+		header.putInt(MaterialPathLengthStackSource.VERSION);
+		header.putInt(width);
+		header.putInt(height);
+		header.putInt(numberOfProjections);
+		header.putInt(numberOfChannels);
+		header.putLong(trailerOffset);
+		header.rewind();
+		write(header, 0);
+		file.setLength(trailerOffset + bytes.size());
+		channel.force(true);
+		file.close();
+		file = null;
+		channel = null;
+		CONRAD.log("Wrote " + numberOfProjections + " projections with " + numberOfChannels + " materials to " + filename + ".");
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()){
+			position += channel.write(buffer, position);
+		}
+	}
+
+	@Override
+	public Grid3D getResult() {
+		return null;
+	}
+
+	@Override
+	public void setConfiguration(Configuration config) {
+	}
+
+	@Override
+	public void configure() throws Exception {
+		filename = JOptionPane.showInputDialog("Enter file name:", filename);
+		configured = (filename != null);
+	}
+
+	@Override
+	public String getBibtexCitation() {
+		return CONRAD.CONRADBibtex;
+	}
+
+	@Override
+	public String getMedlineCitation() {
+		return CONRAD.CONRADMedline;
+	}
+
+	@Override
+	public void prepareForSerialization(){
+		super.prepareForSerialization();
+		file = null;
+		channel = null;
+	}
+
+	/**
+	 * @return the filename
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * @param filename the filename to set
+	 */
+	public void setFilename(String filename) {
+		this.filename = filename;
+	}
+
+}
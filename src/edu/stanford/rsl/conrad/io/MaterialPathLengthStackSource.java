@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
+package edu.stanford.rsl.conrad.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.MultiChannelGrid2D;
+import edu.stanford.rsl.conrad.pipeline.RandomAccessProjectionSource;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Reads the material path length stacks that were written by {@link MaterialPathLengthStackSink}.
+ * Every projection is returned as a MultiChannelGrid2D with one channel per material. The channel names are the names of the materials.
+ * <BR><BR>
+ * File layout (little endian): a header of {@value #HEADER_SIZE} bytes with magic number, version, width, height, number of projections,
+ * number of channels and the offset of the trailer. It is followed by the projections with all channels of one projection in a row (32 bit float) and
+ * the trailer with the channel names (modified UTF-8).
+ *
+ * @author akmaier
+ * @see MaterialPathLengthStackSink
+ * @see edu.stanford.rsl.conrad.filtering.SimulateXRayDetector
+ */
+public class MaterialPathLengthStackSource extends FileProjectionSource implements RandomAccessProjectionSource {
+
+	static final int MAGIC = 0x4d504c53;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int width;
+	private int height;
+	private int numberOfProjections;
+	private int numberOfChannels;
+	private String [] channelNames;
+
+	@Override
+	public void initStream(String filename) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel fileChannel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			read(fileChannel, header, 0);
+			if (header.getInt() != MAGIC) throw new IOException(filename + " is not a material path length stack.");
+			int version = header.getInt();
+			if (version != VERSION) throw new IOException("Unsupported version " + version + " of material path length stack " + filename + ".");
+			width = header.getInt();
+			height = header.getInt();
+			numberOfProjections = header.getInt();
+			numberOfChannels = header.getInt();
+			long trailerOffset = header.getLong();
+			if (trailerOffset != HEADER_SIZE + ((long) width * height * numberOfChannels * numberOfProjections * 4) || trailerOffset > fileChannel.size()) {
+				throw new IOException("Material path length stack " + filename + " is incomplete.");
+			}
+			ByteBuffer trailer = ByteBuffer.allocate((int) (fileChannel.size() - trailerOffset));
+			read(fileChannel, trailer, trailerOffset);
+			DataInputStream names = new DataInputStream(new ByteArrayInputStream(trailer.array()));
+			channelNames = new String[numberOfChannels];
+			for (int c = 0; c < numberOfChannels; c++){
+				channelNames[c] = names.readUTF();
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		file = raf;
+		channel = raf.getChannel();
+		currentIndex = -1;
+		CONRAD.log("Opened " + numberOfProjections + " projections with " + numberOfChannels + " materials from " + filename + ".");
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()){
+			int read = channel.read(buffer, position);
+			if (read < 0) throw new IOException("Unexpected end of file.");
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	@Override
+	public Grid2D getProjection(int index) throws IOException {
+		if (index < 0 || index >= numberOfProjections) throw new IndexOutOfBoundsException("Projection " + index + " of " + numberOfProjections);
+		FileChannel fileChannel = channel;
+		if (fileChannel == null) throw new IOException("Projection source is closed.");
+		int sliceSize = width * height;
+		ByteBuffer buffer = ByteBuffer.allocate(sliceSize * numberOfChannels * 4).order(ByteOrder.LITTLE_ENDIAN);
+		read(fileChannel, buffer, HEADER_SIZE + ((long) index * buffer.capacity()));
+		MultiChannelGrid2D grid = new MultiChannelGrid2D(width, height, numberOfChannels);
+		for (int c = 0; c < numberOfChannels; c++){
+			buffer.position(c * sliceSize * 4);
+			buffer.asFloatBuffer().get(grid.getChannel(c).getBuffer(), 0, sliceSize);
+		}
+		grid.setChannelNames(channelNames.clone());
+		return grid;
+	}
+
+	@Override
+	public synchronized Grid2D getNextProjection() {
+		if (channel == null || currentIndex + 1 >= numberOfProjections) return null;
+		try {
+			Grid2D grid = getProjection(currentIndex + 1);
+			currentIndex++;
+			return grid;
+		} catch (IOException e) {
+			CONRAD.log("Could not read projection " + (currentIndex + 1) + ": " + e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public int getNumberOfProjections() {
+		return numberOfProjections;
+	}
+
+	@Override
+	public synchronized void reset() {
+		currentIndex = -1;
+	}
+
+	/**
+	 * @return the names of the materials in the order of the channels
+	 */
+	public String [] getChannelNames() {
+		return channelNames.clone();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel = null;
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Material Path Length Stack";
+	}
+
+}
@@ -0,0 +1,91 @@
+package edu.stanford.rsl.conrad.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.MultiChannelGrid2D;
+
+public class MaterialPathLengthStackTest {
+
+	private static float value(int p, int c, int i){
+		return (p * 1000) + (c * 100) + (i * 0.25f);
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		int width = 6, height = 4, channels = 3, projections = 5;
+		File file = File.createTempFile("MaterialPathLengthStackTest", ".mpl");
+		file.deleteOnExit();
+		MaterialPathLengthStackSink sink = new MaterialPathLengthStackSink(file.getPath());
+		// the detector fills in the names while rendering
+		String [] names = new String[channels];
+		// projections arrive in arbitrary order
+		int [] order = {3, 0, 4, 1, 2};
+		for (int p : order){
+			MultiChannelGrid2D grid = new MultiChannelGrid2D(width, height, channels);
+			grid.setChannelNames(names);
+			for (int c = 0; c < channels; c++){
+				float [] buffer = grid.getChannel(c).getBuffer();
+				for (int i = 0; i < buffer.length; i++){
+					buffer[i] = value(p, c, i);
+				}
+			}
+			sink.process(grid, p);
+			if (p == 0) {
+				names[0] = "water";
+				names[1] = "bone";
+			}
+		}
+		sink.close();
+
+		MaterialPathLengthStackSource source = new MaterialPathLengthStackSource();
+		source.initStream(file.getPath());
+		assertEquals(projections, source.getNumberOfProjections());
+		assertArrayEquals(new String [] {"water", "bone", ""}, source.getChannelNames());
+		for (int p = 0; p < projections; p++){
+			MultiChannelGrid2D grid = (MultiChannelGrid2D) source.getNextProjection();
+			assertEquals(p, source.getCurrentProjectionNumber());
+			assertEquals(width, grid.getWidth());
+			assertEquals(channels, grid.getNumberOfChannels());
+			for (int c = 0; c < channels; c++){
+				for (int i = 0; i < width * height; i++){
+					assertEquals(value(p, c, i), grid.getChannel(c).getBuffer()[i], 0);
+				}
+			}
+		}
+		assertNull(source.getNextProjection());
+		assertEquals(value(2, 1, 7), ((MultiChannelGrid2D) source.getProjection(2)).getChannel(1).getBuffer()[7], 0);
+		source.close();
+
+		// the stack is recognized by the generic file opener
+		assertTrue(FileProjectionSource.openProjectionStream(file.getPath()) instanceof MaterialPathLengthStackSource);
+	}
+
+	@Test
+	public void testPlainGridIsStoredAsWater() throws Exception {
+		File file = File.createTempFile("MaterialPathLengthStackTest", ".mpl");
+		file.deleteOnExit();
+		MaterialPathLengthStackSink sink = new MaterialPathLengthStackSink(file.getPath());
+		Grid2D grid = new Grid2D(3, 2);
+		grid.setAtIndex(2, 1, 42);
+		sink.process(grid, 0);
+		sink.close();
+		MaterialPathLengthStackSource source = new MaterialPathLengthStackSource();
+		source.initStream(file.getPath());
+		assertArrayEquals(new String [] {"water"}, source.getChannelNames());
+		assertEquals(42, source.getProjection(0).getAtIndex(2, 1), 0);
+		source.close();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
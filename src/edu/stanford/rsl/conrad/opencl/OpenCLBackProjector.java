@@ -235,7 +235,7 @@ public class OpenCLBackProjector extends VOIBasedReconstructionFilter implements
 						for (int j = 0; j < height; j++){
 							for (int i = 0; i < width; i++){			
 								float value = h_volume[(((height * k) + j) * width) + i];
-								if (voiMap[i][j][k]) {
+								if (voiMap.contains(i, j, k)) {
 									projectionVolume.setAtIndex(i, j, k, value);
 								} else {
 									projectionVolume.setAtIndex(i, j, k, 0);
@@ -644,6 +644,11 @@ public class OpenCLBackProjector extends VOIBasedReconstructionFilter implements
 		return "OpenCL Backprojector";
 	}
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Martin Berger
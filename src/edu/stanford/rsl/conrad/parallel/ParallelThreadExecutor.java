@@ -2,9 +2,10 @@ package edu.stanford.rsl.conrad.parallel;
 
 import ij.IJ;
 
+import java.util.ArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -12,21 +13,34 @@ import edu.stanford.rsl.conrad.utils.CONRAD;
 
 
 /**
- * Class to execute multiple ParallelizeableRunnables in parallel. The Executor will dispatch
- * as many ParallelizedRunnables as there are CPUs in the machine on which the code is executed in one batch.
- * Then it will wait until all processes in the current batch are done. As soon as this is the case a new batch
- * of processes is started. This is done until all ParallelizableRunnables are processed.
- * 
+ * Class to execute multiple ParallelizeableRunnables in parallel. All runnables are dispatched at once to the thread pools of the {@link SharedThreadPool}.
+ * Then the executor waits until all processes are done. No threads are created or left behind per call.
+ * <BR><BR>
+ * By default, the runnables are compute jobs and run on the shared fork-join pool. Hence, all executors of the application, e.g. of several reconstructions
+ * that run at the same time, share {@link edu.stanford.rsl.conrad.utils.CONRAD#getNumberOfThreads()} threads. Executors may be nested: if execute() is called
+ * from a task of the fork-join pool, the runnables are forked and the calling thread helps to process them. Compute jobs must not wait for each other.
+ * <BR><BR>
+ * Runnables that block until other runnables or other threads proceed, e.g. the workers of a pipeline stage that wait for the next projection, have to be
+ * marked with {@link #setBlocking(boolean)}. They run on the unbounded worker pool of the {@link SharedThreadPool}, as a bounded pool could deadlock on them.
+ * The time that every runnable took is measured and can be queried after execution.
+ *
  * @author Andreas Maier
  *
  */
 public class ParallelThreadExecutor {
 
 	private boolean showStatus;
+	private boolean blocking = false;
 	ParallelizableRunnable [] runnables;
 	boolean debug = false;
 	private CountDownLatch latch;
-	public static boolean parallel = true;
+	private long [] taskTimes;
+	private long wallTime;
+	/**
+	 * Global switch for debugging. If set to false, all runnables are executed sequentially in the calling thread.
+	 * The executor itself never changes this flag.
+	 */
+	public static volatile boolean parallel = true;
 
 	public void setShowStatus(boolean showStatus) {
 		this.showStatus = showStatus;
@@ -36,6 +50,22 @@ public class ParallelThreadExecutor {
 		return showStatus;
 	}
 
+	/**
+	 * @return true, if the runnables may block and are run on the unbounded worker pool
+	 */
+	public boolean isBlocking() {
+		return blocking;
+	}
+
+	/**
+	 * Marks the runnables as blocking, i.e. they may wait for other runnables or other threads. Blocking runnables run on the unbounded worker pool of the
+	 * {@link SharedThreadPool}. Otherwise, they run on the fork-join pool that is bounded by the number of threads. Default is false.
+	 * @param blocking true, if the runnables may block
+	 */
+	public void setBlocking(boolean blocking) {
+		this.blocking = blocking;
+	}
+
 	/**
 	 * In order to have the threads performed in parallel just an Array of ParallelizableRunnables is
 	 * passed to the contructor of the ParallelThreadExecutor.
@@ -51,59 +81,111 @@ public class ParallelThreadExecutor {
 	}
 
 	/**
-	 * This method will start the processing.
+	 * This method will start the processing and returns once all runnables counted down the latch.
 	 * @throws InterruptedException may occur.
 	 */
 	public void execute() throws InterruptedException{
 		int numThreads = CONRAD.getNumberOfThreads();
 		if (showStatus) CONRAD.log("Number of used processors: " + numThreads);
 		if (numThreads > 7) if (showStatus) CONRAD.log("I like this machine ... ");
-		Future <?> [] futures = new Future<?>[runnables.length];
-		if (debug) System.out.println("Starting new batch ...");
-		ExecutorService e = Executors.newFixedThreadPool(numThreads);
 		// initialize the parallel processing.
-		long latchSize = 0; 
+		long latchSize = 0;
 		if(latch == null) {
 			latch = new CountDownLatch(runnables.length);
 			latchSize = runnables.length;
 		} else {
 			latchSize = latch.getCount();
 		}
-		if (parallel) {
-			parallel = false;
-			// invoke the threads
+		taskTimes = new long[runnables.length];
+		long start = System.nanoTime();
+		if (!parallel || runnables.length == 1) {
+			if (debug) System.out.println("Invoking sequentially.");
 			for (int i = 0; i < runnables.length; i++){
 				runnables[i].setLatch(latch);
-				futures[i] = e.submit(runnables[i]);
-			}
-			// wait for all jobs to be done
-			while (latch.getCount() > 0){
-				if (showStatus){
-					int i = (int) (latchSize - latch.getCount());
-					if (i < runnables.length){
-						if (runnables[i] instanceof NamedParallelizableRunnable)IJ.showStatus("Running " + ((NamedParallelizableRunnable)runnables[i]).getProcessName());
-					} 
-					IJ.showProgress((i + 0.0) / latchSize);
-				}
-				Thread.sleep(CONRAD.INVERSE_SPEEDUP);
+				new TimedRunnable(i).run();
 			}
-			e.awaitTermination(1000, TimeUnit.MILLISECONDS);//e.shutdownNow();
-			e = null;
-			if (showStatus) IJ.showProgress(1.0);
-			parallel = true;
-		} else {
-			//System.out.println("Debug mode. Invoking sequentially.");
+		} else if (!blocking && SharedThreadPool.isForkJoinWorker()) {
+			// nested parallelism: fork the runnables and help to process them.
+			ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(runnables.length);
 			for (int i = 0; i < runnables.length; i++){
 				runnables[i].setLatch(latch);
-				//System.out.println("Thread " + i);
-				runnables[i].run();
+				tasks.add(ForkJoinTask.adapt(new TimedRunnable(i)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			ExecutorService e = blocking ? SharedThreadPool.getExecutorService() : SharedThreadPool.getForkJoinPool();
+			Future <?> [] futures = new Future<?>[runnables.length];
+			try {
+				for (int i = 0; i < runnables.length; i++){
+					runnables[i].setLatch(latch);
+					futures[i] = e.submit(new TimedRunnable(i));
+				}
+				// wait for all jobs to be done
+				if (showStatus) {
+					while (!latch.await(100, TimeUnit.MILLISECONDS)){
+						int i = (int) (latchSize - latch.getCount());
+						if (i < runnables.length){
+							if (runnables[i] instanceof NamedParallelizableRunnable)IJ.showStatus("Running " + ((NamedParallelizableRunnable)runnables[i]).getProcessName());
+						}
+						IJ.showProgress((i + 0.0) / latchSize);
+					}
+				} else {
+					latch.await();
+				}
+			} catch (InterruptedException ex) {
+				// do not leave the runnables behind in the shared pool
+				for (Future<?> future : futures){
+					if (future != null) future.cancel(true);
+				}
+				throw ex;
 			}
-			//System.out.println("All done.");
 		}
+		wallTime = System.nanoTime() - start;
+		if (showStatus) IJ.showProgress(1.0);
+		if (debug) System.out.println("Executed " + runnables.length + " runnables in " + getWallTime() + " ms.");
 	}
-		
+
+	/**
+	 * Returns the time the i-th runnable took in the last call of {@link #execute()}.
+	 * @param i the index of the runnable
+	 * @return the time in [ms] or 0 if the runnable was not executed.
+	 */
+	public double getTaskTime(int i){
+		return (taskTimes == null) ? 0 : taskTimes[i] / 1000000.0;
+	}
+
+	/**
+	 * @return the time the last call of {@link #execute()} took in [ms].
+	 */
+	public double getWallTime(){
+		return wallTime / 1000000.0;
+	}
+
+	/**
+	 * Measures the time of one runnable.
+	 */
+	private class TimedRunnable implements Runnable {
+
+		private final int index;
+
+		TimedRunnable(int index){
+			this.index = index;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				runnables[index].run();
+			} finally {
+				taskTimes[index] = System.nanoTime() - start;
+			}
+		}
+
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Andreas Maier
  * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
-*/
\ No newline at end of file
+*/
@@ -0,0 +1,169 @@
+package edu.stanford.rsl.conrad.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+public class ParallelThreadExecutorTest {
+
+	/**
+	 * Creates runnables that wait for each other. They only finish if they really run at the same time.
+	 */
+	private static ParallelizableRunnable [] createBarrierRunnables(int count, final AtomicInteger done){
+		final CountDownLatch barrier = new CountDownLatch(count);
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[count];
+		for (int i = 0; i < count; i++){
+			runnables[i] = new SimpleParallelThread(i) {
+				@Override
+				public void execute() {
+					barrier.countDown();
+					try {
+						if (barrier.await(10, TimeUnit.SECONDS)) done.incrementAndGet();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+		}
+		return runnables;
+	}
+
+	/**
+	 * Creates an executor for runnables that wait for each other.
+	 */
+	private static ParallelThreadExecutor createBlockingExecutor(ParallelizableRunnable [] runnables){
+		ParallelThreadExecutor executor = new ParallelThreadExecutor(runnables);
+		executor.setBlocking(true);
+		return executor;
+	}
+
+	@Test
+	public void testNestedAndConcurrentExecution() throws Exception {
+		final AtomicInteger done = new AtomicInteger();
+		ParallelizableRunnable [] outer = new ParallelizableRunnable[3];
+		for (int i = 0; i < outer.length; i++){
+			outer[i] = new SimpleParallelThread(i) {
+				@Override
+				public void execute() {
+					try {
+						createBlockingExecutor(createBarrierRunnables(3, done)).execute();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+		}
+		ParallelThreadExecutor executor = createBlockingExecutor(outer);
+		executor.execute();
+		// formerly, nested executors fell back to sequential execution and the barriers timed out
+		assertEquals(9, done.get());
+		assertTrue(executor.getWallTime() >= executor.getTaskTime(0));
+	}
+
+	@Test
+	public void testExecutionWithinForkJoinPool() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		ForkJoinTask<?> task = SharedThreadPool.getForkJoinPool().submit(new Runnable() {
+			@Override
+			public void run() {
+				ParallelizableRunnable [] runnables = new ParallelizableRunnable[50];
+				for (int i = 0; i < runnables.length; i++){
+					runnables[i] = new SimpleParallelThread(i) {
+						@Override
+						public void execute() {
+							count.incrementAndGet();
+						}
+					};
+				}
+				try {
+					new ParallelThreadExecutor(runnables).execute();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		task.get(10, TimeUnit.SECONDS);
+		assertEquals(50, count.get());
+	}
+
+	/**
+	 * The compute jobs of concurrent executors share CONRAD.getNumberOfThreads() threads in total.
+	 */
+	@Test
+	public void testConcurrentComputeJobsAreBounded() throws Exception {
+		final int numThreads = Math.max(1, CONRAD.getNumberOfThreads());
+		assertEquals(numThreads, SharedThreadPool.getForkJoinPool().getParallelism());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maximum = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		Thread [] jobs = new Thread[3];
+		for (int j = 0; j < jobs.length; j++){
+			jobs[j] = new Thread(){
+				public void run(){
+					ParallelizableRunnable [] runnables = new ParallelizableRunnable[2 * numThreads + 1];
+					for (int i = 0; i < runnables.length; i++){
+						runnables[i] = new SimpleParallelThread(i) {
+							@Override
+							public void execute() {
+								int current = running.incrementAndGet();
+								synchronized (maximum) {
+									if (current > maximum.get()) maximum.set(current);
+								}
+								try {
+									Thread.sleep(5);
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
+								}
+								running.decrementAndGet();
+								done.incrementAndGet();
+							}
+						};
+					}
+					try {
+						new ParallelThreadExecutor(runnables).execute();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			};
+			jobs[j].start();
+		}
+		for (Thread job : jobs) job.join();
+		assertEquals(jobs.length * ((2 * numThreads) + 1), done.get());
+		assertTrue(maximum.get() <= numThreads);
+	}
+
+	/**
+	 * Blocking runnables are not bounded, as they may wait for each other.
+	 */
+	@Test
+	public void testBlockingRunnablesAreNotBounded() throws Exception {
+		int numThreads = Math.max(1, CONRAD.getNumberOfThreads());
+		AtomicInteger done = new AtomicInteger();
+		createBlockingExecutor(createBarrierRunnables(2 * numThreads, done)).execute();
+		assertEquals(2 * numThreads, done.get());
+	}
+
+	@Test
+	public void testNoThreadsAreLeaked() throws Exception {
+		AtomicInteger done = new AtomicInteger();
+		createBlockingExecutor(createBarrierRunnables(4, done)).execute();
+		assertEquals(4, done.get());
+		for (Thread thread : Thread.getAllStackTraces().keySet()){
+			if (thread.getName().startsWith("CONRAD worker")) assertTrue(thread.isDaemon());
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
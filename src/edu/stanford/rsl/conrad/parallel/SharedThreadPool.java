@@ -0,0 +1,88 @@
+package edu.stanford.rsl.conrad.parallel;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.rsl.conrad.utils.CONRAD;
+
+/**
+ * Holds the thread pools that are shared by all parallel jobs of CONRAD. The pools are created on first use and live as long as the application.
+ * Their threads are daemon threads. Hence, they do not prevent the virtual machine from exiting. Jobs must not shut the pools down.
+ * <BR><BR>
+ * There are two pools:
+ * <ul>
+ * <li>The work-stealing {@link #getForkJoinPool() fork-join pool} with {@link CONRAD#getNumberOfThreads()} threads for compute jobs, e.g. backprojection,
+ * forward projection, the rendering of phantoms, or the grid operators. All compute jobs of the application share these threads. Thus, concurrent jobs,
+ * e.g. several reconstructions in the same virtual machine, do not use more threads than configured. Jobs should split their work into many small tasks
+ * instead of one task per thread, such that idle threads can steal work. Tasks must not wait for other tasks except via join.</li>
+ * <li>The {@link #getExecutorService() worker pool} for runnables that are known to block or to wait for each other, e.g. the stages of the filter pipeline.
+ * It creates threads on demand and reuses idle threads. Threads that are idle for a minute are terminated. The pool is not bounded, as a bounded pool could
+ * deadlock on runnables that wait for each other. Blocking runnables should spend most of their time waiting and leave the computation to the fork-join pool.</li>
+ * </ul>
+ * {@link ParallelThreadExecutor} runs its runnables on the fork-join pool, unless they are marked as blocking with {@link ParallelThreadExecutor#setBlocking(boolean)}.
+ *
+ * @author akmaier
+ *
+ */
+public class SharedThreadPool {
+
+	private static ForkJoinPool forkJoinPool;
+	private static ExecutorService executorService;
+
+	private SharedThreadPool(){
+	}
+
+	/**
+	 * Returns the shared work-stealing pool.
+	 * @return the pool
+	 */
+	public static synchronized ForkJoinPool getForkJoinPool(){
+		if (forkJoinPool == null) {
+			forkJoinPool = new ForkJoinPool(Math.max(1, CONRAD.getNumberOfThreads()));
+		}
+		return forkJoinPool;
+	}
+
+	/**
+	 * Returns the shared pool for runnables that are known to block. The pool is not bounded. Use it only for runnables that mostly wait.
+	 * @return the pool
+	 */
+	public static synchronized ExecutorService getExecutorService(){
+		if (executorService == null) {
+			executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "CONRAD worker " + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executorService;
+	}
+
+	/**
+	 * Checks whether the current thread is a thread of the shared fork-join pool, i.e. whether we are inside of a fork-join computation.
+	 * @return true, if the current thread belongs to the fork-join pool
+	 */
+	public static boolean isForkJoinWorker(){
+		Thread thread = Thread.currentThread();
+		if (!(thread instanceof ForkJoinWorkerThread)) return false;
+		synchronized (SharedThreadPool.class) {
+			return ((ForkJoinWorkerThread) thread).getPool() == forkJoinPool;
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -3,22 +3,123 @@ package edu.stanford.rsl.conrad.phantom.renderer;
 import java.util.ArrayList;
 import java.util.Collections;
 
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.phantom.AnalyticPhantom;
 import edu.stanford.rsl.conrad.phantom.workers.AnalyticPhantomProjectorWorker;
 import edu.stanford.rsl.conrad.phantom.workers.SliceWorker;
 import edu.stanford.rsl.conrad.physics.absorption.AbsorptionModel;
 import edu.stanford.rsl.conrad.physics.detector.XRayDetector;
+import edu.stanford.rsl.conrad.pipeline.ProjectionSink;
+import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 import edu.stanford.rsl.conrad.utils.ImageGridBuffer;
 
 /**
  * Class to enable parallel processing of slices of the target volume.
+ * The projections are rendered in tiles by a {@link TiledProjectionScheduler} on the shared thread pool.
  * 
  * @author akmaier
  *
  */
 public class ParallelProjectionPhantomRenderer extends SliceParallelVolumePhantomRenderer {
 
+	private volatile TiledProjectionScheduler scheduler;
+	// signalled whenever a projection was rendered or the rendering stopped
+	private final Object renderLock = new Object();
+	private boolean renderingStopped = false;
+
+	@Override
+	public void createPhantom() {
+		AnalyticPhantomProjectorWorker projectorWorker = (AnalyticPhantomProjectorWorker) modelWorker;
+		TiledProjectionScheduler tiledScheduler = new TiledProjectionScheduler(projectorWorker, dimz);
+		synchronized (renderLock) {
+			scheduler = tiledScheduler;
+			renderingStopped = false;
+		}
+		try {
+			tiledScheduler.render(new ProjectionSink() {
+				@Override
+				public void process(Grid2D projection, int projectionNumber) throws Exception {
+					buffer.add(projection, projectionNumber);
+					synchronized (renderLock) {
+						renderLock.notifyAll();
+					}
+				}
+
+				@Override
+				public String getName() {
+					return "Projection Buffer";
+				}
+
+				@Override
+				public void setShowStatus(boolean showStatus) {
+				}
+
+				@Override
+				public void close() throws Exception {
+				}
+			});
+		} catch (Exception e) {
+			CONRAD.log("Rendering of " + this + " stopped: " + e.getLocalizedMessage());
+			if (!tiledScheduler.isCancelled()) e.printStackTrace();
+		} finally {
+			synchronized (renderLock) {
+				renderingStopped = true;
+				renderLock.notifyAll();
+			}
+		}
+		projectorWorker.getDetector().notifyEndOfRendering();
+	}
+
+	/**
+	 * Cancels the rendering of the remaining projections. Subsequent calls of {@link #getNextProjection()} return null once the rendered projections are consumed.
+	 */
+	public void cancel(){
+		TiledProjectionScheduler tiledScheduler = scheduler;
+		if (tiledScheduler != null) tiledScheduler.cancel();
+		synchronized (renderLock) {
+			renderLock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return the scheduler of the current rendering or null, if the rendering was not started yet. Use it to query progress and remaining time.
+	 */
+	public TiledProjectionScheduler getScheduler(){
+		return scheduler;
+	}
+
+	/**
+	 * Waits until the next projection is rendered. Returns null, if the rendering was cancelled or failed before the projection was rendered.
+	 */
+	@Override
+	public Grid2D getNextProjection() {
+		init();
+		Grid2D proc = null;
+		if (projectionNumber < dimz -1) {
+			projectionNumber ++;
+			synchronized (renderLock) {
+				proc = buffer.get(projectionNumber);
+				while (proc == null){
+					// do not wait forever for projections that will never be rendered
+					TiledProjectionScheduler tiledScheduler = scheduler;
+					if (renderingStopped || (tiledScheduler != null && tiledScheduler.isCancelled() && tiledScheduler.getNumberOfFinishedProjections() <= projectionNumber)) {
+						return null;
+					}
+					try {
+						renderLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return null;
+					}
+					proc = buffer.get(projectionNumber);
+				}
+			}
+			buffer.remove(projectionNumber);
+		}
+		return proc;
+	}
+
 	@Override
 	public String toString() {
 		if (modelWorker != null) { 
@@ -32,6 +133,9 @@ public class ParallelProjectionPhantomRenderer extends SliceParallelVolumePhanto
 	public void configure() throws Exception{
 		buffer = new ImageGridBuffer();
 		projectionNumber = -1;
+		synchronized (renderLock) {
+			renderingStopped = false;
+		}
 		dimx = Configuration.getGlobalConfiguration().getGeometry().getDetectorWidth();
 		dimy = Configuration.getGlobalConfiguration().getGeometry().getDetectorHeight();
 		dimz = Configuration.getGlobalConfiguration().getGeometry().getProjectionStackSize() * Configuration.getGlobalConfiguration().getNumSweeps();
@@ -47,6 +151,9 @@ public class ParallelProjectionPhantomRenderer extends SliceParallelVolumePhanto
 	public void configure(AnalyticPhantom phan, XRayDetector model) throws Exception{
 		buffer = new ImageGridBuffer();
 		projectionNumber = -1;
+		synchronized (renderLock) {
+			renderingStopped = false;
+		}
 		dimx = Configuration.getGlobalConfiguration().getGeometry().getDetectorWidth();
 		dimy = Configuration.getGlobalConfiguration().getGeometry().getDetectorHeight();
 		dimz = Configuration.getGlobalConfiguration().getGeometry().getProjectionStackSize() * Configuration.getGlobalConfiguration().getNumSweeps();
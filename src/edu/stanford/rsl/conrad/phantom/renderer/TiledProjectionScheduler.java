@@ -0,0 +1,300 @@
+package edu.stanford.rsl.conrad.phantom.renderer;
+
+import ij.IJ;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.geometry.Projection;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.parallel.SharedThreadPool;
+import edu.stanford.rsl.conrad.phantom.workers.AnalyticPhantomProjectorWorker;
+import edu.stanford.rsl.conrad.pipeline.ProjectionSink;
+import edu.stanford.rsl.conrad.rendering.PrioritizableScene;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+/**
+ * Renders the projections of an analytic phantom in tiles of detector pixels. All tiles are executed on the {@link SharedThreadPool}, i.e. idle threads steal
+ * tiles of other projections instead of waiting for the slowest projection of a batch. Only a limited number of projections is rendered at the same time.
+ * The finished projections are passed to a ProjectionSink in the order of the projection numbers.
+ * <BR><BR>
+ * The rendering can be cancelled from any thread with {@link #cancel()}. Progress and the estimated remaining time can be queried during rendering.
+ * <BR><BR>
+ * Every thread of the pool renders with its own clone of the model worker, as the ray tracers are not thread-safe.
+ *
+ * @author akmaier
+ *
+ */
+public class TiledProjectionScheduler {
+
+	private final AnalyticPhantomProjectorWorker modelWorker;
+	private final Trajectory trajectory;
+	private final int numberOfProjections;
+	private int tileWidth = 64;
+	private int tileHeight = 64;
+	private int maximumProjectionsInFlight;
+	private boolean showStatus = false;
+
+	private final ConcurrentHashMap<Thread, WorkerState> workers = new ConcurrentHashMap<Thread, WorkerState>();
+	private volatile boolean cancelled = false;
+	private final AtomicLong renderedTiles = new AtomicLong();
+	private volatile long totalTiles = 0;
+	private volatile long startTime = 0;
+	private volatile int finishedProjections = 0;
+
+	/**
+	 * Creates a scheduler for the projections 0 to numberOfProjections - 1 of the global geometry.
+	 * @param modelWorker the configured worker. It is cloned for every thread.
+	 * @param numberOfProjections the number of projections
+	 */
+	public TiledProjectionScheduler(AnalyticPhantomProjectorWorker modelWorker, int numberOfProjections){
+		this.modelWorker = modelWorker;
+		this.numberOfProjections = numberOfProjections;
+		trajectory = Configuration.getGlobalConfiguration().getGeometry();
+		maximumProjectionsInFlight = 2 * CONRAD.getNumberOfThreads();
+	}
+
+	/**
+	 * Renders all projections and passes them to the sink in order. The sink is closed after the last projection.
+	 * @param sink the sink
+	 * @throws CancellationException if the rendering was cancelled. The sink is not closed in this case.
+	 * @throws Exception if a tile or the sink fails. The remaining tiles are cancelled.
+	 */
+	public void render(ProjectionSink sink) throws Exception {
+		ForkJoinPool pool = SharedThreadPool.getForkJoinPool();
+		int tilesX = (trajectory.getDetectorWidth() + tileWidth - 1) / tileWidth;
+		int tilesY = (trajectory.getDetectorHeight() + tileHeight - 1) / tileHeight;
+		totalTiles = (long) tilesX * tilesY * numberOfProjections;
+		renderedTiles.set(0);
+		finishedProjections = 0;
+		startTime = System.currentTimeMillis();
+		ArrayDeque<ForkJoinTask<Grid2D>> window = new ArrayDeque<ForkJoinTask<Grid2D>>();
+		try {
+			int emitted = 0;
+			for (int p = 0; p < numberOfProjections && !cancelled; p++){
+				while (window.size() >= maximumProjectionsInFlight){
+					emit(window.poll(), emitted++, sink);
+				}
+				window.add(pool.submit(new ProjectionTask(p)));
+			}
+			while (!window.isEmpty()){
+				emit(window.poll(), emitted++, sink);
+			}
+		} catch (Exception e) {
+			// stop all tiles that are still queued and wait for the running ones
+			cancelled = true;
+			for (ForkJoinTask<Grid2D> task : window){
+				task.quietlyJoin();
+			}
+			throw e;
+		} finally {
+			workers.clear();
+		}
+		if (cancelled) throw new CancellationException("Rendering was cancelled after " + finishedProjections + " projections.");
+		sink.close();
+		if (showStatus) IJ.showProgress(1.0);
+	}
+
+	private void emit(ForkJoinTask<Grid2D> task, int projectionNumber, ProjectionSink sink) throws Exception {
+		Grid2D projection = task.join();
+		if (cancelled) return;
+		sink.process(projection, projectionNumber);
+		finishedProjections = projectionNumber + 1;
+		if (showStatus) {
+			IJ.showProgress(getProgress());
+			long remaining = getEstimatedRemainingTime();
+			IJ.showStatus("Rendered " + finishedProjections + " of " + numberOfProjections + " projections" + ((remaining >= 0) ? ", " + (remaining / 1000) + " s remaining" : ""));
+		}
+	}
+
+	/**
+	 * Cancels the rendering. Tiles that are not started yet are skipped. {@link #render(ProjectionSink)} throws a CancellationException once the running tiles are finished.
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+
+	/**
+	 * @return true, if the rendering was cancelled
+	 */
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	/**
+	 * @return the fraction of rendered tiles between 0 and 1
+	 */
+	public double getProgress(){
+		long total = totalTiles;
+		if (total == 0) return 0;
+		return ((double) renderedTiles.get()) / total;
+	}
+
+	/**
+	 * @return the number of projections that were passed to the sink
+	 */
+	public int getNumberOfFinishedProjections(){
+		return finishedProjections;
+	}
+
+	/**
+	 * Estimates the remaining time from the rendering speed so far.
+	 * @return the remaining time in [ms] or -1 if no tile has been rendered yet
+	 */
+	public long getEstimatedRemainingTime(){
+		long rendered = renderedTiles.get();
+		if (rendered == 0) return -1;
+		long elapsed = System.currentTimeMillis() - startTime;
+		return (long) (((double) elapsed) * (totalTiles - rendered) / rendered);
+	}
+
+	/**
+	 * Sets the size of the tiles in detector pixels. Default is 64 x 64.
+	 * @param tileWidth the width of a tile
+	 * @param tileHeight the height of a tile
+	 */
+	public void setTileSize(int tileWidth, int tileHeight){
+		if (tileWidth < 1 || tileHeight < 1) throw new IllegalArgumentException("Tile size must be positive: " + tileWidth + "x" + tileHeight);
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+	}
+
+	public int getTileWidth() {
+		return tileWidth;
+	}
+
+	public int getTileHeight() {
+		return tileHeight;
+	}
+
+	/**
+	 * @return the maximal number of projections that are rendered at the same time
+	 */
+	public int getMaximumProjectionsInFlight() {
+		return maximumProjectionsInFlight;
+	}
+
+	/**
+	 * Limits the number of projections that are rendered at the same time and thus the memory that is required for unfinished projections.
+	 * Default is twice the number of threads.
+	 * @param maximumProjectionsInFlight the number of projections
+	 */
+	public void setMaximumProjectionsInFlight(int maximumProjectionsInFlight) {
+		if (maximumProjectionsInFlight < 1) throw new IllegalArgumentException("At least one projection has to be rendered.");
+		this.maximumProjectionsInFlight = maximumProjectionsInFlight;
+	}
+
+	public boolean isShowStatus() {
+		return showStatus;
+	}
+
+	/**
+	 * @param showStatus if true, progress and remaining time are shown in the status bar of ImageJ
+	 */
+	public void setShowStatus(boolean showStatus) {
+		this.showStatus = showStatus;
+	}
+
+	/**
+	 * Returns the worker of the current thread.
+	 */
+	private WorkerState getWorker(){
+		Thread thread = Thread.currentThread();
+		WorkerState state = workers.get(thread);
+		if (state == null) {
+			state = new WorkerState((AnalyticPhantomProjectorWorker) modelWorker.clone());
+			workers.put(thread, state);
+		}
+		return state;
+	}
+
+	private static class WorkerState {
+		final AnalyticPhantomProjectorWorker worker;
+		PrioritizableScene scene;
+		int projection = -1;
+
+		WorkerState(AnalyticPhantomProjectorWorker worker){
+			this.worker = worker;
+		}
+	}
+
+	/**
+	 * Creates the scene and the detector grid of one projection and renders its tiles.
+	 */
+	private class ProjectionTask extends RecursiveTask<Grid2D> {
+
+		private static final long serialVersionUID = -5524637367810806021L;
+		private final int projectionNumber;
+
+		ProjectionTask(int projectionNumber){
+			this.projectionNumber = projectionNumber;
+		}
+
+		@Override
+		protected Grid2D compute() {
+			if (cancelled) return null;
+			PrioritizableScene scene = getWorker().worker.getScene(projectionNumber);
+			Projection projection = trajectory.getProjectionMatrix(projectionNumber);
+			Grid2D grid = modelWorker.getDetector().createDetectorGrid(trajectory.getDetectorWidth(), trajectory.getDetectorHeight(), projection);
+			ArrayList<TileTask> tiles = new ArrayList<TileTask>();
+			for (int y = 0; y < trajectory.getDetectorHeight(); y += tileHeight){
+				for (int x = 0; x < trajectory.getDetectorWidth(); x += tileWidth){
+					tiles.add(new TileTask(projectionNumber, scene, projection, grid, x, y,
+							Math.min(x + tileWidth, trajectory.getDetectorWidth()), Math.min(y + tileHeight, trajectory.getDetectorHeight())));
+				}
+			}
+			invokeAll(tiles);
+			return grid;
+		}
+	}
+
+	private class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 4410948530839549011L;
+		private final int projectionNumber;
+		private final PrioritizableScene scene;
+		private final Projection projection;
+		private final Grid2D grid;
+		private final int x0, y0, x1, y1;
+
+		TileTask(int projectionNumber, PrioritizableScene scene, Projection projection, Grid2D grid, int x0, int y0, int x1, int y1){
+			this.projectionNumber = projectionNumber;
+			this.scene = scene;
+			this.projection = projection;
+			this.grid = grid;
+			this.x0 = x0;
+			this.y0 = y0;
+			this.x1 = x1;
+			this.y1 = y1;
+		}
+
+		@Override
+		protected void compute() {
+			if (cancelled) return;
+			WorkerState state = getWorker();
+			// 4D scenes may be the same object transformed in place. Thus, the scene is also set again for every new projection.
+			// The worker keeps the acceleration structure of a scene that is set again unless the phantom is time variant.
+			if (state.scene != scene || state.projection != projectionNumber) {
+				state.worker.setScene(scene);
+				state.scene = scene;
+				state.projection = projectionNumber;
+			}
+			state.worker.raytraceTile(projection, grid, x0, y0, x1, y1);
+			renderedTiles.incrementAndGet();
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
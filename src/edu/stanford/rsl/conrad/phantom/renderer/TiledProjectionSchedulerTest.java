@@ -0,0 +1,195 @@
+package edu.stanford.rsl.conrad.phantom.renderer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.geometry.Projection;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Ellipsoid;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Sphere;
+import edu.stanford.rsl.conrad.geometry.trajectories.CircularTrajectory;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.phantom.AnalyticPhantom;
+import edu.stanford.rsl.conrad.phantom.workers.AnalyticPhantomProjectorWorker;
+import edu.stanford.rsl.conrad.physics.PhysicalObject;
+import edu.stanford.rsl.conrad.physics.absorption.DensityAbsorptionModel;
+import edu.stanford.rsl.conrad.physics.detector.XRayDetector;
+import edu.stanford.rsl.conrad.physics.materials.Material;
+import edu.stanford.rsl.conrad.pipeline.ProjectionSink;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+public class TiledProjectionSchedulerTest {
+
+	private static final int PROJECTIONS = 6;
+	private static Configuration previous;
+
+	/**
+	 * A sphere and an ellipsoid of different densities in vacuum.
+	 */
+	private static class TestPhantom extends AnalyticPhantom {
+
+		private static final long serialVersionUID = -2938716302934583671L;
+
+		TestPhantom(){
+			setBackground(createMaterial("vacuum", 0));
+			PhysicalObject sphere = new PhysicalObject();
+			sphere.setShape(new Sphere(20, new PointND(5, 0, 0)));
+			sphere.setMaterial(createMaterial("sphere", 1));
+			add(sphere);
+			PhysicalObject ellipsoid = new PhysicalObject();
+			ellipsoid.setShape(new Ellipsoid(8, 12, 6));
+			ellipsoid.setMaterial(createMaterial("ellipsoid", 2));
+			add(ellipsoid);
+		}
+
+		private static Material createMaterial(String name, double density){
+			Material material = new Material();
+			material.setName(name);
+			material.setDensity(density);
+			return material;
+		}
+
+		@Override
+		public String getBibtexCitation() {
+			return CONRAD.CONRADBibtex;
+		}
+
+		@Override
+		public String getMedlineCitation() {
+			return CONRAD.CONRADMedline;
+		}
+
+		@Override
+		public String getName() {
+			return "Tiled Projection Scheduler Test Phantom";
+		}
+
+	}
+
+	/**
+	 * Collects the projections in the order of arrival.
+	 */
+	private static class CollectingSink implements ProjectionSink {
+
+		final ArrayList<Integer> numbers = new ArrayList<Integer>();
+		final ArrayList<Grid2D> projections = new ArrayList<Grid2D>();
+		boolean closed = false;
+
+		@Override
+		public void process(Grid2D projection, int projectionNumber) throws Exception {
+			numbers.add(projectionNumber);
+			projections.add(projection);
+		}
+
+		@Override
+		public String getName() {
+			return "Collecting Sink";
+		}
+
+		@Override
+		public void setShowStatus(boolean showStatus) {
+		}
+
+		@Override
+		public void close() throws Exception {
+			closed = true;
+		}
+
+	}
+
+	@BeforeClass
+	public static void setUpConfiguration(){
+		previous = Configuration.getGlobalConfiguration();
+		CircularTrajectory geometry = new CircularTrajectory();
+		geometry.setDetectorWidth(37);
+		geometry.setDetectorHeight(23);
+		geometry.setPixelDimensionX(2.0);
+		geometry.setPixelDimensionY(2.0);
+		geometry.setSourceToDetectorDistance(400);
+		geometry.setTrajectory(PROJECTIONS, 250, 30, 0, 0, Projection.CameraAxisDirection.ROTATIONAXIS_PLUS, Projection.CameraAxisDirection.DETECTORMOTION_PLUS, new SimpleVector(0, 0, 1));
+		Configuration config = new Configuration();
+		config.setRegistry(new HashMap<String, String>());
+		config.setGeometry(geometry);
+		Configuration.setGlobalConfiguration(config);
+	}
+
+	@AfterClass
+	public static void restoreConfiguration(){
+		Configuration.setGlobalConfiguration(previous);
+	}
+
+	private static AnalyticPhantomProjectorWorker createWorker() throws Exception {
+		XRayDetector detector = new XRayDetector();
+		detector.configure(new DensityAbsorptionModel());
+		AnalyticPhantomProjectorWorker worker = new AnalyticPhantomProjectorWorker();
+		worker.configure(new TestPhantom(), detector);
+		return worker;
+	}
+
+	@Test
+	public void testTilesMatchRaytraceScene() throws Exception {
+		AnalyticPhantomProjectorWorker worker = createWorker();
+		TiledProjectionScheduler scheduler = new TiledProjectionScheduler(worker, PROJECTIONS);
+		// tiles that do not divide the detector and fewer projections in flight than projections
+		scheduler.setTileSize(8, 5);
+		scheduler.setMaximumProjectionsInFlight(2);
+		CollectingSink sink = new CollectingSink();
+		scheduler.render(sink);
+		assertTrue(sink.closed);
+		assertEquals(PROJECTIONS, scheduler.getNumberOfFinishedProjections());
+		assertEquals(1.0, scheduler.getProgress(), 0);
+		Trajectory geometry = Configuration.getGlobalConfiguration().getGeometry();
+		AnalyticPhantomProjectorWorker reference = createWorker();
+		for (int p = 0; p < PROJECTIONS; p++){
+			// in order
+			assertEquals(p, (int) sink.numbers.get(p));
+			Grid2D expected = reference.raytraceScene(reference.getScene(p), geometry.getProjectionMatrix(p));
+			assertArrayEquals(expected.getBuffer(), sink.projections.get(p).getBuffer(), 1e-6f);
+			float max = 0;
+			for (float value : expected.getBuffer()) max = Math.max(max, value);
+			assertTrue(max > 0);
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final TiledProjectionScheduler scheduler = new TiledProjectionScheduler(createWorker(), PROJECTIONS);
+		scheduler.setMaximumProjectionsInFlight(1);
+		CollectingSink sink = new CollectingSink(){
+			@Override
+			public void process(Grid2D projection, int projectionNumber) throws Exception {
+				super.process(projection, projectionNumber);
+				if (projectionNumber == 1) scheduler.cancel();
+			}
+		};
+		try {
+			scheduler.render(sink);
+			fail("Rendering was not cancelled.");
+		} catch (CancellationException e) {
+			// expected
+		}
+		assertTrue(scheduler.isCancelled());
+		assertFalse(sink.closed);
+		assertEquals(2, sink.numbers.size());
+		assertEquals(2, scheduler.getNumberOfFinishedProjections());
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
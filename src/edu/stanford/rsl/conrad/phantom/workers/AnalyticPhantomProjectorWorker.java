@@ -88,6 +88,17 @@ public class AnalyticPhantomProjectorWorker extends SliceWorker {
 
 	@Override
 	public void workOnSlice(int sliceNumber) {
+		PrioritizableScene phantomScene = getScene(sliceNumber);
+		Grid2D slice = raytraceScene(phantomScene, trajectory.getProjectionMatrix(sliceNumber));
+		this.imageBuffer.add(slice, sliceNumber);
+	}
+
+	/**
+	 * Returns the scene of the given projection. For 4D phantoms, the scene of the respective time is created and centered.
+	 * @param sliceNumber the projection number
+	 * @return the scene
+	 */
+	public PrioritizableScene getScene(int sliceNumber){
 		PrioritizableScene phantomScene = phantom;
 		if (phantom instanceof AnalyticPhantom4D) {
 			AnalyticPhantom4D scene4D = (AnalyticPhantom4D) phantom;
@@ -125,15 +136,44 @@ public class AnalyticPhantomProjectorWorker extends SliceWorker {
 			}
 			//System.out.println(phantomScene.getMax() + " " + phantomScene.getMin());
 		}
-		Grid2D slice = raytraceScene(phantomScene, trajectory.getProjectionMatrix(sliceNumber));
-		this.imageBuffer.add(slice, sliceNumber);
-	}		
+		return phantomScene;
+	}
 
 	public Grid2D raytraceScene(PrioritizableScene phantomScene, Projection projection){
 		Trajectory geom = Configuration.getGlobalConfiguration().getGeometry();
 		//Grid2D slice = new Grid2D(geom.getDetectorWidth(), geom.getDetectorHeight());
 		Grid2D slice = detector.createDetectorGrid(geom.getDetectorWidth(), geom.getDetectorHeight(), projection);
-		getRayTracer().setScene(phantomScene);
+		setScene(phantomScene);
+		raytraceTile(projection, slice, 0, 0, trajectory.getDetectorWidth(), trajectory.getDetectorHeight());
+		return slice;
+	}
+
+	/**
+	 * Sets the scene of the ray tracer of this worker. If the scene is already set, the acceleration structure of the ray tracer is kept.
+	 * Only 4D phantoms, whose scene may be the same object transformed in place, update it then.
+	 * @param phantomScene the scene as returned by {@link #getScene(int)}
+	 */
+	public void setScene(PrioritizableScene phantomScene){
+		AbstractRayTracer tracer = getRayTracer();
+		if (tracer.getScene() != phantomScene) {
+			tracer.setScene(phantomScene);
+		} else if (phantom instanceof AnalyticPhantom4D) {
+			tracer.updateAccelerationStructure();
+		}
+	}
+
+	/**
+	 * Casts the rays of the detector pixels [x0, x1) x [y0, y1) and writes the result into the detector grid.
+	 * Different tiles of the same grid may be rendered by different workers in parallel.
+	 * The scene has to be set with {@link #setScene(PrioritizableScene)} before.
+	 * @param projection the projection
+	 * @param slice the detector grid as created by the detector
+	 * @param x0 the first column
+	 * @param y0 the first row
+	 * @param x1 the column after the last column
+	 * @param y1 the row after the last row
+	 */
+	public void raytraceTile(Projection projection, Grid2D slice, int x0, int y0, int x1, int y1){
 		// Second rule of optimization is: Optimize later.
 		PointND raySource = new PointND(0,0,0);
 		raySource.setCoordinates(projection.computeCameraCenter());
@@ -154,25 +194,28 @@ public class AnalyticPhantomProjectorWorker extends SliceWorker {
 
 		ArrayList<PhysicalObject> fallBackBackground = new ArrayList<PhysicalObject> (1);
 		SimpleVector pixel = new SimpleVector(0, 0);
+		// Check that ray direction is towards origin. The ray of the first pixel decides for all tiles.
 		boolean negate = false;
-		for(int y = 0; y < trajectory.getDetectorHeight(); y++){
-			for(int x = 0; x < trajectory.getDetectorWidth();x++){
+		{
+			pixel.setElementValue(0, -xcorr);
+			pixel.setElementValue(1, -ycorr);
+			SimpleVector dir = projection.computeRayDirection(pixel);
+			double max = 0;
+			int index = 0;
+			for (int i=0; i < 3; i++){
+				if (Math.abs(dir.getElement(i)) > max) {
+					max = Math.abs(dir.getElement(i));
+					index = i;
+				}
+			}
+			double t = - raySource.get(index) / dir.getElement(index);
+			if (t < 0) negate = true; 
+		}
+		for(int y = y0; y < y1; y++){
+			for(int x = x0; x < x1;x++){
 				pixel.setElementValue(0, x-xcorr);
 				pixel.setElementValue(1, y-ycorr);
 				SimpleVector dir = projection.computeRayDirection(pixel);
-				if ((y==0) && (x==0)) {
-					//Check that ray direction is towards origin.
-					double max = 0;
-					int index = 0;
-					for (int i=0; i < 3; i++){
-						if (Math.abs(dir.getElement(i)) > max) {
-							max = Math.abs(dir.getElement(i));
-							index = i;
-						}
-					}
-					double t = - raySource.get(index) / dir.getElement(index);
-					if (t < 0) negate = true; 
-				}
 				if (negate) dir.negate();
 				castLine.setDirection(dir);
 				
@@ -200,7 +243,6 @@ public class AnalyticPhantomProjectorWorker extends SliceWorker {
 				
 			}
 		}
-		return slice;
 	}
 
 
@@ -3,10 +3,7 @@ package edu.stanford.rsl.conrad.phantom.xcat;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 
-import edu.stanford.rsl.conrad.geometry.AbstractShape;
 import edu.stanford.rsl.conrad.geometry.General;
 import edu.stanford.rsl.conrad.geometry.Rotations;
 import edu.stanford.rsl.conrad.geometry.motion.MotionField;
@@ -24,7 +21,6 @@ import edu.stanford.rsl.conrad.geometry.transforms.Translation;
 import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
 import edu.stanford.rsl.conrad.numerics.SimpleOperators;
 import edu.stanford.rsl.conrad.numerics.SimpleVector;
-import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
 import edu.stanford.rsl.conrad.rendering.PrioritizableScene;
 import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
@@ -215,27 +211,8 @@ public class CoronaryScene extends XCatScene {
 	
 	public PrioritizableScene tessellateScene(double time){
 		// remove previous state scene objects.
-		PrioritizableScene scene = new PrioritizableScene();
 		clearObjectsOnly();
-
-		TessellationThread[] threads = new TessellationThread[CONRAD.getNumberOfThreads()];
-		Iterator<TimeVariantSurfaceBSpline> list = Collections.synchronizedList(variants).iterator();
-
-		for (int splineNum = 0; splineNum < CONRAD.getNumberOfThreads(); splineNum++) {
-			threads[splineNum] = new TessellationThread(list, warper.warpTime(time));
-		}
-		ParallelThreadExecutor executor = new ParallelThreadExecutor(threads);
-		try {
-			executor.execute();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		for (int splineNum = 0; splineNum < CONRAD.getNumberOfThreads(); splineNum++) {
-			for (AbstractShape s: threads[splineNum].getObjects()) {
-				add(scene, s, s.getName());
-			}
-		}
-		return scene;
+		return tessellateSurfaces(variants, warper.warpTime(time));
 	}
 
 	@Override
@@ -40,9 +40,14 @@ public class TessellationThread extends ParallelThread {
 	public void execute(){
 		Object tObject = this;
 		scene = new CompoundShape();
+		Iterator iterator = (Iterator)this.tessellationObject;
 		while (tObject != null){ 
-			if (((Iterator)this.tessellationObject).hasNext()){
-				tObject = ((Iterator)this.tessellationObject).next();
+			// the iterator is shared by all threads
+			tObject = null;
+			synchronized (iterator) {
+				if (iterator.hasNext()) tObject = iterator.next();
+			}
+			if (tObject != null){
 				int elementCountU = (int)TessellationUtil.getSamplingU((AbstractSurface) tObject);
 				int elementCountV = (int)TessellationUtil.getSamplingV((AbstractSurface) tObject);
 				if (tObject instanceof SurfaceBSpline){
@@ -54,8 +59,6 @@ public class TessellationThread extends ParallelThread {
 					AbstractShape mesh = spline.tessellateMesh(elementCountU, elementCountV, time);
 					scene.add(mesh);			
 				}
-			} else {
-				tObject = null;
 			}
 		}
 	}
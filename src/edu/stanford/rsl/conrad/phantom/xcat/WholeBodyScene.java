@@ -2,10 +2,7 @@ package edu.stanford.rsl.conrad.phantom.xcat;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 
-import edu.stanford.rsl.conrad.geometry.AbstractShape;
 import edu.stanford.rsl.conrad.geometry.AbstractSurface;
 import edu.stanford.rsl.conrad.geometry.motion.MotionField;
 import edu.stanford.rsl.conrad.geometry.motion.PointBasedMotionField;
@@ -13,7 +10,6 @@ import edu.stanford.rsl.conrad.geometry.motion.timewarp.IdentityTimeWarper;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
 import edu.stanford.rsl.conrad.geometry.splines.SurfaceBSpline;
 import edu.stanford.rsl.conrad.geometry.splines.TimeVariantSurfaceBSpline;
-import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
 import edu.stanford.rsl.conrad.rendering.PrioritizableScene;
 import edu.stanford.rsl.conrad.utils.CONRAD;
 
@@ -45,34 +41,10 @@ public class WholeBodyScene extends XCatScene {
 
 
 	public PrioritizableScene tessellateScene(double time){
-		// remove previous state scene objects.
-		PrioritizableScene scene = new PrioritizableScene();
-
-
-
 		ArrayList<AbstractSurface> list = new ArrayList<AbstractSurface>();
 		list.addAll(splines);
 		list.addAll(variants);
-		
-		int numberOfThreads = Math.min(CONRAD.getNumberOfThreads(),list.size());
-		TessellationThread[] threads = new TessellationThread[numberOfThreads];
-
-		Iterator<?> iter = Collections.synchronizedList(list).iterator();
-		for (int splineNum = 0; splineNum < numberOfThreads; splineNum++) {
-			threads[splineNum] = new TessellationThread(iter, warper.warpTime(time));
-		}
-		ParallelThreadExecutor executor = new ParallelThreadExecutor(threads);
-		try {
-			executor.execute();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		for (int splineNum = 0; splineNum < numberOfThreads; splineNum++) {
-			for (AbstractShape s: threads[splineNum].getObjects()) {
-				add(scene, s, s.getName());
-			}
-		}
-		return scene;
+		return tessellateSurfaces(list, warper.warpTime(time));
 	}
 
 	/**
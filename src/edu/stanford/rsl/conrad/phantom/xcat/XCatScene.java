@@ -2,16 +2,24 @@ package edu.stanford.rsl.conrad.phantom.xcat;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import edu.stanford.rsl.conrad.geometry.AbstractShape;
+import edu.stanford.rsl.conrad.geometry.AbstractSurface;
 import edu.stanford.rsl.conrad.geometry.motion.timewarp.TimeWarper;
 import edu.stanford.rsl.conrad.geometry.splines.SurfaceBSpline;
 import edu.stanford.rsl.conrad.geometry.splines.TimeVariantSurfaceBSpline;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
 import edu.stanford.rsl.conrad.phantom.AnalyticPhantom4D;
 import edu.stanford.rsl.conrad.physics.PhysicalObject;
 import edu.stanford.rsl.conrad.physics.materials.Material;
 import edu.stanford.rsl.conrad.rendering.PrioritizableScene;
+import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 import edu.stanford.rsl.conrad.utils.RegKeys;
 
@@ -63,6 +71,11 @@ public abstract class XCatScene extends AnalyticPhantom4D {
 
 	protected ArrayList<TimeVariantSurfaceBSpline> variants = new ArrayList<TimeVariantSurfaceBSpline>();
 
+	/**
+	 * Least recently used tessellated scenes. The key is the warped time.
+	 */
+	private transient LinkedHashMap<Long, PrioritizableScene> sceneCache;
+
 	
 	/**
 	 * returns the geometric definition of XCat. Only returns the splines that are rendered in the respective scene.
@@ -102,8 +115,93 @@ public abstract class XCatScene extends AnalyticPhantom4D {
 	 */
 	public abstract PrioritizableScene tessellateScene(double time); 
 
+	/**
+	 * Returns the tessellated scene at the given time. If RegKeys.XCAT_SCENE_CACHE_SIZE is set, the most recently tessellated scenes are kept in memory.
+	 * Scenes at the same warped time, e.g. the same phase of later heart beats, are then copied from the cache instead of tessellating the splines again.
+	 * As callers may transform the returned scene, each call returns a new copy.
+	 * @param time the time between 0 and 1
+	 * @return the scene
+	 */
 	public PrioritizableScene getScene(double time){
-		return tessellateScene(time);
+		int cacheSize = getSceneCacheSize();
+		if (cacheSize < 1) return tessellateScene(time);
+		double warpedTime = (warper != null) ? warper.warpTime(time) : time;
+		// warped times that differ by less than 1e-6 yield the same scene
+		Long key = Long.valueOf(Math.round(warpedTime * 1e6));
+		PrioritizableScene scene;
+		synchronized (this) {
+			if (sceneCache == null) sceneCache = new LinkedHashMap<Long, PrioritizableScene>(16, 0.75f, true);
+			scene = sceneCache.get(key);
+		}
+		if (scene == null) {
+			scene = tessellateScene(time);
+			synchronized (this) {
+				sceneCache.put(key, scene);
+				Iterator<Map.Entry<Long, PrioritizableScene>> iterator = sceneCache.entrySet().iterator();
+				while (sceneCache.size() > cacheSize){
+					iterator.next();
+					iterator.remove();
+				}
+			}
+		}
+		return copyScene(scene);
+	}
+
+	/**
+	 * Removes all scenes from the scene cache. Must be called if the splines are changed.
+	 */
+	public synchronized void clearSceneCache(){
+		sceneCache = null;
+	}
+
+	private static int getSceneCacheSize(){
+		try {
+			String regKey = Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.XCAT_SCENE_CACHE_SIZE);
+			if (regKey != null) return Integer.parseInt(regKey);
+		} catch (Exception e){
+			CONRAD.log("Could not read '" + RegKeys.XCAT_SCENE_CACHE_SIZE + "' from registry. Scene cache is disabled.");
+		}
+		return 0;
+	}
+
+	private static PrioritizableScene copyScene(PrioritizableScene scene){
+		PrioritizableScene copy = new PrioritizableScene();
+		for (PhysicalObject o : scene){
+			PhysicalObject object = new PhysicalObject(o);
+			object.setShape(o.getShape().clone());
+			copy.add(object, scene.getPriority(o));
+		}
+		return copy;
+	}
+
+	/**
+	 * Tessellates the surfaces in parallel. Every thread takes the next surface from the list until all surfaces are tessellated.
+	 * The sampling of each surface is determined by TessellationUtil.
+	 * @param surfaces the SurfaceBSplines and TimeVariantSurfaceBSplines
+	 * @param warpedTime the time for the TimeVariantSurfaceBSplines, i.e. after time warping
+	 * @return the scene with the tessellated meshes
+	 */
+	protected PrioritizableScene tessellateSurfaces(List<? extends AbstractSurface> surfaces, double warpedTime){
+		PrioritizableScene scene = new PrioritizableScene();
+		int numberOfThreads = Math.min(CONRAD.getNumberOfThreads(), surfaces.size());
+		if (numberOfThreads < 1) return scene;
+		TessellationThread[] threads = new TessellationThread[numberOfThreads];
+		Iterator<? extends AbstractSurface> iter = Collections.synchronizedList(surfaces).iterator();
+		for (int splineNum = 0; splineNum < numberOfThreads; splineNum++) {
+			threads[splineNum] = new TessellationThread(iter, warpedTime);
+		}
+		ParallelThreadExecutor executor = new ParallelThreadExecutor(threads);
+		try {
+			executor.execute();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		for (int splineNum = 0; splineNum < numberOfThreads; splineNum++) {
+			for (AbstractShape s: threads[splineNum].getObjects()) {
+				add(scene, s, s.getName());
+			}
+		}
+		return scene;
 	}
 
 
@@ -6,6 +6,7 @@ package edu.stanford.rsl.conrad.physics.absorption;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.rsl.conrad.geometry.shapes.simple.Edge;
 import edu.stanford.rsl.conrad.physics.PhysicalObject;
@@ -34,8 +35,20 @@ public class PolychromaticAbsorptionModel extends AbsorptionModel {
 	protected double [] energies;
 	protected double [] photonFlux;
 	protected HashMap<Material, double []> attenuationCoefficientsMap;
-	
 
+	/**
+	 * Dense material ids for the rows of the attenuation table.
+	 */
+	private transient volatile ConcurrentHashMap<Material, Integer> materialIndices;
+	/**
+	 * Material x energy attenuation table. Row m holds the attenuation of material m for all energy bins,
+	 * already scaled by the conversion from [mm * cm^-1] to 1 (see {@link #computeIntensity(ArrayList, double, double, boolean, boolean)}).
+	 */
+	private transient volatile double [][] attenuationTable;
+	/**
+	 * photonFlux[e] * energies[e]
+	 */
+	private transient double [] energyFlux;
 
 
 	/**
@@ -81,6 +94,74 @@ public class PolychromaticAbsorptionModel extends AbsorptionModel {
 		}
 		// precompute absorption spectra for all known materials in database:
 		attenuationCoefficientsMap = MaterialUtils.loadAttenuationCoefficients(energies, att);
+		precomputeAttenuationTable();
+	}
+
+	/**
+	 * Builds the material x energy attenuation table from attenuationCoefficientsMap. Every material is assigned a dense id.
+	 * Materials that are not yet known are appended on first use.
+	 */
+	protected synchronized void precomputeAttenuationTable(){
+		energyFlux = new double[energies.length];
+		for (int e = 0; e < energies.length; e++){
+			energyFlux[e] = photonFlux[e] * energies[e];
+		}
+		ConcurrentHashMap<Material, Integer> indices = new ConcurrentHashMap<Material, Integer>();
+		double [][] table = new double[attenuationCoefficientsMap.size()][];
+		for (Material mat : attenuationCoefficientsMap.keySet()){
+			table[indices.size()] = scaleAttenuation(attenuationCoefficientsMap.get(mat));
+			indices.put(mat, indices.size());
+		}
+		attenuationTable = table;
+		materialIndices = indices;
+	}
+
+	/**
+	 * Builds the table if the model was deserialized.
+	 */
+	private synchronized void initAttenuationTable(){
+		if (materialIndices == null) precomputeAttenuationTable();
+	}
+
+	private static double [] scaleAttenuation(double [] attenuation){
+		// length is in [mm], attenuation is in [cm^-1]
+		double [] scaled = new double[attenuation.length];
+		for (int e = 0; e < attenuation.length; e++){
+			scaled[e] = attenuation[e] / 10;
+		}
+		return scaled;
+	}
+
+	/**
+	 * Returns the dense id of a material, i.e. its row in the attenuation table.
+	 * Materials that are not in the table yet are added.
+	 * @param mat the material
+	 * @return the id
+	 */
+	public int getMaterialIndex(Material mat){
+		if (materialIndices == null) initAttenuationTable();
+		Integer index = materialIndices.get(mat);
+		if (index == null) index = addMaterial(mat);
+		return index;
+	}
+
+	private synchronized int addMaterial(Material mat){
+		Integer index = materialIndices.get(mat);
+		if (index != null) return index;
+		double [][] table = new double[attenuationTable.length + 1][];
+		System.arraycopy(attenuationTable, 0, table, 0, attenuationTable.length);
+		table[attenuationTable.length] = scaleAttenuation(getAttenuationCoefficients(mat));
+		// the table has to be published before the id
+		attenuationTable = table;
+		materialIndices.put(mat, attenuationTable.length - 1);
+		return attenuationTable.length - 1;
+	}
+
+	/**
+	 * @return the number of energy bins of the spectrum
+	 */
+	public int getNumberOfEnergyBins(){
+		return energies.length;
 	}
 
 	/**
@@ -141,31 +222,61 @@ public class PolychromaticAbsorptionModel extends AbsorptionModel {
 	 */
 	public double computeIntensity(ArrayList<PhysicalObject> segments,
 			double startEnergy, double endEnergy, boolean noise, boolean energyIntegrating) {
+		// accumulate the path length per material. Segments of the same material are merged.
+		int [] materials = new int[segments.size()];
+		double [] lengths = new double[segments.size()];
+		int count = 0;
+		for (int j = 0; j < segments.size(); j++){
+			PhysicalObject o = segments.get(j);
+			int index = getMaterialIndex(o.getMaterial());
+			double length = ((Edge)o.getShape()).getLength();
+			int k = 0;
+			while (k < count && materials[k] != index) k++;
+			if (k == count) {
+				materials[count] = index;
+				lengths[count++] = length;
+			} else {
+				lengths[k] += length;
+			}
+		}
+		return computeIntensity(materials, lengths, count, startEnergy, endEnergy, noise, energyIntegrating);
+	}
+
+	/**
+	 * Computes the integral over the spectrum for given path lengths through the materials.
+	 * The attenuation of each energy bin is the product of the attenuation table with the path length vector.
+	 * If energyIntegrating is true the accumulated energy is returned otherwise the photon count.
+	 * @param materials the material ids as given by {@link #getMaterialIndex(Material)}
+	 * @param lengths the path lengths through the materials in [mm]
+	 * @param count the number of valid entries in materials and lengths
+	 * @param startEnergy the start energy [keV]
+	 * @param endEnergy the end energy [keV]
+	 * @param noise if true noise is generated
+	 * @param energyIntegrating if true the photon count is weighted with the energy
+	 * @return the intensity.
+	 */
+	public double computeIntensity(int [] materials, double [] lengths, int count,
+			double startEnergy, double endEnergy, boolean noise, boolean energyIntegrating) {
+		if (materialIndices == null) initAttenuationTable();
+		double [][] table = attenuationTable;
+		double [] flux = (energyIntegrating && !noise) ? energyFlux : photonFlux;
 		double intensity = 0;
 		int start = convertToIndex(startEnergy);
 		int end = convertToIndex(endEnergy);
 		if (start < 0) start =0;
 		if (end >= photonFlux.length) end = photonFlux.length-1;
-		double lens [] = new double[segments.size()];
-		for (int j = 0; j < segments.size(); j++){
-			lens[j] = ((Edge)segments.get(j).getShape()).getLength();
-		}
 		for (int e = start; e <= end; e++){
 			double sum = 0;
-			for (int j = 0; j < segments.size(); j++){
-				PhysicalObject o = segments.get(j);
-				double att = getAttenuationCoefficients(o.getMaterial())[e];
-				sum +=  att * lens[j];
+			for (int k = 0; k < count; k++){
+				sum += table[materials[k]][e] * lengths[k];
 			}
 			// TODO: Normalization is never considered in the backprojectors, 
-						// 		 thus, iteratively applying forward and backward projections
-						//		 would yield to a scaling issue!
-						//
-						// length is in [mm]
-						// attenuation is in [g/cm^3]
-						// conversion from [g*mm/mc^3] = [g*0.1cm/cm^3] to [g/cm^2]
-						// --> sum/10.0;
-			double afterAttenuation = photonFlux[e] * Math.exp(-sum/10);
+			// 		 thus, iteratively applying forward and backward projections
+			//		 would yield to a scaling issue!
+			//
+			// length is in [mm]
+			// attenuation is in [cm^-1]; the table is already divided by 10.
+			double afterAttenuation = (sum == 0) ? flux[e] : flux[e] * Math.exp(-sum);
 
 			if (noise) {
 				double photonsWithNoise = StatisticsUtil.poissonRandomNumber(afterAttenuation);
@@ -174,9 +285,6 @@ public class PolychromaticAbsorptionModel extends AbsorptionModel {
 				}
 				intensity += photonsWithNoise;
 			} else {
-				if (energyIntegrating){
-					afterAttenuation *= energies[e];
-				}
 				intensity += afterAttenuation;
 			}
 		}
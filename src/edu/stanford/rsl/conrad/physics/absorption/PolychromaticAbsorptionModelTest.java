@@ -0,0 +1,98 @@
+package edu.stanford.rsl.conrad.physics.absorption;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.geometry.shapes.simple.Edge;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.physics.PhysicalObject;
+import edu.stanford.rsl.conrad.physics.materials.Material;
+
+public class PolychromaticAbsorptionModelTest {
+
+	private static Material createMaterial(String name){
+		Material mat = new Material(1.0);
+		mat.setName(name);
+		return mat;
+	}
+
+	/**
+	 * Creates a model with a synthetic spectrum and synthetic attenuation coefficients, so that the material database is not required.
+	 */
+	private static PolychromaticAbsorptionModel createModel(Material [] materials){
+		PolychromaticAbsorptionModel model = new PolychromaticAbsorptionModel();
+		int bins = 40;
+		model.energies = new double[bins];
+		model.photonFlux = new double[bins];
+		model.attenuationCoefficientsMap = new HashMap<Material, double[]>();
+		for (int e = 0; e < bins; e++){
+			model.energies[e] = 20 + (2.5 * e);
+			model.photonFlux[e] = 1000 * Math.sin((Math.PI * (e + 1)) / (bins + 1));
+		}
+		for (int m = 0; m < materials.length; m++){
+			double [] attenuation = new double[bins];
+			for (int e = 0; e < bins; e++){
+				attenuation[e] = (m + 1) * 3.0 / Math.pow(model.energies[e] / 20, 2.5);
+			}
+			model.attenuationCoefficientsMap.put(materials[m], attenuation);
+		}
+		model.precomputeAttenuationTable();
+		return model;
+	}
+
+	private static PhysicalObject createSegment(Material mat, double length){
+		PhysicalObject o = new PhysicalObject();
+		o.setMaterial(mat);
+		o.setShape(new Edge(new PointND(0, 0, 0), new PointND(length, 0, 0)));
+		return o;
+	}
+
+	@Test
+	public void testIntensityMatchesSpectralSum(){
+		Material [] materials = {createMaterial("water"), createMaterial("bone"), createMaterial("air")};
+		PolychromaticAbsorptionModel model = createModel(materials);
+		ArrayList<PhysicalObject> segments = new ArrayList<PhysicalObject>();
+		segments.add(createSegment(materials[0], 12));
+		segments.add(createSegment(materials[1], 3.5));
+		segments.add(createSegment(materials[0], 7));
+		segments.add(createSegment(materials[2], 1));
+		for (boolean energyIntegrating : new boolean [] {true, false}){
+			double expected = 0;
+			for (int e = 0; e < model.energies.length; e++){
+				double sum = 0;
+				for (PhysicalObject o : segments){
+					sum += model.attenuationCoefficientsMap.get(o.getMaterial())[e] * ((Edge) o.getShape()).getLength();
+				}
+				double value = model.photonFlux[e] * Math.exp(-sum / 10);
+				if (energyIntegrating) value *= model.energies[e];
+				expected += value;
+			}
+			double actual = model.computeIntensity(segments, model.getMinimalEnergy(), model.getMaximalEnergy(), false, energyIntegrating);
+			assertEquals(expected, actual, 1e-10 * expected);
+		}
+	}
+
+	@Test
+	public void testPathLengthsMatchSegments(){
+		Material [] materials = {createMaterial("water"), createMaterial("bone")};
+		PolychromaticAbsorptionModel model = createModel(materials);
+		ArrayList<PhysicalObject> segments = new ArrayList<PhysicalObject>();
+		segments.add(createSegment(materials[1], 2));
+		segments.add(createSegment(materials[0], 5));
+		segments.add(createSegment(materials[1], 4));
+		int [] ids = {model.getMaterialIndex(materials[0]), model.getMaterialIndex(materials[1])};
+		double [] lengths = {5, 6};
+		assertEquals(model.computeIntensity(segments, 30, 80, false, true), model.computeIntensity(ids, lengths, 2, 30, 80, false, true), 1e-9);
+		// an empty path is not attenuated
+		assertEquals(model.getPhotonFluxIntegral(30, 80), model.computeIntensity(ids, lengths, 0, 30, 80, false, false), 1e-9);
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,242 @@
+package edu.stanford.rsl.conrad.pipeline;
+
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+
+/**
+ * Bounded hand-off queue between two stages of the projection pipeline.<br>
+ * Projections may be put in arbitrary order. They are taken in the order of their projection number, i.e. the queue also serves as reorder buffer.
+ * If <i>capacity</i> projections are waiting in the queue, producers are blocked until the consumers caught up. This limits the memory that is held by the queue.
+ * The next projection in order is always accepted, as the consumers could not proceed without it. Thus, the queue holds at most <i>capacity</i> + 1 projections.<br>
+ * Consumers block until the next projection in order is available or the end of the stream is reached. Projection numbers need not be consecutive:
+ * after {@link #close()}, missing projection numbers up to the highest projection number that was put into the queue are skipped.
+ * <BR><BR>
+ * The queue counts the current and the maximal number of projections in the queue as well as the time producers and consumers spent waiting.
+ *
+ * @author akmaier
+ *
+ */
+public class BlockingProjectionQueue {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition notEmpty = lock.newCondition();
+	private final int capacity;
+	private final TreeMap<Integer, Grid2D> projections = new TreeMap<Integer, Grid2D>();
+	/**
+	 * Projection numbers of producers that are blocked in {@link #put(Grid2D, int)}. They must not be skipped after the queue was closed.
+	 */
+	private final TreeSet<Integer> pending = new TreeSet<Integer>();
+	private int nextIndex = 0;
+	private int lastTakenIndex = -1;
+	private int maxDepth = 0;
+	private int finalIndex = -1;
+	private int highestIndex = -1;
+	private boolean closed = false;
+	private long putWaitNanos = 0;
+	private long takeWaitNanos = 0;
+
+	/**
+	 * Creates a new queue
+	 * @param capacity the number of projections the queue may hold before producers are blocked.
+	 */
+	public BlockingProjectionQueue(int capacity){
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Puts a projection into the queue. Blocks, if the queue is full and the projection is not the next one in order.
+	 * @param projection the projection
+	 * @param projectionNumber the projection number
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public void put(Grid2D projection, int projectionNumber) throws InterruptedException{
+		if (projection == null) throw new NullPointerException("Projection " + projectionNumber + " was null");
+		lock.lockInterruptibly();
+		try {
+			if (projectionNumber < nextIndex) throw new IllegalStateException("Projection " + projectionNumber + " was already taken from the queue");
+			if (closed && projectionNumber >= finalIndex) throw new IllegalStateException("Projection " + projectionNumber + " was put after the queue was closed");
+			if (projectionNumber > highestIndex) highestIndex = projectionNumber;
+			if (isFull(projectionNumber)) {
+				long start = System.nanoTime();
+				pending.add(projectionNumber);
+				try {
+					while (isFull(projectionNumber)){
+						notFull.await();
+					}
+				} finally {
+					pending.remove(projectionNumber);
+				}
+				putWaitNanos += System.nanoTime() - start;
+			}
+			projections.put(projectionNumber, projection);
+			if (projections.size() > maxDepth) maxDepth = projections.size();
+			if (projectionNumber == nextIndex) notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isFull(int projectionNumber){
+		return projections.size() >= capacity && projectionNumber != nextIndex && !projections.containsKey(projectionNumber);
+	}
+
+	/**
+	 * Takes the next projection in order. Blocks until the projection is available.
+	 * @return the projection or null if the end of the stream was reached.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 * @see #getLastTakenIndex()
+	 */
+	public Grid2D take() throws InterruptedException{
+		lock.lockInterruptibly();
+		try {
+			if (!isNextAvailable()){
+				long start = System.nanoTime();
+				while (!isNextAvailable()){
+					notEmpty.await();
+				}
+				takeWaitNanos += System.nanoTime() - start;
+			}
+			Grid2D revan = projections.remove(nextIndex);
+			if (revan != null) {
+				lastTakenIndex = nextIndex;
+				nextIndex++;
+				notFull.signalAll();
+				if (isNextAvailable()) notEmpty.signalAll();
+			}
+			return revan;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks whether the next projection in order is available or the end of the stream was reached. After the queue was closed, 
+	 * projection numbers that will not arrive any more are skipped.
+	 */
+	private boolean isNextAvailable(){
+		if (closed) {
+			while (nextIndex < finalIndex && !projections.containsKey(nextIndex) && !pending.contains(nextIndex)){
+				nextIndex++;
+			}
+			// a producer that waits for this index may proceed now.
+			notFull.signalAll();
+		}
+		return projections.containsKey(nextIndex) || isEndOfStream();
+	}
+
+	private boolean isEndOfStream(){
+		return closed && nextIndex >= finalIndex;
+	}
+
+	/**
+	 * Marks the end of the stream. The stream ends after the highest projection number that was put into the queue so far.
+	 * Waiting consumers are released as soon as all projections were taken. Missing projection numbers are skipped.
+	 */
+	public void close(){
+		lock.lock();
+		try {
+			if (!closed) {
+				finalIndex = highestIndex + 1;
+				closed = true;
+			}
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return whether the queue was closed
+	 */
+	public boolean isClosed(){
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of the projection that was taken last; -1 if none was taken yet.
+	 */
+	public int getLastTakenIndex(){
+		lock.lock();
+		try {
+			return lastTakenIndex;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of projections the queue holds before producers are blocked
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * @return the number of projections that are currently in the queue
+	 */
+	public int getDepth(){
+		lock.lock();
+		try {
+			return projections.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the maximal number of projections that were in the queue at the same time
+	 */
+	public int getMaxDepth(){
+		lock.lock();
+		try {
+			return maxDepth;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the total time in [ms] producers were blocked because the queue was full
+	 */
+	public double getPutWaitTime(){
+		lock.lock();
+		try {
+			return putWaitNanos / 1.0e6;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the total time in [ms] consumers were waiting for the next projection
+	 */
+	public double getTakeWaitTime(){
+		lock.lock();
+		try {
+			return takeWaitNanos / 1.0e6;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "BlockingProjectionQueue depth " + getDepth() + " of " + getCapacity() + " (max " + getMaxDepth() + "), put wait " + getPutWaitTime() + " ms, take wait " + getTakeWaitTime() + " ms";
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
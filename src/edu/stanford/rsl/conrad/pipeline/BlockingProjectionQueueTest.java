@@ -0,0 +1,106 @@
+package edu.stanford.rsl.conrad.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+
+public class BlockingProjectionQueueTest {
+
+	@Test
+	public void testReorder() throws Exception {
+		BlockingProjectionQueue queue = new BlockingProjectionQueue(4);
+		Grid2D [] grids = new Grid2D[4];
+		for (int i = 0; i < grids.length; i++){
+			grids[i] = new Grid2D(2, 2);
+		}
+		queue.put(grids[2], 2);
+		queue.put(grids[0], 0);
+		queue.put(grids[3], 3);
+		queue.put(grids[1], 1);
+		queue.close();
+		for (int i = 0; i < grids.length; i++){
+			assertTrue(grids[i] == queue.take());
+			assertEquals(i, queue.getLastTakenIndex());
+		}
+		assertNull(queue.take());
+		assertEquals(4, queue.getMaxDepth());
+	}
+
+	@Test(timeout = 10000)
+	public void testBackpressure() throws Exception {
+		final int projections = 100;
+		final BlockingProjectionQueue queue = new BlockingProjectionQueue(3);
+		Thread producer = new Thread(){
+			public void run(){
+				try {
+					for (int i = 0; i < projections; i++){
+						queue.put(new Grid2D(1, 1), i);
+					}
+					queue.close();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		producer.start();
+		int count = 0;
+		while (queue.take() != null){
+			assertEquals(count, queue.getLastTakenIndex());
+			count++;
+		}
+		producer.join();
+		assertEquals(projections, count);
+		assertTrue(queue.getMaxDepth() <= 3);
+	}
+
+	@Test(timeout = 10000)
+	public void testCloseSkipsMissingProjections() throws Exception {
+		final BlockingProjectionQueue queue = new BlockingProjectionQueue(2);
+		final Grid2D [] grids = {new Grid2D(1, 1), new Grid2D(1, 1), new Grid2D(1, 1)};
+		queue.put(grids[0], 0);
+		queue.put(grids[1], 3);
+		// beyond the capacity, but not blocked as the queue is not full
+		assertEquals(2, queue.getDepth());
+		Thread producer = new Thread(){
+			public void run(){
+				try {
+					// blocks, as the queue is full
+					queue.put(grids[2], 9);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		producer.start();
+		while (producer.getState() != Thread.State.WAITING) Thread.sleep(1);
+		assertTrue(grids[0] == queue.take());
+		// consumer waits for projection 1, which never arrives
+		Thread closer = new Thread(){
+			public void run(){
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				queue.close();
+			}
+		};
+		closer.start();
+		assertTrue(grids[1] == queue.take());
+		assertEquals(3, queue.getLastTakenIndex());
+		assertTrue(grids[2] == queue.take());
+		assertEquals(9, queue.getLastTakenIndex());
+		assertNull(queue.take());
+		producer.join();
+		closer.join();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -4,8 +4,10 @@ import edu.stanford.rsl.apps.gui.Citeable;
 import edu.stanford.rsl.apps.gui.GUIConfigurable;
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.io.ChunkedGridProjectionSink;
 import edu.stanford.rsl.conrad.io.ImagePlusDataSink;
 import edu.stanford.rsl.conrad.io.IndividualFilesProjectionDataSink;
+import edu.stanford.rsl.conrad.io.MaterialPathLengthStackSink;
 import edu.stanford.rsl.conrad.io.SafeSerializable;
 import edu.stanford.rsl.conrad.utils.Configuration;
 
@@ -43,6 +45,8 @@ public abstract class BufferedProjectionSink implements ProjectionSink, GUIConfi
 		BufferedProjectionSink [] sinks = { 	 
 				new ImagePlusDataSink(),
 				new IndividualFilesProjectionDataSink(),
+				new MaterialPathLengthStackSink(),
+				new ChunkedGridProjectionSink(),
 		};
 		return sinks;
 	}
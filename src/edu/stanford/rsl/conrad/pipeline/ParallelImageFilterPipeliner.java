@@ -8,13 +8,13 @@ import edu.stanford.rsl.conrad.filtering.multiprojection.MultiProjectionFilter;
 import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 import edu.stanford.rsl.conrad.utils.FFTUtil;
-import edu.stanford.rsl.conrad.utils.RegKeys;
 
 
 /**
  * Class for running multiple ImageFilteringTools in parallel. Creates a thread for each ImageFilteringTool
  * and executes them using a ParallelThreadExecutor. It will start one thread on each processor of the
- * machine at the same time.
+ * machine at the same time. Blocks of IndividualImageFilteringTools are connected via bounded queues. Hence, 
+ * the source is slowed down automatically, if the filters cannot keep up.
  * 
  * @author Andreas Maier
  *
@@ -105,14 +105,7 @@ public class ParallelImageFilterPipeliner {
 			currentSink.process(img, projectionNumber);
 			img = source.getNextProjection();
 			projectionNumber = source.getCurrentProjectionNumber();
-			// Here we should consider how much memory we have left
-			Thread.sleep(CONRAD.INVERSE_SPEEDUP);
-			double free = CONRAD.getFreeMemoryAsDouble();
-			if (free < 0.25){
-				int slowdown = Configuration.getGlobalConfiguration().queryIntFromRegistry(RegKeys.SLOW_DOWN_MS);
-				Thread.sleep(slowdown);
-				System.err.println("ParallelImageFilterPipeliner: Memory almost full, slowing down processing speed by " + slowdown + ". Buy more memory to increase processing speed! Projection " + source.getCurrentProjectionNumber() + " free: " + free );			
-			}
+			// No need to watch the memory here: parallel stages block the source if their input queue is full.
 		}
 		if (debug) System.out.println("ParallelImageFilterPipeliner: Projections Streamed.");
 		currentSink.close();
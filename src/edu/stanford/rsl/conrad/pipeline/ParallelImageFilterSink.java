@@ -7,22 +7,31 @@ import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.filtering.IndividualImageFilteringTool;
 import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
 import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SharedThreadPool;
 import edu.stanford.rsl.conrad.utils.CONRAD;
-import edu.stanford.rsl.conrad.utils.ImageGridBuffer;
-
-
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
+
+
+/**
+ * Pipeline stage that applies a block of IndividualImageFilteringTools in parallel. Incoming projections are handed to the worker threads
+ * via a BlockingProjectionQueue, i.e. workers block until the next projection arrives and producers block if they are too far ahead.
+ * 
+ * @author Andreas Maier
+ * @see BlockingProjectionQueue
+ *
+ */
 public class ParallelImageFilterSink implements Runnable, ProjectionSink, ProjectionSource {
 
 	private ProjectionSink sink;
 	private IndividualImageFilteringTool [] pipeline;
-	private ImageGridBuffer buffer;
+	private volatile BlockingProjectionQueue queue;
+	private final Object queueLock = new Object();
 	private int currentIndex = 0;
 	private boolean debug = false;
-	private int lastIndex = -1;
-	private boolean closed = false;
 	private boolean showStatus = false;
-	private boolean init = false;
 	private int cpus = 1;
+	private int queueCapacity = -1;
 
 	public void setShowStatus(boolean status){
 		this.showStatus = status;
@@ -40,14 +49,28 @@ public class ParallelImageFilterSink implements Runnable, ProjectionSink, Projec
 		this.sink = sink;
 	}
 
+	/**
+	 * Sets the number of projections that may wait in the input queue of this stage.
+	 * If not set, the value is read from the registry (RegKeys.PIPELINE_QUEUE_CAPACITY). If the registry entry is missing as well, twice the number of worker threads is used.
+	 * Must be set before the first projection is processed.
+	 * @param queueCapacity the capacity
+	 */
+	public void setQueueCapacity(int queueCapacity){
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @return the input queue of this stage. Can be used to monitor queue depth and waiting times.
+	 */
+	public BlockingProjectionQueue getQueue(){
+		init();
+		return queue;
+	}
+
 	@Override
 	public void close() throws Exception {
-		//System.out.println("Closing Parallel sink " + closed + " " +lastIndex +  " " + buffer.size());
-		//if (debug) throw new RuntimeException("Closing parallel tool");
-		if (!closed) {
-			lastIndex = buffer.size();
-			closed = true;
-		}
+		init();
+		queue.close();
 	}
 
 	private void configureTool(IndividualImagePipelineFilteringTool tool, ProjectionSource source, ProjectionSink sink){
@@ -64,17 +87,33 @@ public class ParallelImageFilterSink implements Runnable, ProjectionSink, Projec
 		return pipelineClone;
 	}
 
+	/**
+	 * Starts the stage on the shared worker pool. The stage waits for its workers, which run on the same pool.
+	 * @param cpus the number of workers
+	 * @see SharedThreadPool#getExecutorService()
+	 */
 	public void start(int cpus){
 		this.cpus = cpus;
-		Thread thread = new Thread(this);
-		thread.start();
+		init();
+		SharedThreadPool.getExecutorService().execute(this);
 	}
 
 	private void init(){
-		if (debug) System.out.println("ParallelImageFilterSink: init " + init);
-		if (!init){
-			buffer = new ImageGridBuffer();
-			init = true;
+		// Must not lock the sink itself, as workers wait for the next projection while holding its monitor.
+		synchronized (queueLock) {
+			if (queue != null) return;
+			int capacity = queueCapacity;
+			if (capacity < 1) {
+				capacity = 2 * cpus;
+				try {
+					String regKey = Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.PIPELINE_QUEUE_CAPACITY);
+					if (regKey != null) capacity = Integer.parseInt(regKey);
+				} catch (Exception e){
+					CONRAD.log("Could not read '" + RegKeys.PIPELINE_QUEUE_CAPACITY + "' from registry. Using " + capacity + ".");
+				}
+			}
+			if (debug) System.out.println("ParallelImageFilterSink: init with capacity " + capacity);
+			queue = new BlockingProjectionQueue(capacity);
 		}
 	}
 
@@ -88,7 +127,7 @@ public class ParallelImageFilterSink implements Runnable, ProjectionSink, Projec
 	throws Exception {
 		if (debug) System.out.println("ParallelImageFilterSink: project " + projectionNumber);
 		init();
-		buffer.add(projection, projectionNumber);
+		queue.put(projection, projectionNumber);
 	}
 
 	@Override
@@ -99,58 +138,28 @@ public class ParallelImageFilterSink implements Runnable, ProjectionSink, Projec
 	@Override
 	public synchronized void getNextProjection(IndividualImagePipelineFilteringTool tool) {
 		Grid2D next = getNextProjection();
-		if (next != null) {
-			tool.setImageProcessor((next));
-			tool.setImageIndex(currentIndex-1);
-		} else {
-			tool.setImageProcessor(null);
-			tool.setImageIndex(currentIndex-1);
-		}
+		tool.setImageProcessor(next);
+		tool.setImageIndex(currentIndex-1);
 	}
 
 	@Override
 	public synchronized Grid2D getNextProjection() {
-		Grid2D revan = null;
 		if (debug) {
 			System.out.println("ParallelImageFilterSink: Projection requested: " + currentIndex);
 		}
-		while (revan == null) {
-			if (debug) System.out.println("ParallelImageFilterSink: buffer = " + buffer);
-			if (buffer != null) {
-				revan = buffer.get(currentIndex);
-				if (closed){
-					if (debug) {
-						System.out.println("ParallelImageFilterSink: All data arrived. currentIndex: " + currentIndex + " of " + lastIndex+ " buffer: " + buffer.size());
-					}
-					// we are trying to read after the last index.
-					if (currentIndex >= lastIndex) {
-						try {
-							if (debug) {
-								System.out.println("ParallelImageFilterSink: End of Stream reached.");
-							}
-							break;
-						} catch (Exception e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-					}
-				}
-			}
-			try {
-				Thread.sleep(CONRAD.INVERSE_SPEEDUP);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+		init();
+		Grid2D revan = null;
+		try {
+			revan = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		if (closed) {
-			if (currentIndex < lastIndex) {
-				buffer.remove(currentIndex);
-			}
+		if (revan != null) {
+			currentIndex = queue.getLastTakenIndex() + 1;
 		} else {
-			buffer.remove(currentIndex);
+			if (debug) System.out.println("ParallelImageFilterSink: End of Stream reached. " + queue);
+			currentIndex++;
 		}
-		currentIndex ++;
 		return revan;
 	}
 
@@ -184,6 +193,8 @@ public class ParallelImageFilterSink implements Runnable, ProjectionSink, Projec
 			// Start the processing.
 			ParallelThreadExecutor exec = new ParallelThreadExecutor((ParallelizableRunnable[])threads, cpus);
 			exec.setShowStatus(false);
+			// the workers wait for the next projection
+			exec.setBlocking(true);
 			try {
 				exec.execute();
 				sink.close();
@@ -195,7 +206,7 @@ public class ParallelImageFilterSink implements Runnable, ProjectionSink, Projec
 				e.printStackTrace();
 			}
 		}
-		if(debug) System.out.println("ParallelImageFilterSink: done.");
+		if(debug) System.out.println("ParallelImageFilterSink: done. " + queue);
 	}
 
 	@Override
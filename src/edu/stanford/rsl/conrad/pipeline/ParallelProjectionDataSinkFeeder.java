@@ -77,6 +77,8 @@ public class ParallelProjectionDataSinkFeeder  implements NamedParallelizableRun
 		ParallelThreadExecutor exec = new ParallelThreadExecutor(threads);
 		try {
 			exec.setShowStatus(showStatus);
+			// the sink may block until earlier projections are processed
+			exec.setBlocking(true);
 			exec.execute();
 			sink.close();
 		} catch (InterruptedException e) {
@@ -0,0 +1,41 @@
+package edu.stanford.rsl.conrad.pipeline;
+
+import java.io.IOException;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+
+/**
+ * Interface for ProjectionSources which can access any projection directly, without reading all previous projections.
+ * Such sources can be swept several times, e.g. by iterative reconstruction methods, without re-opening the underlying data.
+ *
+ * @author akmaier
+ *
+ */
+public interface RandomAccessProjectionSource extends ProjectionSource {
+
+	/**
+	 * Returns the number of projections that can be accessed.
+	 * @return the number of projections
+	 */
+	public int getNumberOfProjections();
+
+	/**
+	 * Returns the projection with the given index. Does not change the position of the stream, i.e. the result of
+	 * {@link #getNextProjection()} and {@link #getCurrentProjectionNumber()} are not affected.
+	 *
+	 * @param index the projection number
+	 * @return the projection
+	 * @throws IOException if the projection cannot be read
+	 */
+	public Grid2D getProjection(int index) throws IOException;
+
+	/**
+	 * Rewinds the stream, i.e. the next call to {@link #getNextProjection()} will return the first projection again.
+	 */
+	public void reset();
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
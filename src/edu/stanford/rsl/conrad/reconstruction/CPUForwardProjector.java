@@ -0,0 +1,331 @@
+package edu.stanford.rsl.conrad.reconstruction;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.geometry.Projection;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+
+/**
+ * Multi-threaded ray-driven cone-beam forward projector for the CPU. The projector works with arbitrary projection matrices as
+ * given by {@link Trajectory#getProjectionMatrices()} and does not require an OpenCL device.
+ * <BR><BR>
+ * The implementation follows the OpenCL kernel "projectKernel" which is used by the ConeBeamProjector and the OpenCLForwardProjector:
+ * The rays are cast in voxel coordinates, i.e. voxel centers are at integer positions, from the source through the detector pixel (u, v).
+ * The ray is clipped against the volume and sampled equidistantly with trilinear interpolation. The samples are integrated with the
+ * trapezoidal rule and the result is scaled to world units. Hence, the projection values are line integrals in [mm] times the voxel values.
+ * Results agree with the OpenCL kernel up to the precision of the interpolation weights of the GPU texture unit.
+ * <BR><BR>
+ * The volume is placed in world coordinates using the voxel spacing and the origin of the trajectory.
+ * The work is distributed over all (projection, detector row) pairs. The number of threads is determined by {@link CONRAD#getNumberOfThreads()}.
+ * Projections are returned as Grid3D with size (detector width, detector height, number of projections).
+ *
+ * @author akmaier
+ *
+ */
+public class CPUForwardProjector {
+
+	/** Number of entries of the ray geometry of one projection: inverse of AR (3x3, row-major) and source position. */
+	public static final int RAY_GEOMETRY_SIZE = 12;
+
+	private Trajectory geometry;
+	private double stepSize = 1.0;
+
+	/**
+	 * Creates a new projector for the geometry of the global configuration.
+	 */
+	public CPUForwardProjector(){
+		this(Configuration.getGlobalConfiguration().getGeometry());
+	}
+
+	/**
+	 * Creates a new projector for the given geometry. Detector size, projection matrices, volume size, voxel spacing, and volume origin are read from the trajectory.
+	 * @param geometry the trajectory
+	 */
+	public CPUForwardProjector(Trajectory geometry){
+		this.geometry = geometry;
+	}
+
+	/**
+	 * @return the distance between two samples along the ray in voxels
+	 */
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	/**
+	 * Sets the distance between two samples along the ray in voxels. Default is 1.0 as in the ConeBeamProjector.
+	 * @param stepSize the step size
+	 */
+	public void setStepSize(double stepSize) {
+		if (!(stepSize > 0)) throw new IllegalArgumentException("Step size must be positive: " + stepSize);
+		this.stepSize = stepSize;
+	}
+
+	/**
+	 * @return the trajectory
+	 */
+	public Trajectory getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * Computes the ray geometry of a projection in voxel coordinates. The ray through detector pixel (u, v) is
+	 * source + alpha * invAR * (u, v, 1)<sup>T</sup>, where the first 9 entries contain invAR in row-major order and the last 3 entries contain the source position.
+	 * @param projection the projection matrix
+	 * @param origin the world coordinates of voxel (0, 0, 0)
+	 * @param spacing the voxel spacing
+	 * @return the ray geometry with {@link #RAY_GEOMETRY_SIZE} entries
+	 */
+	public static double [] computeRayGeometry(Projection projection, double [] origin, double [] spacing){
+		SimpleMatrix p = projection.computeP();
+		// P * (origin + diag(spacing) * i) = (AR * diag(spacing)) * i + (AR * origin + t)
+		SimpleMatrix ar = new SimpleMatrix(3, 3);
+		double [] t = new double[3];
+		for (int r = 0; r < 3; r++){
+			t[r] = p.getElement(r, 3);
+			for (int c = 0; c < 3; c++){
+				ar.setElementValue(r, c, p.getElement(r, c) * spacing[c]);
+				t[r] += p.getElement(r, c) * origin[c];
+			}
+		}
+		SimpleMatrix inv = ar.inverse(SimpleMatrix.InversionType.INVERT_QR);
+		double [] rayGeometry = new double[RAY_GEOMETRY_SIZE];
+		for (int r = 0; r < 3; r++){
+			double source = 0;
+			for (int c = 0; c < 3; c++){
+				rayGeometry[(3*r)+c] = inv.getElement(r, c);
+				source -= inv.getElement(r, c) * t[c];
+			}
+			rayGeometry[9+r] = source;
+		}
+		return rayGeometry;
+	}
+
+	/**
+	 * @return the world coordinates of voxel (0, 0, 0)
+	 */
+	protected double [] getVolumeOrigin(){
+		return new double [] {geometry.getOriginX(), geometry.getOriginY(), geometry.getOriginZ()};
+	}
+
+	/**
+	 * @return the voxel spacing
+	 */
+	protected double [] getVoxelSpacing(){
+		return new double [] {geometry.getVoxelSpacingX(), geometry.getVoxelSpacingY(), geometry.getVoxelSpacingZ()};
+	}
+
+	/**
+	 * Forward projects the volume for all projections of the trajectory.
+	 * @param volume the volume
+	 * @return the projections
+	 */
+	public Grid3D project(Grid3D volume){
+		int numProjections = geometry.getProjectionStackSize();
+		int [] indices = new int[numProjections];
+		for (int p = 0; p < numProjections; p++){
+			indices[p] = p;
+		}
+		Grid3D sino = new Grid3D(geometry.getDetectorWidth(), geometry.getDetectorHeight(), numProjections);
+		Grid2D [] targets = new Grid2D[numProjections];
+		for (int p = 0; p < numProjections; p++){
+			targets[p] = sino.getSubGrid(p);
+		}
+		project(volume, indices, targets);
+		return sino;
+	}
+
+	/**
+	 * Forward projects the volume for a single projection.
+	 * @param volume the volume
+	 * @param projIdx the projection index
+	 * @return the projection
+	 */
+	public Grid2D project(Grid3D volume, int projIdx){
+		if (projIdx < 0 || projIdx >= geometry.getProjectionStackSize()) {
+			throw new IllegalArgumentException("Invalid projection index: " + projIdx);
+		}
+		Grid2D projection = new Grid2D(geometry.getDetectorWidth(), geometry.getDetectorHeight());
+		project(volume, new int[] {projIdx}, new Grid2D[] {projection});
+		return projection;
+	}
+
+	/**
+	 * Forward projects the volume for the given projections. The projection values overwrite the content of the target grids.
+	 * All (projection, row) pairs are processed in parallel.
+	 * @param volume the volume
+	 * @param projIndices the projection indices
+	 * @param targets the target grids of size (detector width, detector height), one per projection index
+	 */
+	public void project(Grid3D volume, final int [] projIndices, final Grid2D [] targets){
+		final int width = geometry.getDetectorWidth();
+		final int height = geometry.getDetectorHeight();
+		final int [] size = volume.getSize();
+		final float [][] slices = new float[size[2]][];
+		for (int k = 0; k < size[2]; k++){
+			slices[k] = volume.getSubGrid(k).getBuffer();
+		}
+		final double [] spacing = getVoxelSpacing();
+		double [] origin = getVolumeOrigin();
+		Projection [] projections = geometry.getProjectionMatrices();
+		final double [][] rayGeometries = new double[projIndices.length][];
+		final float [][] buffers = new float[projIndices.length][];
+		for (int i = 0; i < projIndices.length; i++){
+			rayGeometries[i] = computeRayGeometry(projections[projIndices[i]], origin, spacing);
+			buffers[i] = targets[i].getBuffer();
+			if (buffers[i].length != width * height) {
+				throw new IllegalArgumentException("Projection " + projIndices[i] + " does not match the detector size " + width + "x" + height + ".");
+			}
+		}
+		final int numRows = projIndices.length * height;
+		final AtomicInteger nextRow = new AtomicInteger(0);
+		int numThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), numRows));
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numThreads];
+		for (int n = 0; n < numThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					for (int row = nextRow.getAndIncrement(); row < numRows; row = nextRow.getAndIncrement()){
+						int i = row / height;
+						projectRow(slices, size, spacing, rayGeometries[i], row % height, width, buffers[i], stepSize);
+					}
+				}
+			};
+		}
+		ParallelThreadExecutor executor = new ParallelThreadExecutor(runnables);
+		try {
+			executor.execute();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Forward projection was interrupted.", e);
+		}
+	}
+
+	/**
+	 * Projects one detector row.
+	 */
+	private static void projectRow(float [][] slices, int [] size, double [] spacing, double [] rayGeometry, int v, int width, float [] target, double stepSize){
+		double [] edgeMin = new double[3];
+		double [] edgeMax = new double[3];
+		for (int d = 0; d < 3; d++){
+			edgeMin[d] = -0.5 + CONRAD.SMALL_VALUE;
+			edgeMax[d] = size[d] - 0.5 - CONRAD.SMALL_VALUE;
+		}
+		double sx = rayGeometry[9];
+		double sy = rayGeometry[10];
+		double sz = rayGeometry[11];
+		// direction of the ray through pixel (0, v)
+		double rowX = rayGeometry[2] + (v * rayGeometry[1]);
+		double rowY = rayGeometry[5] + (v * rayGeometry[4]);
+		double rowZ = rayGeometry[8] + (v * rayGeometry[7]);
+		int offset = v * width;
+		for (int u = 0; u < width; u++){
+			double rx = rowX + (u * rayGeometry[0]);
+			double ry = rowY + (u * rayGeometry[3]);
+			double rz = rowZ + (u * rayGeometry[6]);
+			double normFactor = 1.0 / Math.sqrt((rx * rx) + (ry * ry) + (rz * rz));
+			rx *= normFactor;
+			ry *= normFactor;
+			rz *= normFactor;
+			double pixel = projectRay(slices, size, sx, sy, sz, rx, ry, rz, stepSize, edgeMin, edgeMax);
+			// normalize pixel value to world coordinate system units
+			pixel *= Math.sqrt(((rx * spacing[0]) * (rx * spacing[0]))
+					+ ((ry * spacing[1]) * (ry * spacing[1]))
+					+ ((rz * spacing[2]) * (rz * spacing[2])));
+			target[offset + u] = (float) pixel;
+		}
+	}
+
+	/**
+	 * Integrates the volume along the ray source + alpha * direction in voxel coordinates using the trapezoidal rule.
+	 * Unlike the OpenCL kernel, which checks for a positive sum, the correction of the last segment is applied whenever at least one sample was taken. Hence, negative volumes are integrated correctly as well.
+	 */
+	static double projectRay(float [][] slices, int [] size, double sx, double sy, double sz, double rx, double ry, double rz, double stepSize, double [] edgeMin, double [] edgeMax){
+		// compute alpha value at entry and exit point of the volume
+		double minAlpha = 0;
+		double maxAlpha = Double.POSITIVE_INFINITY;
+		if (rx != 0) {
+			double reci = 1.0 / rx;
+			double alpha0 = (edgeMin[0] - sx) * reci;
+			double alpha1 = (edgeMax[0] - sx) * reci;
+			minAlpha = Math.min(alpha0, alpha1);
+			maxAlpha = Math.max(alpha0, alpha1);
+		}
+		if (ry != 0) {
+			double reci = 1.0 / ry;
+			double alpha0 = (edgeMin[1] - sy) * reci;
+			double alpha1 = (edgeMax[1] - sy) * reci;
+			minAlpha = Math.max(minAlpha, Math.min(alpha0, alpha1));
+			maxAlpha = Math.min(maxAlpha, Math.max(alpha0, alpha1));
+		}
+		if (rz != 0) {
+			double reci = 1.0 / rz;
+			double alpha0 = (edgeMin[2] - sz) * reci;
+			double alpha1 = (edgeMax[2] - sz) * reci;
+			minAlpha = Math.max(minAlpha, Math.min(alpha0, alpha1));
+			maxAlpha = Math.min(maxAlpha, Math.max(alpha0, alpha1));
+		}
+		if (!(minAlpha < maxAlpha)) return 0;
+		// entrance boundary: only half a step is considered for the first sample
+		double pixel = 0.5 * interpolate(slices, size, sx + (minAlpha * rx), sy + (minAlpha * ry), sz + (minAlpha * rz));
+		double alpha = minAlpha + stepSize;
+		double last = minAlpha;
+		// mid segments
+		while (alpha < maxAlpha){
+			pixel += interpolate(slices, size, sx + (alpha * rx), sy + (alpha * ry), sz + (alpha * rz));
+			last = alpha;
+			alpha += stepSize;
+		}
+		pixel *= stepSize;
+		// the last segment of the line takes care of the varying length
+		double lastValue = interpolate(slices, size, sx + (last * rx), sy + (last * ry), sz + (last * rz));
+		double lastStepSize = maxAlpha - last;
+		pixel -= 0.5 * stepSize * lastValue;
+		pixel += 0.5 * lastStepSize * lastValue;
+		pixel += 0.5 * lastStepSize * interpolate(slices, size, sx + (maxAlpha * rx), sy + (maxAlpha * ry), sz + (maxAlpha * rz));
+		return pixel;
+	}
+
+	/**
+	 * Trilinear interpolation in voxel coordinates. Coordinates outside the volume are clamped to the edge as by the OpenCL sampler.
+	 */
+	static double interpolate(float [][] slices, int [] size, double x, double y, double z){
+		int x0 = (int) Math.floor(x);
+		int y0 = (int) Math.floor(y);
+		int z0 = (int) Math.floor(z);
+		double ax = x - x0;
+		double ay = y - y0;
+		double az = z - z0;
+		int width = size[0];
+		int i0 = clamp(x0, width);
+		int i1 = clamp(x0 + 1, width);
+		int j0 = clamp(y0, size[1]) * width;
+		int j1 = clamp(y0 + 1, size[1]) * width;
+		float [] slice0 = slices[clamp(z0, size[2])];
+		float [] slice1 = slices[clamp(z0 + 1, size[2])];
+		double v0 = ((1 - ay) * (((1 - ax) * slice0[j0 + i0]) + (ax * slice0[j0 + i1])))
+				+ (ay * (((1 - ax) * slice0[j1 + i0]) + (ax * slice0[j1 + i1])));
+		double v1 = ((1 - ay) * (((1 - ax) * slice1[j0 + i0]) + (ax * slice1[j0 + i1])))
+				+ (ay * (((1 - ax) * slice1[j1 + i0]) + (ax * slice1[j1 + i1])));
+		return ((1 - az) * v0) + (az * v1);
+	}
+
+	private static int clamp(int index, int size){
+		if (index < 0) return 0;
+		if (index >= size) return size - 1;
+		return index;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
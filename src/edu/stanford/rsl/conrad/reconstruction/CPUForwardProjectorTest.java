@@ -0,0 +1,136 @@
+package edu.stanford.rsl.conrad.reconstruction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.geometry.General;
+import edu.stanford.rsl.conrad.geometry.Projection;
+import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
+import edu.stanford.rsl.conrad.geometry.trajectories.CircularTrajectory;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.tutorial.cone.ConeBeamProjector;
+
+public class CPUForwardProjectorTest {
+
+	static Trajectory createGeometry(){
+		CircularTrajectory geometry = new CircularTrajectory();
+		geometry.setDetectorWidth(48);
+		geometry.setDetectorHeight(40);
+		geometry.setPixelDimensionX(1.5);
+		geometry.setPixelDimensionY(1.5);
+		geometry.setSourceToDetectorDistance(400);
+		geometry.setReconDimensions(24, 20, 16);
+		geometry.setReconVoxelSizes(new double[] {1.0, 1.2, 1.5});
+		geometry.setOriginInPixelsX(11.5);
+		geometry.setOriginInPixelsY(8);
+		geometry.setOriginInPixelsZ(7.5);
+		geometry.setTrajectory(7, 250, 29, 1.5, -2, Projection.CameraAxisDirection.ROTATIONAXIS_PLUS, Projection.CameraAxisDirection.DETECTORMOTION_PLUS, new SimpleVector(0, 0, 1));
+		return geometry;
+	}
+
+	/**
+	 * The trapezoidal rule is exact for a constant volume. Hence, the projection of ones is the length of the ray inside the volume.
+	 */
+	@Test
+	public void testProjectionOfOnesIsIntersectionLength() {
+		Trajectory geometry = createGeometry();
+		Grid3D volume = new Grid3D(24, 20, 16);
+		volume.getGridOperator().fill(volume, 1);
+		Grid3D sino = new CPUForwardProjector(geometry).project(volume);
+		double [] spacing = {geometry.getVoxelSpacingX(), geometry.getVoxelSpacingY(), geometry.getVoxelSpacingZ()};
+		double [] origin = {geometry.getOriginX(), geometry.getOriginY(), geometry.getOriginZ()};
+		SimpleVector min = new SimpleVector(3);
+		SimpleVector max = new SimpleVector(3);
+		for (int d = 0; d < 3; d++){
+			min.setElementValue(d, origin[d] + ((-0.5 + CONRAD.SMALL_VALUE) * spacing[d]));
+			max.setElementValue(d, origin[d] + ((volume.getSize()[d] - 0.5 - CONRAD.SMALL_VALUE) * spacing[d]));
+		}
+		int hits = 0;
+		double [] distances = new double[2];
+		for (int p = 0; p < geometry.getProjectionStackSize(); p++){
+			Projection proj = geometry.getProjectionMatrix(p);
+			SimpleVector source = proj.computeCameraCenter();
+			for (int v = 0; v < geometry.getDetectorHeight(); v++){
+				for (int u = 0; u < geometry.getDetectorWidth(); u++){
+					SimpleVector dir = proj.computeRayDirection(new SimpleVector(u, v));
+					double expected = 0;
+					// the projector integrates along the whole line through source and pixel
+					if (General.intersectRayWithCuboid(source, dir, min, max, distances)
+							|| General.intersectRayWithCuboid(source, dir.negated(), min, max, distances)) {
+						expected = distances[1] - distances[0];
+						hits++;
+					}
+					assertEquals(expected, sino.getAtIndex(u, v, p), 1e-4);
+				}
+			}
+		}
+		assertEquals(true, hits > 1000);
+	}
+
+	@Test
+	public void testSingleProjectionMatchesStack() {
+		Trajectory geometry = createGeometry();
+		Random random = new Random(3);
+		Grid3D volume = new Grid3D(24, 20, 16);
+		for (int k = 0; k < 16; k++){
+			float [] buffer = volume.getSubGrid(k).getBuffer();
+			for (int i = 0; i < buffer.length; i++){
+				buffer[i] = random.nextFloat() - 0.2f;
+			}
+		}
+		CPUForwardProjector projector = new CPUForwardProjector(geometry);
+		projector.setStepSize(0.5);
+		Grid3D sino = projector.project(volume);
+		for (int p = 0; p < geometry.getProjectionStackSize(); p++){
+			Grid2D single = projector.project(volume, p);
+			float [] expected = sino.getSubGrid(p).getBuffer();
+			float [] actual = single.getBuffer();
+			for (int i = 0; i < expected.length; i++){
+				assertEquals(expected[i], actual[i], 0);
+			}
+		}
+	}
+
+	/**
+	 * Compares the source position and the ray directions in voxel coordinates with the canonical conversion of the OpenCL projector.
+	 */
+	@Test
+	public void testRayGeometryMatchesCanonicalConversion() {
+		Trajectory geometry = createGeometry();
+		// the OpenCL projectors assume a volume that is centered around the world origin
+		double [] spacing = {geometry.getVoxelSpacingX(), geometry.getVoxelSpacingY(), geometry.getVoxelSpacingZ()};
+		int [] size = {geometry.getReconDimensionX(), geometry.getReconDimensionY(), geometry.getReconDimensionZ()};
+		double [] origin = new double[3];
+		for (int d = 0; d < 3; d++){
+			origin[d] = -0.5 * (size[d] - 1) * spacing[d];
+		}
+		for (int p = 0; p < geometry.getProjectionStackSize(); p++){
+			Projection proj = geometry.getProjectionMatrix(p);
+			double [] rayGeometry = CPUForwardProjector.computeRayGeometry(proj, origin, spacing);
+			Jama.Matrix mat = new Jama.Matrix(proj.computeP().copyAsDoubleArray());
+			Jama.Matrix invAR = mat.getMatrix(0, 2, 0, 2).inverse();
+			Jama.Matrix source = ConeBeamProjector.computeSrcPt(mat, invAR);
+			for (int r = 0; r < 3; r++){
+				assertEquals(-(-0.5 * (size[r] - 1.0) + (source.get(r, 0) / spacing[r])), rayGeometry[9 + r], 1e-8);
+				for (int c = 0; c < 3; c++){
+					assertEquals(invAR.get(r, c) / spacing[r], rayGeometry[(3 * r) + c], 1e-12);
+				}
+			}
+		}
+		// sanity check of the world coordinates of the source
+		PointND center = new PointND(geometry.getProjectionMatrix(0).computeCameraCenter());
+		assertEquals(250, center.getAbstractVector().normL2(), 1e-8);
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
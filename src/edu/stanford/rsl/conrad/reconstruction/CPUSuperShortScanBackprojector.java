@@ -72,7 +72,7 @@ public class CPUSuperShortScanBackprojector extends VOIBasedReconstructionFilter
 						boolean project = true;
 						if (useVOImap){
 							if (voiMap != null){
-								project = voiMap[i][j][k];
+								project = voiMap.contains(i, j, k);
 							}
 						}
 						if (project){			
@@ -158,6 +158,11 @@ public class CPUSuperShortScanBackprojector extends VOIBasedReconstructionFilter
 		return "Super Short Scan Backprojector";
 	}
 	
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Andreas Maier
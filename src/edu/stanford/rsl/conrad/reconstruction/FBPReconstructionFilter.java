@@ -1,7 +1,13 @@
 package edu.stanford.rsl.conrad.reconstruction;
 
+import java.util.Arrays;
+
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.filtering.ImageFilteringTool;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 /**
  * The FBP reconstruction filter is the abstract class that describes a general outline for a 
@@ -40,13 +46,93 @@ public abstract class FBPReconstructionFilter extends ReconstructionFilter {
 	 */
 	protected abstract void backproject(Grid2D projection, int projectionNumber) throws Exception;
 
-	@Override
-	protected void reconstruct() throws Exception {
-		for (int i = 0; i < nImages; i++){
+	/**
+	 * Backprojects several projections into the reconstruction space. Backprojectors which can process several projections in one
+	 * sweep over the volume override this method and {@link #getProjectionsPerSweep()}. The default implementation backprojects the projections one by one.
+	 * @param projections the projections to backproject
+	 * @param projectionNumbers the numbers of the projections in the data set.
+	 * @throws Exception may happen.
+	 */
+	protected void backproject(Grid2D [] projections, int [] projectionNumbers) throws Exception {
+		for (int n = 0; n < projections.length; n++){
+			backproject(projections[n], projectionNumbers[n]);
+		}
+	}
+
+	/**
+	 * @return the number of projections that are passed to {@link #backproject(Grid2D[], int[])} at once.
+	 */
+	protected int getProjectionsPerSweep(){
+		return 1;
+	}
+
+	/**
+	 * Backprojects the projections [start, end) and reports errors instead of passing them on. A projection that cannot be read
+	 * is reported and left out, the other projections of the sweep are still backprojected.
+	 * @param start the first projection number
+	 * @param end the projection number after the last projection
+	 */
+	private void backprojectFromQueue(int start, int end){
+		if (end - start == 1) {
 			try {
-			backproject(inputQueue.get(i), i);
+				backproject(inputQueue.get(start), start);
 			} catch (Exception e){
-				System.out.println("An error occured during backprojection of projection " + i);
+				System.out.println("An error occured during backprojection of projection " + start);
+			}
+			return;
+		}
+		Grid2D [] projections = new Grid2D[end - start];
+		int [] projectionNumbers = new int[end - start];
+		int valid = 0;
+		for (int n = start; n < end; n++){
+			try {
+				Grid2D projection = inputQueue.get(n);
+				if (projection == null) throw new NullPointerException("Projection " + n + " is missing.");
+				projections[valid] = projection;
+				projectionNumbers[valid] = n;
+				valid++;
+			} catch (Exception e){
+				System.out.println("An error occured during backprojection of projection " + n);
+			}
+		}
+		if (valid == 0) return;
+		try {
+			if (valid < projections.length) {
+				projections = Arrays.copyOf(projections, valid);
+				projectionNumbers = Arrays.copyOf(projectionNumbers, valid);
+			}
+			backproject(projections, projectionNumbers);
+		} catch (Exception e){
+			System.out.println("An error occured during backprojection of projections " + Arrays.toString(projectionNumbers));
+		}
+	}
+
+	@Override
+	protected void reconstruct() throws Exception {
+		final int sweep = Math.max(1, getProjectionsPerSweep());
+		final int numSweeps = (nImages + sweep - 1) / sweep;
+		if (getActiveAccumulationMode() == VolumeAccumulationMode.THREAD_LOCAL) {
+			// Updates do not lock. Hence, projections can be processed in parallel.
+			// The first sweep runs in this thread. Thus, the lazy initialisation of the backprojector is complete before the other threads start.
+			backprojectFromQueue(0, Math.min(nImages, sweep));
+			final int numThreads = CONRAD.getNumberOfThreads();
+			ParallelizableRunnable [] runnables = new ParallelizableRunnable[numThreads];
+			for (int j= 0; j<numThreads; j++) {
+				runnables[j]= new SimpleParallelThread(j) {
+					@Override
+					public void execute() {
+						for (int s = threadNum + 1; s < numSweeps; s += numThreads){
+							backprojectFromQueue(s * sweep, Math.min(nImages, (s + 1) * sweep));
+						}
+					}
+				};
+			}
+			ParallelThreadExecutor executor = new ParallelThreadExecutor(runnables);
+			executor.execute();
+			reducePartialVolumes();
+		} else {
+			for (int s = 0; s < numSweeps; s++){
+				backprojectFromQueue(s * sweep, Math.min(nImages, (s + 1) * sweep));
 			}
 		}
 		if (Configuration.getGlobalConfiguration().getUseHounsfieldScaling()) applyHounsfieldScaling();
@@ -83,6 +83,11 @@ public class LolaBunnyBackprojector extends VOIBasedReconstructionFilter {
 		return "Lola Bunny CPU-based Backprojector";
 	}
 	
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Andreas Maier
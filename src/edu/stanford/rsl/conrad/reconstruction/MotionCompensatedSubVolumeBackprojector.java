@@ -34,6 +34,8 @@ public class MotionCompensatedSubVolumeBackprojector extends SubVolumeBackprojec
 		subVolumes = new Grid3D[numThreads];
 		for (int i = 0; i < numThreads; i++){
 			projectors[i] = new MotionCompensatedVOIBasedReconstructionFilter();
+			// every projector owns its sub volume exclusively
+			projectors[i].setAccumulationMode(VolumeAccumulationMode.SLAB);
 		}
 	}
 
@@ -6,6 +6,7 @@ import ij.process.FloatProcessor;
 import java.util.ArrayList;
 
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.geometry.motion.DisplacementGrid;
 import edu.stanford.rsl.conrad.geometry.motion.MotionField;
 import edu.stanford.rsl.conrad.geometry.motion.MotionUtil;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
@@ -14,6 +15,8 @@ import edu.stanford.rsl.conrad.numerics.SimpleOperators;
 import edu.stanford.rsl.conrad.numerics.SimpleVector;
 import edu.stanford.rsl.conrad.phantom.AnalyticPhantom4D;
 import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
 
 
 /**
@@ -22,6 +25,9 @@ import edu.stanford.rsl.conrad.utils.CONRAD;
  * as volumes are usually described as boxes but the VOI is just a cylinder.
  * 
  * This version of the reconstruction algorithm applies the motion field stored in 4D_SPLINE_LOCATION before the backprojection.
+ * <BR><BR>
+ * By default, the motion field is evaluated exactly at every voxel and the positions of all time points are stored. If {@link RegKeys#MOTION_DISPLACEMENT_GRID_SUBSAMPLING}
+ * is set, the motion field is only evaluated on a coarser {@link DisplacementGrid} once and the displacement of every voxel is interpolated trilinearly.
  * 
  * @author akmaier
  *
@@ -34,6 +40,8 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 	private static final long serialVersionUID = 4449313613390154787L;
 	protected MotionField motionField;
 	private PointND[][][][] pointCorrespondences;
+	private int displacementGridSubsampling = 0;
+	private transient DisplacementGrid displacementGrid;
 
 	/**
 	 * @return the pointCorrespondences
@@ -54,6 +62,7 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 	public void prepareForSerialization(){
 		super.prepareForSerialization();
 		motionField = null;
+		displacementGrid = null;
 	}
 
 	protected synchronized void initialize(Grid2D projection){
@@ -63,7 +72,37 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 				System.out.println("loading Motion Field");
 				motionField = MotionUtil.get4DSpline();
 			}
+			try {
+				String subsampling = Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.MOTION_DISPLACEMENT_GRID_SUBSAMPLING);
+				if (subsampling != null) displacementGridSubsampling = Integer.parseInt(subsampling);
+			} catch (Exception e) {
+				CONRAD.log("Could not read '" + RegKeys.MOTION_DISPLACEMENT_GRID_SUBSAMPLING + "' from registry. Evaluating the motion field at every voxel.");
+				displacementGridSubsampling = 0;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the motion field on a grid of every displacementGridSubsampling-th voxel for all projection times. The grid is computed only once.
+	 * @param centerTranslation translation from voxel to motion field coordinates or null
+	 * @param times the times of the projections
+	 * @return the grid
+	 */
+	protected synchronized DisplacementGrid getDisplacementGrid(SimpleVector centerTranslation, double [] times){
+		if (displacementGrid == null) {
+			int s = displacementGridSubsampling;
+			double [] spacing = {getGeometry().getVoxelSpacingX() * s, getGeometry().getVoxelSpacingY() * s, getGeometry().getVoxelSpacingZ() * s};
+			double [] origin = {-offsetX, -offsetY, -offsetZ};
+			if (centerTranslation != null){
+				for (int d = 0; d < 3; d++){
+					origin[d] += centerTranslation.getElement(d);
+				}
+			}
+			// cover the last voxel in each direction
+			int [] size = {((maxI - 1 + s - 1) / s) + 1, ((maxJ - 1 + s - 1) / s) + 1, ((maxK - 1 + s - 1) / s) + 1};
+			displacementGrid = new DisplacementGrid(motionField, 0, times, origin, spacing, size);
 		}
+		return displacementGrid;
 	}
 
 	public void backproject(Grid2D projection, int projectionNumber){
@@ -76,7 +115,8 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 		double D =  getGeometry().getSourceToDetectorDistance();
 		double scalingFactor = (10*D*D * 2* Math.PI * getGeometry().getPixelDimensionX()/ getGeometry().getNumProjectionMatrices());
 		
-		if (pointCorrespondences == null) pointCorrespondences = new PointND[getGeometry().getNumProjectionMatrices()][maxK][maxJ][maxI];
+		boolean useDisplacementGrid = displacementGridSubsampling > 0;
+		if (pointCorrespondences == null && !useDisplacementGrid) pointCorrespondences = new PointND[getGeometry().getNumProjectionMatrices()][maxK][maxJ][maxI];
 		FloatProcessor currentProjection = new FloatProcessor(projection.getWidth(), projection.getHeight(), projection.getBuffer(), null);
 		//ImageProcessor currentProjection = projection;
 		int p = projectionNumber;
@@ -93,7 +133,9 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 			times [i]= ((double)i) / (getGeometry().getNumProjectionMatrices()-1.0);
 		}
 		System.out.println("Processing projection " + p);
-		if (mat != null){
+		if (mat != null && useDisplacementGrid){
+			backprojectWithDisplacementGrid(currentProjection, p, mat, getDisplacementGrid(centerTranlation, times), centerTranlation, scalingFactor);
+		} else if (mat != null){
 			boolean nanHappened = false;
 			for (int k = 0; k < maxK ; k++){ // for all slices
 				if (debug) System.out.println("here: " + " " + k);
@@ -106,7 +148,7 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 						boolean project = true;
 						if (useVOImap){
 							if (voiMap != null){
-								project = voiMap[i][j][k];
+								project = voiMap.contains(i, j, k);
 							}
 						}
 						if (project){			
@@ -153,6 +195,56 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 		}
 	}
 
+	/**
+	 * Backprojection with the displacements interpolated from the DisplacementGrid. No objects are created per voxel.
+	 */
+	private void backprojectWithDisplacementGrid(FloatProcessor currentProjection, int p, SimpleMatrix mat, DisplacementGrid grid, SimpleVector centerTranslation, double scalingFactor){
+		int count = 0;
+		boolean nanHappened = false;
+		double [][] m = new double [3][4];
+		for (int r = 0; r < 3; r++){
+			for (int c = 0; c < 4; c++){
+				m[r][c] = mat.getElement(r, c);
+			}
+		}
+		// the grid is sampled in motion field coordinates, i.e. shifted by the center translation.
+		double [] center = new double [3];
+		if (centerTranslation != null){
+			center = centerTranslation.copyAsDoubleArray();
+		}
+		double [] displacement = new double [3];
+		for (int k = 0; k < maxK ; k++){ // for all slices
+			double z = (this.getGeometry().getVoxelSpacingZ() * (k)) - offsetZ;
+			for (int j = 0; j < maxJ; j++){ // for all voxels
+				double y = (this.getGeometry().getVoxelSpacingY() * j) - offsetY;
+				for (int i=0; i < maxI; i++){ // for all lines
+					if (useVOImap && voiMap != null && !voiMap.contains(i, j, k)) continue;
+					double x = (this.getGeometry().getVoxelSpacingX() * i) - offsetX;
+					grid.getDisplacement(p, x + center[0], y + center[1], z + center[2], displacement);
+					double px = x + displacement[0];
+					double py = y + displacement[1];
+					double pz = z + displacement[2];
+					double hx = (m[0][0] * px) + (m[0][1] * py) + (m[0][2] * pz) + m[0][3];
+					double hy = (m[1][0] * px) + (m[1][1] * py) + (m[1][2] * pz) + m[1][3];
+					double hw = (m[2][0] * px) + (m[2][1] * py) + (m[2][2] * pz) + m[2][3];
+					double coordX = hx / hw;
+					double coordY = hy / hw;
+					double increment = currentProjection.getInterpolatedValue(coordX + lineOffset, coordY) / (hw * hw);
+					if (Double.isNaN(increment)){
+						nanHappened = true;
+						if (count < 10) System.out.println("NAN Happened at i = " + i + " j = " + j + " k = " + k + " projection = " + p + " x = " + coordX + " y = " + coordY  );
+						increment = 0;
+						count ++;
+					}
+					updateVolume(i, j, k, scalingFactor*increment);
+				}
+			}
+		}
+		if (nanHappened) {
+			throw new RuntimeException("Encountered NaN in projection!");
+		}
+	}
+
 	@Override
 	public String getName() {
 		return "Motion-compensated CPU-based Backprojector";
@@ -190,6 +282,11 @@ public class MotionCompensatedVOIBasedReconstructionFilter extends VOIBasedRecon
 		this.motionField = motionField;
 	}
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Andreas Maier
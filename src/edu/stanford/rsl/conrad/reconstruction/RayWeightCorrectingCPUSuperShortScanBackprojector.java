@@ -96,7 +96,7 @@ public class RayWeightCorrectingCPUSuperShortScanBackprojector extends VOIBasedR
 					boolean project = true;
 					if (useVOImap){
 						if (voiMap != null){
-							project = voiMap[i][j][k];
+							project = voiMap.contains(i, j, k);
 						}
 					}
 					if (project){		
@@ -202,6 +202,11 @@ public class RayWeightCorrectingCPUSuperShortScanBackprojector extends VOIBasedR
 	}
 	
 	
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Andreas Maier
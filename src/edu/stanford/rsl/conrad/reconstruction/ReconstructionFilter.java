@@ -1,10 +1,18 @@
 package edu.stanford.rsl.conrad.reconstruction;
 
+import java.nio.FloatBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.stanford.rsl.conrad.data.numeric.BufferedGrid3D;
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.data.numeric.NumericPointwiseOperators;
 import edu.stanford.rsl.conrad.filtering.multiprojection.MultiProjectionFilter;
 import edu.stanford.rsl.conrad.fitting.Function;
 import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
 
 /**
  * All reconstruction algorithms are based on the reconstruction filter. The reconstruction filter is the abstract class that gives the general outline of any reconstruction algorithm. 
@@ -27,12 +35,37 @@ public abstract class ReconstructionFilter extends MultiProjectionFilter {
 	protected double offsetX;
 	protected double offsetY;
 	protected double offsetZ;
-	protected boolean init = false;
+	protected volatile boolean init = false;
 	protected Grid3D projectionVolume;
 	protected int nImages = 0;
+	protected VolumeAccumulationMode accumulationMode = null;
+	private transient VolumeAccumulationMode activeAccumulationMode = null;
+	/**
+	 * Partial volumes of VolumeAccumulationMode.THREAD_LOCAL by thread. The map is owned by the filter and cleared by {@link #reducePartialVolumes()}.
+	 * Thus, the long living pool threads keep no reference to a partial volume after the reconstruction.
+	 */
+	private transient volatile ConcurrentHashMap<Thread, Grid3D> partialVolumes;
 
 	protected static boolean debug = false;
 
+	/**
+	 * Context of the reconstruction filters. It is set on construction. Thus, the limit of the input buffer accounts for it.
+	 */
+	protected static final int RECONSTRUCTION_CONTEXT = 50;
+
+	public ReconstructionFilter(){
+		context = RECONSTRUCTION_CONTEXT;
+	}
+
+	/**
+	 * The projections are only read by the backprojection. A backprojector may scale a projection in place, but the buffer is not expected to keep the change.
+	 * Hence, the input buffer may write projections to the spill file.
+	 */
+	@Override
+	protected boolean modifiesProjectionsInPlace(){
+		return false;
+	}
+
 	@Override
 	protected void processProjectionData(int projectionNumber) throws Exception {
 		if (isLastBlock(projectionNumber)) {
@@ -55,15 +88,193 @@ public abstract class ReconstructionFilter extends MultiProjectionFilter {
 
 	/**
 	 * updates the projection volume. Note that direct access to pixels is much faster than accessing the image data with getProcessor(), if the data type is known.
+	 * Depending on the VolumeAccumulationMode the update is either synchronized on the filter, written to a partial volume of the calling thread, 
+	 * or added without any locking.
 	 * @param i x pixel entry number 
 	 * @param j y pixel entry number
 	 * @param k z pixel entry number
 	 * @param increment the value to add.
+	 * @see #getActiveAccumulationMode()
 	 */
-	public synchronized void updateVolume(int i, int j, int k, double increment){
-		//float [] pixels = (float []) projectionVolume.getStack().getPixels(k + 1);
-		//pixels[(j * geometry.getReconDimensionX()) + i]+= increment;
-		projectionVolume.setAtIndex(i, j, k, (float) (projectionVolume.getAtIndex(i, j, k) + increment));
+	public void updateVolume(int i, int j, int k, double increment){
+		switch (getActiveAccumulationMode()) {
+		case THREAD_LOCAL:
+			addToVolume(getPartialVolume(), i, j, k, increment, true);
+			break;
+		case SLAB:
+			addToVolume(projectionVolume, i, j, k, increment, true);
+			break;
+		default:
+			synchronized (this) {
+				addToVolume(projectionVolume, i, j, k, increment, false);
+			}
+		}
+	}
+
+	/**
+	 * @param exclusive true, if the calling thread owns the voxel and the volume is not read by others during the backprojection.
+	 * A BufferedGrid3D is then updated without locking. Otherwise, the slice of the voxel is locked.
+	 */
+	private static void addToVolume(Grid3D volume, int i, int j, int k, double increment, boolean exclusive){
+		if (volume instanceof BufferedGrid3D) {
+			// the slice of getSubGrid() could be evicted while it is written
+			if (exclusive) {
+				((BufferedGrid3D) volume).addAtIndexUnsynchronized(i, j, k, (float) increment);
+			} else {
+				volume.addAtIndex(i, j, k, (float) increment);
+			}
+			return;
+		}
+		Grid2D slice = volume.getSubGrid(k);
+		slice.getBuffer()[(j * slice.getWidth()) + i] += increment;
+	}
+
+	/**
+	 * updates a consecutive part of a row of the projection volume, i.e. the voxels (startI + n, j, k) for n = 0, ..., length - 1.
+	 * Same as calling {@link #updateVolume(int, int, int, double)} for each voxel, but the accumulation mode is evaluated
+	 * and the lock is acquired only once per row.
+	 * @param startI x pixel entry number of the first voxel
+	 * @param j y pixel entry number
+	 * @param k z pixel entry number
+	 * @param increments the values to add
+	 * @param length the number of voxels to update
+	 */
+	public void updateVolumeRow(int startI, int j, int k, double [] increments, int length){
+		switch (getActiveAccumulationMode()) {
+		case THREAD_LOCAL:
+			addToVolumeRow(getPartialVolume(), startI, j, k, increments, length, true);
+			break;
+		case SLAB:
+			addToVolumeRow(projectionVolume, startI, j, k, increments, length, true);
+			break;
+		default:
+			synchronized (this) {
+				addToVolumeRow(projectionVolume, startI, j, k, increments, length, false);
+			}
+		}
+	}
+
+	private static void addToVolumeRow(Grid3D volume, int startI, int j, int k, double [] increments, int length, boolean exclusive){
+		if (volume instanceof BufferedGrid3D) {
+			if (exclusive) {
+				((BufferedGrid3D) volume).addToRowUnsynchronized(startI, j, k, increments, length);
+			} else {
+				((BufferedGrid3D) volume).addToRow(startI, j, k, increments, length);
+			}
+			return;
+		}
+		Grid2D slice = volume.getSubGrid(k);
+		float [] buffer = slice.getBuffer();
+		int offset = (j * slice.getWidth()) + startI;
+		for (int n = 0; n < length; n++){
+			buffer[offset + n] += increments[n];
+		}
+	}
+
+	/**
+	 * Returns the partial volume of the calling thread. The volume is created on first access. If the projection volume is stored off heap,
+	 * the partial volumes are stored off heap as well.
+	 * @return the partial volume
+	 */
+	protected Grid3D getPartialVolume(){
+		if (partialVolumes == null) {
+			synchronized (this) {
+				if (partialVolumes == null) {
+					partialVolumes = new ConcurrentHashMap<Thread, Grid3D>();
+				}
+			}
+		}
+		Thread thread = Thread.currentThread();
+		Grid3D partial = partialVolumes.get(thread);
+		if (partial == null) {
+			int [] size = projectionVolume.getSize();
+			partial = (projectionVolume instanceof BufferedGrid3D) ? new BufferedGrid3D(size[0], size[1], size[2]) : new Grid3D(size[0], size[1], size[2]);
+			partialVolumes.put(thread, partial);
+		}
+		return partial;
+	}
+
+	/**
+	 * Sums all partial volumes that were created in VolumeAccumulationMode.THREAD_LOCAL into the projection volume and releases them.
+	 * Does nothing, if no partial volumes exist. Must be called after all threads are done with the backprojection.
+	 */
+	protected synchronized void reducePartialVolumes(){
+		if (partialVolumes != null) {
+			for (Grid3D partial : partialVolumes.values()){
+				if (projectionVolume instanceof BufferedGrid3D) {
+					addBufferedVolume((BufferedGrid3D) projectionVolume, partial);
+				} else {
+					NumericPointwiseOperators.addBy(projectionVolume, partial);
+				}
+			}
+			if (debug) System.out.println("Reduced " + partialVolumes.size() + " partial volumes");
+			partialVolumes.clear();
+			partialVolumes = null;
+		}
+	}
+
+	/**
+	 * Adds a volume to an off-heap volume row by row. Thus, not more than one slice of the volumes is loaded to the heap at a time.
+	 */
+	private static void addBufferedVolume(BufferedGrid3D volume, Grid3D partial){
+		int [] size = volume.getSize();
+		double [] row = new double [size[0]];
+		FloatBuffer slice = null;
+		if (partial instanceof BufferedGrid3D) ((BufferedGrid3D) partial).flush();
+		for (int k = 0; k < size[2]; k++){
+			float [] pixels = null;
+			if (partial instanceof BufferedGrid3D) {
+				slice = ((BufferedGrid3D) partial).getSliceBuffer(k);
+			} else {
+				pixels = partial.getSubGrid(k).getBuffer();
+			}
+			for (int j = 0; j < size[1]; j++){
+				for (int i = 0; i < size[0]; i++){
+					int index = (j * size[0]) + i;
+					row[i] = (pixels != null) ? pixels[index] : slice.get(index);
+				}
+				volume.addToRow(0, j, k, row, size[0]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the mode that is used to accumulate the updates in the projection volume. If no mode was set explicitly, 
+	 * the mode is read from the registry (RegKeys.BACKPROJECTION_ACCUMULATION_MODE).
+	 * @return the accumulation mode
+	 */
+	protected VolumeAccumulationMode getActiveAccumulationMode() {
+		if (activeAccumulationMode == null) {
+			VolumeAccumulationMode mode = accumulationMode;
+			if (mode == null) {
+				mode = VolumeAccumulationMode.SYNCHRONIZED;
+				try {
+					String regKey = Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.BACKPROJECTION_ACCUMULATION_MODE);
+					if (regKey != null) {
+						mode = VolumeAccumulationMode.valueOf(regKey.trim());
+					}
+				} catch (Exception e){
+					CONRAD.log("Could not read '" + RegKeys.BACKPROJECTION_ACCUMULATION_MODE + "' from registry. Using " + mode + ".");
+				}
+			}
+			activeAccumulationMode = mode;
+		}
+		return activeAccumulationMode;
+	}
+
+	/**
+	 * @return the accumulation mode that was set explicitly or null, if the registry setting is used.
+	 */
+	public VolumeAccumulationMode getAccumulationMode() {
+		return accumulationMode;
+	}
+
+	/**
+	 * @param accumulationMode the accumulation mode to set. null selects the registry setting.
+	 */
+	public void setAccumulationMode(VolumeAccumulationMode accumulationMode) {
+		this.accumulationMode = accumulationMode;
+		activeAccumulationMode = null;
 	}
 
 	/**
@@ -80,13 +291,30 @@ public abstract class ReconstructionFilter extends MultiProjectionFilter {
 	 * creates an empty projection volume.
 	 */
 	public void initializeProjectionVolume(){
-		projectionVolume = new Grid3D(getGeometry().getReconDimensionX(),getGeometry().getReconDimensionY(),getGeometry().getReconDimensionZ());
+		if (isOffHeapVolume()) {
+			projectionVolume = new BufferedGrid3D(getGeometry().getReconDimensionX(),getGeometry().getReconDimensionY(),getGeometry().getReconDimensionZ());
+		} else {
+			projectionVolume = new Grid3D(getGeometry().getReconDimensionX(),getGeometry().getReconDimensionY(),getGeometry().getReconDimensionZ());
+		}
 		projectionVolume.setOrigin(getGeometry().getOriginX(), getGeometry().getOriginY(), getGeometry().getOriginZ());
 		projectionVolume.setSpacing(getGeometry().getVoxelSpacingX(),getGeometry().getVoxelSpacingY(),getGeometry().getVoxelSpacingZ());
 		if (debug) System.out.println("Created Projection Volume");
 		computeOffsets();
 	}
 
+	/**
+	 * Reads whether the projection volume is stored outside of the Java heap (RegKeys.OFF_HEAP_VOLUMES).
+	 * @return true, if a BufferedGrid3D is used as projection volume.
+	 */
+	protected boolean isOffHeapVolume(){
+		try {
+			return Boolean.parseBoolean(Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.OFF_HEAP_VOLUMES));
+		} catch (Exception e){
+			CONRAD.log("Key '" + RegKeys.OFF_HEAP_VOLUMES + "' was not found in registry.");
+			return false;
+		}
+	}
+
 	/**
 	 * Sets the correct offset values that were set in the configuration.
 	 * This offset is exactly -1 * the origin in pixels.
@@ -125,24 +353,36 @@ public abstract class ReconstructionFilter extends MultiProjectionFilter {
 	@Override
 	public void prepareForSerialization(){
 		super.prepareForSerialization();
+		context = RECONSTRUCTION_CONTEXT;
 		projectionVolume = null;
+		partialVolumes = null;
+		activeAccumulationMode = null;
 	}
 
 
 	protected synchronized void init() {
 		// create volume if required
 		if (!init) {
-			context = 50;
-			if (projectionVolume == null){
-				initializeProjectionVolume();
-				if (debug) System.out.println("Volume created");
-			} else {
-				if (debug) System.out.println("Volume already existing...");
-			}
+			initVolume();
 			init = true;
 		}
 	}
 
+	/**
+	 * Creates the projection volume if required. Does not set the init flag. Thus, subclasses can complete their own initialisation
+	 * before other threads see init == true.
+	 */
+	protected synchronized void initVolume() {
+		activeAccumulationMode = null;
+		setContext(RECONSTRUCTION_CONTEXT);
+		if (projectionVolume == null){
+			initializeProjectionVolume();
+			if (debug) System.out.println("Volume created");
+		} else {
+			if (debug) System.out.println("Volume already existing...");
+		}
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Andreas Maier
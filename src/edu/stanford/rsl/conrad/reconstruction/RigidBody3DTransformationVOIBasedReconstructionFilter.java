@@ -85,7 +85,7 @@ public class RigidBody3DTransformationVOIBasedReconstructionFilter extends VOIBa
 						boolean project = true;
 						if (useVOImap){
 							if (voiMap != null){
-								project = voiMap[i][j][k];
+								project = voiMap.contains(i, j, k);
 							}
 						}
 						if (project){			
@@ -224,6 +224,11 @@ public class RigidBody3DTransformationVOIBasedReconstructionFilter extends VOIBa
 	}
 	*/
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Jang-Hwan Choi
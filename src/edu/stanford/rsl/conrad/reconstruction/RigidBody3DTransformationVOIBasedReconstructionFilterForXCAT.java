@@ -79,7 +79,7 @@ public class RigidBody3DTransformationVOIBasedReconstructionFilterForXCAT extend
 						boolean project = true;
 						if (useVOImap){
 							if (voiMap != null){
-								project = voiMap[i][j][k];
+								project = voiMap.contains(i, j, k);
 							}
 						}
 						if (project){			
@@ -12623,6 +12623,11 @@ public class RigidBody3DTransformationVOIBasedReconstructionFilterForXCAT extend
 		return "3D Rigid-body Transformation Motion-compensated VOI-based Backprojector for XCAT";
 	}
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Jang-Hwan Choi
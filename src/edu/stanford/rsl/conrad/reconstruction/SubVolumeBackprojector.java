@@ -35,6 +35,8 @@ public class SubVolumeBackprojector extends VOIBasedReconstructionFilter {
 		subVolumes = new Grid3D[numThreads];
 		for (int i = 0; i < numThreads; i++){
 			projectors[i] = new VOIBasedReconstructionFilter();
+			// every projector owns its sub volume exclusively
+			projectors[i].setAccumulationMode(VolumeAccumulationMode.SLAB);
 		}
 	}
 
@@ -130,8 +132,16 @@ public class SubVolumeBackprojector extends VOIBasedReconstructionFilter {
 			runnables[j]= new SimpleParallelThread(j) {
 				@Override
 				public void execute() {
-					for (int i = 0; i < nImages; i++){
-						projectors[threadNum].backproject(inputQueue.get(i), i);
+					int sweep = projectors[threadNum].getProjectionsPerSweep();
+					for (int i = 0; i < nImages; i += sweep){
+						int length = Math.min(sweep, nImages - i);
+						Grid2D [] projections = new Grid2D[length];
+						int [] projectionNumbers = new int[length];
+						for (int n = 0; n < length; n++){
+							projections[n] = inputQueue.get(i + n);
+							projectionNumbers[n] = i + n;
+						}
+						projectors[threadNum].backproject(projections, projectionNumbers);
 					}
 				}
 			};  	
@@ -9,12 +9,11 @@ import edu.stanford.rsl.conrad.data.numeric.Grid3D;
 import edu.stanford.rsl.conrad.filtering.ImageFilteringTool;
 import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
 import edu.stanford.rsl.conrad.numerics.SimpleOperators;
-import edu.stanford.rsl.conrad.reconstruction.voi.CylinderBasedVolumeOfInterest;
 import edu.stanford.rsl.conrad.reconstruction.voi.VolumeOfInterest;
+import edu.stanford.rsl.conrad.reconstruction.voi.VolumeOfInterestMap;
 import edu.stanford.rsl.conrad.utils.CONRAD;
 import edu.stanford.rsl.conrad.utils.Configuration;
 import edu.stanford.rsl.conrad.utils.RegKeys;
-import ij.process.FloatProcessor;
 
 
 /**
@@ -45,7 +44,7 @@ public class VOIBasedReconstructionFilter extends FBPReconstructionFilter {
 
 	protected boolean fastVOIMode = true;
 
-	protected boolean [][][] voiMap;
+	protected VolumeOfInterestMap voiMap;
 	protected boolean useVOImap = true;
 	protected VolumeOfInterest interestedInVolume = null;
 	//protected boolean done = false;
@@ -96,7 +95,7 @@ public class VOIBasedReconstructionFilter extends FBPReconstructionFilter {
 
 	protected synchronized void initialize(Grid2D projection){
 		if (!init){
-			super.init();
+			initVolume();
 			// Precompute offsets
 			lineOffset = 0;
 			if (getGeometry().getDetectorWidth() != -1){
@@ -120,58 +119,17 @@ public class VOIBasedReconstructionFilter extends FBPReconstructionFilter {
 			}
 			initializeVOIMap();
 			time = System.currentTimeMillis();
+			// set last, as the backprojection threads test init without lock
+			init = true;
 		}
 	}
 
 	protected synchronized void initializeVOIMap(){
 		if (useVOImap) {
-			voiMap = new boolean[maxI][maxJ][maxK];
 			CONRAD.log("Creating Voi map - Current Time:" + System.currentTimeMillis());
-			for (int k = 0; k < maxK; k++){ // for all slices
-				double[] voxel = new double [4];
-				voxel[2] = (this.getGeometry().getVoxelSpacingZ() * k) - offsetZ;
-				for (int i=0; i < maxI; i++){ // for all lines
-					voxel[0] = (this.getGeometry().getVoxelSpacingX() * i) - offsetX;
-					for (int j = 0; j < maxJ; j++){ // for all voxels
-						voxel[1] = (this.getGeometry().getVoxelSpacingY() * j) - offsetY;
-						if (interestedInVolume == null) {
-							voiMap[i][j][k] = true;
-						} else {
-							if (interestedInVolume.contains(voxel[0], voxel[1], voxel[2])) {
-								voiMap[i][j][k] = true;
-							} else {
-								voiMap[i][j][k] = false;
-							}
-						}
-					}
-				}
-				if (fastVOIMode){
-					int lowerLimit = (int) (maxK*0.1);
-					if (interestedInVolume instanceof CylinderBasedVolumeOfInterest){
-						lowerLimit = (int) (maxK*0.2);
-					}
-					if (k > lowerLimit) {
-						int upperLimit = (int) (maxK*0.9);
-						if (interestedInVolume instanceof CylinderBasedVolumeOfInterest){
-							upperLimit = (int) (maxK*0.8);
-						}
-						if (k < upperLimit){
-							int l;
-							for (l = lowerLimit + 1; l <= upperLimit; l++){
-								// Copy the values in between lower and upper limit.
-								// This improves the execution speed drastically
-								for (int i=0; i< maxI; i++){ // for all lines
-									for (int j = 0; j < maxJ; j++){ // for all voxels
-										voiMap[i][j][l] = voiMap[i][j][lowerLimit];
-									}
-								}
-							}
-							// set k to the upper limit - 1 as it will be increased in the next iteration
-							k=l-1;
-						}
-					}
-				}
-			}
+			double [] spacing = {getGeometry().getVoxelSpacingX(), getGeometry().getVoxelSpacingY(), getGeometry().getVoxelSpacingZ()};
+			double [] offset = {offsetX, offsetY, offsetZ};
+			voiMap = VolumeOfInterestMap.create(interestedInVolume, maxI, maxJ, maxK, spacing, offset, fastVOIMode);
 			if (interestedInVolume == null){
 				CONRAD.log("VOIBasedBackprojector: interestedInVolume was null.");
 			} else {
@@ -181,106 +139,196 @@ public class VOIBasedReconstructionFilter extends FBPReconstructionFilter {
 			CONRAD.log("VOIBasedBackprojector: Omitting creation of VOI map");
 		}
 	}
-	
-	private Grid3D voiMapToGrid3D(){
-		Grid3D out = null;
-		if(voiMap!=null){
-			out = new Grid3D(voiMap.length, voiMap[0].length, voiMap[0][0].length);
-			for (int i = 0; i < voiMap.length; i++) {
-				for (int j = 0; j < voiMap[0].length; j++) {
-					for (int j2 = 0; j2 < voiMap[0][0].length; j2++) {
-						out.setAtIndex(i, j, j2, (voiMap[i][j][j2]) ? 1.0f : -1.0f);
-					}
-				}
-			}
-		}
-		return out;
-	}
 
 	public void backproject(Grid2D projection, int projectionNumber){
+		backproject(new Grid2D[]{projection}, new int[]{projectionNumber});
+	}
+
+	/**
+	 * Backprojects several projections in one sweep over the volume. The projection matrices are evaluated once per projection
+	 * and the homogeneous coordinates of the voxels of a row are obtained by stepping along the x-axis. The contributions of all projections
+	 * are summed up per voxel before the volume is updated row by row. The projections are not modified.
+	 * @param projections the projections
+	 * @param projectionNumbers the numbers of the projections
+	 */
+	@Override
+	public void backproject(Grid2D [] projections, int [] projectionNumbers){
 		int count = 0;
-		//System.out.println(projectionVolume);
 		if (!init){
-			initialize(projection);
+			initialize(projections[0]);
+		}
+		int numProjections = projections.length;
+		float [][] pixels = new float [numProjections][];
+		int [] widths = new int [numProjections];
+		int [] heights = new int [numProjections];
+		// projection matrices in row-major order
+		double [][] matrices = new double [numProjections][];
+		int [] numbers = new int [numProjections];
+		int valid = 0;
+		for (int n = 0; n < numProjections; n++){
+			SimpleMatrix mat;
+			try {
+				mat = getGeometry().getProjectionMatrix(projectionNumbers[n]).computeP();
+			} catch (RuntimeException e){
+				// only this projection is left out of the sweep
+				System.out.println("An error occured during backprojection of projection " + projectionNumbers[n]);
+				continue;
+			}
+			if (mat == null) continue;
+			pixels[valid] = projections[n].getBuffer();
+			widths[valid] = projections[n].getWidth();
+			heights[valid] = projections[n].getHeight();
+			matrices[valid] = new double [12];
+			for (int r = 0; r < 3; r++){
+				for (int c = 0; c < 4; c++){
+					matrices[valid][(r*4)+c] = mat.getElement(r, c);
+				}
+			}
+			numbers[valid] = projectionNumbers[n];
+			valid++;
 		}
-		FloatProcessor currentProjection = new FloatProcessor(projection.getWidth(), projection.getHeight(), projection.getBuffer(), null);
-		//ImageProcessor currentProjection = projection;
+		if (valid == 0) return;
 
 		// Constant part of distance weighting (D^2) + additional weighting for arbitrary scan ranges
 		double D =  getGeometry().getSourceToDetectorDistance();
-		currentProjection.multiply(D*D * 2* Math.PI / getGeometry().getNumProjectionMatrices());
-
-		int p = projectionNumber;
-		double[] voxel = new double [4];
-		double[] homogeniousPointi = new double[3];
-		double[] homogeniousPointj = new double[3];
-		double[] homogeniousPointk = new double[3];
-		double[][] updateMatrix = new double [3][4];
-		SimpleMatrix mat = getGeometry().getProjectionMatrix(p).computeP();
-		//mat.print(NumberFormat.getInstance(), 6);
-		voxel[3] = 1;
-		if (mat != null){
-			updateMatrix[0][3] = mat.getElement(0,3);
-			updateMatrix[1][3] = mat.getElement(1,3);
-			updateMatrix[2][3] = mat.getElement(2,3);
-			boolean nanHappened = false;
-			for (int k = 0; k < maxK ; k++){ // for all slices
-				if (debug) System.out.println("here: " + " " + k);
-				voxel[2] = (this.getGeometry().getVoxelSpacingZ() * (k)) - offsetZ;
-				updateMatrix[0][2] = mat.getElement(0,2) * voxel[2];
-				updateMatrix[1][2] = mat.getElement(1,2) * voxel[2];
-				updateMatrix[2][2] = mat.getElement(2,2) * voxel[2];
-				homogeniousPointk[0] = updateMatrix[0][3] + updateMatrix[0][2];
-				homogeniousPointk[1] = updateMatrix[1][3] + updateMatrix[1][2];
-				homogeniousPointk[2] = updateMatrix[2][3] + updateMatrix[2][2];
-				for (int i=0; i < maxI; i++){ // for all lines
-					voxel[0] = (this.getGeometry().getVoxelSpacingX() * i) - offsetX;
-					updateMatrix[0][0] = mat.getElement(0,0) * voxel[0];
-					updateMatrix[1][0] = mat.getElement(1,0) * voxel[0];
-					updateMatrix[2][0] = mat.getElement(2,0) * voxel[0];
-					homogeniousPointi[0] = homogeniousPointk[0] + updateMatrix[0][0];
-					homogeniousPointi[1] = homogeniousPointk[1] + updateMatrix[1][0];
-					homogeniousPointi[2] = homogeniousPointk[2] + updateMatrix[2][0];
-					for (int j = 0; j < maxJ; j++){ // for all voxels
-						// compute real world coordinates in homogenious coordinates;
-						boolean project = true;
-						if (useVOImap){
-							if (voiMap != null){
-								project = voiMap[i][j][k];
-							}
-						}
-						if (project){			
-							voxel[1] = (this.getGeometry().getVoxelSpacingY() * j) - offsetY;
-							updateMatrix[0][1] = mat.getElement(0,1) * voxel[1];
-							updateMatrix[1][1] = mat.getElement(1,1) * voxel[1];
-							updateMatrix[2][1] = mat.getElement(2,1) * voxel[1];
-							homogeniousPointj[0] = homogeniousPointi[0] + updateMatrix[0][1];
-							homogeniousPointj[1] = homogeniousPointi[1] + updateMatrix[1][1];
-							homogeniousPointj[2] = homogeniousPointi[2] + updateMatrix[2][1];
-							//Matrix point3d = new Matrix(voxel);
-							//Compute coordinates in projection data.
-							//Matrix point2d = geometry.getProjectionMatrix(p).times(point3d);
-							double coordX = homogeniousPointj[0] / homogeniousPointj[2];
-							double coordY = homogeniousPointj[1] / homogeniousPointj[2];
-							//System.out.println(coordY);
+		double scale = D*D * 2* Math.PI / getGeometry().getNumProjectionMatrices();
+		double spacingX = getGeometry().getVoxelSpacingX();
+		double spacingY = getGeometry().getVoxelSpacingY();
+		double spacingZ = getGeometry().getVoxelSpacingZ();
+		double [] row = new double [maxI];
+		VolumeOfInterestMap map = (useVOImap) ? voiMap : null;
+		boolean nanHappened = false;
+		double [] baseRow = new double [3 * valid];
+		for (int k = 0; k < maxK ; k++){ // for all slices
+			double z = (spacingZ * k) - offsetZ;
+			for (int j = 0; j < maxJ; j++){ // for all lines
+				double y = (spacingY * j) - offsetY;
+				double x0 = -offsetX;
+				for (int n = 0; n < valid; n++){
+					double [] P = matrices[n];
+					baseRow[3*n] = (P[0] * x0) + (P[1] * y) + (P[2] * z) + P[3];
+					baseRow[(3*n)+1] = (P[4] * x0) + (P[5] * y) + (P[6] * z) + P[7];
+					baseRow[(3*n)+2] = (P[8] * x0) + (P[9] * y) + (P[10] * z) + P[11];
+				}
+				int numberOfSpans = (map != null) ? map.getNumberOfSpans(j, k) : 1;
+				for (int span = 0; span < numberOfSpans; span++){
+					int start = (map != null) ? map.getSpanStart(j, k, span) : 0;
+					int end = (map != null) ? Math.min(maxI, map.getSpanEnd(j, k, span)) : maxI;
+					for (int i = start; i < end; i++){ // for all voxels in the VOI
+						double dx = spacingX * i;
+						double sum = 0;
+						for (int n = 0; n < valid; n++){
+							double [] P = matrices[n];
+							// compute the homogeneous coordinates of the voxel in the projection
+							double h0 = baseRow[3*n] + (P[0] * dx);
+							double h1 = baseRow[(3*n)+1] + (P[4] * dx);
+							double h2 = baseRow[(3*n)+2] + (P[8] * dx);
+							double w = 1.0 / h2;
+							double coordX = h0 * w;
+							double coordY = h1 * w;
 							// back project
-							double increment = currentProjection.getInterpolatedValue(coordX + lineOffset, coordY) / (homogeniousPointj[2]*homogeniousPointj[2]);
+							double increment = interpolate(pixels[n], widths[n], heights[n], coordX + lineOffset, coordY) * (w*w);
 							if (Double.isNaN(increment)){
 								nanHappened = true;
-								if (count < 10) System.out.println("NAN Happened at i = " + i + " j = " + j + " k = " + k + " projection = " + projectionNumber + " x = " + coordX + " y = " + coordY  );
+								if (count < 10) System.out.println("NAN Happened at i = " + i + " j = " + j + " k = " + k + " projection = " + numbers[n] + " x = " + coordX + " y = " + coordY  );
 								increment = 0;
 								count ++;
 							}
-							updateVolume(i, j, k, increment);
+							sum += increment;
 						}
+						row[i - start] = sum * scale;
 					}
+					if (end > start) updateVolumeRow(start, j, k, row, end - start);
 				}
 			}
-			if (nanHappened) {
-				throw new RuntimeException("Encountered NaN in projection!");
+		}
+		if (nanHappened) {
+			throw new RuntimeException("Encountered NaN in projection!");
+		}
+		if (debug) System.out.println("done with projections");
+	}
+
+	/**
+	 * Bilinear interpolation on the pixel buffer of a projection. Yields the same values as ImageProcessor.getInterpolatedValue(x, y) of ImageJ,
+	 * i.e. the image is continued with its edge values up to one pixel outside and zero beyond.
+	 * @param pixels the pixel buffer
+	 * @param width the width of the projection
+	 * @param height the height of the projection
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the interpolated value
+	 */
+	protected static double interpolate(float [] pixels, int width, int height, double x, double y){
+		if (x < 0.0 || y < 0.0 || x >= width - 1.0 || y >= height - 1.0) {
+			if (x < -1.0 || y < -1.0 || x >= width || y >= height){
+				return 0.0;
+			}
+			return interpolateEdge(pixels, width, height, x, y);
+		}
+		int xbase = (int) x;
+		int ybase = (int) y;
+		double xFraction = x - xbase;
+		double yFraction = y - ybase;
+		int offset = (ybase * width) + xbase;
+		double lowerLeft = pixels[offset];
+		double lowerRight = pixels[offset + 1];
+		double upperRight = pixels[offset + width + 1];
+		double upperLeft = pixels[offset + width];
+		double upperAverage = upperLeft + xFraction * (upperRight - upperLeft);
+		double lowerAverage = lowerLeft + xFraction * (lowerRight - lowerLeft);
+		return lowerAverage + yFraction * (upperAverage - lowerAverage);
+	}
+
+	private static double interpolateEdge(float [] pixels, int width, int height, double x, double y){
+		int xbase = (int) Math.floor(x);
+		int ybase = (int) Math.floor(y);
+		double xFraction = x - xbase;
+		double yFraction = y - ybase;
+		if (xFraction < 0.0) xFraction = 0.0;
+		if (yFraction < 0.0) yFraction = 0.0;
+		double lowerLeft = getEdgeValue(pixels, width, height, xbase, ybase);
+		double lowerRight = getEdgeValue(pixels, width, height, xbase + 1, ybase);
+		double upperRight = getEdgeValue(pixels, width, height, xbase + 1, ybase + 1);
+		double upperLeft = getEdgeValue(pixels, width, height, xbase, ybase + 1);
+		double upperAverage = upperLeft + xFraction * (upperRight - upperLeft);
+		double lowerAverage = lowerLeft + xFraction * (lowerRight - lowerLeft);
+		return lowerAverage + yFraction * (upperAverage - lowerAverage);
+	}
+
+	private static double getEdgeValue(float [] pixels, int width, int height, int x, int y){
+		if (x <= 0) x = 0;
+		if (x >= width) x = width - 1;
+		if (y <= 0) y = 0;
+		if (y >= height) y = height - 1;
+		return pixels[x + (y * width)];
+	}
+
+	/**
+	 * Determines whether {@link #backproject(Grid2D[], int[])} may backproject several projections in one sweep over the volume.
+	 * Subclasses that override {@link #backproject(Grid2D, int)} must return false, as their backprojection would be bypassed otherwise.
+	 * @return true, if the projections may be batched
+	 */
+	protected boolean supportsBatchedBackprojection(){
+		return true;
+	}
+
+	/**
+	 * Several projections are processed per sweep over the volume, if the subclass {@link #supportsBatchedBackprojection() supports} it.
+	 * The number is read from the registry (RegKeys.BACKPROJECTION_PROJECTIONS_PER_SWEEP).
+	 */
+	@Override
+	protected int getProjectionsPerSweep(){
+		if (!supportsBatchedBackprojection()) return 1;
+		int sweep = 4;
+		try {
+			String regKey = Configuration.getGlobalConfiguration().getRegistryEntry(RegKeys.BACKPROJECTION_PROJECTIONS_PER_SWEEP);
+			if (regKey != null) {
+				sweep = Integer.parseInt(regKey.trim());
 			}
-			if (debug) System.out.println("done with projection");
+		} catch (Exception e){
+			CONRAD.log("Key '" + RegKeys.BACKPROJECTION_PROJECTIONS_PER_SWEEP + "' was not found in registry.");
 		}
+		return Math.max(1, sweep);
 	}
 
 	@Override
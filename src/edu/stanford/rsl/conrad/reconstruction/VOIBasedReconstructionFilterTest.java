@@ -0,0 +1,106 @@
+package edu.stanford.rsl.conrad.reconstruction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.phantom.NumericalSheppLogan3D;
+import edu.stanford.rsl.conrad.reconstruction.voi.VolumeOfInterest;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import ij.process.FloatProcessor;
+
+public class VOIBasedReconstructionFilterTest {
+
+	@Test
+	public void testInterpolationMatchesImageJ() {
+		int width = 13, height = 9;
+		Random random = new Random(7);
+		float [] pixels = new float[width * height];
+		for (int i = 0; i < pixels.length; i++){
+			pixels[i] = random.nextFloat() * 100;
+		}
+		FloatProcessor processor = new FloatProcessor(width, height, pixels, null);
+		for (int n = 0; n < 10000; n++){
+			// includes coordinates at the border and outside of the image
+			double x = (random.nextDouble() * (width + 4)) - 2;
+			double y = (random.nextDouble() * (height + 4)) - 2;
+			assertEquals(processor.getInterpolatedValue(x, y), VOIBasedReconstructionFilter.interpolate(pixels, width, height, x, y), 1e-4);
+		}
+		assertEquals(processor.getInterpolatedValue(width - 1, height - 1), VOIBasedReconstructionFilter.interpolate(pixels, width, height, width - 1, height - 1), 1e-4);
+		assertEquals(processor.getInterpolatedValue(-1, 0), VOIBasedReconstructionFilter.interpolate(pixels, width, height, -1, 0), 1e-4);
+	}
+
+	private static VOIBasedReconstructionFilter createFilter(){
+		VOIBasedReconstructionFilter filter = new VOIBasedReconstructionFilter();
+		filter.setAccumulationMode(VolumeAccumulationMode.SYNCHRONIZED);
+		filter.setMaximumVolumeOfInterest((VolumeOfInterest) null);
+		return filter;
+	}
+
+	/**
+	 * Backprojects the projections of a small phantom in one sweep and one by one. Both volumes have to agree up to rounding.
+	 */
+	@Test
+	public void testBatchedBackprojectionMatchesSingleProjections() {
+		Configuration previous = Configuration.getGlobalConfiguration();
+		Trajectory geometry = CPUForwardProjectorTest.createGeometry();
+		Configuration config = new Configuration();
+		config.setRegistry(new HashMap<String, String>());
+		config.setGeometry(geometry);
+		Configuration.setGlobalConfiguration(config);
+		try {
+			int [] size = {geometry.getReconDimensionX(), geometry.getReconDimensionY(), geometry.getReconDimensionZ()};
+			Grid3D phantom = new NumericalSheppLogan3D(size[0], size[1], size[2]).getNumericalSheppLoganPhantom();
+			int numProjections = geometry.getProjectionStackSize();
+			int [] projectionNumbers = new int[numProjections];
+			Grid2D [] projections = new Grid2D[numProjections];
+			for (int p = 0; p < numProjections; p++){
+				projectionNumbers[p] = p;
+				projections[p] = new Grid2D(geometry.getDetectorWidth(), geometry.getDetectorHeight());
+			}
+			new CPUForwardProjector(geometry).project(phantom, projectionNumbers, projections);
+
+			VOIBasedReconstructionFilter batched = createFilter();
+			assertTrue(batched.getProjectionsPerSweep() > 1);
+			batched.backproject(projections, projectionNumbers);
+			VOIBasedReconstructionFilter single = createFilter();
+			for (int p = 0; p < numProjections; p++){
+				single.backproject(projections[p], p);
+			}
+			Grid3D expected = single.projectionVolume;
+			Grid3D actual = batched.projectionVolume;
+			double max = 0;
+			for (int k = 0; k < size[2]; k++){
+				for (float value : expected.getSubGrid(k).getBuffer()) max = Math.max(max, Math.abs(value));
+			}
+			assertTrue(max > 0);
+			for (int k = 0; k < size[2]; k++){
+				for (int j = 0; j < size[1]; j++){
+					for (int i = 0; i < size[0]; i++){
+						assertEquals(expected.getAtIndex(i, j, k), actual.getAtIndex(i, j, k), max * 1e-5);
+					}
+				}
+			}
+		} finally {
+			Configuration.setGlobalConfiguration(previous);
+		}
+	}
+
+	@Test
+	public void testOverriddenSingleProjectionBackprojectionIsNotBatched() {
+		assertEquals(1, new LolaBunnyBackprojector().getProjectionsPerSweep());
+		assertEquals(1, new CPUSuperShortScanBackprojector().getProjectionsPerSweep());
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,31 @@
+package edu.stanford.rsl.conrad.reconstruction;
+
+/**
+ * Describes how a ReconstructionFilter accumulates backprojected values into its projection volume.
+ * The mode is set via {@link ReconstructionFilter#setAccumulationMode(VolumeAccumulationMode)} or using the
+ * registry key {@link edu.stanford.rsl.conrad.utils.RegKeys#BACKPROJECTION_ACCUMULATION_MODE}.
+ *
+ * @author akmaier
+ *
+ */
+public enum VolumeAccumulationMode {
+	/**
+	 * Every update locks the complete filter. Safe in all situations, but all threads serialize on one monitor.
+	 */
+	SYNCHRONIZED,
+	/**
+	 * Every thread accumulates into a partial volume of its own. The partial volumes are summed up into the projection volume
+	 * once the backprojection is finished. No locking, but one additional volume per worker thread is required.
+	 */
+	THREAD_LOCAL,
+	/**
+	 * The caller guarantees that no two threads write to the same voxels, e.g. because each thread owns a slab of the volume.
+	 * Updates are added without any locking. This also holds for a BufferedGrid3D, whose slices must therefore not be loaded or evicted,
+	 * e.g. by getSubGrid(), while the backprojection is running.
+	 */
+	SLAB;
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -2,7 +2,6 @@ package edu.stanford.rsl.conrad.reconstruction.iterative;
 
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.data.numeric.Grid3D;
-import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
 import edu.stanford.rsl.conrad.reconstruction.iterative.IterativeReconstruction;
 
 public class RayDrivenBasedReconstruction extends IterativeReconstruction {
@@ -24,12 +23,7 @@ public class RayDrivenBasedReconstruction extends IterativeReconstruction {
 	protected final double dy = getGeometry().getVoxelSpacingY();
 	protected final double dz = getGeometry().getVoxelSpacingZ();
 
-	int umin;
-	int umax;
-	int vmin; 
-	int vmax;
-	double []weights;
-	SimpleMatrix mat;
+	protected transient RaySystemMatrix systemMatrix;
 	
 	@Override
 	public void prepareForSerialization(){
@@ -68,8 +62,8 @@ public class RayDrivenBasedReconstruction extends IterativeReconstruction {
 		for ( int ip = 0; ip < nImages; ip++ ){
 			try {
 				projection = inputQueue.get(ip);
-				for (int iu = 0; iu <= maxU ; iu ++ ){
-					for (int iv = 0; iv <= maxV ; iv++){
+				for (int iu = 0; iu < maxU ; iu ++ ){
+					for (int iv = 0; iv < maxV ; iv++){
 						// there may be a problem
 						projectionImage.setAtIndex(ip, iu, iv, projection.getPixelValue(iu + lineOffset, iv));
 							
@@ -82,113 +76,112 @@ public class RayDrivenBasedReconstruction extends IterativeReconstruction {
 
 	}
 
-	public void backproject() throws Exception {
-		for ( int p = 0; p < nImages; p++ ){
-			mat = getGeometry().getProjectionMatrix(p).computeP();
-			
-			for( int k = 0; k < maxK; k++){
-				for( int i = 0; i < maxI; i++ ){
-					for( int j = 0; j < maxJ; j++){
-						
-						if ( getSystemMatrixEntries( i, j, k) ){
-							//Add values to projectionImage
-						}
-					}
-				}	
-			}
-		}
+	/**
+	 * Returns the system matrix of the current geometry. The matrix is created on first use and is shared by all iterations.
+	 * Hence, cached rows are reused as long as the geometry does not change.
+	 * @return the system matrix
+	 */
+	public synchronized RaySystemMatrix getSystemMatrix(){
+		if (systemMatrix == null) systemMatrix = new RaySystemMatrix(getGeometry());
+		return systemMatrix;
+	}
 
+	/**
+	 * Backprojects projectionImage into projectionVolume using the transpose of the system matrix.
+	 * @throws Exception may happen.
+	 */
+	public void backproject() throws Exception {
+		if (projectionVolume == null) initializeProjectionVolume();
+		backproject(projectionImage, projectionVolume);
 	}
 
-	
+	/**
+	 * Forward projects projectionVolume into projectionImage using the system matrix.
+	 * @throws Exception may happen.
+	 */
 	public void forwardproject() throws Exception {
-		for ( int p = 0; p < nImages; p++ ){
-			mat = getGeometry().getProjectionMatrix(p).computeP();
-			
-			for( int k = 0; k < maxK; k++){
-				for( int i = 0; i < maxI; i++ ){
-					for( int j = 0; j < maxJ; j++){
-						
-						if ( getSystemMatrixEntries( i, j, k) ){
-							//Add values to projectionImage
-						}
-						
-					}
-				}	
+		if (projectionImage == null) InitializeProjectionImage();
+		forwardproject(projectionImage, projectionVolume);
+	}
+
+	/**
+	 * Computes the forward projection of the volume. The result is written to projImage, which is indexed as (projection, u, v).
+	 * @param projImage the projection images
+	 * @param volImage the volume
+	 */
+	public void forwardproject(Grid3D projImage, Grid3D volImage){
+		Grid2D [] projections = createProjectionGrids();
+		getSystemMatrix().forwardProject(volImage, projections);
+		for (int p = 0; p < nImages; p++){
+			for (int iv = 0; iv < maxV; iv++){
+				for (int iu = 0; iu < maxU; iu++){
+					projImage.setAtIndex(p, iu, iv, projections[p].getAtIndex(iu, iv));
+				}
 			}
 		}
-	} 
-	
-	public void getSystemMatrixRow(){
-		//TODO 
 	}
-	
-	public void getSystemMatrixColumn(){
-		//TODO
-	}
- 
-	// column/voxel index -> list of pixel indexes with weights
-	public boolean getSystemMatrixEntries( int i, int j, int k){
-		double[] voxel = new double [4];
-		double[] homogeniousPointi = new double[3];
-		double[] homogeniousPointj = new double[3];
-		double[] homogeniousPointk = new double[3];
-		double[][] updateMatrix = new double [3][4];
-		
-		if (mat != null){
-			updateMatrix[0][3] = mat.getElement(0,3);
-			updateMatrix[1][3] = mat.getElement(1,3);
-			updateMatrix[2][3] = mat.getElement(2,3);
-			voxel[3] = 1;
-			
-			voxel[0] = (this.getGeometry().getVoxelSpacingX() * i) - offsetX;
-			updateMatrix[0][0] = mat.getElement(0,0) * voxel[0];
-			updateMatrix[1][0] = mat.getElement(1,0) * voxel[0];
-			updateMatrix[2][0] = mat.getElement(2,0) * voxel[0];
-			homogeniousPointi[0] = homogeniousPointk[0] + updateMatrix[0][0];
-			homogeniousPointi[1] = homogeniousPointk[1] + updateMatrix[1][0];
-			homogeniousPointi[2] = homogeniousPointk[2] + updateMatrix[2][0];
-			
-			voxel[1] = (this.getGeometry().getVoxelSpacingY() * j) - offsetY;
-			updateMatrix[0][1] = mat.getElement(0,1) * voxel[1];
-			updateMatrix[1][1] = mat.getElement(1,1) * voxel[1];
-			updateMatrix[2][1] = mat.getElement(2,1) * voxel[1];
-			homogeniousPointj[0] = homogeniousPointi[0] + updateMatrix[0][1];
-			homogeniousPointj[1] = homogeniousPointi[1] + updateMatrix[1][1];
-			homogeniousPointj[2] = homogeniousPointi[2] + updateMatrix[2][1];
-			
-			voxel[2] = (this.getGeometry().getVoxelSpacingZ() * (k)) - offsetZ;
-			updateMatrix[0][2] = mat.getElement(0,2) * voxel[2];
-			updateMatrix[1][2] = mat.getElement(1,2) * voxel[2];
-			updateMatrix[2][2] = mat.getElement(2,2) * voxel[2];
-			homogeniousPointk[0] = updateMatrix[0][3] + updateMatrix[0][2];
-			homogeniousPointk[1] = updateMatrix[1][3] + updateMatrix[1][2];
-			homogeniousPointk[2] = updateMatrix[2][3] + updateMatrix[2][2];
-			
-			double coordX = homogeniousPointj[0] / homogeniousPointj[2];
-			double coordY = homogeniousPointj[1] / homogeniousPointj[2];
 
-			umin = (int) Math.floor (coordX);
-			umax = (int) Math.ceil  (coordX);
-			vmin = (int) Math.floor (coordY);
-			vmax = (int) Math.ceil  (coordY);
-			
-			umin = Math.max(umin, maxU);
-			umax = Math.min(umax, 0);
-			vmin = Math.max(vmin, maxV);
-			vmax = Math.min(vmax, 0);
-			
-			if ( umax > umin && vmax > vmin){
-				return false;
+	/**
+	 * Computes the backprojection of the projection images, which are indexed as (projection, u, v). The volume is overwritten.
+	 * The backprojection is the exact adjoint of {@link #forwardproject(Grid3D, Grid3D)}.
+	 * @param projImage the projection images
+	 * @param volImage the volume
+	 */
+	public void backproject(Grid3D projImage, Grid3D volImage){
+		Grid2D [] projections = createProjectionGrids();
+		for (int p = 0; p < nImages; p++){
+			for (int iv = 0; iv < maxV; iv++){
+				for (int iu = 0; iu < maxU; iu++){
+					projections[p].setAtIndex(iu, iv, projImage.getAtIndex(p, iu, iv));
+				}
 			}
-			
-			//compute the weights
 		}
-		return true;		
+		getSystemMatrix().backproject(projections, volImage);
 	}
-	
- 
-	
+
+	private Grid2D [] createProjectionGrids(){
+		Grid2D [] projections = new Grid2D[nImages];
+		for (int p = 0; p < nImages; p++){
+			projections[p] = new Grid2D(maxU, maxV);
+		}
+		return projections;
+	}
+
+	/**
+	 * Returns the weights of all voxels for the ray through detector pixel (u, v) of projection p.
+	 * Voxels are numbered (k * maxJ + j) * maxI + i.
+	 * @param p the projection
+	 * @param u the detector column
+	 * @param v the detector row
+	 * @return the row of the system matrix
+	 */
+	public RaySystemMatrix.SparseRow getSystemMatrixRow(int p, int u, int v){
+		return getSystemMatrix().getRow(p, u, v);
+	}
+
+	/**
+	 * Returns the weights of voxel (i, j, k) in all detector pixels.
+	 * Pixels are numbered (p * maxV + v) * maxU + u.
+	 * @param i the voxel index in x
+	 * @param j the voxel index in y
+	 * @param k the voxel index in z
+	 * @return the column of the system matrix
+	 */
+	public RaySystemMatrix.SparseRow getSystemMatrixColumn(int i, int j, int k){
+		return getSystemMatrix().getColumn(i, j, k);
+	}
+
+	/**
+	 * Checks whether voxel (i, j, k) contributes to any detector pixel.
+	 * @param i the voxel index in x
+	 * @param j the voxel index in y
+	 * @param k the voxel index in z
+	 * @return true, if the column of the voxel contains non-zero weights
+	 */
+	public boolean getSystemMatrixEntries( int i, int j, int k){
+		return getSystemMatrixColumn(i, j, k).getSize() > 0;
+	}
+
 	@Override
 	public String getBibtexCitation() {
 		// TODO Auto-generated method stub
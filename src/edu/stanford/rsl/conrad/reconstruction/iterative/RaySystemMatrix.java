@@ -0,0 +1,871 @@
+package edu.stanford.rsl.conrad.reconstruction.iterative;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.geometry.Projection;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.numerics.SimpleMatrix;
+import edu.stanford.rsl.conrad.parallel.ParallelThreadExecutor;
+import edu.stanford.rsl.conrad.parallel.ParallelizableRunnable;
+import edu.stanford.rsl.conrad.parallel.SimpleParallelThread;
+import edu.stanford.rsl.conrad.reconstruction.CPUForwardProjector;
+import edu.stanford.rsl.conrad.utils.CONRAD;
+import edu.stanford.rsl.conrad.utils.Configuration;
+import edu.stanford.rsl.conrad.utils.RegKeys;
+
+/**
+ * Ray-driven system matrix A of a cone-beam trajectory. Row (p, u, v) of A contains the weights with which the voxels contribute to the line integral
+ * of detector pixel (u, v) of projection p. The weights are those of the {@link CPUForwardProjector}, i.e. trilinear interpolation of samples along the ray which are integrated
+ * with the trapezoidal rule. {@link #forwardProject(Grid3D, Grid2D[])} computes A x and {@link #backproject(Grid2D[], Grid3D)} computes the exact adjoint A<sup>T</sup> y.
+ * Hence, both operators form a matched pair.
+ * <BR><BR>
+ * Voxels are numbered (k * height + j) * width + i. Rows are numbered (p * detectorHeight + v) * detectorWidth + u.
+ * <BR><BR>
+ * By default, the weights are computed from the geometry whenever they are needed. For fixed geometries the rows can be cached per projection in
+ * compressed sparse row (CSR) format, either in memory or in files on disk (see {@link CacheMode} and {@link RegKeys#RAY_SYSTEM_MATRIX_CACHE}). Repeated iterations then replay the stored weights.
+ * Cache files are named by a hash of the geometry and are only reused, if the hash matches.
+ *
+ * @author akmaier
+ *
+ */
+public class RaySystemMatrix {
+
+	/**
+	 * Describes where the rows of the system matrix are stored.
+	 */
+	public static enum CacheMode {
+		/** The rows are computed whenever they are needed. */
+		NONE,
+		/** The rows are computed once and are kept in memory. */
+		MEMORY,
+		/** The rows are computed once and are written to files. The files are read again whenever the rows are needed. */
+		DISK
+	}
+
+	private static final int FILE_MAGIC = 0x43535231;
+	private static final int FILE_HEADER_SIZE = 24;
+	private static final int IO_BUFFER_SIZE = 1 << 20;
+
+	private final int detectorWidth;
+	private final int detectorHeight;
+	private final int numProjections;
+	private final int [] volumeSize;
+	private final double [] spacing;
+	private final double [] origin;
+	private final double stepSize;
+	private final double [][] rayGeometries;
+	private final double [][] voxelProjections;
+	private final long geometryHash;
+
+	private CacheMode cacheMode = CacheMode.NONE;
+	private File cacheDirectory = null;
+	private AtomicReferenceArray<ProjectionBlock> memoryCache;
+
+	/**
+	 * Creates the system matrix for the projections and the reconstruction volume of the given trajectory. The cache mode and cache directory are read from the registry.
+	 * @param geometry the trajectory
+	 */
+	public RaySystemMatrix(Trajectory geometry){
+		this(geometry, 1.0);
+	}
+
+	/**
+	 * Creates the system matrix for the projections and the reconstruction volume of the given trajectory. The cache mode and cache directory are read from the registry.
+	 * @param geometry the trajectory
+	 * @param stepSize the distance between two samples along the ray in voxels
+	 */
+	public RaySystemMatrix(Trajectory geometry, double stepSize){
+		if (!(stepSize > 0)) throw new IllegalArgumentException("Step size must be positive: " + stepSize);
+		this.stepSize = stepSize;
+		detectorWidth = geometry.getDetectorWidth();
+		detectorHeight = geometry.getDetectorHeight();
+		numProjections = geometry.getProjectionStackSize();
+		volumeSize = new int [] {geometry.getReconDimensionX(), geometry.getReconDimensionY(), geometry.getReconDimensionZ()};
+		spacing = new double [] {geometry.getVoxelSpacingX(), geometry.getVoxelSpacingY(), geometry.getVoxelSpacingZ()};
+		origin = new double [] {geometry.getOriginX(), geometry.getOriginY(), geometry.getOriginZ()};
+		Projection [] projections = geometry.getProjectionMatrices();
+		rayGeometries = new double[numProjections][];
+		voxelProjections = new double[numProjections][];
+		for (int p = 0; p < numProjections; p++){
+			rayGeometries[p] = CPUForwardProjector.computeRayGeometry(projections[p], origin, spacing);
+			voxelProjections[p] = computeVoxelProjection(projections[p].computeP(), origin, spacing);
+		}
+		geometryHash = computeGeometryHash();
+		memoryCache = new AtomicReferenceArray<ProjectionBlock>(numProjections);
+		readCacheSettings();
+	}
+
+	private void readCacheSettings(){
+		Configuration config = Configuration.getGlobalConfiguration();
+		if (config == null) return;
+		try {
+			String mode = config.getRegistryEntry(RegKeys.RAY_SYSTEM_MATRIX_CACHE);
+			if (mode != null) cacheMode = CacheMode.valueOf(mode.trim());
+			String directory = config.getRegistryEntry(RegKeys.RAY_SYSTEM_MATRIX_CACHE_DIRECTORY);
+			if (directory != null) cacheDirectory = new File(directory);
+		} catch (Exception e){
+			CONRAD.log("Could not read '" + RegKeys.RAY_SYSTEM_MATRIX_CACHE + "' from registry. Using " + cacheMode + ".");
+		}
+	}
+
+	/**
+	 * Computes the projection matrix which maps voxel indices to detector coordinates (3x4, row-major).
+	 */
+	private static double [] computeVoxelProjection(SimpleMatrix p, double [] origin, double [] spacing){
+		double [] matrix = new double[12];
+		for (int r = 0; r < 3; r++){
+			double t = p.getElement(r, 3);
+			for (int c = 0; c < 3; c++){
+				matrix[(4*r)+c] = p.getElement(r, c) * spacing[c];
+				t += p.getElement(r, c) * origin[c];
+			}
+			matrix[(4*r)+3] = t;
+		}
+		return matrix;
+	}
+
+	private long computeGeometryHash(){
+		// 64 bit FNV-1a hash of all parameters which determine the weights
+		long hash = 0xcbf29ce484222325L;
+		long [] values = new long [] {detectorWidth, detectorHeight, numProjections, volumeSize[0], volumeSize[1], volumeSize[2], Double.doubleToLongBits(stepSize)};
+		for (long value : values){
+			hash = hashLong(hash, value);
+		}
+		for (int d = 0; d < 3; d++){
+			hash = hashLong(hash, Double.doubleToLongBits(spacing[d]));
+			hash = hashLong(hash, Double.doubleToLongBits(origin[d]));
+		}
+		for (int p = 0; p < numProjections; p++){
+			for (double value : voxelProjections[p]){
+				hash = hashLong(hash, Double.doubleToLongBits(value));
+			}
+		}
+		return hash;
+	}
+
+	private static long hashLong(long hash, long value){
+		for (int b = 0; b < 8; b++){
+			hash ^= (value >>> (8 * b)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the hash of the geometry which is used to identify cache files
+	 */
+	public long getGeometryHash() {
+		return geometryHash;
+	}
+
+	/**
+	 * @return the cache mode
+	 */
+	public CacheMode getCacheMode() {
+		return cacheMode;
+	}
+
+	/**
+	 * Sets the cache mode. Rows which are already cached in memory are released if the mode is not MEMORY.
+	 * @param cacheMode the cache mode
+	 */
+	public void setCacheMode(CacheMode cacheMode) {
+		this.cacheMode = cacheMode;
+		if (cacheMode != CacheMode.MEMORY) clearMemoryCache();
+	}
+
+	/**
+	 * @return the directory of the cache files. If null, the default temporary directory is used.
+	 */
+	public File getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * @param cacheDirectory the directory of the cache files. If null, the default temporary directory is used.
+	 */
+	public void setCacheDirectory(File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	/**
+	 * Releases all rows which are cached in memory.
+	 */
+	public void clearMemoryCache(){
+		memoryCache = new AtomicReferenceArray<ProjectionBlock>(numProjections);
+	}
+
+	/**
+	 * @return the number of rows of the matrix
+	 */
+	public long getNumberOfRows(){
+		return ((long) numProjections) * detectorWidth * detectorHeight;
+	}
+
+	/**
+	 * @return the number of columns of the matrix
+	 */
+	public int getNumberOfColumns(){
+		return volumeSize[0] * volumeSize[1] * volumeSize[2];
+	}
+
+	/**
+	 * Returns the file which caches the rows of the given projection.
+	 * @param projection the projection index
+	 * @return the file
+	 */
+	public File getCacheFile(int projection){
+		File directory = (cacheDirectory != null) ? cacheDirectory : new File(System.getProperty("java.io.tmpdir"));
+		return new File(directory, String.format("conrad-raymatrix-%016x-%05d.csr", geometryHash, projection));
+	}
+
+	/**
+	 * Returns the rows of a projection in CSR format. Depending on the cache mode, the rows are taken from the cache or are computed.
+	 * @param projection the projection index
+	 * @return the rows
+	 */
+	public ProjectionBlock getProjectionBlock(int projection){
+		ProjectionBlock block = getCachedBlock(projection);
+		if (block == null) block = computeProjectionBlock(projection);
+		return block;
+	}
+
+	/**
+	 * Returns the cached rows of the projection or null, if the cache mode is NONE.
+	 */
+	private ProjectionBlock getCachedBlock(int projection){
+		switch (cacheMode) {
+		case MEMORY:
+			ProjectionBlock block = memoryCache.get(projection);
+			if (block == null) {
+				memoryCache.compareAndSet(projection, null, computeProjectionBlock(projection));
+				block = memoryCache.get(projection);
+			}
+			return block;
+		case DISK:
+			File file = getCacheFile(projection);
+			if (file.exists()) {
+				try {
+					return readBlock(file, projection);
+				} catch (IOException e){
+					CONRAD.log("Could not read system matrix cache file " + file + ": " + e.getLocalizedMessage() + ". Recomputing.");
+				}
+			}
+			block = computeProjectionBlock(projection);
+			try {
+				writeBlock(file, projection, block);
+			} catch (IOException e){
+				CONRAD.log("Could not write system matrix cache file " + file + ": " + e.getLocalizedMessage());
+			}
+			return block;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Computes all rows of a projection.
+	 * @param projection the projection index
+	 * @return the rows in CSR format
+	 */
+	public ProjectionBlock computeProjectionBlock(int projection){
+		int numRows = detectorWidth * detectorHeight;
+		int [] rowPointers = new int[numRows + 1];
+		int [] columns = new int[Math.max(16, numRows)];
+		float [] values = new float[columns.length];
+		int nnz = 0;
+		SparseRow row = new SparseRow();
+		for (int v = 0; v < detectorHeight; v++){
+			for (int u = 0; u < detectorWidth; u++){
+				computeRow(projection, u, v, row);
+				if (nnz + row.size > columns.length) {
+					int capacity = Math.max(nnz + row.size, 2 * columns.length);
+					columns = Arrays.copyOf(columns, capacity);
+					values = Arrays.copyOf(values, capacity);
+				}
+				System.arraycopy(row.columns, 0, columns, nnz, row.size);
+				System.arraycopy(row.values, 0, values, nnz, row.size);
+				nnz += row.size;
+				rowPointers[(v * detectorWidth) + u + 1] = nnz;
+			}
+		}
+		return new ProjectionBlock(rowPointers, Arrays.copyOf(columns, nnz), Arrays.copyOf(values, nnz));
+	}
+
+	/**
+	 * Returns row (p, u, v) of the system matrix.
+	 * @param p the projection index
+	 * @param u the detector column
+	 * @param v the detector row
+	 * @return the row
+	 */
+	public SparseRow getRow(int p, int u, int v){
+		SparseRow row = new SparseRow();
+		computeRow(p, u, v, row);
+		return row;
+	}
+
+	/**
+	 * Computes row (p, u, v) of the system matrix. The row is cleared before. The columns are sorted in ascending order.
+	 * @param p the projection index
+	 * @param u the detector column
+	 * @param v the detector row
+	 * @param row the row
+	 */
+	public void computeRow(int p, int u, int v, SparseRow row){
+		row.clear();
+		double [] rayGeometry = rayGeometries[p];
+		// same arithmetic as CPUForwardProjector.projectRow()
+		double rowX = rayGeometry[2] + (v * rayGeometry[1]);
+		double rowY = rayGeometry[5] + (v * rayGeometry[4]);
+		double rowZ = rayGeometry[8] + (v * rayGeometry[7]);
+		double rx = rowX + (u * rayGeometry[0]);
+		double ry = rowY + (u * rayGeometry[3]);
+		double rz = rowZ + (u * rayGeometry[6]);
+		double normFactor = 1.0 / Math.sqrt((rx * rx) + (ry * ry) + (rz * rz));
+		rx *= normFactor;
+		ry *= normFactor;
+		rz *= normFactor;
+		double scale = Math.sqrt(((rx * spacing[0]) * (rx * spacing[0]))
+				+ ((ry * spacing[1]) * (ry * spacing[1]))
+				+ ((rz * spacing[2]) * (rz * spacing[2])));
+		double sx = rayGeometry[9];
+		double sy = rayGeometry[10];
+		double sz = rayGeometry[11];
+		double minAlpha = 0;
+		double maxAlpha = Double.POSITIVE_INFINITY;
+		double [] s = {sx, sy, sz};
+		double [] r = {rx, ry, rz};
+		for (int d = 0; d < 3; d++){
+			if (r[d] != 0) {
+				double reci = 1.0 / r[d];
+				double alpha0 = ((-0.5 + CONRAD.SMALL_VALUE) - s[d]) * reci;
+				double alpha1 = ((volumeSize[d] - 0.5 - CONRAD.SMALL_VALUE) - s[d]) * reci;
+				if (d == 0) {
+					minAlpha = Math.min(alpha0, alpha1);
+					maxAlpha = Math.max(alpha0, alpha1);
+				} else {
+					minAlpha = Math.max(minAlpha, Math.min(alpha0, alpha1));
+					maxAlpha = Math.min(maxAlpha, Math.max(alpha0, alpha1));
+				}
+			}
+		}
+		if (!(minAlpha < maxAlpha)) return;
+		// trapezoidal rule as in CPUForwardProjector.projectRay()
+		addSample(row, sx + (minAlpha * rx), sy + (minAlpha * ry), sz + (minAlpha * rz), 0.5 * stepSize * scale);
+		double alpha = minAlpha + stepSize;
+		double last = minAlpha;
+		while (alpha < maxAlpha){
+			addSample(row, sx + (alpha * rx), sy + (alpha * ry), sz + (alpha * rz), stepSize * scale);
+			last = alpha;
+			alpha += stepSize;
+		}
+		double lastStepSize = maxAlpha - last;
+		addSample(row, sx + (last * rx), sy + (last * ry), sz + (last * rz), 0.5 * (lastStepSize - stepSize) * scale);
+		addSample(row, sx + (maxAlpha * rx), sy + (maxAlpha * ry), sz + (maxAlpha * rz), 0.5 * lastStepSize * scale);
+		row.compact();
+	}
+
+	/**
+	 * Distributes the weight of a sample to the voxels of the trilinear interpolation. Indices are clamped to the volume.
+	 */
+	private void addSample(SparseRow row, double x, double y, double z, double weight){
+		int x0 = (int) Math.floor(x);
+		int y0 = (int) Math.floor(y);
+		int z0 = (int) Math.floor(z);
+		double ax = x - x0;
+		double ay = y - y0;
+		double az = z - z0;
+		int width = volumeSize[0];
+		int sliceSize = width * volumeSize[1];
+		int i0 = clamp(x0, width);
+		int i1 = clamp(x0 + 1, width);
+		int j0 = clamp(y0, volumeSize[1]) * width;
+		int j1 = clamp(y0 + 1, volumeSize[1]) * width;
+		int k0 = clamp(z0, volumeSize[2]) * sliceSize;
+		int k1 = clamp(z0 + 1, volumeSize[2]) * sliceSize;
+		double w0 = weight * (1 - az);
+		double w1 = weight * az;
+		row.add(k0 + j0 + i0, w0 * (1 - ay) * (1 - ax));
+		row.add(k0 + j0 + i1, w0 * (1 - ay) * ax);
+		row.add(k0 + j1 + i0, w0 * ay * (1 - ax));
+		row.add(k0 + j1 + i1, w0 * ay * ax);
+		row.add(k1 + j0 + i0, w1 * (1 - ay) * (1 - ax));
+		row.add(k1 + j0 + i1, w1 * (1 - ay) * ax);
+		row.add(k1 + j1 + i0, w1 * ay * (1 - ax));
+		row.add(k1 + j1 + i1, w1 * ay * ax);
+	}
+
+	private static int clamp(int index, int size){
+		if (index < 0) return 0;
+		if (index >= size) return size - 1;
+		return index;
+	}
+
+	/**
+	 * Returns column (i, j, k) of the system matrix, i.e. the weights of voxel (i, j, k) in all detector pixels.
+	 * Only the pixels in the footprint of the voxel and its neighbors are evaluated.
+	 * @param i the voxel index in x
+	 * @param j the voxel index in y
+	 * @param k the voxel index in z
+	 * @return the column. Entries are numbered by the row index (p * detectorHeight + v) * detectorWidth + u.
+	 */
+	public SparseRow getColumn(int i, int j, int k){
+		int column = (((k * volumeSize[1]) + j) * volumeSize[0]) + i;
+		SparseRow result = new SparseRow();
+		SparseRow row = new SparseRow();
+		int [] footprint = new int[4];
+		for (int p = 0; p < numProjections; p++){
+			computeFootprint(p, i, j, k, footprint);
+			for (int v = footprint[2]; v <= footprint[3]; v++){
+				for (int u = footprint[0]; u <= footprint[1]; u++){
+					computeRow(p, u, v, row);
+					int n = Arrays.binarySearch(row.columns, 0, row.size, column);
+					if (n >= 0) {
+						result.add((((p * detectorHeight) + v) * detectorWidth) + u, row.values[n]);
+					}
+				}
+			}
+		}
+		result.compact();
+		return result;
+	}
+
+	/**
+	 * Computes the detector region {umin, umax, vmin, vmax} that contains the projection of the voxels (i +- 1, j +- 1, k +- 1).
+	 * Voxels at the border of the volume also receive the clamped samples outside the volume. Hence, the region is extended there.
+	 */
+	private void computeFootprint(int p, int i, int j, int k, int [] footprint){
+		double [] m = voxelProjections[p];
+		int [] index = {i, j, k};
+		double [] low = new double[3];
+		double [] high = new double[3];
+		for (int d = 0; d < 3; d++){
+			low[d] = (index[d] == 0) ? -1 : index[d] - 1;
+			high[d] = (index[d] == volumeSize[d] - 1) ? volumeSize[d] : index[d] + 1;
+		}
+		double umin = Double.POSITIVE_INFINITY, umax = Double.NEGATIVE_INFINITY;
+		double vmin = Double.POSITIVE_INFINITY, vmax = Double.NEGATIVE_INFINITY;
+		boolean valid = true;
+		double sign = 0;
+		for (int c = 0; c < 8; c++){
+			double x = ((c & 1) == 0) ? low[0] : high[0];
+			double y = ((c & 2) == 0) ? low[1] : high[1];
+			double z = ((c & 4) == 0) ? low[2] : high[2];
+			double w = (m[8] * x) + (m[9] * y) + (m[10] * z) + m[11];
+			if (w == 0 || (sign != 0 && Math.signum(w) != sign)) {
+				// the neighborhood contains the source plane. All pixels are candidates.
+				valid = false;
+				break;
+			}
+			sign = Math.signum(w);
+			double pu = ((m[0] * x) + (m[1] * y) + (m[2] * z) + m[3]) / w;
+			double pv = ((m[4] * x) + (m[5] * y) + (m[6] * z) + m[7]) / w;
+			umin = Math.min(umin, pu);
+			umax = Math.max(umax, pu);
+			vmin = Math.min(vmin, pv);
+			vmax = Math.max(vmax, pv);
+		}
+		if (valid) {
+			footprint[0] = (int) Math.max(0, Math.floor(umin));
+			footprint[1] = (int) Math.min(detectorWidth - 1, Math.ceil(umax));
+			footprint[2] = (int) Math.max(0, Math.floor(vmin));
+			footprint[3] = (int) Math.min(detectorHeight - 1, Math.ceil(vmax));
+		} else {
+			footprint[0] = 0;
+			footprint[1] = detectorWidth - 1;
+			footprint[2] = 0;
+			footprint[3] = detectorHeight - 1;
+		}
+	}
+
+	/**
+	 * Computes the forward projection A x of the volume. The projections are overwritten.
+	 * @param volume the volume x
+	 * @param projections one grid of size detectorWidth x detectorHeight per projection of the trajectory
+	 */
+	public void forwardProject(Grid3D volume, final Grid2D [] projections){
+		checkSizes(volume, projections);
+		final float [] x = flatten(volume);
+		runParallel(new ProjectionOperation() {
+			@Override
+			public void apply(int p, SparseRow row, float [] partial) {
+				float [] y = projections[p].getBuffer();
+				ProjectionBlock block = getCachedBlock(p);
+				for (int r = 0; r < y.length; r++){
+					double sum = 0;
+					if (block != null) {
+						for (int n = block.rowPointers[r]; n < block.rowPointers[r + 1]; n++){
+							sum += block.values[n] * x[block.columns[n]];
+						}
+					} else {
+						computeRow(p, r % detectorWidth, r / detectorWidth, row);
+						for (int n = 0; n < row.size; n++){
+							sum += row.values[n] * x[row.columns[n]];
+						}
+					}
+					y[r] = (float) sum;
+				}
+			}
+		}, false);
+	}
+
+	/**
+	 * Computes the backprojection A<sup>T</sup> y, i.e. the adjoint of {@link #forwardProject(Grid3D, Grid2D[])}. The volume is overwritten.
+	 * Every thread accumulates into a partial volume of its own. The partial volumes are summed up at the end.
+	 * @param projections one grid of size detectorWidth x detectorHeight per projection of the trajectory
+	 * @param volume the volume
+	 */
+	public void backproject(final Grid2D [] projections, Grid3D volume){
+		checkSizes(volume, projections);
+		float [][] partials = runParallel(new ProjectionOperation() {
+			@Override
+			public void apply(int p, SparseRow row, float [] partial) {
+				float [] y = projections[p].getBuffer();
+				ProjectionBlock block = getCachedBlock(p);
+				for (int r = 0; r < y.length; r++){
+					float value = y[r];
+					if (value == 0) continue;
+					if (block != null) {
+						for (int n = block.rowPointers[r]; n < block.rowPointers[r + 1]; n++){
+							partial[block.columns[n]] += block.values[n] * value;
+						}
+					} else {
+						computeRow(p, r % detectorWidth, r / detectorWidth, row);
+						for (int n = 0; n < row.size; n++){
+							partial[row.columns[n]] += row.values[n] * value;
+						}
+					}
+				}
+			}
+		}, true);
+		int sliceSize = volumeSize[0] * volumeSize[1];
+		for (int k = 0; k < volumeSize[2]; k++){
+			float [] slice = volume.getSubGrid(k).getBuffer();
+			Arrays.fill(slice, 0);
+			for (float [] partial : partials){
+				if (partial == null) continue;
+				for (int n = 0; n < sliceSize; n++){
+					slice[n] += partial[(k * sliceSize) + n];
+				}
+			}
+		}
+	}
+
+	private void checkSizes(Grid3D volume, Grid2D [] projections){
+		if (!Arrays.equals(volume.getSize(), volumeSize)) {
+			throw new IllegalArgumentException("Volume size " + Arrays.toString(volume.getSize()) + " does not match the geometry " + Arrays.toString(volumeSize) + ".");
+		}
+		if (projections.length != numProjections) {
+			throw new IllegalArgumentException("Expected " + numProjections + " projections, but got " + projections.length + ".");
+		}
+		for (Grid2D projection : projections){
+			if (projection.getWidth() != detectorWidth || projection.getHeight() != detectorHeight) {
+				throw new IllegalArgumentException("Projection size " + projection.getWidth() + "x" + projection.getHeight() + " does not match the detector size " + detectorWidth + "x" + detectorHeight + ".");
+			}
+		}
+	}
+
+	private float [] flatten(Grid3D volume){
+		int sliceSize = volumeSize[0] * volumeSize[1];
+		float [] x = new float[getNumberOfColumns()];
+		for (int k = 0; k < volumeSize[2]; k++){
+			System.arraycopy(volume.getSubGrid(k).getBuffer(), 0, x, k * sliceSize, sliceSize);
+		}
+		return x;
+	}
+
+	/**
+	 * Operation on all rows of one projection.
+	 */
+	private static abstract class ProjectionOperation {
+		public abstract void apply(int p, SparseRow row, float [] partial);
+	}
+
+	/**
+	 * Applies the operation to all projections in parallel.
+	 * @return the partial volumes of the threads, if requested
+	 */
+	private float [][] runParallel(final ProjectionOperation operation, final boolean partialVolumes){
+		final AtomicInteger nextProjection = new AtomicInteger(0);
+		int numThreads = Math.max(1, Math.min(CONRAD.getNumberOfThreads(), numProjections));
+		final float [][] partials = new float[numThreads][];
+		ParallelizableRunnable [] runnables = new ParallelizableRunnable[numThreads];
+		for (int n = 0; n < numThreads; n++){
+			runnables[n] = new SimpleParallelThread(n) {
+				@Override
+				public void execute() {
+					SparseRow row = new SparseRow();
+					for (int p = nextProjection.getAndIncrement(); p < numProjections; p = nextProjection.getAndIncrement()){
+						if (partialVolumes && partials[threadNum] == null) partials[threadNum] = new float[getNumberOfColumns()];
+						operation.apply(p, row, partials[threadNum]);
+					}
+				}
+			};
+		}
+		try {
+			new ParallelThreadExecutor(runnables).execute();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Projection was interrupted.", e);
+		}
+		return partials;
+	}
+
+	/**
+	 * Writes the rows of a projection to a cache file. The file is written to a temporary file first and renamed afterwards. Hence, incomplete files are never read.
+	 */
+	private void writeBlock(File file, int projection, ProjectionBlock block) throws IOException {
+		File directory = file.getParentFile();
+		if (directory != null && !directory.exists()) directory.mkdirs();
+		File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+			buffer.putInt(FILE_MAGIC);
+			buffer.putLong(geometryHash);
+			buffer.putInt(projection);
+			buffer.putInt(block.rowPointers.length - 1);
+			buffer.putInt(block.columns.length);
+			for (int value : block.rowPointers){
+				if (!buffer.hasRemaining()) flush(channel, buffer);
+				buffer.putInt(value);
+			}
+			for (int value : block.columns){
+				if (!buffer.hasRemaining()) flush(channel, buffer);
+				buffer.putInt(value);
+			}
+			for (float value : block.values){
+				if (!buffer.hasRemaining()) flush(channel, buffer);
+				buffer.putFloat(value);
+			}
+			flush(channel, buffer);
+		} finally {
+			raf.close();
+		}
+		if (file.exists()) file.delete();
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not rename " + temp + " to " + file + ".");
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Reads the rows of a projection from a cache file and validates the header.
+	 */
+	private ProjectionBlock readBlock(File file, int projection) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE);
+			buffer.limit(FILE_HEADER_SIZE);
+			fill(channel, buffer);
+			if (buffer.getInt() != FILE_MAGIC || buffer.getLong() != geometryHash || buffer.getInt() != projection) {
+				throw new IOException("File does not belong to this geometry.");
+			}
+			int numRows = buffer.getInt();
+			int nnz = buffer.getInt();
+			if (numRows != detectorWidth * detectorHeight || nnz < 0 || channel.size() != FILE_HEADER_SIZE + (4L * (numRows + 1)) + (8L * nnz)) {
+				throw new IOException("File is incomplete.");
+			}
+			int [] rowPointers = new int[numRows + 1];
+			int [] columns = new int[nnz];
+			float [] values = new float[nnz];
+			buffer.clear();
+			buffer.limit(0);
+			for (int n = 0; n < rowPointers.length; n++){
+				if (!buffer.hasRemaining()) refill(channel, buffer);
+				rowPointers[n] = buffer.getInt();
+			}
+			for (int n = 0; n < nnz; n++){
+				if (!buffer.hasRemaining()) refill(channel, buffer);
+				columns[n] = buffer.getInt();
+			}
+			for (int n = 0; n < nnz; n++){
+				if (!buffer.hasRemaining()) refill(channel, buffer);
+				values[n] = buffer.getFloat();
+			}
+			return new ProjectionBlock(rowPointers, columns, values);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()){
+			if (channel.read(buffer) < 0) throw new IOException("Unexpected end of file.");
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Reads the next chunk of the file. All values are 4 bytes long and the buffer size is a multiple of 4. Hence, no value is split between two chunks.
+	 */
+	private static void refill(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		long remaining = channel.size() - channel.position();
+		buffer.limit((int) Math.min(buffer.capacity(), remaining));
+		fill(channel, buffer);
+	}
+
+	/**
+	 * Sparse row (or column) of the system matrix. Entries are sorted by index after {@link #compact()}.
+	 */
+	public static class SparseRow {
+		private int [] columns = new int[64];
+		private float [] values = new float[64];
+		private int size = 0;
+		private long [] keys = null;
+
+		/**
+		 * @return the number of entries
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * @param n the entry
+		 * @return the index of entry n
+		 */
+		public int getIndex(int n) {
+			return columns[n];
+		}
+
+		/**
+		 * @param n the entry
+		 * @return the weight of entry n
+		 */
+		public float getValue(int n) {
+			return values[n];
+		}
+
+		void clear(){
+			size = 0;
+		}
+
+		void add(int column, double value){
+			if (value == 0) return;
+			if (size == columns.length) {
+				columns = Arrays.copyOf(columns, 2 * size);
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			columns[size] = column;
+			values[size] = (float) value;
+			size++;
+		}
+
+		/**
+		 * Sorts the entries by index and merges entries with the same index. The merged weights are summed in double precision.
+		 */
+		void compact(){
+			if (keys == null || keys.length < size) keys = new long[columns.length];
+			for (int n = 0; n < size; n++){
+				keys[n] = (((long) columns[n]) << 32) | n;
+			}
+			Arrays.sort(keys, 0, size);
+			float [] unsorted = Arrays.copyOf(values, size);
+			int count = 0;
+			double sum = 0;
+			for (int n = 0; n < size; n++){
+				int column = (int) (keys[n] >>> 32);
+				if (n > 0 && column != columns[count - 1]) {
+					values[count - 1] = (float) sum;
+					sum = 0;
+				}
+				if (n == 0 || column != columns[count - 1]) {
+					columns[count++] = column;
+				}
+				sum += unsorted[(int) keys[n]];
+			}
+			if (count > 0) values[count - 1] = (float) sum;
+			size = count;
+		}
+	}
+
+	/**
+	 * The rows of one projection in compressed sparse row format. The entries of row r are stored at positions rowPointers[r] to rowPointers[r + 1] - 1
+	 * of columns and values. Rows are numbered v * detectorWidth + u.
+	 */
+	public static class ProjectionBlock {
+		final int [] rowPointers;
+		final int [] columns;
+		final float [] values;
+
+		ProjectionBlock(int [] rowPointers, int [] columns, float [] values){
+			this.rowPointers = rowPointers;
+			this.columns = columns;
+			this.values = values;
+		}
+
+		/**
+		 * @return the number of rows
+		 */
+		public int getNumberOfRows(){
+			return rowPointers.length - 1;
+		}
+
+		/**
+		 * @return the number of non-zero entries
+		 */
+		public int getNumberOfEntries(){
+			return columns.length;
+		}
+
+		/**
+		 * @param row the row
+		 * @return the position of the first entry of the row
+		 */
+		public int getRowStart(int row){
+			return rowPointers[row];
+		}
+
+		/**
+		 * @param row the row
+		 * @return the position after the last entry of the row
+		 */
+		public int getRowEnd(int row){
+			return rowPointers[row + 1];
+		}
+
+		/**
+		 * @param n the position
+		 * @return the column of the entry
+		 */
+		public int getColumn(int n){
+			return columns[n];
+		}
+
+		/**
+		 * @param n the position
+		 * @return the weight of the entry
+		 */
+		public float getValue(int n){
+			return values[n];
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,178 @@
+package edu.stanford.rsl.conrad.reconstruction.iterative;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+import edu.stanford.rsl.conrad.geometry.Projection;
+import edu.stanford.rsl.conrad.geometry.trajectories.CircularTrajectory;
+import edu.stanford.rsl.conrad.geometry.trajectories.Trajectory;
+import edu.stanford.rsl.conrad.numerics.SimpleVector;
+import edu.stanford.rsl.conrad.reconstruction.CPUForwardProjector;
+
+public class RaySystemMatrixTest {
+
+	private static Trajectory createGeometry(){
+		CircularTrajectory geometry = new CircularTrajectory();
+		geometry.setDetectorWidth(24);
+		geometry.setDetectorHeight(20);
+		geometry.setPixelDimensionX(3);
+		geometry.setPixelDimensionY(3);
+		geometry.setSourceToDetectorDistance(400);
+		geometry.setReconDimensions(12, 10, 8);
+		geometry.setReconVoxelSizes(new double[] {2.0, 2.4, 3.0});
+		geometry.setOriginInPixelsX(5.5);
+		geometry.setOriginInPixelsY(4);
+		geometry.setOriginInPixelsZ(3.5);
+		geometry.setTrajectory(5, 250, 45, 1.5, -2, Projection.CameraAxisDirection.ROTATIONAXIS_PLUS, Projection.CameraAxisDirection.DETECTORMOTION_PLUS, new SimpleVector(0, 0, 1));
+		return geometry;
+	}
+
+	private static Grid3D createVolume(Random random){
+		Grid3D volume = new Grid3D(12, 10, 8);
+		for (int k = 0; k < 8; k++){
+			float [] buffer = volume.getSubGrid(k).getBuffer();
+			for (int i = 0; i < buffer.length; i++){
+				buffer[i] = random.nextFloat() - 0.2f;
+			}
+		}
+		return volume;
+	}
+
+	private static Grid2D [] createProjections(Trajectory geometry, Random random){
+		Grid2D [] projections = new Grid2D[geometry.getProjectionStackSize()];
+		for (int p = 0; p < projections.length; p++){
+			projections[p] = new Grid2D(geometry.getDetectorWidth(), geometry.getDetectorHeight());
+			if (random != null) {
+				float [] buffer = projections[p].getBuffer();
+				for (int i = 0; i < buffer.length; i++){
+					buffer[i] = random.nextFloat();
+				}
+			}
+		}
+		return projections;
+	}
+
+	@Test
+	public void testForwardProjectionMatchesCPUProjector() {
+		Trajectory geometry = createGeometry();
+		Grid3D volume = createVolume(new Random(5));
+		RaySystemMatrix matrix = new RaySystemMatrix(geometry, 0.5);
+		Grid2D [] projections = createProjections(geometry, null);
+		matrix.forwardProject(volume, projections);
+		CPUForwardProjector projector = new CPUForwardProjector(geometry);
+		projector.setStepSize(0.5);
+		Grid3D sino = projector.project(volume);
+		for (int p = 0; p < projections.length; p++){
+			float [] expected = sino.getSubGrid(p).getBuffer();
+			float [] actual = projections[p].getBuffer();
+			for (int i = 0; i < expected.length; i++){
+				assertEquals(expected[i], actual[i], 1e-4 * (1 + Math.abs(expected[i])));
+			}
+		}
+	}
+
+	/**
+	 * The backprojection is the adjoint of the forward projection: &lt;Ax, y&gt; = &lt;x, A<sup>T</sup>y&gt;.
+	 */
+	@Test
+	public void testBackprojectionIsAdjoint() {
+		Trajectory geometry = createGeometry();
+		Random random = new Random(7);
+		Grid3D x = createVolume(random);
+		Grid2D [] y = createProjections(geometry, random);
+		RaySystemMatrix matrix = new RaySystemMatrix(geometry);
+		Grid2D [] ax = createProjections(geometry, null);
+		matrix.forwardProject(x, ax);
+		Grid3D aty = new Grid3D(12, 10, 8);
+		matrix.backproject(y, aty);
+		double left = 0;
+		for (int p = 0; p < y.length; p++){
+			for (int i = 0; i < y[p].getBuffer().length; i++){
+				left += ax[p].getBuffer()[i] * (double) y[p].getBuffer()[i];
+			}
+		}
+		double right = 0;
+		for (int k = 0; k < 8; k++){
+			for (int i = 0; i < 120; i++){
+				right += x.getSubGrid(k).getBuffer()[i] * (double) aty.getSubGrid(k).getBuffer()[i];
+			}
+		}
+		assertEquals(left, right, 1e-5 * Math.abs(left));
+	}
+
+	@Test
+	public void testCachedRowsMatchComputedRows() throws Exception {
+		Trajectory geometry = createGeometry();
+		Grid3D volume = createVolume(new Random(11));
+		RaySystemMatrix matrix = new RaySystemMatrix(geometry);
+		Grid2D [] expected = createProjections(geometry, null);
+		matrix.forwardProject(volume, expected);
+		File directory = File.createTempFile("raymatrix", "");
+		directory.delete();
+		try {
+			matrix.setCacheDirectory(directory);
+			for (RaySystemMatrix.CacheMode mode : new RaySystemMatrix.CacheMode[] {RaySystemMatrix.CacheMode.MEMORY, RaySystemMatrix.CacheMode.DISK}){
+				matrix.setCacheMode(mode);
+				// the second pass replays the cached rows
+				for (int pass = 0; pass < 2; pass++){
+					Grid2D [] actual = createProjections(geometry, null);
+					matrix.forwardProject(volume, actual);
+					for (int p = 0; p < actual.length; p++){
+						for (int i = 0; i < actual[p].getBuffer().length; i++){
+							assertEquals(expected[p].getBuffer()[i], actual[p].getBuffer()[i], 1e-6 * (1 + Math.abs(expected[p].getBuffer()[i])));
+						}
+					}
+				}
+			}
+			assertTrue(matrix.getCacheFile(0).exists());
+		} finally {
+			File [] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files){
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testColumnMatchesRows() {
+		Trajectory geometry = createGeometry();
+		RaySystemMatrix matrix = new RaySystemMatrix(geometry);
+		int width = geometry.getDetectorWidth();
+		int height = geometry.getDetectorHeight();
+		int [][] voxels = {{0, 0, 0}, {5, 4, 3}, {11, 9, 7}, {3, 8, 1}};
+		for (int [] voxel : voxels){
+			RaySystemMatrix.SparseRow column = matrix.getColumn(voxel[0], voxel[1], voxel[2]);
+			int index = (((voxel[2] * 10) + voxel[1]) * 12) + voxel[0];
+			int found = 0;
+			for (int p = 0; p < geometry.getProjectionStackSize(); p++){
+				RaySystemMatrix.ProjectionBlock block = matrix.computeProjectionBlock(p);
+				for (int r = 0; r < width * height; r++){
+					for (int n = block.getRowStart(r); n < block.getRowEnd(r); n++){
+						if (block.getColumn(n) == index) {
+							assertEquals(((p * height) * width) + r, column.getIndex(found));
+							assertEquals(block.getValue(n), column.getValue(found), 0);
+							found++;
+						}
+					}
+				}
+			}
+			assertEquals(found, column.getSize());
+			assertTrue(found > 0);
+		}
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -0,0 +1,234 @@
+package edu.stanford.rsl.conrad.reconstruction.voi;
+
+import java.util.Arrays;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid3D;
+
+/**
+ * Compact voxel mask of a {@link VolumeOfInterest} on the reconstruction grid. For every row of the volume, i.e. fixed y index j and z index k,
+ * the voxels inside the VOI are stored as a list of spans [start, end) in x direction. Hence, the memory requirement depends on the number of rows
+ * and not on the number of voxels. Rows with identical content, e.g. the slices that are copied in fast VOI mode, share their spans.
+ * <BR><BR>
+ * Backprojectors iterate over the spans of a row instead of testing every voxel:
+ * <pre>
+ * for (int s = 0; s &lt; map.getNumberOfSpans(j, k); s++){
+ *   for (int i = map.getSpanStart(j, k, s); i &lt; map.getSpanEnd(j, k, s); i++){
+ *     ...
+ *   }
+ * }
+ * </pre>
+ *
+ * @author akmaier
+ *
+ */
+public class VolumeOfInterestMap {
+
+	private final int maxI;
+	private final int maxJ;
+	private final int maxK;
+	/**
+	 * index of the first span of each row in spans. Rows are ordered with j running fastest.
+	 */
+	private final int [] rowFirstSpan;
+	/**
+	 * number of spans of each row
+	 */
+	private final int [] rowSpanCount;
+	/**
+	 * start and end of all spans: spans[2*s] is the first voxel, spans[2*s+1] is the voxel after the last voxel of span s.
+	 */
+	private int [] spans;
+	private int numberOfSpans = 0;
+
+	private VolumeOfInterestMap(int maxI, int maxJ, int maxK){
+		this.maxI = maxI;
+		this.maxJ = maxJ;
+		this.maxK = maxK;
+		rowFirstSpan = new int [maxJ * maxK];
+		rowSpanCount = new int [maxJ * maxK];
+		spans = new int [Math.max(16, 4 * maxJ)];
+	}
+
+	/**
+	 * Creates a map which contains the whole volume, i.e. one span per row.
+	 * @param maxI number of voxels in x direction
+	 * @param maxJ number of voxels in y direction
+	 * @param maxK number of voxels in z direction
+	 * @return the map
+	 */
+	public static VolumeOfInterestMap createFull(int maxI, int maxJ, int maxK){
+		VolumeOfInterestMap map = new VolumeOfInterestMap(maxI, maxJ, maxK);
+		if (maxI > 0) {
+			map.addSpan(0, maxI);
+			for (int row = 0; row < map.rowSpanCount.length; row++){
+				map.rowFirstSpan[row] = 0;
+				map.rowSpanCount[row] = 1;
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Samples the VolumeOfInterest at the voxel centers of the reconstruction grid. The world coordinate of voxel (i, j, k) is
+	 * (spacingX * i - offsetX, spacingY * j - offsetY, spacingZ * k - offsetZ).<br>
+	 * In fast VOI mode only the upper and lower 10% of the slices (20% for CylinderBasedVolumeOfInterest) are sampled. The slices in between are
+	 * assumed to be identical to the last sampled slice.
+	 *
+	 * @param voi the volume of interest. If null, the whole volume is contained.
+	 * @param maxI number of voxels in x direction
+	 * @param maxJ number of voxels in y direction
+	 * @param maxK number of voxels in z direction
+	 * @param spacing the voxel spacing in x, y, and z direction
+	 * @param offset the offset in x, y, and z direction, i.e. -1 * the origin
+	 * @param fastVOIMode whether the fast VOI mode is used
+	 * @return the map
+	 */
+	public static VolumeOfInterestMap create(VolumeOfInterest voi, int maxI, int maxJ, int maxK, double [] spacing, double [] offset, boolean fastVOIMode){
+		if (voi == null) return createFull(maxI, maxJ, maxK);
+		VolumeOfInterestMap map = new VolumeOfInterestMap(maxI, maxJ, maxK);
+		int lowerLimit = (int) (maxK*0.1);
+		int upperLimit = (int) (maxK*0.9);
+		if (voi instanceof CylinderBasedVolumeOfInterest){
+			lowerLimit = (int) (maxK*0.2);
+			upperLimit = (int) (maxK*0.8);
+		}
+		for (int k = 0; k < maxK; k++){ // for all slices
+			if (fastVOIMode && k > lowerLimit && k < upperLimit){
+				// The slices in between lower and upper limit share the rows of the lower limit.
+				// This improves the execution speed drastically
+				for (int l = lowerLimit + 1; l <= upperLimit; l++){
+					System.arraycopy(map.rowFirstSpan, lowerLimit * maxJ, map.rowFirstSpan, l * maxJ, maxJ);
+					System.arraycopy(map.rowSpanCount, lowerLimit * maxJ, map.rowSpanCount, l * maxJ, maxJ);
+				}
+				// set k to the upper limit as it will be increased in the next iteration
+				k = upperLimit;
+				continue;
+			}
+			double z = (spacing[2] * k) - offset[2];
+			for (int j = 0; j < maxJ; j++){ // for all lines
+				double y = (spacing[1] * j) - offset[1];
+				int row = (k * maxJ) + j;
+				map.rowFirstSpan[row] = map.numberOfSpans;
+				int start = -1;
+				for (int i = 0; i < maxI; i++){ // for all voxels
+					boolean inside = voi.contains((spacing[0] * i) - offset[0], y, z);
+					if (inside && start < 0) {
+						start = i;
+					} else if (!inside && start >= 0) {
+						map.addSpan(start, i);
+						start = -1;
+					}
+				}
+				if (start >= 0) map.addSpan(start, maxI);
+				map.rowSpanCount[row] = map.numberOfSpans - map.rowFirstSpan[row];
+			}
+		}
+		map.spans = Arrays.copyOf(map.spans, 2 * map.numberOfSpans);
+		return map;
+	}
+
+	private void addSpan(int start, int end){
+		if (spans.length < 2 * (numberOfSpans + 1)) {
+			spans = Arrays.copyOf(spans, spans.length * 2);
+		}
+		spans[2 * numberOfSpans] = start;
+		spans[(2 * numberOfSpans) + 1] = end;
+		numberOfSpans++;
+	}
+
+	/**
+	 * @param j y index
+	 * @param k z index
+	 * @return the number of spans in row (j, k)
+	 */
+	public int getNumberOfSpans(int j, int k){
+		return rowSpanCount[(k * maxJ) + j];
+	}
+
+	/**
+	 * @param j y index
+	 * @param k z index
+	 * @param span the number of the span in the row
+	 * @return the first x index of the span
+	 */
+	public int getSpanStart(int j, int k, int span){
+		return spans[2 * (rowFirstSpan[(k * maxJ) + j] + span)];
+	}
+
+	/**
+	 * @param j y index
+	 * @param k z index
+	 * @param span the number of the span in the row
+	 * @return the x index after the last voxel of the span
+	 */
+	public int getSpanEnd(int j, int k, int span){
+		return spans[(2 * (rowFirstSpan[(k * maxJ) + j] + span)) + 1];
+	}
+
+	/**
+	 * Tests whether the voxel is inside the VOI. Backprojectors should rather iterate over the spans.
+	 * @param i x index
+	 * @param j y index
+	 * @param k z index
+	 * @return true, if the voxel is inside
+	 */
+	public boolean contains(int i, int j, int k){
+		int row = (k * maxJ) + j;
+		int first = rowFirstSpan[row];
+		int last = first + rowSpanCount[row];
+		for (int s = first; s < last; s++){
+			if (i < spans[2 * s]) return false;
+			if (i < spans[(2 * s) + 1]) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of voxels inside the VOI
+	 */
+	public long getNumberOfVoxels(){
+		long count = 0;
+		for (int row = 0; row < rowSpanCount.length; row++){
+			int first = rowFirstSpan[row];
+			for (int s = first; s < first + rowSpanCount[row]; s++){
+				count += spans[(2 * s) + 1] - spans[2 * s];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Converts the map into a volume with 1 inside and -1 outside of the VOI.
+	 * @return the volume
+	 */
+	public Grid3D toGrid3D(){
+		Grid3D out = new Grid3D(maxI, maxJ, maxK);
+		for (int k = 0; k < maxK; k++) {
+			for (int j = 0; j < maxJ; j++) {
+				float [] buffer = out.getSubGrid(k).getBuffer();
+				Arrays.fill(buffer, j * maxI, (j + 1) * maxI, -1.0f);
+				for (int s = 0; s < getNumberOfSpans(j, k); s++){
+					Arrays.fill(buffer, (j * maxI) + getSpanStart(j, k, s), (j * maxI) + getSpanEnd(j, k, s), 1.0f);
+				}
+			}
+		}
+		return out;
+	}
+
+	public int getMaxI() {
+		return maxI;
+	}
+
+	public int getMaxJ() {
+		return maxJ;
+	}
+
+	public int getMaxK() {
+		return maxK;
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
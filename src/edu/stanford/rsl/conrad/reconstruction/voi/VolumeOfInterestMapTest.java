@@ -0,0 +1,78 @@
+package edu.stanford.rsl.conrad.reconstruction.voi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class VolumeOfInterestMapTest {
+
+	private static final double [] spacing = {0.5, 0.5, 1.0};
+	private static final double [] offset = {10, 10, 20};
+
+	private CylinderBasedVolumeOfInterest createCylinder(){
+		CylinderBasedVolumeOfInterest cylinder = new CylinderBasedVolumeOfInterest();
+		cylinder.radius = 8;
+		cylinder.cylinderminz = -10;
+		cylinder.cylindermaxz = 10;
+		cylinder.minz = -18;
+		cylinder.maxz = 18;
+		return cylinder;
+	}
+
+	@Test
+	public void testCylinder() {
+		int maxI = 40, maxJ = 37, maxK = 41;
+		CylinderBasedVolumeOfInterest cylinder = createCylinder();
+		VolumeOfInterestMap map = VolumeOfInterestMap.create(cylinder, maxI, maxJ, maxK, spacing, offset, false);
+		long count = 0;
+		for (int k = 0; k < maxK; k++){
+			for (int j = 0; j < maxJ; j++){
+				for (int i = 0; i < maxI; i++){
+					boolean expected = cylinder.contains((spacing[0] * i) - offset[0], (spacing[1] * j) - offset[1], (spacing[2] * k) - offset[2]);
+					assertEquals(expected, map.contains(i, j, k));
+					if (expected) count++;
+				}
+				// spans are ordered and disjoint
+				int last = 0;
+				for (int s = 0; s < map.getNumberOfSpans(j, k); s++){
+					assertEquals(true, map.getSpanStart(j, k, s) >= last);
+					assertEquals(true, map.getSpanEnd(j, k, s) > map.getSpanStart(j, k, s));
+					last = map.getSpanEnd(j, k, s);
+				}
+			}
+		}
+		assertEquals(count, map.getNumberOfVoxels());
+	}
+
+	@Test
+	public void testFastMode() {
+		int maxI = 40, maxJ = 37, maxK = 41;
+		CylinderBasedVolumeOfInterest cylinder = createCylinder();
+		VolumeOfInterestMap map = VolumeOfInterestMap.create(cylinder, maxI, maxJ, maxK, spacing, offset, true);
+		int lowerLimit = (int) (maxK * 0.2);
+		int upperLimit = (int) (maxK * 0.8);
+		for (int k = 0; k < maxK; k++){
+			// slices between the limits are copies of the lower limit
+			int sampled = (k > lowerLimit && k <= upperLimit) ? lowerLimit : k;
+			for (int j = 0; j < maxJ; j++){
+				for (int i = 0; i < maxI; i++){
+					boolean expected = cylinder.contains((spacing[0] * i) - offset[0], (spacing[1] * j) - offset[1], (spacing[2] * sampled) - offset[2]);
+					assertEquals(expected, map.contains(i, j, k));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testFull() {
+		VolumeOfInterestMap map = VolumeOfInterestMap.create(null, 5, 4, 3, spacing, offset, true);
+		assertEquals(60, map.getNumberOfVoxels());
+		assertEquals(1, map.getNumberOfSpans(3, 2));
+		assertEquals(5, map.getSpanEnd(3, 2, 0));
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
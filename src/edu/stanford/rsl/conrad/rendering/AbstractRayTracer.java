@@ -2,14 +2,19 @@ package edu.stanford.rsl.conrad.rendering;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
 import edu.stanford.rsl.conrad.geometry.AbstractCurve;
 import edu.stanford.rsl.conrad.geometry.AbstractShape;
+import edu.stanford.rsl.conrad.geometry.General;
+import edu.stanford.rsl.conrad.geometry.RayHitBuffer;
+import edu.stanford.rsl.conrad.geometry.bounds.BoundingVolumeHierarchy;
 import edu.stanford.rsl.conrad.geometry.shapes.compound.CompoundShape;
 import edu.stanford.rsl.conrad.geometry.shapes.compound.TriangleMesh;
 import edu.stanford.rsl.conrad.geometry.shapes.simple.PointND;
@@ -43,6 +48,87 @@ public abstract class AbstractRayTracer {
 	// Cache the information whether an object is a triangle or not
 	private HashMap<PhysicalObject, Boolean> objIsTriangleCache = new HashMap<>();
 
+	/**
+	 * Per-thread buffers for the primitive intersection of rays with shapes.
+	 */
+	private static final ThreadLocal<RayHitBuffer> hitBuffers = new ThreadLocal<RayHitBuffer>(){
+		@Override
+		protected RayHitBuffer initialValue(){
+			return new RayHitBuffer();
+		}
+	};
+
+	/**
+	 * Minimal number of objects in the scene for which a bounding volume hierarchy is built
+	 */
+	public static final int MIN_OBJECTS_FOR_HIERARCHY = 8;
+
+	/**
+	 * Acceleration structure over the objects of the scene. Built on the first ray after {@link #setScene(AbstractScene)}.
+	 */
+	private volatile SceneHierarchy sceneHierarchy = null;
+
+	/**
+	 * Bounding volume hierarchy over the bounded objects of the scene. Unbounded objects are candidates for every ray.
+	 */
+	private static class SceneHierarchy {
+		final PhysicalObject [] objects;
+		final int [] boundedObjects;
+		final int [] unboundedObjects;
+		final BoundingVolumeHierarchy hierarchy;
+
+		SceneHierarchy(AbstractScene scene, SceneHierarchy previous){
+			objects = scene.toArray(new PhysicalObject[scene.size()]);
+			ArrayList<AbstractShape> shapes = new ArrayList<AbstractShape>();
+			int [] bounded = new int [objects.length];
+			int [] unbounded = new int [objects.length];
+			int numberOfBounded = 0;
+			int numberOfUnbounded = 0;
+			for (int i = 0; i < objects.length; i++){
+				AbstractShape shape = objects[i].getShape();
+				if (isBounded(shape)) {
+					shapes.add(shape);
+					bounded[numberOfBounded++] = i;
+				} else {
+					unbounded[numberOfUnbounded++] = i;
+				}
+			}
+			boundedObjects = Arrays.copyOf(bounded, numberOfBounded);
+			unboundedObjects = Arrays.copyOf(unbounded, numberOfUnbounded);
+			double [] boxes = CompoundShape.getBoxes(shapes, CompoundShape.HIERARCHY_BOX_PADDING);
+			if (previous != null && Arrays.equals(previous.objects, objects) && Arrays.equals(previous.boundedObjects, boundedObjects)) {
+				// same objects as before, only their positions changed.
+				previous.hierarchy.refit(boxes);
+				hierarchy = previous.hierarchy;
+			} else {
+				hierarchy = new BoundingVolumeHierarchy(boxes);
+			}
+		}
+
+		private static boolean isBounded(AbstractShape shape){
+			if (shape == null || !shape.isBounded()) return false;
+			PointND min = shape.getMin();
+			PointND max = shape.getMax();
+			return min != null && max != null && min.getDimension() == 3 && max.getDimension() == 3;
+		}
+
+		List<PhysicalObject> getCandidates(double [] origin, double [] direction){
+			int [] hits = hierarchy.intersect(origin, direction, false);
+			ArrayList<PhysicalObject> candidates = new ArrayList<PhysicalObject>(hits.length + unboundedObjects.length);
+			// merge both sorted index lists to keep the order of the scene
+			int h = 0;
+			int u = 0;
+			while (h < hits.length || u < unboundedObjects.length){
+				if (u == unboundedObjects.length || (h < hits.length && boundedObjects[hits[h]] < unboundedObjects[u])) {
+					candidates.add(objects[boundedObjects[hits[h++]]]);
+				} else {
+					candidates.add(objects[unboundedObjects[u++]]);
+				}
+			}
+			return candidates;
+		}
+	}
+
 	/**
 	 * @return the scene
 	 */
@@ -55,6 +141,46 @@ public abstract class AbstractRayTracer {
 	 */
 	public void setScene(AbstractScene scene) {
 		this.scene = scene;
+		sceneHierarchy = null;
+	}
+
+	/**
+	 * Updates the acceleration structure of the scene. Must be called if objects of the scene were moved or deformed
+	 * after the scene was set with {@link #setScene(AbstractScene)}, e.g. for the next time step of a 4D scene that is transformed in place.
+	 * If the scene still contains the same objects, the bounding volume hierarchy is refitted to the new bounding boxes; otherwise it is rebuilt.
+	 * Setting a new scene always rebuilds the hierarchy.
+	 */
+	public synchronized void updateAccelerationStructure(){
+		SceneHierarchy previous = sceneHierarchy;
+		sceneHierarchy = null;
+		if (scene != null && scene.size() >= MIN_OBJECTS_FOR_HIERARCHY) {
+			sceneHierarchy = new SceneHierarchy(scene, previous);
+		}
+	}
+
+	/**
+	 * Returns the objects of the scene whose bounding boxes may be hit by the ray. The objects are in the same order as in the scene.
+	 * For straight lines and scenes with at least {@link #MIN_OBJECTS_FOR_HIERARCHY} objects, the candidates are determined by a bounding volume hierarchy.
+	 * Otherwise, all objects of the scene are returned.
+	 * @param ray the ray
+	 * @return the candidate objects
+	 */
+	protected Collection<PhysicalObject> getCandidateObjects(AbstractCurve ray){
+		if (!(ray instanceof StraightLine) || scene.size() < MIN_OBJECTS_FOR_HIERARCHY) return scene;
+		SceneHierarchy hierarchy = sceneHierarchy;
+		if (hierarchy == null || hierarchy.objects.length != scene.size()) {
+			synchronized (this) {
+				hierarchy = sceneHierarchy;
+				if (hierarchy == null || hierarchy.objects.length != scene.size()) {
+					updateAccelerationStructure();
+					hierarchy = sceneHierarchy;
+				}
+			}
+		}
+		StraightLine line = (StraightLine) ray;
+		double [] origin = line.getPoint().getCoordinates();
+		if (origin.length != 3) return scene;
+		return hierarchy.getCandidates(origin, line.getDirection().copyAsDoubleArray());
 	}
 
 	/**
@@ -207,8 +333,30 @@ public abstract class AbstractRayTracer {
 	protected ArrayList<PhysicalPoint> intersectWithScene(AbstractCurve ray){
 		ArrayList<PhysicalPoint> rayList = new ArrayList<PhysicalPoint>();
 		SimpleVector smallIncrementAlongRay = SimpleOperators.subtract(ray.evaluate(CONRAD.SMALL_VALUE).getAbstractVector(), ray.evaluate(0).getAbstractVector());
+		// primitive intersection for shapes that support it
+		RayHitBuffer hits = null;
+		double [] origin = null;
+		double [] direction = null;
+		if (ray instanceof StraightLine && ray.getDimension() == 3) {
+			hits = hitBuffers.get();
+			hits.clear();
+			StraightLine line = (StraightLine) ray;
+			origin = line.getPoint().getCoordinates();
+			direction = line.getDirection().copyAsDoubleArray();
+		}
 		// compute ray intersections:
-		for (PhysicalObject shape: scene) {
+		for (PhysicalObject shape: getCandidateObjects(ray)) {
+			if (hits != null && (!(shape.getShape() instanceof CompoundShape) || objIsTriangle(shape))) {
+				if (shape.getShape().isBounded() && !General.intersectRayWithCuboid(origin, direction, shape.getShape().getMin(), shape.getShape().getMax())) {
+					// same as the test of the bounding box below. It also skips objects behind the origin of the ray.
+					continue;
+				}
+				int first = hits.size();
+				if (shape.getShape().intersectRay(origin, direction, hits) >= 0) {
+					addPrimitiveHits(rayList, shape, hits, first, origin, direction);
+					continue;
+				}
+			}
 			if (shape.getShape().getHitsOnBoundingBox(ray).size() > 0) {
 				ArrayList<PointND> intersection = shape.intersectWithHitOrientation(ray);
 				
@@ -267,6 +415,29 @@ public abstract class AbstractRayTracer {
 	}
 	
 
+	/**
+	 * Converts the hits of one object in the primitive hit buffer to PhysicalPoints. Same as the object-based path in {@link #intersectWithScene(AbstractCurve)}:
+	 * if the object was hit once or three times, an additional point is inserted directly behind the first or second hit, respectively.
+	 */
+	private void addPrimitiveHits(ArrayList<PhysicalPoint> rayList, PhysicalObject shape, RayHitBuffer hits, int first, double [] origin, double [] direction){
+		int count = hits.size() - first;
+		boolean triangle = objIsTriangle(shape);
+		for (int i = first; i < hits.size(); i++){
+			rayList.add(createPhysicalPoint(shape, hits.getDistance(i), triangle ? hits.getOrientation(i) : 0, origin, direction));
+		}
+		if (count == 1 || count == 3) {
+			int i = (count == 1) ? first : first + 1;
+			rayList.add(createPhysicalPoint(shape, hits.getDistance(i) + CONRAD.SMALL_VALUE, triangle ? -hits.getOrientation(i) : 0, origin, direction));
+		}
+	}
+
+	private static PhysicalPoint createPhysicalPoint(PhysicalObject shape, double distance, double orientation, double [] origin, double [] direction){
+		PhysicalPoint point = new PhysicalPoint(origin[0] + (distance * direction[0]), origin[1] + (distance * direction[1]), origin[2] + (distance * direction[2]));
+		point.setHitOrientation(orientation);
+		point.setObject(shape);
+		return point;
+	}
+
 	/**
 	 * When we hit a triangle, we store the inner product between the direction of the ray and the normal of the triangle to determine whether we just entered or left an object
 	 * Remove the point's abused coordinate and store this information in the physical point object
@@ -20,7 +20,7 @@ public class Simple1DRayTracer extends SimpleRayTracer {
 	protected ArrayList<PhysicalPoint> intersectWithScene(AbstractCurve ray){
 		ArrayList<PhysicalPoint> rayList = new ArrayList<PhysicalPoint>();
 		// compute ray intersections:
-		for (PhysicalObject shape: scene) {
+		for (PhysicalObject shape: getCandidateObjects(ray)) {
 			if (shape.getShape() == null){
 				throw new RuntimeException("Shape " + shape + " did not contain geometric information!");
 			}
@@ -193,7 +193,7 @@ public class WatertightRayTracer extends AbstractRayTracer {
 		
 		Queue<AbstractShape> queue;
 		// Iterate over objects of scene
-		for (PhysicalObject obj : scene) {
+		for (PhysicalObject obj : getCandidateObjects(ray)) {
 			// This algorithm can only process triangles, which are usually embedded in a compound shape
 			queue = new LinkedList<>();
 			queue.add(obj.getShape());
@@ -204,7 +204,7 @@ public class WatertightRayTracer extends AbstractRayTracer {
 
 					// Test for hits on bounding box. In case the ray does not even hit the bounding box, we will not find an intersection with a triangle
 					if (cs.getHitsOnBoundingBox(ray).size() > 0) {
-						queue.addAll(cs);
+						queue.addAll(cs.getCandidateShapes(ray));
 					}
 				}
 				else if (!(shape instanceof Triangle)) {
@@ -249,6 +249,11 @@ public abstract class CONRAD {
 					 */
 				} catch (IllegalAccessException e) {
 					e.printStackTrace();
+				} catch (LinkageError e) {
+					/**
+					 * The classes are initialised here. We skip over classes that fail to initialise
+					 * (ExceptionInInitializerError, NoClassDefFoundError, etc.).
+					 */
 				}
 
 			}
@@ -305,7 +310,8 @@ public abstract class CONRAD {
 				classes.addAll(findClasses(file, packageName + "." + file.getName()));
 			} else if (file.getName().endsWith(".class")) {
 				try{
-					classes.add(Class.forName(packageName + '.' + file.getName().substring(0, file.getName().length() - 6)));
+					// the classes are not initialised here. Only the matching classes are initialised when they are instantiated.
+					classes.add(Class.forName(packageName + '.' + file.getName().substring(0, file.getName().length() - 6), false, CONRAD.class.getClassLoader()));
 				} catch (UnsatisfiedLinkError e){
 					/**
 					 * We skip over classes that cannot be loaded (compilation errors, etc.).
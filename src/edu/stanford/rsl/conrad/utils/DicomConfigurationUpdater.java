@@ -22,14 +22,21 @@ public class DicomConfigurationUpdater implements ConfigurationUpdater {
 		DicomDecoder dd = new DicomDecoder(directory, fileName);
 		dd.setInputStream(new BufferedInputStream(new FileInputStream(directory + "/" + fileName)));;
 		FileInfo fi = dd.getFileInfo();
+		readConfigFromDICOMHeader(fi, dd.getDicomInfo());
+	}
+
+	/**
+	 * Updates the configuration from an already decoded DICOM header.
+	 * @param fi the file info of the header
+	 * @param dicomInfo the header entries as returned by {@link DicomDecoder#getDicomInfo()}
+	 */
+	public void readConfigFromDICOMHeader(FileInfo fi, String dicomInfo){
 		if (fi.width == 616) fi.width = 620;
 		config.getGeometry().setDetectorWidth(fi.width);
 		config.getGeometry().setDetectorHeight(fi.height);
 		
-		dd.setInputStream(new BufferedInputStream(new FileInputStream(directory + "/" + fileName)));;
-		
-		//System.out.println(dd.getDicomInfo());
-		String [] lines = dd.getDicomInfo().split("\n");
+		//System.out.println(dicomInfo);
+		String [] lines = dicomInfo.split("\n");
 		for (String line: lines){
 			if (line.contains("Positioner Primary Angle Increment:")){
 				double [] angles = parseDICOMFieldForDoubleArray(line);
@@ -63,6 +70,55 @@ public class DicomConfigurationUpdater implements ConfigurationUpdater {
 		}
 	}
 
+	/**
+	 * Updates the configuration from the headers of a DICOM series with one file per projection, or a few projections per file.
+	 * The detector parameters are taken from the first header. The number of projections is the number of frames of the series. If the
+	 * headers contain the angles of their frames, the angle arrays are assembled from all headers.
+	 * @param infos the file infos of the headers in the order of the projections
+	 * @param dicomInfos the header entries in the same order
+	 */
+	public void readConfigFromDICOMSeries(FileInfo [] infos, String [] dicomInfos){
+		readConfigFromDICOMHeader(infos[0], dicomInfos[0]);
+		int numberOfFrames = 0;
+		for (FileInfo fi : infos){
+			numberOfFrames += Math.max(1, fi.nImages);
+		}
+		config.getGeometry().setProjectionStackSize(numberOfFrames);
+		double [] primaryAngles = collectAngles(infos, dicomInfos, "Positioner Primary Angle", numberOfFrames);
+		if (primaryAngles != null) {
+			config.getGeometry().setPrimaryAngleArray(primaryAngles);
+			config.getGeometry().setAverageAngularIncrement(DoubleArrayUtil.computeAverageIncrement(primaryAngles));
+		}
+		double [] secondaryAngles = collectAngles(infos, dicomInfos, "Positioner Secondary Angle", numberOfFrames);
+		if (secondaryAngles != null) {
+			config.getGeometry().setSecondaryAngleArray(secondaryAngles);
+		}
+	}
+
+	/**
+	 * Reads the angles of all frames. A header contributes its increment array or, for a single frame, its angle.
+	 * @return the angles or null if not every frame has an angle
+	 */
+	private double [] collectAngles(FileInfo [] infos, String [] dicomInfos, String field, int numberOfFrames){
+		double [] angles = new double [numberOfFrames];
+		int count = 0;
+		for (int i = 0; i < infos.length; i++){
+			int frames = Math.max(1, infos[i].nImages);
+			double [] values = null;
+			for (String line : dicomInfos[i].split("\n")){
+				if (line.contains(field + " Increment:")){
+					values = parseDICOMFieldForDoubleArray(line);
+				} else if (frames == 1 && values == null && line.contains(field + ":")){
+					values = new double [] {parseDICOMFieldForDouble(line)};
+				}
+			}
+			if (values == null || values.length != frames) return null;
+			System.arraycopy(values, 0, angles, count, frames);
+			count += frames;
+		}
+		return angles;
+	}
+
 	private double [] parseDICOMFieldForDoubleArray(String line){
 		String [] preprocess = line.split("\\\\");
 		String [] temp = preprocess[0].split(" ");
@@ -373,6 +373,8 @@ public class DicomDecoder {
 
 		boolean decodingTags = true;
 		boolean signed = false;
+		// the tag handlers are only looked up once per header, as the lookup creates new instances
+		ArrayList<Object> additionalTags = null;
 
 		while (decodingTags) {
 			int tag = getNextTag();
@@ -504,9 +506,9 @@ public class DicomDecoder {
 				break;
 			default:
 				try {
-					ArrayList<Object> tags = CONRAD.getInstancesFromConrad(AdditionalDicomTag.class);
+					if (additionalTags == null) additionalTags = CONRAD.getInstancesFromConrad(AdditionalDicomTag.class);
 					boolean addInfos = true;
-					for (Object e: tags){
+					for (Object e: additionalTags){
 						AdditionalDicomTag currentTag = (AdditionalDicomTag) e;
 						currentTag.decoder = this;
 						currentTag.fi = fi;
@@ -568,7 +570,11 @@ public class DicomDecoder {
 		return fi;
 	}
 
-	String getDicomInfo() {
+	/**
+	 * Returns the header entries that were decoded by {@link #getFileInfo()}, one "tag description: value" per line.
+	 * @return the header entries
+	 */
+	public String getDicomInfo() {
 		String s = new String(dicomInfo);
 		char[] chars = new char[s.length()];
 		s.getChars(0, s.length(), chars, 0);
@@ -679,10 +685,10 @@ public class DicomDecoder {
 			return id+": "+value;
 	}
 
-	static char[] buf8 = new char[8];
-
 	/** Converts an int to an 8 byte hex string. */
 	String i2hex(int i) {
+		// local buffer, as the headers of a series are decoded in parallel
+		char[] buf8 = new char[8];
 		for (int pos=7; pos>=0; pos--) {
 			buf8[pos] = Tools.hexDigits[i&0xf];
 			i >>>= 4;
@@ -1,7 +1,11 @@
 package edu.stanford.rsl.conrad.utils;
 
+import java.util.Arrays;
+import java.util.HashMap;
+
 import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
 import edu.emory.mathcs.jtransforms.fft.DoubleFFT_2D;
+import edu.emory.mathcs.jtransforms.fft.FloatFFT_1D;
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.data.numeric.NumericPointwiseOperators;
 import edu.stanford.rsl.conrad.filtering.rampfilters.RampFilter;
@@ -17,6 +21,81 @@ import edu.stanford.rsl.conrad.filtering.rampfilters.RampFilter;
 
 public abstract class FFTUtil {
 
+	/**
+	 * FFT plans of the current thread. Creating a plan is expensive compared to the transform of a single detector row.
+	 */
+	private static final ThreadLocal<HashMap<Integer, DoubleFFT_1D>> doubleFFTPlans = new ThreadLocal<HashMap<Integer, DoubleFFT_1D>>(){
+		@Override
+		protected HashMap<Integer, DoubleFFT_1D> initialValue() {
+			return new HashMap<Integer, DoubleFFT_1D>();
+		}
+	};
+	private static final ThreadLocal<HashMap<Integer, FloatFFT_1D>> floatFFTPlans = new ThreadLocal<HashMap<Integer, FloatFFT_1D>>(){
+		@Override
+		protected HashMap<Integer, FloatFFT_1D> initialValue() {
+			return new HashMap<Integer, FloatFFT_1D>();
+		}
+	};
+	private static final ThreadLocal<double []> doubleScratch = new ThreadLocal<double []>();
+	private static final ThreadLocal<float []> floatScratch = new ThreadLocal<float []>();
+
+	/**
+	 * Returns a 1D FFT plan for the given size. The plans are cached per thread.
+	 * @param size the length of the transform
+	 * @return the plan
+	 */
+	public static DoubleFFT_1D getDoubleFFT1D(int size){
+		HashMap<Integer, DoubleFFT_1D> plans = doubleFFTPlans.get();
+		DoubleFFT_1D fft = plans.get(size);
+		if (fft == null) {
+			fft = new DoubleFFT_1D(size);
+			plans.put(size, fft);
+		}
+		return fft;
+	}
+
+	/**
+	 * Returns a 1D single precision FFT plan for the given size. The plans are cached per thread.
+	 * @param size the length of the transform
+	 * @return the plan
+	 */
+	public static FloatFFT_1D getFloatFFT1D(int size){
+		HashMap<Integer, FloatFFT_1D> plans = floatFFTPlans.get();
+		FloatFFT_1D fft = plans.get(size);
+		if (fft == null) {
+			fft = new FloatFFT_1D(size);
+			plans.put(size, fft);
+		}
+		return fft;
+	}
+
+	/**
+	 * Returns a scratch array of the current thread with at least the given length. The content is undefined.
+	 */
+	private static double [] getDoubleScratch(int length){
+		double [] scratch = doubleScratch.get();
+		if (scratch == null || scratch.length < length) {
+			scratch = new double[length];
+			doubleScratch.set(scratch);
+		}
+		return scratch;
+	}
+
+	private static float [] getFloatScratch(int length){
+		float [] scratch = floatScratch.get();
+		if (scratch == null || scratch.length < length) {
+			scratch = new float[length];
+			floatScratch.set(scratch);
+		}
+		return scratch;
+	}
+
+	private static double [] getRampFilterKernel(RampFilter ramp, int newDimension){
+		double [] kernel = ramp.getRampFilterKernel(newDimension);
+		if (kernel.length != newDimension) throw new IllegalArgumentException("Ramp filter " + ramp.getRampName() + " has " + kernel.length + " frequencies, but " + newDimension + " are required.");
+		return kernel;
+	}
+
 	public static void init1DFFT(int width){
 		DoubleFFT_1D fft = new DoubleFFT_1D(FFTUtil.getNextPowerOfTwo(width));
 		double [] test = new double [FFTUtil.getNextPowerOfTwo(width) * 2];
@@ -439,30 +518,84 @@ public abstract class FFTUtil {
 		maxN = Math.max(originalWidth, originalHeight);
 		int newDimension = FFTUtil.getNextPowerOfTwo(maxN); // Satisfy Nyquist?
 		// Write the data to JTransforms format
-		double [] fftData = new double[newDimension*2];	// Zero padding?
-		double [] filter = ramp.getRampFilter1D(newDimension);		
-		DoubleFFT_1D fft = new DoubleFFT_1D(newDimension);
+		double [] fftData = getDoubleScratch(newDimension*2);	// Zero padding?
+		double [] kernel = getRampFilterKernel(ramp, newDimension);
+		DoubleFFT_1D fft = getDoubleFFT1D(newDimension);
 		Grid2D revan = new Grid2D(originalWidth, originalHeight);
 		revan.setOrigin(imp.getOrigin());
 		revan.setSpacing(imp.getSpacing());
-		for (int j = 0;  j < imp.getHeight(); j++){
-			for (int i = 0 ; i < newDimension *2; i++){
-				fftData[i] = 0;
-			}
-			for (int i = 0 ; i < imp.getWidth(); i++){
-				fftData[i*2] = imp.getPixelValue(i, j);
+		float [] input = imp.getBuffer();
+		float [] output = revan.getBuffer();
+		for (int j = 0;  j < originalHeight; j++){
+			Arrays.fill(fftData, 0, newDimension*2, 0);
+			for (int i = 0 ; i < originalWidth; i++){
+				fftData[i*2] = input[j*originalWidth+i];
 			}
 			// Perform forward transform
 			fft.complexForward(fftData);
 			// Filter
-			fftData = FFTUtil.multiplyAbsolute(fftData, filter);
+			for (int i = 0; i < newDimension; i++){
+				fftData[2*i] *= kernel[i];
+				fftData[(2*i)+1] *= kernel[i];
+			}
 			// Perform backward transform
 			fft.complexInverse(fftData, true);
-			for (int i = 0 ; i< revan.getWidth(); i++){
-				double value = fftData[i*2];
-				revan.putPixelValue(i, j, value);
+			for (int i = 0 ; i< originalWidth; i++){
+				output[j*originalWidth+i] = (float) fftData[i*2];
 			}
 		}
+		revan.notifyAfterWrite();
+		return revan;
+	}
+
+	/**
+	 * Applies a ramp filter to the an ImageProcessor in single precision.<br>
+	 * As the ramp filter is real-valued and symmetric in Fourier domain, it maps real rows to real rows. Hence, two detector rows are filtered
+	 * with one complex transform: the first row is stored in the real part, the second row in the imaginary part.
+	 * @param imp the ImageProcessor to be filtered
+	 * @param ramp the ramp
+	 * @return the filtered ImageProcessor
+	 */
+	public static Grid2D applyRampFilterSinglePrecision(Grid2D imp, RampFilter ramp){
+		int originalWidth = imp.getWidth();
+		int originalHeight = imp.getHeight();
+		int newDimension = FFTUtil.getNextPowerOfTwo(Math.max(originalWidth, originalHeight));
+		float [] fftData = getFloatScratch(newDimension*2);
+		double [] kernel = getRampFilterKernel(ramp, newDimension);
+		FloatFFT_1D fft = getFloatFFT1D(newDimension);
+		Grid2D revan = new Grid2D(originalWidth, originalHeight);
+		revan.setOrigin(imp.getOrigin());
+		revan.setSpacing(imp.getSpacing());
+		float [] input = imp.getBuffer();
+		float [] output = revan.getBuffer();
+		for (int j = 0;  j < originalHeight; j += 2){
+			boolean pair = j + 1 < originalHeight;
+			Arrays.fill(fftData, 0, newDimension*2, 0);
+			int offset = j*originalWidth;
+			for (int i = 0 ; i < originalWidth; i++){
+				fftData[i*2] = input[offset+i];
+			}
+			if (pair) {
+				for (int i = 0 ; i < originalWidth; i++){
+					fftData[(i*2)+1] = input[offset+originalWidth+i];
+				}
+			}
+			fft.complexForward(fftData);
+			for (int i = 0; i < newDimension; i++){
+				fftData[2*i] *= kernel[i];
+				fftData[(2*i)+1] *= kernel[i];
+			}
+			fft.complexInverse(fftData, true);
+			for (int i = 0 ; i< originalWidth; i++){
+				output[offset+i] = fftData[i*2];
+			}
+			if (pair) {
+				for (int i = 0 ; i< originalWidth; i++){
+					output[offset+originalWidth+i] = fftData[(i*2)+1];
+				}
+			}
+		}
+		revan.notifyAfterWrite();
 		return revan;
 	}
 
@@ -480,20 +613,21 @@ public abstract class FFTUtil {
 		int newDimension = FFTUtil.getNextPowerOfTwo(maxN);
 		
 		// Write the data to JTransforms format
-		double [] fftData = new double[newDimension*2];
-		double [] filter = ramp.getRampFilter1D(newDimension);		
-		DoubleFFT_1D fft = new DoubleFFT_1D(newDimension);
+		double [] fftData = getDoubleScratch(newDimension*2);
+		double [] kernel = getRampFilterKernel(ramp, newDimension);
+		DoubleFFT_1D fft = getDoubleFFT1D(newDimension);
 		double [] revan = new double[originalWidth];
-		for (int i = 0 ; i < newDimension *2; i++){
-			fftData[i] = 0;
-		}
+		Arrays.fill(fftData, 0, newDimension*2, 0);
 		for (int i = 0 ; i < detectorRow.length; i++){
 			fftData[i*2] = detectorRow[i];
 		}
 		// Perform forward transform
 		fft.complexForward(fftData);
 		// Filter
-		fftData = FFTUtil.multiplyAbsolute(fftData, filter);
+		for (int i = 0; i < newDimension; i++){
+			fftData[2*i] *= kernel[i];
+			fftData[(2*i)+1] *= kernel[i];
+		}
 		// Perform backward transform
 		fft.complexInverse(fftData, true);
 		for (int i = 0 ; i< revan.length; i++){
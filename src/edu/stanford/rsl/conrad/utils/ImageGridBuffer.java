@@ -1,6 +1,13 @@
 package edu.stanford.rsl.conrad.utils;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.data.numeric.Grid3D;
@@ -10,21 +17,81 @@ import ij.ImageStack;
 /**
  * Class to buffer ImageProcessors which were processed in a parallel manner.
  * Can also be used to sort the ImageProcessors efficiently.
+ * <BR><BR>
+ * The images are stored in an array that is directly indexed by the image index. Hence, add, get, and remove are performed in constant time.
+ * Optionally, the number of images that are kept in memory can be limited. If the limit is exceeded, the image with the lowest index is
+ * written to a temporary file and is read from there again, if it is requested later on. As the pipeline streams the projections
+ * in ascending order, the images in memory are usually the ones in the current filter context.
+ * Note that {@link #get(int)} returns a new copy of a spilled image. Changes to this copy are only kept if the image is stored again with {@link #add(Grid2D, int)}.
+ *
  * @author akmaier
  *
  */
 public class ImageGridBuffer {
 
-	ArrayList<Grid2D> images;
-	ArrayList<Integer> indices;
+	private Grid2D [] images;
+	private BitSet indices;
+	private int size = 0;
 	private boolean debug = false;
 
+	private int maxImagesInMemory = -1;
+	private int imagesInMemory = 0;
+	private int lowestIndexInMemory = 0;
+	private File spillDirectory = null;
+	private File spillFile = null;
+	private RandomAccessFile spillStream = null;
+	private SpilledGrid [] spilled;
+
+	/**
+	 * Location and meta data of an image that was written to the spill file.
+	 */
+	private static class SpilledGrid {
+		long offset;
+		int width;
+		int height;
+		double [] spacing;
+		double [] origin;
+	}
+
 	/**
 	 * creates a new ImageProcessorBuffer object.
 	 */
 	public ImageGridBuffer (){
-		images = new ArrayList<Grid2D>();
-		indices = new ArrayList<Integer>();
+		images = new Grid2D[16];
+		indices = new BitSet();
+	}
+
+	/**
+	 * creates a new ImageProcessorBuffer object which holds at most maxImagesInMemory images in memory. Further images are written to a temporary file.
+	 * @param maxImagesInMemory the number of images to keep in memory
+	 * @param spillDirectory the directory for the temporary file. If null, the default temporary directory is used.
+	 */
+	public ImageGridBuffer (int maxImagesInMemory, File spillDirectory){
+		this();
+		if (maxImagesInMemory < 1) throw new IllegalArgumentException("At least one image must be kept in memory: " + maxImagesInMemory);
+		this.maxImagesInMemory = maxImagesInMemory;
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * Changes the number of images that are kept in memory. If the buffer holds more images, the ones with the lowest index are written to the spill file.
+	 * @param maxImagesInMemory the number of images to keep in memory or -1 to keep all images in memory
+	 */
+	public synchronized void setMaxImagesInMemory(int maxImagesInMemory){
+		if (maxImagesInMemory == 0 || maxImagesInMemory < -1) throw new IllegalArgumentException("At least one image must be kept in memory: " + maxImagesInMemory);
+		this.maxImagesInMemory = maxImagesInMemory;
+		if (maxImagesInMemory > 0) {
+			while (imagesInMemory > maxImagesInMemory) {
+				if (!spillLowest()) break;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of images that are kept in memory or -1 if all images are kept in memory
+	 */
+	public synchronized int getMaxImagesInMemory(){
+		return maxImagesInMemory;
 	}
 
 	public synchronized void set(Grid3D grid){
@@ -32,119 +99,220 @@ public class ImageGridBuffer {
 			add(grid.getSubGrid(i), i);
 		}
 	}
-	
+
+	private void ensureCapacity(int index){
+		if (index >= images.length) {
+			int newLength = Math.max(index + 1, images.length * 2);
+			images = Arrays.copyOf(images, newLength);
+			if (spilled != null) spilled = Arrays.copyOf(spilled, newLength);
+		}
+	}
+
 	/**
 	 * adds the Image at index i; Previous entry will be overwritten.
 	 * @param image
 	 * @param index
 	 */
 	public synchronized void add(Grid2D image, int index){
-		Integer key = new Integer(index);
-		if (!indices.contains(key)){ // Insert
-			if (debug) System.out.println("ImageProcessorBuffer: Duplicate Index replacing " + key);
-			images.add(image);
-			indices.add(key);
+		if (index < 0) throw new IndexOutOfBoundsException("Negative index " + index);
+		ensureCapacity(index);
+		if (!indices.get(index)){ // Insert
+			indices.set(index);
+			size++;
 		} else { // Overwrite
-			for (int i = 0; i < indices.size(); i++){
-				if (indices.get(i).equals(key)){
-					if (debug) System.out.println("ImageProcessorBuffer: Duplicate Index replacing " + key);
-					images.set(i, image);
-					break;
-				}
+			if (debug) System.out.println("ImageProcessorBuffer: Duplicate Index replacing " + index);
+			if (spilled != null) spilled[index] = null;
+		}
+		if (images[index] == null && image != null) imagesInMemory++;
+		if (images[index] != null && image == null) imagesInMemory--;
+		images[index] = image;
+		if (index < lowestIndexInMemory) lowestIndexInMemory = index;
+		if (maxImagesInMemory > 0) {
+			while (imagesInMemory > maxImagesInMemory) {
+				if (!spillLowest()) break;
 			}
 		}
 	}
 
 	/**
-	 * Returns the internal index of the given external index.
-	 * It is used to access the arrayLists.
-	 * 
-	 * @param externalIndex the external index position
-	 * @return the position in the internal ArrayList.
+	 * Writes the image with the lowest index in memory to the spill file.
+	 * @return false if no image could be written.
 	 */
-	private synchronized int internalIndex(int externalIndex){
-		int internalIndex = -1;
-		if (debug) System.out.println("ImageProcessorBuffer: Requested Index " + externalIndex + "; current size = " +indices.size());
-		for (int i = 0; i < indices.size(); i++){
-			if (indices.get(i) != null) {
-				if (indices.get(i).intValue() == externalIndex){
-					internalIndex = i;
-					if (debug) System.out.println("ImageProcessorBuffer: Index delivered " + externalIndex + "; current size = " +indices.size());
-					break;
+	private boolean spillLowest(){
+		for (int i = lowestIndexInMemory; i < images.length; i++){
+			// sub classes of Grid2D could not be restored from the file.
+			if (images[i] != null && images[i].getClass() == Grid2D.class){
+				try {
+					spill(i);
+					lowestIndexInMemory = i + 1;
+					return true;
+				} catch (IOException e){
+					CONRAD.log("ImageGridBuffer: Could not write to spill file. Keeping all images in memory. " + e.getLocalizedMessage());
+					maxImagesInMemory = -1;
+					return false;
 				}
-			} else {
-				System.out.println("ImageProcessorBuffer internal error.");
-				System.exit(-1);
 			}
 		}
-		return internalIndex;
+		return false;
+	}
+
+	private void spill(int index) throws IOException{
+		if (spillStream == null) {
+			spillFile = File.createTempFile("ImageGridBuffer", ".raw", spillDirectory);
+			spillFile.deleteOnExit();
+			spillStream = new RandomAccessFile(spillFile, "rw");
+		}
+		if (spilled == null) spilled = new SpilledGrid[images.length];
+		Grid2D image = images[index];
+		SpilledGrid entry = new SpilledGrid();
+		entry.width = image.getWidth();
+		entry.height = image.getHeight();
+		entry.spacing = image.getSpacing().clone();
+		entry.origin = image.getOrigin().clone();
+		FileChannel channel = spillStream.getChannel();
+		entry.offset = channel.size();
+		ByteBuffer bytes = ByteBuffer.allocate(entry.width * entry.height * 4).order(ByteOrder.nativeOrder());
+		bytes.asFloatBuffer().put(image.getBuffer());
+		long position = entry.offset;
+		while (bytes.hasRemaining()) {
+			position += channel.write(bytes, position);
+		}
+		spilled[index] = entry;
+		images[index] = null;
+		imagesInMemory--;
+		if (debug) System.out.println("ImageProcessorBuffer: Spilled index " + index);
+	}
+
+	private Grid2D restore(int index) throws IOException{
+		SpilledGrid entry = spilled[index];
+		ByteBuffer bytes = ByteBuffer.allocate(entry.width * entry.height * 4).order(ByteOrder.nativeOrder());
+		FileChannel channel = spillStream.getChannel();
+		long position = entry.offset;
+		while (bytes.hasRemaining()) {
+			int read = channel.read(bytes, position);
+			if (read < 0) throw new IOException("Unexpected end of spill file at index " + index);
+			position += read;
+		}
+		bytes.flip();
+		Grid2D image = new Grid2D(entry.width, entry.height);
+		bytes.asFloatBuffer().get(image.getBuffer());
+		image.setSpacing(entry.spacing);
+		image.setOrigin(entry.origin);
+		return image;
 	}
 
 	/**
 	 * Returns the ImageProcessor at index index.
 	 * Returns null if the index is not found.
+	 * Images that were written to the spill file are read again, but are not kept in memory. Thus, a spilled image is returned as a new copy
+	 * on every call, and changes to it are lost unless it is stored again with {@link #add(Grid2D, int)}.
 	 * @param index the index
 	 * @return the ImageProcessor
 	 */
 	public synchronized Grid2D get(int index){
-		Grid2D revan = null;
-		int pos = internalIndex(index);
-		if (pos != -1) revan = images.get(pos);
+		if (index < 0 || index >= images.length) return null;
+		Grid2D revan = images[index];
+		if (revan == null && spilled != null && spilled[index] != null) {
+			try {
+				revan = restore(index);
+			} catch (IOException e) {
+				throw new RuntimeException("ImageGridBuffer: Could not read index " + index + " from spill file.", e);
+			}
+		}
 		return revan;
 	}
 
+	/**
+	 * Checks whether an image is available at the given index without reading it from the spill file.
+	 * @param index the index
+	 * @return true, if get(index) would return an image.
+	 */
+	public synchronized boolean contains(int index){
+		if (index < 0 || index >= images.length) return false;
+		return images[index] != null || (spilled != null && spilled[index] != null);
+	}
+
 	/**
 	 * Removes the image at the given index.
 	 * @param index the index.
 	 */
 	public synchronized void remove (int index){
-		int pos = internalIndex(index);
-		images.set(pos, null);
+		if (index < 0 || index >= images.length) return;
+		if (images[index] != null) imagesInMemory--;
+		images[index] = null;
+		if (spilled != null) spilled[index] = null;
 	}
 
 	/**
-	 * Returns a sorted array of the buffered ImageProcessors 
+	 * Returns a sorted array of the buffered ImageProcessors
 	 * @return the array.
 	 */
 	public synchronized Grid2D [] toArray(){
-		if (debug) System.out.println("ImageProcessorBuffer: Creating array with length " + images.size());
-		Grid2D[] array = new Grid2D[images.size()];
-		for (int i = 0; i< array.length; i++){
-			int index = indices.get(i).intValue();
-			array[index] = images.get(i);
+		if (debug) System.out.println("ImageProcessorBuffer: Creating array with length " + size);
+		Grid2D[] array = new Grid2D[size];
+		for (int i = indices.nextSetBit(0); i >= 0 && i < array.length; i = indices.nextSetBit(i + 1)){
+			array[i] = get(i);
 		}
 		return array;
 	}
-	
+
 	/**
-	 * Returns a sorted ImagePlus of the buffered ImageProcessors 
+	 * Returns a sorted ImagePlus of the buffered ImageProcessors
 	 * @return the ImagePlus.
 	 */
 	public synchronized ImagePlus toImagePlus(String title){
-		if (debug) System.out.println("ImageProcessorBuffer: Creating ImagePlus with length " + images.size());
+		if (debug) System.out.println("ImageProcessorBuffer: Creating ImagePlus with length " + size);
+		Grid2D [] array = toArray();
+		Grid2D first = null;
+		for (int i = 0; i < array.length && first == null; i++){
+			first = array[i];
+		}
 		ImagePlus image = new ImagePlus();
-		ImageStack stack = new ImageStack(images.get(0).getWidth(), images.get(0).getHeight(), images.size());
+		ImageStack stack = new ImageStack(first.getWidth(), first.getHeight(), array.length);
 		stack.setColorModel(ImageUtil.getDefaultColorModel());
-		for (int i = 0; i< images.size(); i++){
-			int index = indices.get(i).intValue();
-			stack.setPixels(images.get(i).getBuffer(), index + 1);
+		for (int i = 0; i< array.length; i++){
+			if (array[i] != null) stack.setPixels(array[i].getBuffer(), i + 1);
 		}
 		image.setStack(title, stack);
 		return image;
 	}
 
 	/**
-	 * returns the number of stored ImageProcessors
+	 * returns the number of stored ImageProcessors, i.e. the number of different indices that were added. Removing an image does not decrease the size.
 	 * @return the number
 	 */
 	public synchronized int size(){
-		return images.size();
+		return size;
 	}
 
+	/**
+	 * @return the number of images that are currently held in memory
+	 */
+	public synchronized int getNumberOfImagesInMemory(){
+		return imagesInMemory;
+	}
 
+	/**
+	 * Releases all images and deletes the spill file, if it was created.
+	 */
+	public synchronized void dispose(){
+		Arrays.fill(images, null);
+		imagesInMemory = 0;
+		spilled = null;
+		if (spillStream != null) {
+			try {
+				spillStream.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			spillStream = null;
+			spillFile.delete();
+			spillFile = null;
+		}
+	}
 
 }
 /*
  * Copyright (C) 2010-2014  Andreas Maier
  * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
-*/
\ No newline at end of file
+*/
@@ -0,0 +1,89 @@
+package edu.stanford.rsl.conrad.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import edu.stanford.rsl.conrad.data.numeric.Grid2D;
+
+public class ImageGridBufferTest {
+
+	private static final int WIDTH = 5, HEIGHT = 3;
+
+	private static Grid2D createImage(int index){
+		Grid2D image = new Grid2D(WIDTH, HEIGHT);
+		for (int i = 0; i < WIDTH * HEIGHT; i++){
+			image.getBuffer()[i] = (index * 100) + i;
+		}
+		image.setSpacing(0.5 + index, 2.0);
+		image.setOrigin(-index, 3.0);
+		return image;
+	}
+
+	private static File createDirectory(){
+		File directory = new File(System.getProperty("java.io.tmpdir"), "ImageGridBufferTest" + System.nanoTime());
+		directory.mkdirs();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	@Test
+	public void testOverfilledBufferIsReadBack() {
+		File directory = createDirectory();
+		ImageGridBuffer buffer = new ImageGridBuffer(3, directory);
+		int numberOfImages = 10;
+		// images arrive slightly out of order as in the pipeline
+		int [] order = {1, 0, 2, 3, 5, 4, 6, 7, 9, 8};
+		for (int index : order){
+			buffer.add(createImage(index), index);
+			assertTrue(buffer.getNumberOfImagesInMemory() <= 3);
+		}
+		assertEquals(numberOfImages, buffer.size());
+		assertEquals(1, directory.listFiles().length);
+		for (int index = 0; index < numberOfImages; index++){
+			assertTrue(buffer.contains(index));
+			Grid2D image = buffer.get(index);
+			assertNotNull(image);
+			assertArrayEquals(createImage(index).getBuffer(), image.getBuffer(), 0);
+			assertArrayEquals(createImage(index).getSpacing(), image.getSpacing(), 0);
+			assertArrayEquals(createImage(index).getOrigin(), image.getOrigin(), 0);
+		}
+		Grid2D [] array = buffer.toArray();
+		assertEquals(numberOfImages, array.length);
+		assertArrayEquals(createImage(0).getBuffer(), array[0].getBuffer(), 0);
+		buffer.dispose();
+		assertEquals(0, directory.listFiles().length);
+		directory.delete();
+	}
+
+	@Test
+	public void testChangesOfSpilledImagesRequireAdd() {
+		File directory = createDirectory();
+		ImageGridBuffer buffer = new ImageGridBuffer(1, directory);
+		buffer.add(createImage(0), 0);
+		buffer.add(createImage(1), 1);
+		// image 0 is spilled. Thus, get returns a copy.
+		buffer.get(0).getBuffer()[0] = -1;
+		assertEquals(0, buffer.get(0).getBuffer()[0], 0);
+		Grid2D changed = buffer.get(0);
+		changed.getBuffer()[0] = -1;
+		buffer.add(changed, 0);
+		assertEquals(-1, buffer.get(0).getBuffer()[0], 0);
+		// raising the limit does not lose images
+		buffer.setMaxImagesInMemory(4);
+		assertEquals(-1, buffer.get(0).getBuffer()[0], 0);
+		assertArrayEquals(createImage(1).getBuffer(), buffer.get(1).getBuffer(), 0);
+		buffer.dispose();
+		directory.delete();
+	}
+
+}
+/*
+ * Copyright (C) 2010-2014 Andreas Maier
+ * CONRAD is developed as an Open Source project under the GNU General Public License (GPL).
+*/
@@ -191,6 +191,39 @@ public abstract class RegKeys {
 	 */
 	public static final String SPLINE_SUBSAMPLING_FACTOR = "SPLINE_SUBSAMPLING_FACTOR";
 	
+	/**
+	 * Entry to keep the most recently tessellated scenes of 4D XCAT phantoms in memory. Scenes at the same warped time, e.g. the same phase of
+	 * later heart beats, are then copied instead of tessellated again. Each scene may require a lot of memory.<br>
+	 * The <b>value</b> is an <b>Integer</b> defining the number of scenes. Default is "0", i.e. no cache.
+	 * 
+	 * @see edu.stanford.rsl.conrad.phantom.xcat.XCatScene#getScene(double)
+	 */
+	public static final String XCAT_SCENE_CACHE_SIZE = "XCAT_SCENE_CACHE_SIZE";
+	
+	/**
+	 * Entry to evaluate the motion field of the motion-compensated backprojection only on a coarser grid of voxels. The displacements of all other voxels
+	 * are interpolated trilinearly. This is much faster and requires less memory than the exact evaluation at every voxel.<br>
+	 * The <b>value</b> is an <b>Integer</b> defining the distance of the grid nodes in voxels. Default is "0", i.e. exact evaluation at every voxel.
+	 * 
+	 * @see edu.stanford.rsl.conrad.reconstruction.MotionCompensatedVOIBasedReconstructionFilter
+	 */
+	public static final String MOTION_DISPLACEMENT_GRID_SUBSAMPLING = "MOTION_DISPLACEMENT_GRID_SUBSAMPLING";
+	
+	/**
+	 * Entry to keep the parsed spline files, e.g. of the XCat phantom, in binary cache files. Later loads of the same file read the cache file instead of parsing the text.
+	 * A cache file is only used if the spline file did not change since it was written.<br>
+	 * The <b>value</b> is a <b>Boolean</b>. Default is "true".
+	 * 
+	 * @see edu.stanford.rsl.conrad.geometry.splines.SplineFileCache
+	 */
+	public static final String SPLINE_BINARY_CACHE = "SPLINE_BINARY_CACHE";
+	
+	/**
+	 * Entry to set the directory for the files of {@link #SPLINE_BINARY_CACHE}. If not set, the directory "conrad-spline-cache" in the default temporary directory is used.<br>
+	 * The <b>value</b> is a <b>String</b> indicating the path to the directory.
+	 */
+	public static final String SPLINE_BINARY_CACHE_DIRECTORY = "SPLINE_BINARY_CACHE_DIRECTORY";
+	
 	/**
 	 * Entry to select a preprocessed 4D time spline.<BR>
 	 * The <b>value</b> is a <b>String</b> representation of a file location. The file must contain the 4D spline. 
@@ -237,7 +270,9 @@ public abstract class RegKeys {
 	/**
 	 * Entry to describe the slow down value, if the memory gets too full during the processing.
 	 * The higher the value, the more the system will wait, until the next projection is read.
+	 * @deprecated The pipeline is now slowed down by its bounded queues. See {@link #PIPELINE_QUEUE_CAPACITY}.
 	 */
+	@Deprecated
 	public static final String SLOW_DOWN_MS = "SLOW_DOWN_MS";
 	
 	/**
@@ -345,6 +380,99 @@ public abstract class RegKeys {
 	 */
 	public static final String TRAJECTORY_OUT_OF_PLANE_ROTATION = "TRAJECTORY_OUT_OF_PLANE_ROTATION";
 	
+	/**
+	 * Entry to select how the CPU-based backprojectors accumulate their updates into the reconstruction volume.<br>
+	 * The <b>value</b> is a <b>String</b> with the name of a VolumeAccumulationMode, i.e. "SYNCHRONIZED", "THREAD_LOCAL", or "SLAB".
+	 * Default is "SYNCHRONIZED".
+	 * 
+	 * @see edu.stanford.rsl.conrad.reconstruction.VolumeAccumulationMode
+	 */
+	public static final String BACKPROJECTION_ACCUMULATION_MODE = "BACKPROJECTION_ACCUMULATION_MODE";
+	
+	/**
+	 * Entry to set the number of projections that the CPU-based VOI backprojector processes in one sweep over the volume.
+	 * More projections per sweep reduce the number of passes over the volume memory.<br>
+	 * The <b>value</b> is a <b>String</b> representation of an integer number. Default is "4".
+	 * 
+	 * @see edu.stanford.rsl.conrad.reconstruction.VOIBasedReconstructionFilter
+	 */
+	public static final String BACKPROJECTION_PROJECTIONS_PER_SWEEP = "BACKPROJECTION_PROJECTIONS_PER_SWEEP";
+	
+	/**
+	 * Entry to set the number of projections that may wait in front of a parallel stage of the filter pipeline.
+	 * If the queue is full, the previous stage is blocked until the filters caught up. This limits the memory consumption of the pipeline.<br>
+	 * MultiProjectionFilters use the same limit for the projections that wait for processing, but always accept the projections of their context.<br>
+	 * The <b>value</b> is a <b>String</b> representation of an integer number. If not set, twice the number of threads is used.
+	 * 
+	 * @see edu.stanford.rsl.conrad.pipeline.BlockingProjectionQueue
+	 * @see edu.stanford.rsl.conrad.filtering.multiprojection.MultiProjectionFilter
+	 */
+	public static final String PIPELINE_QUEUE_CAPACITY = "PIPELINE_QUEUE_CAPACITY";
+	
+	/**
+	 * Entry to limit the number of projections that a MultiProjectionFilter keeps in memory. Further projections are written to a temporary file
+	 * and are read again on demand. The projections of the current filter context are always kept in memory. If not set, all projections are kept in memory.
+	 * Only applies to filters that do not modify their input in place, e.g. the reconstruction filters.<br>
+	 * The <b>value</b> is a <b>String</b> representation of an integer number.
+	 * 
+	 * @see edu.stanford.rsl.conrad.utils.ImageGridBuffer
+	 * @see edu.stanford.rsl.conrad.filtering.multiprojection.MultiProjectionFilter#modifiesProjectionsInPlace()
+	 */
+	public static final String PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY = "PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY";
+	
+	/**
+	 * Entry to set the directory for the temporary files of {@link #PROJECTION_BUFFER_MAX_IMAGES_IN_MEMORY}. If not set, the default temporary directory is used.<br>
+	 * The <b>value</b> is a <b>String</b> indicating the path to the directory.
+	 */
+	public static final String PROJECTION_BUFFER_SPILL_DIRECTORY = "PROJECTION_BUFFER_SPILL_DIRECTORY";
+	
+	/**
+	 * Entry to decide whether point-wise operations on CPU grids, e.g. sum, dotProduct, or addBy, are computed in parallel.<br>
+	 * The <b>value</b> is a <b>String</b> representation of a boolean. Default is "true".
+	 * 
+	 * @see edu.stanford.rsl.conrad.data.numeric.ParallelNumericGridOperator
+	 */
+	public static final String PARALLEL_GRID_OPERATORS = "PARALLEL_GRID_OPERATORS";
+	
+	/**
+	 * Entry to filter projections with the RampFilteringTool in single precision. Two detector rows are then filtered with one complex FFT.<br>
+	 * The <b>value</b> is a <b>String</b> representation of a boolean. Default is "false".
+	 * 
+	 * @see edu.stanford.rsl.conrad.utils.FFTUtil#applyRampFilterSinglePrecision(edu.stanford.rsl.conrad.data.numeric.Grid2D, edu.stanford.rsl.conrad.filtering.rampfilters.RampFilter)
+	 */
+	public static final String RAMP_FILTER_SINGLE_PRECISION = "RAMP_FILTER_SINGLE_PRECISION";
+	
+	/**
+	 * Entry to open uncompressed NRRD and Dennerlein projection files with a memory-mapped ProjectionSource, which also allows random access to the projections.<br>
+	 * The <b>value</b> is a <b>String</b> representation of a boolean. Default is "false".
+	 * 
+	 * @see edu.stanford.rsl.conrad.io.MappedFileProjectionSource
+	 */
+	public static final String MEMORY_MAPPED_PROJECTIONS = "MEMORY_MAPPED_PROJECTIONS";
+	
+	/**
+	 * Entry to store reconstructed volumes outside of the Java heap. Allows the reconstruction of volumes which are larger than the heap.<br>
+	 * The <b>value</b> is a <b>String</b> representation of a boolean. Default is "false".
+	 * 
+	 * @see edu.stanford.rsl.conrad.data.numeric.BufferedGrid3D
+	 */
+	public static final String OFF_HEAP_VOLUMES = "OFF_HEAP_VOLUMES";
+	
+	/**
+	 * Entry to cache the rows of the system matrix of the ray-driven iterative reconstruction. Repeated iterations with the same geometry
+	 * then replay the stored weights instead of casting the rays again.<br>
+	 * The <b>value</b> is a <b>String</b> with the name of a RaySystemMatrix.CacheMode, i.e. "NONE", "MEMORY", or "DISK". Default is "NONE".
+	 * 
+	 * @see edu.stanford.rsl.conrad.reconstruction.iterative.RaySystemMatrix
+	 */
+	public static final String RAY_SYSTEM_MATRIX_CACHE = "RAY_SYSTEM_MATRIX_CACHE";
+	
+	/**
+	 * Entry to set the directory for the files of {@link #RAY_SYSTEM_MATRIX_CACHE} in mode "DISK". If not set, the default temporary directory is used.<br>
+	 * The <b>value</b> is a <b>String</b> indicating the path to the directory.
+	 */
+	public static final String RAY_SYSTEM_MATRIX_CACHE_DIRECTORY = "RAY_SYSTEM_MATRIX_CACHE_DIRECTORY";
+	
 	static {
 		defaultValues = new HashMap<String, String>();
 		defaultValues.put(SLOW_DOWN_MS, "10");
@@ -353,6 +481,16 @@ public abstract class RegKeys {
 		defaultValues.put(ED_PHANTOM_BONE_RING, "false");
 		defaultValues.put(ED_PHANTOM_CENTERAL_BUFFER_DIAMETER, "15");
 		defaultValues.put(CONRAD_WINDOW_DEFAULT_LOCATION, "[0,0]");
+		defaultValues.put(BACKPROJECTION_ACCUMULATION_MODE, "SYNCHRONIZED");
+		defaultValues.put(BACKPROJECTION_PROJECTIONS_PER_SWEEP, "4");
+		defaultValues.put(PARALLEL_GRID_OPERATORS, "true");
+		defaultValues.put(RAMP_FILTER_SINGLE_PRECISION, "false");
+		defaultValues.put(MEMORY_MAPPED_PROJECTIONS, "false");
+		defaultValues.put(OFF_HEAP_VOLUMES, "false");
+		defaultValues.put(RAY_SYSTEM_MATRIX_CACHE, "NONE");
+		defaultValues.put(XCAT_SCENE_CACHE_SIZE, "0");
+		defaultValues.put(MOTION_DISPLACEMENT_GRID_SUBSAMPLING, "0");
+		defaultValues.put(SPLINE_BINARY_CACHE, "true");
 	}
 	
 }
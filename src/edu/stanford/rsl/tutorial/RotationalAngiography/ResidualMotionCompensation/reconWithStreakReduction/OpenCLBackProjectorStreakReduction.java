@@ -343,7 +343,7 @@ public class OpenCLBackProjectorStreakReduction extends VOIBasedReconstructionFi
 						for (int j = 0; j < height; j++){
 							for (int i = 0; i < width; i++){			
 								float value = h_volume[(((height * k) + j) * width) + i];
-								if (voiMap[i][j][k]) {
+								if (voiMap.contains(i, j, k)) {
 									projectionVolume.setAtIndex(i, j, k, value);
 								} else {
 									projectionVolume.setAtIndex(i, j, k, 0);
@@ -690,6 +690,11 @@ public class OpenCLBackProjectorStreakReduction extends VOIBasedReconstructionFi
 		this.forceSmallVolume = forceSmallVolume;
 	}
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Martin Berger
@@ -6,6 +6,8 @@ import edu.stanford.rsl.conrad.data.numeric.Grid2D;
 import edu.stanford.rsl.conrad.data.numeric.Grid3D;
 import edu.stanford.rsl.conrad.data.numeric.NumericGrid;
 import edu.stanford.rsl.conrad.data.numeric.NumericGridOperator;
+import edu.stanford.rsl.conrad.reconstruction.CPUForwardProjector;
+import edu.stanford.rsl.conrad.utils.Configuration;
 import edu.stanford.rsl.tutorial.cone.ConeBeamBackprojector;
 import edu.stanford.rsl.tutorial.cone.ConeBeamProjector;
 
@@ -28,8 +30,8 @@ public class SartCPU implements Sart {
 	// -----------------------------------------
 	protected boolean verbose = false;
 	protected boolean debug = false;
-	protected final static boolean USE_CL_FP = true;	// GPU acceleration
-	protected final static boolean USE_CL_BP = true;	// GPU acceleration
+	protected final static boolean USE_CL_FP = false;	// GPU acceleration
+	protected final static boolean USE_CL_BP = false;	// GPU acceleration
 	// -----------------------------------------
 
 	public SartCPU(int[] volDims, double[] spacing, double[] origin, Grid3D oProj,
@@ -79,9 +81,8 @@ public class SartCPU implements Sart {
 			System.out.println("Create normalized projections");
 		final Grid3D onesVol = new Grid3D(vol);
 		gop.fill(onesVol, 1.0f);
-		ConeBeamProjector cbp = new ConeBeamProjector();
-		Grid3D sino = USE_CL_FP ? cbp.projectRayDrivenCL(onesVol) : cbp
-				.projectPixelDriven(onesVol);
+		Grid3D sino = USE_CL_FP ? new ConeBeamProjector().projectRayDrivenCL(onesVol) : new CPUForwardProjector()
+				.project(onesVol);
 		
 		if(verbose)
 			sino.show("sinoOfNormProjs");
@@ -98,9 +99,10 @@ public class SartCPU implements Sart {
 	}
 
 	public void iterate(final int iter) throws Exception {
-		ConeBeamProjector cbp = new ConeBeamProjector();
+		ConeBeamProjector cbp = USE_CL_FP ? new ConeBeamProjector() : null;
+		CPUForwardProjector cpuProjector = new CPUForwardProjector();
 		ConeBeamBackprojector cbbp = new ConeBeamBackprojector();
-		int numProjs = cbp.getMaxProjections();
+		int numProjs = Configuration.getGlobalConfiguration().getGeometry().getProjectionStackSize();
 		for (int i = 0; i < iter; ++i) {
 
 			boolean[] projIsUsed = new boolean[numProjs]; // default: false
@@ -109,12 +111,12 @@ public class SartCPU implements Sart {
 			for (int n = 0; n < numProjs; ++n) {
 				/* edit/init data structures */
 				projIsUsed[p] = true;
-				Grid2D sino = USE_CL_FP ? cbp.projectRayDrivenCL(vol, p) : cbp
-						.projectPixelDriven(vol, p);
+				Grid2D sino = USE_CL_FP ? cbp.projectRayDrivenCL(vol, p) : cpuProjector
+						.project(vol, p);
 				sino = gop.transpose(sino);
 				if(debug && 0 < gop.normL1(vol)){
-					Grid3D sinoTest = USE_CL_FP ? cbp.projectRayDrivenCL(vol) : cbp
-							.projectPixelDriven(vol);
+					Grid3D sinoTest = USE_CL_FP ? cbp.projectRayDrivenCL(vol) : cpuProjector
+							.project(vol);
 					Grid2D sinoTestP = sinoTest.getSubGrid(p);
 					sinoTest.show("sinoCL-Test");
 					sinoTestP.show("sinoCL-Test-Proj:" + p);
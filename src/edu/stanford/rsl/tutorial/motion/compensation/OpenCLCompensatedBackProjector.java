@@ -269,7 +269,7 @@ public class OpenCLCompensatedBackProjector extends VOIBasedReconstructionFilter
 						for (int j = 0; j < height; j++){
 							for (int i = 0; i < width; i++){			
 								float value = h_volume[(((height * k) + j) * width) + i];
-								if (voiMap[i][j][k]) {
+								if (voiMap.contains(i, j, k)) {
 									projectionVolume.setAtIndex(i, j, k, value);
 								} else {
 									projectionVolume.setAtIndex(i, j, k, 0);
@@ -619,6 +619,11 @@ public class OpenCLCompensatedBackProjector extends VOIBasedReconstructionFilter
 	}
 	
 	
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Marco Bgel
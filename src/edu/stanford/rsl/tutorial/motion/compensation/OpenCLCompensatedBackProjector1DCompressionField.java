@@ -269,7 +269,7 @@ public class OpenCLCompensatedBackProjector1DCompressionField extends VOIBasedRe
 						for (int j = 0; j < height; j++){
 							for (int i = 0; i < width; i++){			
 								float value = h_volume[(((height * k) + j) * width) + i];
-								if (voiMap[i][j][k]) {
+								if (voiMap.contains(i, j, k)) {
 									projectionVolume.setAtIndex(i, j, k, value);
 								} else {
 									projectionVolume.setAtIndex(i, j, k, 0);
@@ -623,6 +623,11 @@ public class OpenCLCompensatedBackProjector1DCompressionField extends VOIBasedRe
 	}
 	
 	
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Marco Bgel
@@ -270,7 +270,7 @@ public class OpenCLCompensatedBackProjectorTPS extends VOIBasedReconstructionFil
 						for (int j = 0; j < height; j++){
 							for (int i = 0; i < width; i++){			
 								float value = h_volume[(((height * k) + j) * width) + i];
-								if (voiMap[i][j][k]) {
+								if (voiMap.contains(i, j, k)) {
 									projectionVolume.setAtIndex(i, j, k, value);
 								} else {
 									projectionVolume.setAtIndex(i, j, k, 0);
@@ -756,6 +756,11 @@ public class OpenCLCompensatedBackProjectorTPS extends VOIBasedReconstructionFil
 	}
 
 
+	@Override
+	protected boolean supportsBatchedBackprojection(){
+		return false;
+	}
+
 }
 /*
  * Copyright (C) 2010-2014 Marco B�gel